@@ -0,0 +1,20 @@
+uniform mat4 u_Matrix;                    // View-projection
+
+attribute vec4 a_Position;
+// Per instance: the first three rows of the model matrix, and the colour.
+attribute vec4 a_ModelRow0;
+attribute vec4 a_ModelRow1;
+attribute vec4 a_ModelRow2;
+attribute vec4 a_Color;
+
+varying vec4 v_Color;
+
+void main()
+{
+    vec4 worldPosition = vec4(dot(a_ModelRow0, a_Position),
+                              dot(a_ModelRow1, a_Position),
+                              dot(a_ModelRow2, a_Position),
+                              1.0);
+    v_Color = a_Color;
+    gl_Position = u_Matrix * worldPosition;
+}
@@ -0,0 +1,20 @@
+uniform mat4 u_Matrix;                    // View-projection
+// Per instance of the batch: the first three rows of the model matrix, and
+// the colour. 24 instances, InstancedColorShaderProgram.MAX_UNIFORM_INSTANCES.
+uniform vec4 u_Instances[96];
+
+attribute vec4 a_Position;
+attribute float a_InstanceIndex;
+
+varying vec4 v_Color;
+
+void main()
+{
+    int instance = int(a_InstanceIndex) * 4;
+    vec4 worldPosition = vec4(dot(u_Instances[instance], a_Position),
+                              dot(u_Instances[instance + 1], a_Position),
+                              dot(u_Instances[instance + 2], a_Position),
+                              1.0);
+    v_Color = u_Instances[instance + 3];
+    gl_Position = u_Matrix * worldPosition;
+}
@@ -20,6 +20,9 @@ import android.util.FloatMath;
 import android.view.MotionEvent;
 import android.widget.Toast;
 
+import com.airhockey.android.render.GL;
+import com.airhockey.android.render.GLES30Backend;
+
 public class AirHockeyActivity extends Activity {
     /**
      * Hold a reference to our GLSurfaceView
@@ -53,12 +56,22 @@ public class AirHockeyActivity extends Activity {
                   || Build.MODEL.contains("Emulator")
                   || Build.MODEL.contains("Android SDK built for x86")));
 
+        // An ES 3.0 context adds vertex array objects. GLES30 needs API 18.
+        final boolean supportsEs3 =
+            configurationInfo.reqGlEsVersion >= 0x30000
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
         final AirHockeyRenderer airHockeyRenderer = new AirHockeyRenderer(this);
         
         if (supportsEs2) {
             // ...
             // Request an OpenGL ES 2.0 compatible context.
-            glSurfaceView.setEGLContextClientVersion(2);
+            if (supportsEs3) {
+                glSurfaceView.setEGLContextClientVersion(3);
+                GL.setBackend(new GLES30Backend());
+            } else {
+                glSurfaceView.setEGLContextClientVersion(2);
+            }
 
             // Assign our renderer.
             glSurfaceView.setRenderer(airHockeyRenderer);
@@ -11,450 +11,475 @@ package com.airhockey.android;
 import static android.opengl.GLES20.GL_COLOR_BUFFER_BIT;
 import static android.opengl.GLES20.GL_DEPTH_TEST;
 import static android.opengl.GLES20.GL_DEPTH_BUFFER_BIT;
-import static android.opengl.GLES20.GL_FRONT_AND_BACK;
-import static android.opengl.GLES20.GL_LINES;
-import static android.opengl.GLES20.GL_TEXTURE_2D;
-import static android.opengl.GLES20.glClear;
-import static android.opengl.GLES20.glClearColor;
-import static android.opengl.GLES20.glViewport;
-import static android.opengl.GLES20.glEnable;
-import static android.opengl.GLES20.*;
-import static android.opengl.Matrix.invertM;
-import static android.opengl.Matrix.multiplyMM;
-import static android.opengl.Matrix.multiplyMV;
-import static android.opengl.Matrix.rotateM;
-import static android.opengl.Matrix.setIdentityM;
-import static android.opengl.Matrix.setLookAtM;
-import static android.opengl.Matrix.translateM;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import static android.opengl.GLES20.GL_DITHER;
+import static android.opengl.GLES20.GL_EXTENSIONS;
+import static com.airhockey.android.render.GL.glClear;
+import static com.airhockey.android.render.GL.glClearColor;
+import static com.airhockey.android.render.GL.glViewport;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import android.content.Context;
 import android.opengl.GLSurfaceView.Renderer;
-import android.opengl.Matrix;
+import android.util.Log;
 
-import com.airhockey.android.objects.Chair;
-import com.airhockey.android.objects.Desk;
+import com.airhockey.android.data.VertexFormat;
+import com.airhockey.android.net.NetSession;
+import com.airhockey.android.net.PacketTransport;
 
-import com.airhockey.android.objects.Background;
-import com.airhockey.android.objects.Mallet;
-import com.airhockey.android.objects.NoteBook_Keyboard;
-import com.airhockey.android.objects.NoteBook_Upper;
-import com.airhockey.android.objects.Puck;
-import com.airhockey.android.objects.Stand;
-import com.airhockey.android.objects.Table;
+import com.airhockey.android.objects.InstancedMesh;
+import com.airhockey.android.physics.PhysicsWorld;
 import com.airhockey.android.programs.ColorShaderProgram;
+import com.airhockey.android.programs.InstancedColorShaderProgram;
 import com.airhockey.android.programs.TextureShaderProgram;
-import com.airhockey.android.util.Geometry;
-import com.airhockey.android.util.Geometry.Plane;
-import com.airhockey.android.util.Geometry.Point;
-import com.airhockey.android.util.Geometry.Ray;
-import com.airhockey.android.util.Geometry.Sphere;
-import com.airhockey.android.util.Geometry.Vector;
-import com.airhockey.android.util.MatrixHelper;
+import com.airhockey.android.render.GL;
+import com.airhockey.android.render.GLState;
+import com.airhockey.android.render.SceneRenderer;
+import com.airhockey.android.replay.InputLogWriter;
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.ComputerPlayer;
+import com.airhockey.android.simulation.InputController;
+import com.airhockey.android.simulation.PartySimulation;
+import com.airhockey.android.util.Geometry.MutableVector;
+import com.airhockey.android.util.Camera;
+import com.airhockey.android.util.FixedTimestep;
+import com.airhockey.android.util.LoggerConfig;
 import com.airhockey.android.util.TextureHelper;
+import com.airhockey.android.util.WorkerPool;
 
 public class AirHockeyRenderer implements Renderer {    
+    // The puck and mallets are simulated at a fixed rate, independent of the
+    // display refresh rate. The puck vector is a distance per step.
+    private static final int SIMULATION_STEPS_PER_SECOND = 60;
+    private static final int MAX_SIMULATION_STEPS_PER_FRAME = 5;
+    // Ticks between a touch and the mallet moving, in network games.
+    private static final int NETWORK_INPUT_DELAY = 2;
+    // How far the computer's mallet may move per step.
+    private static final float COMPUTER_MALLET_SPEED = 0.03f;
+
+    private static final String TAG = "AirHockeyRenderer";
+    
+    // Prepares the frames while the GL thread submits them. Shared by every
+    // renderer the process makes, so recreating the activity doesn't start
+    // more threads.
+    private static final WorkerPool WORKER_POOL = 
+        new WorkerPool(WorkerPool.defaultThreadCount());
+
     private final Context context;
 
-    private final float[] projectionMatrix = new float[16];
-    private final float[] modelMatrix = new float[16];
-    private final float[] viewMatrix = new float[16];
-    private final float[] viewProjectionMatrix = new float[16];
-    private final float[] invertedViewProjectionMatrix = new float[16];
-    private final float[] modelViewProjectionMatrix = new float[16];
-    
-    private float rotAngle = 0.0f;
-    
     public static float camPosZ = 0.0f;
     
-    
-    // light        
-    final float[] vectorToLight = {0.30f, 0.35f, -0.89f, 0f};
-    
-    private final float[] pointLightPositions = new float[]
-        {-3f, 4f, +5.0f, 1f,
-          0f, 1f, 0f, 1f,
-          1f, 1f, 0f, 1f};
-    
-    private final float[] pointLightColors = new float[]
-        {1.00f, 1.00f, 0.8784313725490196f,         
-         0.02f, 0.25f, 0.02f, 
-         0.02f, 0.20f, 1.00f};
-
-    private Table table;
-    private Mallet mallet;
-    private Puck puck;       
-    
-    private Desk desk;
-    private Chair chair;
-    private Stand stand;
-    private NoteBook_Keyboard noteKeyboard;
-    private NoteBook_Upper noteUpper;
-    private Background background;
-
     private TextureShaderProgram textureProgram;
     private ColorShaderProgram colorProgram;
-
-    private int texture;
-    private int texture_wood;
-    private int texture_noteUpper;
-    private int texture_noteKeyboard;
-    private int texture_chair;
-    private int texture_stand;
-
-    private boolean blueMalletPressed = false;
-    private boolean redMalletPressed = false;
-    private Point blueMalletPosition;    
-    private Point redMalletPostion;
+    private SceneRenderer sceneRenderer;
+
+    private final AirHockeySimulation simulation = 
+        new AirHockeySimulation(new AirHockeySimulation.Rules());
+    private final Camera camera = new Camera();
+    private final InputController inputController = 
+        new InputController(camera, simulation);
+    // Replaces the normal game while it is set.
+    private PartySimulation partySimulation;
+    // Drives the normal game while playing against another device.
+    private NetSession netSession;
+    // Moves the red mallet in the normal game while it is set.
+    private ComputerPlayer computerPlayer;
     
-    private final float leftBound = -0.5f;
-    private final float rightBound = 0.5f;
-    private final float farBound = -0.8f;
-    private final float nearBound = 0.8f;
+    // Where the pieces are drawn, between their last two simulation steps.
+    // Drawing code only reads these.
+    private final MutableVector drawnBlueMalletPosition = new MutableVector();
+    private final MutableVector drawnRedMalletPosition = new MutableVector();
+    private final MutableVector drawnPuckPosition = new MutableVector();
     
-    private Point previousBlueMalletPosition;
-    private Point previousRedMalletPostion;
+    private final FixedTimestep timestep = new FixedTimestep(
+        SIMULATION_STEPS_PER_SECOND, MAX_SIMULATION_STEPS_PER_FRAME);
+    private long simulationTick = 0;
+    private long lastSimulationNanos = 0;
+    private long lastSubmitNanos = 0;
     
-    private Point puckPosition;
-    private Vector puckVector;
+    private int surfaceWidth = 1;
+    private int surfaceHeight = 1;
+    
+    // Set while touches and zoom changes are being recorded.
+    private InputLogWriter inputLogWriter;
+    private long recordingStartTick = 0;
 
     public AirHockeyRenderer(Context context) {
         this.context = context;
     }
-
+    
     public void handleTouchPress(float normalizedX, float normalizedY) {
+        if (inputLogWriter != null) {
+            try {
+                inputLogWriter.writePress(
+                    recordedTick(), normalizedX, normalizedY);
+            } catch (IOException e) {
+                abortRecording(e);
+            }
+        }
+        inputController.handleTouchPress(normalizedX, normalizedY);
+    }
+    
+    public void handleTouchDrag(float normalizedX, float normalizedY) {
+        if (inputLogWriter != null) {
+            try {
+                inputLogWriter.writeDrag(
+                    recordedTick(), normalizedX, normalizedY);
+            } catch (IOException e) {
+                abortRecording(e);
+            }
+        }
+        inputController.handleTouchDrag(normalizedX, normalizedY);
+    }
+    
+    /**
+     * Starts recording touches and zoom changes to the given file, so the
+     * match can be replayed later with InputReplayer. The computer player's
+     * moves are recorded too, as its planning is cut short by a time budget
+     * and wouldn't come out the same in a replay. The match restarts, as
+     * a replay always starts from the initial positions, and party mode or a
+     * network game is stopped. Must be called on
+     * the GL thread, after the surface was created.
+     */
+    public void startRecording(File file) throws IOException {
+        stopRecording();
         
-        Ray ray = convertNormalized2DPointToRay(normalizedX, normalizedY);
-
-        // Now test if this ray intersects with the mallet by creating a
-        // bounding sphere that wraps the mallet.
-        Sphere malletBoundingSphere_1 = new Sphere(new Point(
-                blueMalletPosition.x, 
-                blueMalletPosition.y, 
-                blueMalletPosition.z),
-            mallet.height / 2f);
+        final FileOutputStream stream = new FileOutputStream(file);
+        try {
+            inputLogWriter = new InputLogWriter(
+                stream.getChannel(), SIMULATION_STEPS_PER_SECOND);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        recordingStartTick = simulationTick;
+        stopPartyMode();
+        stopNetworkGame();
+        simulation.reset();
+        interpolateDrawnPositions(0f);
         
-        Sphere malletBoundingSphere_2 = new Sphere(new Point(
-                redMalletPostion.x,
-                redMalletPostion.y,
-                redMalletPostion.z),
-            mallet.height / 2f);
-
-        // If the ray intersects (if the user touched a part of the screen that
-        // intersects the mallet's bounding sphere), then set malletPressed =
-        // true.
-        blueMalletPressed = Geometry.intersects(malletBoundingSphere_1, ray);
-        redMalletPressed = Geometry.intersects(malletBoundingSphere_2, ray);
+        inputLogWriter.writeSurface(0, surfaceWidth, surfaceHeight);
+        inputLogWriter.writeCamera(0, camera.getZoom());
     }
     
-    private Ray convertNormalized2DPointToRay(
-        float normalizedX, float normalizedY) {
-        // We'll convert these normalized device coordinates into world-space
-        // coordinates. We'll pick a point on the near and far planes, and draw a
-        // line between them. To do this transform, we need to first multiply by
-        // the inverse matrix, and then we need to undo the perspective divide.
-        final float[] nearPointNdc = {normalizedX, normalizedY, -1, 1};
-        final float[] farPointNdc =  {normalizedX, normalizedY,  1, 1};
-        
-        final float[] nearPointWorld = new float[4];
-        final float[] farPointWorld = new float[4];
-
-        multiplyMV(
-            nearPointWorld, 0, invertedViewProjectionMatrix, 0, nearPointNdc, 0);
-        multiplyMV(
-            farPointWorld, 0, invertedViewProjectionMatrix, 0, farPointNdc, 0);
-
-        // Why are we dividing by W? We multiplied our vector by an inverse
-        // matrix, so the W value that we end up is actually the *inverse* of
-        // what the projection matrix would create. By dividing all 3 components
-        // by W, we effectively undo the hardware perspective divide.
-        divideByW(nearPointWorld);
-        divideByW(farPointWorld);
-
-        // We don't care about the W value anymore, because our points are now
-        // in world coordinates.
-        Point nearPointRay = 
-            new Point(nearPointWorld[0], nearPointWorld[1], nearPointWorld[2]);
-			
-        Point farPointRay = 
-            new Point(farPointWorld[0], farPointWorld[1], farPointWorld[2]);
-
-        return new Ray(nearPointRay, 
-                       Geometry.vectorBetween(nearPointRay, farPointRay));
-    }        
-
-    private void divideByW(float[] vector) {
-        vector[0] /= vector[3];
-        vector[1] /= vector[3];
-        vector[2] /= vector[3];
+    public void stopRecording() throws IOException {
+        if (inputLogWriter != null) {
+            final InputLogWriter writer = inputLogWriter;
+            inputLogWriter = null;
+            writer.close(recordedTick());
+        }
     }
-
     
-    public void handleTouchDrag(float normalizedX, float normalizedY) {
-        
-        if (blueMalletPressed) {
-            Ray ray = convertNormalized2DPointToRay(normalizedX, normalizedY);
-            // Define a plane representing our air hockey table.
-            Plane plane = new Plane(new Point(0, 0, 0), new Vector(0, 1, 0));
-            // Find out where the touched point intersects the plane
-            // representing our table. We'll move the mallet along this plane.
-            Point touchedPoint = Geometry.intersectionPoint(ray, plane);
-            // Clamp to bounds                        
-                        
-            previousBlueMalletPosition = blueMalletPosition;            
-            /*
-            blueMalletPosition =
-                new Point(touchedPoint.x, mallet.height / 2f, touchedPoint.z);
-            */
-            // Clamp to bounds            
-            blueMalletPosition = new Point(
-                clamp(touchedPoint.x, 
-                      leftBound + mallet.radius, 
-                      rightBound - mallet.radius),
-                mallet.height / 2f, 
-                clamp(touchedPoint.z, 
-                      0f + mallet.radius, 
-                      nearBound - mallet.radius));            
-            
-            // Now test if mallet has struck the puck.
-            float distance = 
-                Geometry.vectorBetween(blueMalletPosition, puckPosition).length();
-            
-            if (distance < (puck.radius + mallet.radius)) {
-                // The mallet has struck the puck. Now send the puck flying
-                // based on the mallet velocity.
-                puckVector = Geometry.vectorBetween(
-                    previousBlueMalletPosition, blueMalletPosition);                
+    /**
+     * Stops recording before switching to party mode or a network game: a
+     * log can only be replayed into the normal game, so it ends where that
+     * game stops being played.
+     */
+    private void stopRecordingForSwitch() {
+        try {
+            stopRecording();
+        } catch (IOException e) {
+            if (LoggerConfig.ON) {
+                Log.w(TAG, "Could not close input log.", e);
             }
         }
-        if (redMalletPressed) {
-            Ray ray = convertNormalized2DPointToRay(normalizedX, normalizedY);
-            // Define a plane representing our air hockey table.
-            Plane plane = new Plane(new Point(0, 0, 0), new Vector(0, 1, 0));
-            // Find out where the touched point intersects the plane
-            // representing our table. We'll move the mallet along this plane.
-            Point touchedPoint = Geometry.intersectionPoint(ray, plane);
-            // Clamp to bounds                        
-                        
-            previousRedMalletPostion = redMalletPostion;            
-            /*
-            redMalletPostion =
-                new Point(touchedPoint.x, mallet.height / 2f, touchedPoint.z);
-            */
-            // Clamp to bounds            
-            redMalletPostion = new Point(
-                clamp(touchedPoint.x, 
-                      leftBound + mallet.radius, 
-                      rightBound - mallet.radius),
-                mallet.height / 2f, 
-                clamp(touchedPoint.z, 
-                      farBound + mallet.radius, 
-                      0 - mallet.radius));            
-            
-            // Now test if mallet has struck the puck.
-            float distance = 
-                Geometry.vectorBetween(redMalletPostion, puckPosition).length();
-            
-            if (distance < (puck.radius + mallet.radius)) {
-                // The mallet has struck the puck. Now send the puck flying
-                // based on the mallet velocity.
-                puckVector = Geometry.vectorBetween(
-                    previousRedMalletPostion, redMalletPostion);                
+    }
+    
+    public boolean isRecording() {
+        return inputLogWriter != null;
+    }
+    
+    private long recordedTick() {
+        return simulationTick - recordingStartTick;
+    }
+    
+    private void recordRedMalletTarget() {
+        if (inputLogWriter != null) {
+            final MutableVector target = simulation.getRedMalletTarget();
+            try {
+                inputLogWriter.writeRedTarget(recordedTick(), target.x, target.z);
+            } catch (IOException e) {
+                abortRecording(e);
             }
         }
-        
     }
     
-    private float clamp(float value, float min, float max) {
-        return Math.min(max, Math.max(value, min));
+    private void abortRecording(IOException e) {
+        if (LoggerConfig.ON) {
+            Log.w(TAG, "Could not write input log, recording stopped.", e);
+        }
+        try {
+            final InputLogWriter writer = inputLogWriter;
+            inputLogWriter = null;
+            writer.close(recordedTick());
+        } catch (IOException ignored) {
+        }
     }
-
+    
     @Override
-    public void onSurfaceCreated(GL10 gl, EGLConfig config) {                          
+    public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {                          
+        // A new context starts in the default state.
+        GLState.assumeDefaults();
         
-        gl.glDisable(GL10.GL_DITHER);
-        gl.glEnable(GL_TEXTURE_2D);
-        gl.glShadeModel(GL10.GL_SMOOTH);
+        GLState.disable(GL_DITHER);
         
         glClearColor(0.0f, 0.0f, 0.0f, 0.5f);
-        gl.glHint(GL10.GL_PERSPECTIVE_CORRECTION_HINT,
-            GL10.GL_NICEST); 
 
+        // Meshes keep positions in half floats where they can: part of ES
+        // 3.0 (the only contexts with vertex array objects here), and an
+        // extension on ES 2.0.
+        final String extensions = GL.glGetString(GL_EXTENSIONS);
+        if (GL.hasVertexArrayObjects()) {
+            VertexFormat.setHalfFloatType(VertexFormat.GL_HALF_FLOAT);
+        } else if (extensions != null 
+            && extensions.contains("GL_OES_vertex_half_float")) {
+            VertexFormat.setHalfFloatType(VertexFormat.GL_HALF_FLOAT_OES);
+        } else {
+            VertexFormat.setHalfFloatType(0);
+        }
         
-        table = new Table();
-        mallet = new Mallet(0.08f, 0.15f, 32);
-        puck = new Puck(0.06f, 0.02f, 32);
-       
-        desk = new Desk(1.0f, 1.0f, 1.0f);
-        chair = new Chair(1.0f, 1.0f, 1.0f);
-        stand = new Stand(1.0f, 1.0f, 16);
-        
-        noteKeyboard = new NoteBook_Keyboard(0.4f, 0.01f, 0.3f);
-        noteUpper = new NoteBook_Upper(0.4f, 0.3f, 0.01f);
-        background = new Background();
-        
-        blueMalletPosition = new Point(0f, mallet.height / 2f, 0.4f);
-        redMalletPostion = new Point(0f, mallet.height / 2f, -0.4f);
-        puckPosition = new Point(0f, puck.height / 2f, 0f);
-        puckVector = new Vector(0f, 0f, 0f);
+        simulation.reset();
+        interpolateDrawnPositions(0f);
+        timestep.reset();
 
         textureProgram = new TextureShaderProgram(context);
         colorProgram = new ColorShaderProgram(context);
 
-        texture = TextureHelper.loadTexture(context, R.drawable.back5);
-        texture_wood = TextureHelper.loadTexture(context, R.drawable.wood_1);
-        texture_chair = TextureHelper.loadTexture(context, R.drawable.chair);
-        texture_noteKeyboard = TextureHelper.loadTexture(context, R.drawable.keyboard);
-        texture_noteUpper = TextureHelper.loadTexture(context, R.drawable.shot);
-        texture_stand = TextureHelper.loadTexture(context, R.drawable.stand);
+        sceneRenderer = new SceneRenderer(
+            simulation.getRules(), colorProgram, textureProgram);
+        sceneRenderer.setWorkerPool(WORKER_POOL);
+        // Pseudo-instanced with uniform arrays where instanced draws need
+        // what ES 2.0 doesn't have.
+        sceneRenderer.setInstancedColorProgram(new InstancedColorShaderProgram(
+            context, !InstancedMesh.hasHardwareInstancing()));
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_BACKGROUND, 
+            TextureHelper.loadTexture(context, R.drawable.back5));
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_WOOD, 
+            TextureHelper.loadTexture(context, R.drawable.wood_1));
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_CHAIR, 
+            TextureHelper.loadTexture(context, R.drawable.chair));
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_NOTE_KEYBOARD, 
+            TextureHelper.loadTexture(context, R.drawable.keyboard));
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_NOTE_UPPER, 
+            TextureHelper.loadTexture(context, R.drawable.shot));
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_STAND, 
+            TextureHelper.loadTexture(context, R.drawable.stand));
     }
 
     @Override
     public void onSurfaceChanged(GL10 glUnused, int width, int height) {                
         // Set the OpenGL viewport to fill the entire surface.
         
-        glEnable( GL_DEPTH_TEST );
+        GLState.enable(GL_DEPTH_TEST);
         
         glViewport(0, 0, width, height);        
 
-        MatrixHelper.perspectiveM(projectionMatrix, 45, (float) width
-            / (float) height, 1f, 10f);
-
-        setLookAtM(viewMatrix, 0, 0f, 1.2f, 2.2f, 0f, 0f, 0f, 0f, 1f, 0f);        
+        surfaceWidth = width;
+        surfaceHeight = height;
+        camera.setViewport(width, height);
+        if (inputLogWriter != null) {
+            try {
+                inputLogWriter.writeSurface(recordedTick(), width, height);
+            } catch (IOException e) {
+                abortRecording(e);
+            }
+        }
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
         // Clear the rendering surface.
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-        glEnable(GL10.GL_LIGHTING);
-        
-        // Translate the puck by its vector
-        puckPosition = puckPosition.translate(puckVector);
-                
-        // If the puck struck a side, reflect it off that side.
-        if (puckPosition.x < leftBound + puck.radius
-         || puckPosition.x > rightBound - puck.radius) {
-            puckVector = new Vector(-puckVector.x, puckVector.y, puckVector.z);
-            puckVector = puckVector.scale(0.9f);
-        }        
-        if (puckPosition.z < farBound + puck.radius
-         || puckPosition.z > nearBound - puck.radius) {
-            puckVector = new Vector(puckVector.x, puckVector.y, -puckVector.z);
-            puckVector = puckVector.scale(0.9f);
-        }        
-        // Clamp the puck position.
-        puckPosition = new Point(
-            clamp(puckPosition.x, leftBound + puck.radius, rightBound - puck.radius),
-            puckPosition.y,
-            clamp(puckPosition.z, farBound + puck.radius, nearBound - puck.radius)
-        );
-        
-        // Friction factor
-        puckVector = puckVector.scale(0.99f);
-
-        // Update the viewProjection matrix, and create an inverted matrix for
-        // touch picking.
-        
-        float[] matView = new float[16];                
-        Matrix.translateM(matView, 0, viewMatrix, 0, 0, 0, camPosZ);
-        
-        multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, matView, 0);
-        invertM(invertedViewProjectionMatrix, 0, viewProjectionMatrix, 0);
-        
-
-
-        // Draw the mallets.
-        positionObjectInScene(redMalletPostion.x, redMalletPostion.y, redMalletPostion.z);
-        colorProgram.useProgram();
-        colorProgram.setUniforms(modelViewProjectionMatrix, 1f, 0f, 0f);
-        mallet.bindData(colorProgram);
-        //mallet.draw();                        
-  
-        
-        positionObjectInScene(0f, 1f, -1f);
-        scaleObject(7.3f, 5, 1);
-        textureProgram.useProgram();
-        textureProgram.setUniforms(modelViewProjectionMatrix, texture, vectorToLight, pointLightPositions, pointLightColors);
-        background.bindData(textureProgram);
-        background.draw();
         
-        // test
-//        float[] viewRotMatrix = new float[16];
-//        Matrix.setIdentityM(viewRotMatrix, 0);
-//        rotAngle++;
-//        Matrix.rotateM(viewRotMatrix, 0, rotAngle, 0, 1, 0);
-//        Matrix.multiplyMM(viewProjectionMatrix, 0, viewRotMatrix, 0, viewProjectionMatrix, 0);
-        
-        positionObjectInScene(0f, -0.15f, 0f);        
-        textureProgram.useProgram();
-        textureProgram.setUniforms(modelViewProjectionMatrix, texture_chair, vectorToLight, pointLightPositions, pointLightColors);
-        desk.bindData(textureProgram);
-        desk.draw();
-        
-        positionObjectInScene(0f, -0.15f, 0.6f);        
-        textureProgram.useProgram();        
-        textureProgram.setUniforms(modelViewProjectionMatrix, texture_wood, vectorToLight, pointLightPositions, pointLightColors);
-        chair.bindData(textureProgram);
-        chair.draw();
-        
-        positionObjectInScene(-0.7f, 0.45f, -0.3f);       
-        textureProgram.useProgram();        
-        textureProgram.setUniforms(modelViewProjectionMatrix, texture_stand, vectorToLight, pointLightPositions, pointLightColors);
-        stand.bindData(textureProgram);
-        stand.draw();   
+        applyZoom();
         
+        final long frameStartNanos = System.nanoTime();
+        final int steps = timestep.advance(frameStartNanos);
+        final boolean computerMoves = computerPlayer != null
+            && partySimulation == null && netSession == null;
+        if (computerMoves && steps > 0) {
+            computerPlayer.plan(simulation);
+        }
+        for (int i = 0; i < steps; i++) {
+            if (partySimulation != null) {
+                partySimulation.step();
+            } else if (netSession != null) {
+                tickNetworkGame();
+            } else {
+                if (computerMoves) {
+                    computerPlayer.move(simulation, simulation);
+                    recordRedMalletTarget();
+                }
+                simulation.step();
+            }
+            simulationTick++;
+        }
+        interpolateDrawnPositions(timestep.getAlpha());
         
-        positionObjectInScene(0.5f, 0.45f, 0.4f);      
-        roateObject(0, -45, 0);
-        textureProgram.useProgram();        
-        textureProgram.setUniforms(modelViewProjectionMatrix, texture_noteKeyboard, vectorToLight, pointLightPositions, pointLightColors);
-        noteKeyboard.bindData(textureProgram);
-        noteKeyboard.draw();
+        final long submitStartNanos = System.nanoTime();
+        lastSimulationNanos = submitStartNanos - frameStartNanos;
         
+        // Draws the frame prepared last time while the workers prepare
+        // this one.
+        sceneRenderer.drawPipelined(camera, drawnBlueMalletPosition, 
+            drawnRedMalletPosition, drawnPuckPosition, partySimulation, 
+            timestep.getAlpha());
         
-        positionObjectInScene(0.64f, 0.42f, 0.2f);     
-        roateObject(0, -45, 0);
-        textureProgram.useProgram();        
-        textureProgram.setUniforms(modelViewProjectionMatrix, texture_noteUpper, vectorToLight, pointLightPositions, pointLightColors);
-        noteUpper.bindData(textureProgram);
-        noteUpper.draw();
+        lastSubmitNanos = System.nanoTime() - submitStartNanos;
     }
-
-    private void positionTableInScene() {
-        // The table is defined in terms of X & Y coordinates, so we rotate it
-        // 90 degrees to lie flat on the XZ plane.
-        setIdentityM(modelMatrix, 0);
-        //rotateM(modelMatrix, 0, -90f, 1f, 0f, 0f);
-        multiplyMM(modelViewProjectionMatrix, 0, viewProjectionMatrix,
-            0, modelMatrix, 0);
+    
+    /**
+     * Switches to party mode with the given number of pucks on the table,
+     * and stops recording. Must be called on the GL thread, like the touch
+     * handlers.
+     */
+    public void startPartyMode(int puckCount) {
+        stopRecordingForSwitch();
+        stopNetworkGame();
+        partySimulation = 
+            new PartySimulation(simulation.getRules(), puckCount);
+        inputController.setPartySimulation(partySimulation);
     }
-
-    // The mallets and the puck are positioned on the same plane as the table.
-    private void positionObjectInScene(float x, float y, float z) {
-        setIdentityM(modelMatrix, 0);
-        translateM(modelMatrix, 0, x, y, z);
-        multiplyMM(modelViewProjectionMatrix, 0, viewProjectionMatrix,
-            0, modelMatrix, 0);
+    
+    public void stopPartyMode() {
+        partySimulation = null;
+        inputController.setPartySimulation(null);
     }
     
-    private void scaleObject(float x, float y, float z) {                
-        Matrix.scaleM(modelMatrix, 0, x, y, z);
-        multiplyMM(modelViewProjectionMatrix, 0, viewProjectionMatrix, 0, modelMatrix, 0);
+    /**
+     * Starts a game against another device, which moves the red mallet if
+     * this device is the host and the blue one otherwise, and stops
+     * recording. Must be called on the GL thread.
+     */
+    public void startNetworkGame(PacketTransport transport, boolean host) {
+        stopRecordingForSwitch();
+        stopPartyMode();
+        netSession = new NetSession(
+            simulation, transport, host, NETWORK_INPUT_DELAY);
+        inputController.setForwardTo(netSession);
+        interpolateDrawnPositions(0f);
+    }
+    
+    public void stopNetworkGame() {
+        if (netSession != null) {
+            netSession = null;
+            inputController.setForwardTo(null);
+        }
+    }
+    
+    /**
+     * Lets the computer play the red mallet in the normal game. Its planning
+     * time statistics are available from getComputerPlayer().
+     */
+    public void setComputerOpponent(boolean enabled) {
+        computerPlayer = enabled 
+            ? new ComputerPlayer(COMPUTER_MALLET_SPEED, 
+                                 ComputerPlayer.DEFAULT_BUDGET_NANOS) 
+            : null;
+    }
+    
+    public ComputerPlayer getComputerPlayer() {
+        return computerPlayer;
+    }
+    
+    /**
+     * The running network game, for its bandwidth and rollback statistics,
+     * or null.
+     */
+    public NetSession getNetSession() {
+        return netSession;
+    }
+    
+    private void tickNetworkGame() {
+        try {
+            netSession.tick();
+        } catch (IOException e) {
+            if (LoggerConfig.ON) {
+                Log.w(TAG, "Network game stopped.", e);
+            }
+            stopNetworkGame();
+        }
+    }
+    
+    /**
+     * Number of fixed simulation steps run since the surface was created.
+     */
+    public long getSimulationTick() {
+        return simulationTick;
+    }
+    
+    /**
+     * Time spent simulating during the last frame, in nanoseconds.
+     */
+    public long getLastSimulationNanos() {
+        return lastSimulationNanos;
+    }
+    
+    /**
+     * Time spent submitting the last frame's draw calls and waiting for the
+     * workers to prepare the next, in nanoseconds.
+     */
+    public long getLastSubmitNanos() {
+        return lastSubmitNanos;
+    }
+    
+    /**
+     * What drew the last frame, for its scene graph, state change and
+     * uniform upload statistics. Null until the surface was created.
+     */
+    public SceneRenderer getSceneRenderer() {
+        return sceneRenderer;
+    }
+    
+    /**
+     * Moves the camera to the latest camPosZ set by the pinch gesture. The
+     * camera recomputes its matrices when they are next used.
+     */
+    private void applyZoom() {
+        final float zoom = camPosZ;
+        if (zoom != camera.getZoom()) {
+            camera.setZoom(zoom);
+            if (inputLogWriter != null) {
+                try {
+                    inputLogWriter.writeCamera(recordedTick(), zoom);
+                } catch (IOException e) {
+                    abortRecording(e);
+                }
+            }
+        }
+    }
+    
+    private void interpolateDrawnPositions(float alpha) {
+        if (partySimulation != null) {
+            // The party pucks are drawn instead of the puck.
+            final PhysicsWorld world = partySimulation.getWorld();
+            final float malletY = simulation.getRules().malletHeight / 2f;
+            final int blueMallet = partySimulation.getBlueMallet();
+            final int redMallet = partySimulation.getRedMallet();
+            drawnBlueMalletPosition.set(world.getInterpolatedX(blueMallet, alpha),
+                malletY, world.getInterpolatedZ(blueMallet, alpha));
+            drawnRedMalletPosition.set(world.getInterpolatedX(redMallet, alpha),
+                malletY, world.getInterpolatedZ(redMallet, alpha));
+            return;
+        }
+        lerp(simulation.getLastStepBlueMalletPosition(), 
+             simulation.getBlueMalletPosition(), alpha, drawnBlueMalletPosition);
+        lerp(simulation.getLastStepRedMalletPosition(), 
+             simulation.getRedMalletPosition(), alpha, drawnRedMalletPosition);
+        lerp(simulation.getLastStepPuckPosition(), 
+             simulation.getPuckPosition(), alpha, drawnPuckPosition);
     }
     
-    private void roateObject(float x, float y, float z)
-    {        
-        Matrix.rotateM(modelMatrix, 0, x, 1, 0, 0);
-        Matrix.rotateM(modelMatrix, 0, y, 0, 1, 0);
-        Matrix.rotateM(modelMatrix, 0, z, 0, 0, 1);        
-        multiplyMM(modelViewProjectionMatrix, 0, viewProjectionMatrix, 0, modelMatrix, 0);
+    private static void lerp(MutableVector from, MutableVector to, float alpha,
+        MutableVector out) {
+        out.set(
+            from.x + (to.x - from.x) * alpha,
+            from.y + (to.y - from.y) * alpha,
+            from.z + (to.z - from.z) * alpha);
     }
-}
\ No newline at end of file
+}
@@ -10,4 +10,5 @@ package com.airhockey.android;
 
 public class Constants {
     public static final int BYTES_PER_FLOAT = 4;
+    public static final int BYTES_PER_SHORT = 2;
 }
@@ -0,0 +1,94 @@
+package com.airhockey.android.data;
+
+import static android.opengl.GLES20.GL_ELEMENT_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_STATIC_DRAW;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT;
+import static com.airhockey.android.Constants.BYTES_PER_SHORT;
+import static com.airhockey.android.render.GL.glBufferData;
+import static com.airhockey.android.render.GL.glDrawElements;
+import static com.airhockey.android.render.GL.glDrawElementsInstanced;
+import static com.airhockey.android.render.GL.glGenBuffers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import com.airhockey.android.render.GL;
+import com.airhockey.android.render.GLState;
+
+/**
+ * 16 bit vertex indices, in a buffer object or in client memory like the
+ * VertexArray they index, see VertexArray.setUseBufferObjects().
+ */
+public class IndexBuffer {
+    // In client memory, or null if the indices are in the buffer object.
+    private final ShortBuffer shortBuffer;
+    private final int bufferId;
+
+    public IndexBuffer(short[] indexData) {
+        final ShortBuffer data = ByteBuffer
+            .allocateDirect(indexData.length * BYTES_PER_SHORT)
+            .order(ByteOrder.nativeOrder())
+            .asShortBuffer()
+            .put(indexData);
+        data.position(0);
+
+        if (!VertexArray.usesBufferObjects()) {
+            shortBuffer = data;
+            bufferId = 0;
+            return;
+        }
+        final int[] buffers = new int[1];
+        glGenBuffers(buffers.length, buffers, 0);
+        if (buffers[0] == 0) {
+            throw new RuntimeException("Could not create a new index buffer object.");
+        }
+        bufferId = buffers[0];
+        // The element array binding belongs to the vertex array object, so
+        // don't change a mesh's.
+        if (GL.hasVertexArrayObjects()) {
+            GLState.bindVertexArray(0);
+        }
+        GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, bufferId);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexData.length * BYTES_PER_SHORT,
+            data, GL_STATIC_DRAW);
+        shortBuffer = null;
+    }
+
+    /**
+     * Binds the indices for draw(), after the VertexArray they index was
+     * bound. A vertex array object keeps this binding with the attribute
+     * pointers.
+     */
+    public void bind() {
+        if (bufferId != 0) {
+            GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, bufferId);
+        }
+    }
+
+    /**
+     * Draws count indices from the first one.
+     */
+    public void draw(int mode, int first, int count) {
+        if (bufferId != 0) {
+            glDrawElements(mode, count, GL_UNSIGNED_SHORT, first * BYTES_PER_SHORT);
+        } else {
+            GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+            shortBuffer.position(first);
+            glDrawElements(mode, count, GL_UNSIGNED_SHORT, shortBuffer);
+            shortBuffer.position(0);
+        }
+    }
+
+    /**
+     * Draws count indices from the first one, instanceCount times. The
+     * indices must be in a buffer object.
+     */
+    public void drawInstanced(int mode, int first, int count, int instanceCount) {
+        if (bufferId == 0) {
+            throw new IllegalStateException("Instanced draws need an index buffer object");
+        }
+        glDrawElementsInstanced(mode, count, GL_UNSIGNED_SHORT, 
+            first * BYTES_PER_SHORT, instanceCount);
+    }
+}
@@ -0,0 +1,78 @@
+package com.airhockey.android.data;
+
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_FLOAT;
+import static android.opengl.GLES20.GL_STREAM_DRAW;
+import static com.airhockey.android.Constants.BYTES_PER_FLOAT;
+import static com.airhockey.android.render.GL.glBufferData;
+import static com.airhockey.android.render.GL.glGenBuffers;
+import static com.airhockey.android.render.GL.glVertexAttribDivisor;
+import static com.airhockey.android.render.GL.glVertexAttribPointer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.airhockey.android.render.GLState;
+
+/**
+ * Per-instance attributes for instanced draws: a buffer object of floats
+ * that is filled again every frame, and whose attributes advance once per
+ * instance instead of once per vertex. Needs GL.hasInstancedArrays().
+ */
+public class InstanceBuffer {
+    private final int floatsPerInstance;
+    private final int bufferId;
+    private FloatBuffer floatBuffer;
+
+    public InstanceBuffer(int floatsPerInstance) {
+        this.floatsPerInstance = floatsPerInstance;
+        final int[] buffers = new int[1];
+        glGenBuffers(buffers.length, buffers, 0);
+        if (buffers[0] == 0) {
+            throw new RuntimeException("Could not create a new instance buffer object.");
+        }
+        bufferId = buffers[0];
+        floatBuffer = allocate(64 * floatsPerInstance);
+    }
+
+    private static FloatBuffer allocate(int floats) {
+        return ByteBuffer
+            .allocateDirect(floats * BYTES_PER_FLOAT)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    }
+
+    /**
+     * Replaces the contents with the first instanceCount instances of
+     * instanceData.
+     */
+    public void upload(float[] instanceData, int instanceCount) {
+        final int floats = instanceCount * floatsPerInstance;
+        if (floatBuffer.capacity() < floats) {
+            floatBuffer = allocate(Math.max(floats, floatBuffer.capacity() * 2));
+        }
+        floatBuffer.clear();
+        floatBuffer.put(instanceData, 0, floats);
+        floatBuffer.position(0);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, bufferId);
+        // A new store every time, so the driver needn't wait for draws
+        // still reading the last one.
+        glBufferData(GL_ARRAY_BUFFER, floats * BYTES_PER_FLOAT, floatBuffer, 
+            GL_STREAM_DRAW);
+    }
+
+    /**
+     * Points an attribute at componentCount floats, dataOffset floats into
+     * each instance, from firstInstance on.
+     */
+    public void setVertexAttribPointer(int dataOffset, int attributeLocation,
+        int componentCount, int firstInstance) {
+        GLState.bindBuffer(GL_ARRAY_BUFFER, bufferId);
+        glVertexAttribPointer(attributeLocation, componentCount, GL_FLOAT, false,
+            floatsPerInstance * BYTES_PER_FLOAT,
+            (firstInstance * floatsPerInstance + dataOffset) * BYTES_PER_FLOAT);
+        glVertexAttribDivisor(attributeLocation, 1);
+        GLState.enableVertexAttribArray(attributeLocation);
+    }
+}
@@ -8,33 +8,144 @@
 ***/
 package com.airhockey.android.data;
 
-import static android.opengl.GLES20.GL_FLOAT;
-import static android.opengl.GLES20.glEnableVertexAttribArray;
-import static android.opengl.GLES20.glVertexAttribPointer;
-import static com.airhockey.android.Constants.BYTES_PER_FLOAT;
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_STATIC_DRAW;
+import static com.airhockey.android.render.GL.glBufferData;
+import static com.airhockey.android.render.GL.glGenBuffers;
+import static com.airhockey.android.render.GL.glGenVertexArrays;
+import static com.airhockey.android.render.GL.glVertexAttribPointer;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
+import com.airhockey.android.render.GL;
+import com.airhockey.android.render.GLState;
+
+/**
+ * Vertex data, uploaded once to a buffer object, or kept in client memory
+ * when buffer objects are turned off with setUseBufferObjects(). Client
+ * memory is the old way, and the fallback: the driver then copies the
+ * arrays again on every draw call.
+ *
+ * The float data a mesh builds is packed into the compact VertexFormat
+ * for it, and attributes are bound by name from that format.
+ *
+ * Where the backend has vertex array objects, the attribute pointers of a
+ * buffer object are recorded in one the first time they're set, and bind()
+ * alone brings them back afterwards.
+ */
 public class VertexArray {
-    private final FloatBuffer floatBuffer;
-
-    public VertexArray(float[] vertexData) {
-        floatBuffer = ByteBuffer
-            .allocateDirect(vertexData.length * BYTES_PER_FLOAT)
-            .order(ByteOrder.nativeOrder())
-            .asFloatBuffer()
-            .put(vertexData);
+    private static boolean useBufferObjects = true;
+
+    private final VertexFormat format;
+    private final int sizeInBytes;
+    // In client memory, or null if the data is in the buffer object.
+    private final ByteBuffer byteBuffer;
+    private final int bufferId;
+    private int vertexArrayObject = 0;
+
+    /**
+     * Whether vertex and index data made from now on goes into buffer
+     * objects. Meshes that already exist keep theirs.
+     */
+    public static void setUseBufferObjects(boolean use) {
+        useBufferObjects = use;
+    }
+
+    public static boolean usesBufferObjects() {
+        return useBufferObjects;
+    }
+
+    /**
+     * Vertex data in the given format, which must only have float
+     * attributes. Attributes the format leaves out aren't kept.
+     */
+    public VertexArray(float[] vertexData, VertexFormat sourceFormat) {
+        final int vertexCount = vertexData.length * 4 / sourceFormat.getStride();
+        format = sourceFormat.compact(vertexData, vertexCount);
+        sizeInBytes = vertexCount * format.getStride();
+        final ByteBuffer data = ByteBuffer
+            .allocateDirect(sizeInBytes)
+            .order(ByteOrder.nativeOrder());
+        sourceFormat.pack(vertexData, vertexCount, format, data);
+        data.position(0);
+
+        if (!useBufferObjects) {
+            byteBuffer = data;
+            bufferId = 0;
+            return;
+        }
+        final int[] buffers = new int[1];
+        glGenBuffers(buffers.length, buffers, 0);
+        if (buffers[0] == 0) {
+            throw new RuntimeException("Could not create a new vertex buffer object.");
+        }
+        bufferId = buffers[0];
+        GLState.bindBuffer(GL_ARRAY_BUFFER, bufferId);
+        glBufferData(GL_ARRAY_BUFFER, sizeInBytes, data, GL_STATIC_DRAW);
+        byteBuffer = null;
     }
-        
-    public void setVertexAttribPointer(int dataOffset, int attributeLocation,
-        int componentCount, int stride) {        
-        floatBuffer.position(dataOffset);        
-        glVertexAttribPointer(attributeLocation, componentCount,
-            GL_FLOAT, false, stride, floatBuffer);
-        glEnableVertexAttribArray(attributeLocation);
-        
-        floatBuffer.position(0);
+
+    /**
+     * The format the data was packed into.
+     */
+    public VertexFormat getFormat() {
+        return format;
+    }
+
+    public int getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * Makes this the vertex data that setVertexAttribPointer() and the draw
+     * calls use. Returns false if a vertex array object already holds the
+     * attribute pointers, so they needn't be set again. They're recorded
+     * once, so a mesh must always be bound with the same program.
+     */
+    public boolean bind() {
+        if (vertexArrayObject != 0) {
+            GLState.bindVertexArray(vertexArrayObject);
+            return false;
+        }
+        if (!GL.hasVertexArrayObjects()) {
+            return true;
+        }
+        if (bufferId != 0) {
+            final int[] arrays = new int[1];
+            glGenVertexArrays(arrays.length, arrays, 0);
+            vertexArrayObject = arrays[0];
+        }
+        // Client memory arrays go in the default object.
+        GLState.bindVertexArray(vertexArrayObject);
+        return true;
+    }
+
+    /**
+     * Points the attribute location at one of the VertexFormat attributes
+     * of the data, such as VertexFormat.NORMAL.
+     */
+    public void setVertexAttribPointer(int attribute, int attributeLocation) {
+        if (!format.has(attribute)) {
+            throw new IllegalArgumentException(
+                "Attribute " + attribute + " is not in the vertex data");
+        }
+        final int componentCount = format.getComponentCount(attribute);
+        final int type = format.getGLType(attribute);
+        final boolean normalized = format.isNormalized(attribute);
+        final int offset = format.getOffset(attribute);
+        final int stride = format.getStride();
+        if (bufferId != 0) {
+            GLState.bindBuffer(GL_ARRAY_BUFFER, bufferId);
+            glVertexAttribPointer(attributeLocation, componentCount,
+                type, normalized, stride, offset);
+        } else {
+            GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+            byteBuffer.position(offset);
+            glVertexAttribPointer(attributeLocation, componentCount,
+                type, normalized, stride, byteBuffer);
+            byteBuffer.position(0);
+        }
+        GLState.enableVertexAttribArray(attributeLocation);
     }
 }
@@ -0,0 +1,345 @@
+package com.airhockey.android.data;
+
+import static android.opengl.GLES20.GL_BYTE;
+import static android.opengl.GLES20.GL_FLOAT;
+import static android.opengl.GLES20.GL_SHORT;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of a vertex: which attributes it has, and where and how each
+ * one is stored. Meshes describe the float arrays they build with one, and
+ * VertexArray packs them into a compact one with compact(), so the offsets
+ * and the stride are never counted by hand.
+ *
+ * Attributes are aligned to 4 bytes, which is what GPUs fetch fastest.
+ */
+public class VertexFormat {
+    // The attributes a vertex can have.
+    public static final int POSITION = 0;
+    public static final int TEXTURE_COORDINATES = 1;
+    public static final int NORMAL = 2;
+    // Which copy of a pseudo-instanced mesh a vertex belongs to.
+    public static final int INSTANCE_INDEX = 3;
+    private static final int ATTRIBUTE_COUNT = 4;
+
+    // How an attribute is stored. The normalized ones are read back as
+    // -1 to 1, or 0 to 1 for the unsigned one.
+    public static final int FLOAT = 0;
+    public static final int HALF_FLOAT = 1;
+    public static final int NORMALIZED_SHORT = 2;
+    public static final int NORMALIZED_UNSIGNED_SHORT = 3;
+    public static final int NORMALIZED_BYTE = 4;
+
+    // The half float type of ES 3.0, and of OES_vertex_half_float on ES 2.0,
+    // which GLES20 doesn't have constants for.
+    public static final int GL_HALF_FLOAT = 0x140B;
+    public static final int GL_HALF_FLOAT_OES = 0x8D61;
+
+    // The largest error a half float position may have, as a part of the
+    // mesh's size. Half floats have 11 significant bits.
+    private static final float HALF_FLOAT_POSITION_TOLERANCE = 1f / 2048f;
+    private static final float MAX_HALF_FLOAT = 65504f;
+
+    private static int halfFloatType = 0;
+    private static boolean quantize = true;
+
+    private final int[] componentCounts = new int[ATTRIBUTE_COUNT];
+    private final int[] storage = new int[ATTRIBUTE_COUNT];
+    private final int[] offsets = new int[ATTRIBUTE_COUNT];
+    private final int stride;
+
+    public static class Builder {
+        private final int[] componentCounts = new int[ATTRIBUTE_COUNT];
+        private final int[] storage = new int[ATTRIBUTE_COUNT];
+        private final int[] offsets = new int[ATTRIBUTE_COUNT];
+        private int stride = 0;
+
+        /**
+         * Adds an attribute after the ones added so far.
+         */
+        public Builder add(int attribute, int componentCount, int storage) {
+            if (componentCounts[attribute] != 0) {
+                throw new IllegalArgumentException(
+                    "Attribute " + attribute + " is already in the format");
+            }
+            componentCounts[attribute] = componentCount;
+            this.storage[attribute] = storage;
+            offsets[attribute] = stride;
+            stride += alignUp(componentCount * bytesPerComponent(storage));
+            return this;
+        }
+
+        public VertexFormat build() {
+            return new VertexFormat(componentCounts, storage, offsets, stride);
+        }
+    }
+
+    private VertexFormat(int[] componentCounts, int[] storage, int[] offsets,
+        int stride) {
+        System.arraycopy(componentCounts, 0, this.componentCounts, 0, ATTRIBUTE_COUNT);
+        System.arraycopy(storage, 0, this.storage, 0, ATTRIBUTE_COUNT);
+        System.arraycopy(offsets, 0, this.offsets, 0, ATTRIBUTE_COUNT);
+        this.stride = stride;
+    }
+
+    /**
+     * The GL type of half float attributes, GL_HALF_FLOAT or
+     * GL_HALF_FLOAT_OES, or 0 if the context has none. Without them,
+     * compact() keeps positions in floats.
+     */
+    public static void setHalfFloatType(int type) {
+        halfFloatType = type;
+    }
+
+    /**
+     * Whether compact() may store attributes in fewer bits than a float.
+     * Turning it off leaves it to only drop the unused attributes. Meshes
+     * that already exist keep their format.
+     */
+    public static void setQuantize(boolean quantize) {
+        VertexFormat.quantize = quantize;
+    }
+
+    public boolean has(int attribute) {
+        return componentCounts[attribute] != 0;
+    }
+
+    public int getComponentCount(int attribute) {
+        return componentCounts[attribute];
+    }
+
+    public int getStorage(int attribute) {
+        return storage[attribute];
+    }
+
+    /**
+     * The offset of the attribute from the start of the vertex, in bytes.
+     */
+    public int getOffset(int attribute) {
+        return offsets[attribute];
+    }
+
+    /**
+     * The size of a vertex, in bytes.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    public int getGLType(int attribute) {
+        switch (storage[attribute]) {
+        case HALF_FLOAT:
+            return halfFloatType;
+        case NORMALIZED_SHORT:
+            return GL_SHORT;
+        case NORMALIZED_UNSIGNED_SHORT:
+            return GL_UNSIGNED_SHORT;
+        case NORMALIZED_BYTE:
+            return GL_BYTE;
+        default:
+            return GL_FLOAT;
+        }
+    }
+
+    public boolean isNormalized(int attribute) {
+        return storage[attribute] >= NORMALIZED_SHORT;
+    }
+
+    /**
+     * The same layout with only the given attributes, for a mesh whose
+     * program reads fewer attributes than its data has.
+     */
+    public VertexFormat select(int... attributes) {
+        final int[] selected = new int[ATTRIBUTE_COUNT];
+        for (int attribute : attributes) {
+            selected[attribute] = componentCounts[attribute];
+        }
+        return new VertexFormat(selected, storage, offsets, stride);
+    }
+
+    /**
+     * A tightly packed format for vertexCount vertices of float data in
+     * this format, in which every attribute takes the fewest bytes that
+     * keep it accurate: normals are normalized bytes, texture coordinates
+     * in 0 to 1 are normalized unsigned shorts, and positions are half
+     * floats where the context has them and the error stays under 1/2048
+     * of the mesh's size. Everything else stays a float.
+     */
+    public VertexFormat compact(float[] vertexData, int vertexCount) {
+        final Builder builder = new Builder();
+        for (int attribute = 0; attribute < ATTRIBUTE_COUNT; attribute++) {
+            if (!has(attribute)) {
+                continue;
+            }
+            int packed = FLOAT;
+            if (!quantize) {
+                // Floats, but without the attributes this format leaves out.
+            } else if (attribute == NORMAL) {
+                packed = NORMALIZED_BYTE;
+            } else if (attribute == TEXTURE_COORDINATES
+                && inRange(vertexData, vertexCount, attribute, 0f, 1f)) {
+                packed = NORMALIZED_UNSIGNED_SHORT;
+            } else if (attribute == POSITION && halfFloatType != 0
+                && halfFloatsAccurate(vertexData, vertexCount)) {
+                packed = HALF_FLOAT;
+            }
+            builder.add(attribute, componentCounts[attribute], packed);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes vertexCount vertices of float data in this format into out,
+     * from its position on, in the target format. The target format must
+     * only have attributes this one has, with the same component counts.
+     */
+    public void pack(float[] vertexData, int vertexCount, VertexFormat target,
+        ByteBuffer out) {
+        final int sourceFloats = stride / 4;
+        final int start = out.position();
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            final int vertexStart = start + vertex * target.stride;
+            for (int attribute = 0; attribute < ATTRIBUTE_COUNT; attribute++) {
+                if (!target.has(attribute)) {
+                    continue;
+                }
+                final int from = vertex * sourceFloats + offsets[attribute] / 4;
+                int to = vertexStart + target.offsets[attribute];
+                for (int i = 0; i < target.componentCounts[attribute]; i++) {
+                    final float value = vertexData[from + i];
+                    switch (target.storage[attribute]) {
+                    case HALF_FLOAT:
+                        out.putShort(to, toHalfFloat(value));
+                        to += 2;
+                        break;
+                    case NORMALIZED_SHORT:
+                        out.putShort(to, (short) Math.round(clamp(value, -1f) * 32767f));
+                        to += 2;
+                        break;
+                    case NORMALIZED_UNSIGNED_SHORT:
+                        out.putShort(to, (short) Math.round(clamp(value, 0f) * 65535f));
+                        to += 2;
+                        break;
+                    case NORMALIZED_BYTE:
+                        // ES 2.0 reads c back as (2c + 1) / 255, off by
+                        // under half a percent, which lighting doesn't show.
+                        out.put(to, (byte) Math.round(clamp(value, -1f) * 127f));
+                        to += 1;
+                        break;
+                    default:
+                        out.putFloat(to, value);
+                        to += 4;
+                        break;
+                    }
+                }
+            }
+        }
+        out.position(start + vertexCount * target.stride);
+    }
+
+    private boolean inRange(float[] vertexData, int vertexCount, int attribute,
+        float min, float max) {
+        final int floats = stride / 4;
+        for (int vertex = 0; vertex < vertexCount; vertex++) {
+            final int from = vertex * floats + offsets[attribute] / 4;
+            for (int i = 0; i < componentCounts[attribute]; i++) {
+                final float value = vertexData[from + i];
+                if (value < min || value > max) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean halfFloatsAccurate(float[] vertexData, int vertexCount) {
+        final int floats = stride / 4;
+        final int components = componentCounts[POSITION];
+        float size = 0f;
+        float maxError = 0f;
+        for (int i = 0; i < components; i++) {
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                final float value = vertexData[vertex * floats + offsets[POSITION] / 4 + i];
+                if (Math.abs(value) > MAX_HALF_FLOAT) {
+                    return false;
+                }
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                maxError = Math.max(maxError,
+                    Math.abs(fromHalfFloat(toHalfFloat(value)) - value));
+            }
+            size = Math.max(size, max - min);
+        }
+        return maxError <= size * HALF_FLOAT_POSITION_TOLERANCE;
+    }
+
+    /**
+     * The nearest half float, with ties rounded away from zero.
+     */
+    static short toHalfFloat(float value) {
+        final int bits = Float.floatToIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        final int mantissa = bits & 0x7fffff;
+        if (exponent >= 31) {
+            return (short) (sign | 0x7c00);
+        }
+        if (exponent <= 0) {
+            // Subnormal, or too small even for that.
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            final int shift = 14 - exponent;
+            final int full = mantissa | 0x800000;
+            int half = full >> shift;
+            if ((full & (1 << (shift - 1))) != 0) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = sign | (exponent << 10) | (mantissa >> 13);
+        if ((mantissa & 0x1000) != 0) {
+            // Carries into the exponent where it must.
+            half++;
+        }
+        return (short) half;
+    }
+
+    static float fromHalfFloat(short half) {
+        final int sign = (half & 0x8000) << 16;
+        final int exponent = (half >>> 10) & 0x1f;
+        final int mantissa = half & 0x3ff;
+        if (exponent == 0) {
+            final float value = mantissa / 16777216f;
+            return sign != 0 ? -value : value;
+        }
+        if (exponent == 31) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(
+            sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    private static float clamp(float value, float min) {
+        return Math.max(min, Math.min(1f, value));
+    }
+
+    private static int bytesPerComponent(int storage) {
+        switch (storage) {
+        case FLOAT:
+            return 4;
+        case NORMALIZED_BYTE:
+            return 1;
+        default:
+            return 2;
+        }
+    }
+
+    private static int alignUp(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+}
@@ -0,0 +1,70 @@
+package com.airhockey.android.net;
+
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sends packets as UDP datagrams through a non-blocking DatagramChannel that
+ * is connected to the other device.
+ */
+public class DatagramTransport implements PacketTransport {
+    private final DatagramChannel channel;
+
+    public DatagramTransport(DatagramChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Opens a channel on the given local address and connects it to the
+     * other device.
+     */
+    public static DatagramTransport open(SocketAddress local, SocketAddress remote)
+        throws IOException {
+        final DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.socket().bind(local);
+            channel.connect(remote);
+            return new DatagramTransport(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        try {
+            // Writes nothing if the socket buffer is full, which we treat like
+            // any other lost packet.
+            channel.write(packet);
+        } catch (PortUnreachableException e) {
+            // The other device isn't listening yet.
+        }
+    }
+
+    @Override
+    public boolean receive(ByteBuffer packet) throws IOException {
+        packet.clear();
+        try {
+            if (channel.receive(packet) == null) {
+                return false;
+            }
+        } catch (PortUnreachableException e) {
+            return false;
+        }
+        packet.flip();
+        return true;
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
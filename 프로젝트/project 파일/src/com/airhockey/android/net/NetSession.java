@@ -0,0 +1,543 @@
+package com.airhockey.android.net;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.AirHockeySimulation.State;
+import com.airhockey.android.simulation.MalletTargets;
+import com.airhockey.android.util.Varint;
+
+/**
+ * A two device game: each device moves one mallet, the host the blue one and
+ * the other device the red one, and both run the whole simulation.
+ *
+ * Every tick, the local mallet target is sent to the other device. Its
+ * mallet target for the tick usually hasn't arrived yet, so the last one we
+ * know is used instead. When the real one arrives and turns out different,
+ * the simulation is rolled back to that tick and played forward again with
+ * the right input.
+ *
+ * Both devices round the puck to a fixed grid every SNAPSHOT_INTERVAL ticks,
+ * and the host sends the rounded puck state of those ticks, as a delta from
+ * the last one the other device acknowledged. The other device compares it
+ * to its own and, should they ever differ, takes the host's puck and plays
+ * forward from there.
+ */
+public class NetSession implements MalletTargets {
+    // Packet layout, all numbers are varints:
+    //   PACKET_MAGIC (a byte)
+    //   first input tick, input count, then for each input the zigzag delta
+    //     of its quantized x and z from the input before it
+    //   next input tick we expect, acknowledging the other device's inputs
+    //   last snapshot tick received + 1, or 0
+    //   snapshot tick + 1, or 0 if no snapshot follows, then:
+    //   base snapshot tick + 1, or 0 if the snapshot isn't a delta
+    //   zigzag delta of the quantized puck x, z, vector x and vector z
+    private static final byte PACKET_MAGIC = (byte) 0xAE;
+    private static final int MAX_PACKET_SIZE = 512;
+
+    // Ticks of state and input we keep, to roll back to.
+    private static final int HISTORY = 128;
+    // How far we simulate ahead of the other device before waiting for it.
+    private static final int MAX_PREDICTION = 60;
+
+    public static final int SNAPSHOT_INTERVAL = 6;
+    private static final int SNAPSHOT_VALUES = 4;
+
+    private static final float POSITION_SCALE = 4096f;
+    private static final float VECTOR_SCALE = 65536f;
+
+    private final AirHockeySimulation simulation;
+    private final PacketTransport transport;
+    private final boolean host;
+    private final int inputDelay;
+
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+
+    // Indexed by tick % HISTORY.
+    private final State[] states = new State[HISTORY];
+    private final int[] localInputX = new int[HISTORY];
+    private final int[] localInputZ = new int[HISTORY];
+    private final int[] remoteInputX = new int[HISTORY];
+    private final int[] remoteInputZ = new int[HISTORY];
+    private final int[] usedRemoteInputX = new int[HISTORY];
+    private final int[] usedRemoteInputZ = new int[HISTORY];
+    private final long[] snapshotTicks = new long[HISTORY];
+    private final int[] snapshots = new int[HISTORY * SNAPSHOT_VALUES];
+
+    private final State scratchState = new State();
+    private final int[] scratchSnapshot = new int[SNAPSHOT_VALUES];
+
+    private long tick = 0;
+
+    // The local mallet target, as last set by touch.
+    private int localTargetX;
+    private int localTargetZ;
+    private long lastLocalInputTick;
+
+    // Remote inputs are only accepted in order, so all of them up to this
+    // tick are known.
+    private long lastRemoteInputTick;
+    private int lastRemoteInputX;
+    private int lastRemoteInputZ;
+    // The first of our inputs the other device hasn't acknowledged.
+    private long peerNextInputTick;
+
+    private long rollbackFrom = Long.MAX_VALUE;
+
+    private long lastSentSnapshotTick = -1;
+    private long peerSnapshotTick = -1;
+    private long lastReceivedSnapshotTick = -1;
+    private long pendingSnapshotTick = -1;
+
+    private long bytesSent = 0;
+    private long bytesReceived = 0;
+    private int packetsSent = 0;
+    private int packetsReceived = 0;
+    private int malformedPackets = 0;
+    private int rollbacks = 0;
+    private long resimulatedTicks = 0;
+    private int maxRollbackDepth = 0;
+    private final int[] rollbackDepthCounts = new int[HISTORY];
+    private int corrections = 0;
+    private int stalledTicks = 0;
+
+    /**
+     * Resets the simulation and starts a game. Both devices must use the same
+     * input delay: the number of ticks between a touch and the moment it
+     * moves the mallet, which gives the input that much time to reach the
+     * other device before it needs it, so fewer ticks have to be rolled back.
+     */
+    public NetSession(AirHockeySimulation simulation, PacketTransport transport,
+        boolean host, int inputDelay) {
+        this.simulation = simulation;
+        this.transport = transport;
+        this.host = host;
+        this.inputDelay = inputDelay;
+
+        simulation.reset();
+        for (int i = 0; i < HISTORY; i++) {
+            states[i] = new State();
+            snapshotTicks[i] = -1;
+        }
+
+        final State start = scratchState;
+        simulation.saveState(start);
+        localTargetX = quantizePosition(host ? start.blueMalletX : start.redMalletX);
+        localTargetZ = quantizePosition(host ? start.blueMalletZ : start.redMalletZ);
+        lastRemoteInputX = quantizePosition(host ? start.redMalletX : start.blueMalletX);
+        lastRemoteInputZ = quantizePosition(host ? start.redMalletZ : start.blueMalletZ);
+
+        // Both devices leave their mallets where they are for the first
+        // inputDelay ticks.
+        for (int t = 0; t < inputDelay; t++) {
+            localInputX[t] = localTargetX;
+            localInputZ[t] = localTargetZ;
+            remoteInputX[t] = lastRemoteInputX;
+            remoteInputZ[t] = lastRemoteInputZ;
+        }
+        lastLocalInputTick = inputDelay - 1;
+        lastRemoteInputTick = inputDelay - 1;
+        peerNextInputTick = inputDelay;
+    }
+
+    @Override
+    public void setBlueMalletTarget(float x, float z) {
+        if (host) {
+            localTargetX = quantizePosition(x);
+            localTargetZ = quantizePosition(z);
+        }
+    }
+
+    @Override
+    public void setRedMalletTarget(float x, float z) {
+        if (!host) {
+            localTargetX = quantizePosition(x);
+            localTargetZ = quantizePosition(z);
+        }
+    }
+
+    /**
+     * Handles what arrived from the other device, rolling back if needed,
+     * then simulates one step and sends our input. Call this at the fixed
+     * simulation rate, instead of AirHockeySimulation.step(). Returns false
+     * if no step was taken, because we are too far ahead of the other device.
+     */
+    public boolean tick() throws IOException {
+        receive();
+        if (rollbackFrom < tick) {
+            resimulate(rollbackFrom);
+        }
+        rollbackFrom = Long.MAX_VALUE;
+        if (!host) {
+            checkSnapshot();
+        }
+
+        if (tick - lastRemoteInputTick > MAX_PREDICTION
+            || tick + inputDelay - peerNextInputTick >= MAX_PREDICTION) {
+            stalledTicks++;
+            send();
+            return false;
+        }
+
+        final long inputTick = tick + inputDelay;
+        localInputX[slot(inputTick)] = localTargetX;
+        localInputZ[slot(inputTick)] = localTargetZ;
+        lastLocalInputTick = inputTick;
+
+        simulateTick();
+        send();
+        return true;
+    }
+
+    private void simulateTick() {
+        final int slot = slot(tick);
+        if (tick % SNAPSHOT_INTERVAL == 0) {
+            roundPuck();
+        }
+        simulation.saveState(states[slot]);
+
+        // Guess that the other player keeps doing what they did last.
+        final int remoteX =
+            tick <= lastRemoteInputTick ? remoteInputX[slot] : lastRemoteInputX;
+        final int remoteZ =
+            tick <= lastRemoteInputTick ? remoteInputZ[slot] : lastRemoteInputZ;
+        usedRemoteInputX[slot] = remoteX;
+        usedRemoteInputZ[slot] = remoteZ;
+
+        final float localX = localInputX[slot] / POSITION_SCALE;
+        final float localZ = localInputZ[slot] / POSITION_SCALE;
+        if (host) {
+            simulation.setBlueMalletTarget(localX, localZ);
+            simulation.setRedMalletTarget(
+                remoteX / POSITION_SCALE, remoteZ / POSITION_SCALE);
+        } else {
+            simulation.setBlueMalletTarget(
+                remoteX / POSITION_SCALE, remoteZ / POSITION_SCALE);
+            simulation.setRedMalletTarget(localX, localZ);
+        }
+        simulation.step();
+        tick++;
+    }
+
+    /**
+     * Rewinds the simulation to the given tick and plays it forward to the
+     * current tick again.
+     */
+    private void resimulate(long from) {
+        final long to = tick;
+        simulation.restoreState(states[slot(from)]);
+        tick = from;
+        while (tick < to) {
+            simulateTick();
+        }
+
+        final int depth = (int) (to - from);
+        rollbacks++;
+        resimulatedTicks += depth;
+        maxRollbackDepth = Math.max(maxRollbackDepth, depth);
+        rollbackDepthCounts[Math.min(depth, HISTORY - 1)]++;
+    }
+
+    /**
+     * Puts the puck on the grid that snapshots are quantized to, so that a
+     * snapshot describes the puck exactly.
+     */
+    private void roundPuck() {
+        simulation.saveState(scratchState);
+        quantizeSnapshot(scratchState, scratchSnapshot);
+        dequantizeSnapshot(scratchSnapshot, 0, scratchState);
+        simulation.restoreState(scratchState);
+    }
+
+    private void receive() throws IOException {
+        while (transport.receive(packet)) {
+            packetsReceived++;
+            bytesReceived += packet.remaining();
+            try {
+                readPacket();
+            } catch (BufferUnderflowException e) {
+                malformedPackets++;
+            } catch (IllegalArgumentException e) {
+                malformedPackets++;
+            }
+        }
+    }
+
+    private void readPacket() {
+        if (packet.get() != PACKET_MAGIC) {
+            malformedPackets++;
+            return;
+        }
+
+        final long firstInputTick = Varint.get(packet);
+        final int inputCount = Varint.get(packet);
+        int x = 0;
+        int z = 0;
+        for (int i = 0; i < inputCount; i++) {
+            x += Varint.unzigzag(Varint.get(packet));
+            z += Varint.unzigzag(Varint.get(packet));
+            receiveRemoteInput(firstInputTick + i, x, z);
+        }
+        peerNextInputTick = Math.max(peerNextInputTick, Varint.get(packet));
+        peerSnapshotTick = Math.max(peerSnapshotTick, Varint.get(packet) - 1L);
+
+        final long snapshotTick = Varint.get(packet) - 1L;
+        if (snapshotTick >= 0) {
+            final long baseTick = Varint.get(packet) - 1L;
+            for (int i = 0; i < SNAPSHOT_VALUES; i++) {
+                scratchSnapshot[i] = Varint.unzigzag(Varint.get(packet));
+            }
+            if (!host) {
+                receiveSnapshot(snapshotTick, baseTick);
+            }
+        }
+    }
+
+    private void receiveRemoteInput(long inputTick, int x, int z) {
+        if (inputTick != lastRemoteInputTick + 1) {
+            // Already known, or there's a gap; it will be sent again.
+            return;
+        }
+        final int slot = slot(inputTick);
+        remoteInputX[slot] = x;
+        remoteInputZ[slot] = z;
+        lastRemoteInputTick = inputTick;
+        lastRemoteInputX = x;
+        lastRemoteInputZ = z;
+
+        if (inputTick < tick
+            && (usedRemoteInputX[slot] != x || usedRemoteInputZ[slot] != z)) {
+            // We guessed wrong.
+            rollbackFrom = Math.min(rollbackFrom, inputTick);
+        }
+    }
+
+    private void receiveSnapshot(long snapshotTick, long baseTick) {
+        if (snapshotTick <= lastReceivedSnapshotTick) {
+            return;
+        }
+        if (baseTick >= 0) {
+            final int base = slot(baseTick);
+            if (snapshotTicks[base] != baseTick) {
+                return;
+            }
+            for (int i = 0; i < SNAPSHOT_VALUES; i++) {
+                scratchSnapshot[i] += snapshots[base * SNAPSHOT_VALUES + i];
+            }
+        }
+
+        final int slot = slot(snapshotTick);
+        snapshotTicks[slot] = snapshotTick;
+        System.arraycopy(scratchSnapshot, 0,
+            snapshots, slot * SNAPSHOT_VALUES, SNAPSHOT_VALUES);
+        lastReceivedSnapshotTick = snapshotTick;
+        pendingSnapshotTick = snapshotTick;
+    }
+
+    /**
+     * Compares the last snapshot from the host to our own state at that
+     * tick, once we know all the inputs up to it.
+     */
+    private void checkSnapshot() {
+        final long snapshotTick = pendingSnapshotTick;
+        if (snapshotTick < 0
+            || snapshotTick >= tick || snapshotTick > lastRemoteInputTick + 1) {
+            return;
+        }
+        pendingSnapshotTick = -1;
+
+        final int slot = slot(snapshotTick);
+        final State state = states[slot];
+        if (state.tick != snapshotTick) {
+            return;
+        }
+
+        quantizeSnapshot(state, scratchSnapshot);
+        boolean same = true;
+        for (int i = 0; i < SNAPSHOT_VALUES; i++) {
+            same &= scratchSnapshot[i] == snapshots[slot * SNAPSHOT_VALUES + i];
+        }
+        if (!same) {
+            // Out of sync: take the host's puck and play forward from there.
+            dequantizeSnapshot(snapshots, slot * SNAPSHOT_VALUES, state);
+            corrections++;
+            resimulate(snapshotTick);
+        }
+    }
+
+    private void send() throws IOException {
+        packet.clear();
+        packet.put(PACKET_MAGIC);
+
+        final long firstInputTick = peerNextInputTick;
+        final int inputCount = (int) (lastLocalInputTick - firstInputTick + 1);
+        Varint.put(packet, (int) firstInputTick);
+        Varint.put(packet, inputCount);
+        int x = 0;
+        int z = 0;
+        for (long t = firstInputTick; t <= lastLocalInputTick; t++) {
+            final int slot = slot(t);
+            Varint.put(packet, Varint.zigzag(localInputX[slot] - x));
+            Varint.put(packet, Varint.zigzag(localInputZ[slot] - z));
+            x = localInputX[slot];
+            z = localInputZ[slot];
+        }
+        Varint.put(packet, (int) (lastRemoteInputTick + 1));
+        Varint.put(packet, (int) (lastReceivedSnapshotTick + 1));
+
+        if (host) {
+            putSnapshot();
+        } else {
+            Varint.put(packet, 0);
+        }
+
+        packet.flip();
+        packetsSent++;
+        bytesSent += packet.remaining();
+        transport.send(packet);
+    }
+
+    /**
+     * Adds the newest snapshot tick whose state is final, if it hasn't been
+     * sent yet.
+     */
+    private void putSnapshot() {
+        final long latest = Math.min(tick - 1, lastRemoteInputTick + 1);
+        final long snapshotTick = latest - latest % SNAPSHOT_INTERVAL;
+        if (latest < 0 || snapshotTick <= lastSentSnapshotTick
+            || states[slot(snapshotTick)].tick != snapshotTick) {
+            Varint.put(packet, 0);
+            return;
+        }
+        final int slot = slot(snapshotTick);
+
+        quantizeSnapshot(states[slot], scratchSnapshot);
+        snapshotTicks[slot] = snapshotTick;
+        System.arraycopy(scratchSnapshot, 0,
+            snapshots, slot * SNAPSHOT_VALUES, SNAPSHOT_VALUES);
+        lastSentSnapshotTick = snapshotTick;
+
+        Varint.put(packet, (int) (snapshotTick + 1));
+        final int base = peerSnapshotTick >= 0 ? slot(peerSnapshotTick) : -1;
+        if (base >= 0 && snapshotTicks[base] == peerSnapshotTick) {
+            Varint.put(packet, (int) (peerSnapshotTick + 1));
+            for (int i = 0; i < SNAPSHOT_VALUES; i++) {
+                Varint.put(packet, Varint.zigzag(scratchSnapshot[i]
+                    - snapshots[base * SNAPSHOT_VALUES + i]));
+            }
+        } else {
+            Varint.put(packet, 0);
+            for (int i = 0; i < SNAPSHOT_VALUES; i++) {
+                Varint.put(packet, Varint.zigzag(scratchSnapshot[i]));
+            }
+        }
+    }
+
+    private static void quantizeSnapshot(State state, int[] snapshot) {
+        snapshot[0] = quantizePosition(state.puckX);
+        snapshot[1] = quantizePosition(state.puckZ);
+        snapshot[2] = Math.round(state.puckVectorX * VECTOR_SCALE);
+        snapshot[3] = Math.round(state.puckVectorZ * VECTOR_SCALE);
+    }
+
+    private static void dequantizeSnapshot(int[] snapshot, int offset, State state) {
+        state.puckX = snapshot[offset] / POSITION_SCALE;
+        state.puckZ = snapshot[offset + 1] / POSITION_SCALE;
+        state.puckVectorX = snapshot[offset + 2] / VECTOR_SCALE;
+        state.puckVectorZ = snapshot[offset + 3] / VECTOR_SCALE;
+    }
+
+    private static int quantizePosition(float position) {
+        return Math.round(position * POSITION_SCALE);
+    }
+
+    private static int slot(long tick) {
+        return (int) (tick % HISTORY);
+    }
+
+    /**
+     * Copies the state the simulation had at the start of the given tick, if
+     * it is still in the history.
+     */
+    public boolean copyState(long stateTick, State out) {
+        if (stateTick < 0 || stateTick >= tick || tick - stateTick >= HISTORY) {
+            return false;
+        }
+        final State state = states[slot(stateTick)];
+        if (state.tick != stateTick) {
+            return false;
+        }
+        out.set(state);
+        return true;
+    }
+
+    public boolean isHost() {
+        return host;
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * All of the other device's inputs up to this tick have arrived, so the
+     * simulation is final up to the next tick.
+     */
+    public long getLastRemoteInputTick() {
+        return lastRemoteInputTick;
+    }
+
+    /** Bytes sent, without UDP and IP headers. */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public int getPacketsSent() {
+        return packetsSent;
+    }
+
+    public int getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    public int getMalformedPackets() {
+        return malformedPackets;
+    }
+
+    public int getRollbackCount() {
+        return rollbacks;
+    }
+
+    public long getResimulatedTicks() {
+        return resimulatedTicks;
+    }
+
+    public int getMaxRollbackDepth() {
+        return maxRollbackDepth;
+    }
+
+    /**
+     * How many rollbacks went back each number of ticks. The last entry
+     * counts everything at least that deep.
+     */
+    public int[] getRollbackDepthCounts() {
+        return rollbackDepthCounts;
+    }
+
+    /** Number of times the puck had to be corrected from a host snapshot. */
+    public int getCorrectionCount() {
+        return corrections;
+    }
+
+    /** Ticks skipped because we were too far ahead of the other device. */
+    public int getStalledTicks() {
+        return stalledTicks;
+    }
+}
@@ -0,0 +1,21 @@
+package com.airhockey.android.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Unreliable, unordered delivery of small packets to the other device.
+ */
+public interface PacketTransport {
+    /**
+     * Sends the remaining bytes of packet. Never blocks; the packet may be
+     * lost.
+     */
+    void send(ByteBuffer packet) throws IOException;
+
+    /**
+     * Clears packet and reads the next waiting packet into it, ready to be
+     * read. Returns false without blocking if nothing has arrived.
+     */
+    boolean receive(ByteBuffer packet) throws IOException;
+}
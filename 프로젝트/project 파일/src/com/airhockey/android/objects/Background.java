@@ -8,22 +8,26 @@
 ***/
 package com.airhockey.android.objects;
 import static android.opengl.GLES20.GL_TRIANGLE_FAN;
-import static android.opengl.GLES20.glDrawArrays;
+import static com.airhockey.android.render.GL.glDrawArrays;
 import static com.airhockey.android.Constants.BYTES_PER_FLOAT;
 
 import com.airhockey.android.data.VertexArray;
+import com.airhockey.android.data.VertexFormat;
 import com.airhockey.android.programs.TextureShaderProgram;
+import com.airhockey.android.scene.Bounds;
+import com.airhockey.android.util.TextureAtlas;
 
 public class Background {            
-    private static final int POSITION_COMPONENT_COUNT = 2;
-    private static final int TEXTURE_COORDINATES_COMPONENT_COUNT = 2;
-    private static final int NORMAL_COMPONENT_COUNT = 3;
-    private static final int STRIDE = 
-        (POSITION_COMPONENT_COUNT + TEXTURE_COORDINATES_COMPONENT_COUNT + NORMAL_COMPONENT_COUNT)
-        * BYTES_PER_FLOAT;
+    private static final VertexFormat VERTEX_FORMAT = new VertexFormat.Builder()
+        .add(VertexFormat.POSITION, 2, VertexFormat.FLOAT)
+        .add(VertexFormat.TEXTURE_COORDINATES, 2, VertexFormat.FLOAT)
+        .add(VertexFormat.NORMAL, 3, VertexFormat.FLOAT)
+        .build();
+    private static final int FLOATS_PER_VERTEX = 
+        VERTEX_FORMAT.getStride() / BYTES_PER_FLOAT;
     
     private static final float[] VERTEX_DATA = {
-        // Order of coordinates: X, Y, S, T
+        // Order of coordinates: X, Y, S, T, NX, NY, NZ
 
         // Triangle Fan
            0f,    0f, 0.5f, 0.5f, 0f, 0f, -1f, 
@@ -33,29 +37,42 @@ public class Background {
         -0.5f,  0.8f,   0f, 0f, 0f, 0f, -1f, 
         -0.5f, -0.8f,   0f, 1f, 0f, 0f, -1f};
     
+    public final Bounds bounds;
+
     private final VertexArray vertexArray;
     
     public Background() {
-        vertexArray = new VertexArray(VERTEX_DATA);
+        this(null);
+    }
+    
+    /**
+     * The background textured from a region of a texture atlas.
+     */
+    public Background(TextureAtlas.Region region) {
+        final float[] vertexData = VERTEX_DATA.clone();
+        if (region != null) {
+            region.remap(vertexData, 
+                VERTEX_FORMAT.getOffset(VertexFormat.TEXTURE_COORDINATES) / BYTES_PER_FLOAT,
+                6, FLOATS_PER_VERTEX);
+        }
+        vertexArray = new VertexArray(vertexData, VERTEX_FORMAT);
+        bounds = Bounds.fromVertices(vertexData, 6, 
+            VERTEX_FORMAT.getComponentCount(VertexFormat.POSITION), FLOATS_PER_VERTEX);
     }
     
     public void bindData(TextureShaderProgram textureProgram) {
-        vertexArray.setVertexAttribPointer(
-            0, 
-            textureProgram.getPositionAttributeLocation(), 
-            POSITION_COMPONENT_COUNT,
-            STRIDE);
+        if (!vertexArray.bind()) {
+            return;
+        }
+
+        vertexArray.setVertexAttribPointer(VertexFormat.POSITION,
+            textureProgram.getPositionAttributeLocation());
         
-        vertexArray.setVertexAttribPointer(
-            POSITION_COMPONENT_COUNT, 
-            textureProgram.getTextureCoordinatesAttributeLocation(),
-            TEXTURE_COORDINATES_COMPONENT_COUNT, 
-            STRIDE);
+        vertexArray.setVertexAttribPointer(VertexFormat.TEXTURE_COORDINATES,
+            textureProgram.getTextureCoordinatesAttributeLocation());
         
-        vertexArray.setVertexAttribPointer(
-            POSITION_COMPONENT_COUNT, 
-            textureProgram.getNormalAttributeLocation(), 
-            NORMAL_COMPONENT_COUNT, STRIDE);  
+        vertexArray.setVertexAttribPointer(VertexFormat.NORMAL,
+            textureProgram.getNormalAttributeLocation());
     }
         
     public void draw() {                                
@@ -0,0 +1,299 @@
+package com.airhockey.android.objects;
+
+import static android.opengl.GLES20.GL_TRIANGLES;
+import static com.airhockey.android.Constants.BYTES_PER_FLOAT;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.airhockey.android.data.IndexBuffer;
+import com.airhockey.android.data.InstanceBuffer;
+import com.airhockey.android.data.VertexArray;
+import com.airhockey.android.data.VertexFormat;
+import com.airhockey.android.objects.ObjectBuilder.DrawCommand;
+import com.airhockey.android.objects.ObjectBuilder.DrawElements;
+import com.airhockey.android.programs.InstancedColorShaderProgram;
+import com.airhockey.android.render.GL;
+
+/**
+ * One mesh drawn many times, each instance with its own model matrix,
+ * colour and level of detail, with InstancedColorShaderProgram.
+ *
+ * Instanced, on ES 3.0, the instances of a frame go into an InstanceBuffer,
+ * and each level of detail is drawn once for all of its instances, however
+ * many there are.
+ *
+ * Pseudo-instanced, on ES 2.0, the mesh is stored MAX_UNIFORM_INSTANCES
+ * times over, each copy's vertices tagged with its index, and one draw
+ * covers that many instances, whose matrices and colours are uploaded as a
+ * uniform array. This needs a mesh of indexed triangles, as MeshOptimizer
+ * leaves them.
+ */
+public class InstancedMesh {
+    /**
+     * Floats per instance: rows 0 to 2 of the model matrix, then the red,
+     * green, blue and alpha of the colour.
+     */
+    public static final int FLOATS_PER_INSTANCE = 16;
+    private static final int COLOR_OFFSET = 12;
+
+    private static final VertexFormat REPLICATED_FORMAT = new VertexFormat.Builder()
+        .add(VertexFormat.POSITION, 3, VertexFormat.FLOAT)
+        .add(VertexFormat.INSTANCE_INDEX, 1, VertexFormat.FLOAT)
+        .build();
+
+    private final boolean uniformArrays;
+    private final VertexArray vertexArray;
+    private final IndexBuffer indexBuffer;
+    // Null if pseudo-instanced.
+    private final InstanceBuffer instanceBuffer;
+    // The draws of one instance at each level, if instanced.
+    private final List<List<DrawCommand>> levelDrawLists;
+    // The draws of one copy at each level, if pseudo-instanced. The indices
+    // of a copy follow those of the one before, so n copies are drawn with
+    // n times the count.
+    private final List<List<DrawElements>> replicatedDrawLists;
+    private final int batchSize;
+    private final int levelCount;
+
+    // The instances, level after level, for the instance buffer.
+    private float[] instanceData = new float[0];
+
+    /**
+     * The instances of a frame, kept apart from the mesh so that they can be
+     * filled in on another thread while the mesh draws the last frame's.
+     */
+    public static class Instances {
+        // The instances added at each level since clear().
+        private final float[][] levelInstances;
+        private final int[] levelInstanceCounts;
+
+        private Instances(int levelCount) {
+            levelInstances = new float[levelCount][0];
+            levelInstanceCounts = new int[levelCount];
+        }
+
+        /**
+         * Removes the instances, to add the next frame's.
+         */
+        public void clear() {
+            Arrays.fill(levelInstanceCounts, 0);
+        }
+
+        /**
+         * Adds an instance, drawn at the given level of detail.
+         */
+        public void add(int level, float[] modelMatrix, float r, float g, float b) {
+            final int count = levelInstanceCounts[level];
+            float[] data = levelInstances[level];
+            if ((count + 1) * FLOATS_PER_INSTANCE > data.length) {
+                data = Arrays.copyOf(data,
+                    Math.max(16 * FLOATS_PER_INSTANCE, data.length * 2));
+                levelInstances[level] = data;
+            }
+            int i = count * FLOATS_PER_INSTANCE;
+            for (int row = 0; row < 3; row++) {
+                data[i++] = modelMatrix[row];
+                data[i++] = modelMatrix[4 + row];
+                data[i++] = modelMatrix[8 + row];
+                data[i++] = modelMatrix[12 + row];
+            }
+            data[i++] = r;
+            data[i++] = g;
+            data[i++] = b;
+            data[i] = 1f;
+            levelInstanceCounts[level] = count + 1;
+        }
+
+        public int getInstanceCount() {
+            int count = 0;
+            for (int level = 0; level < levelInstanceCounts.length; level++) {
+                count += levelInstanceCounts[level];
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Whether the context can draw instanced meshes that aren't
+     * pseudo-instanced: it has instanced draws, and vertex array objects to
+     * keep the per-instance attributes away from other meshes.
+     */
+    public static boolean hasHardwareInstancing() {
+        return GL.hasInstancedArrays() && GL.hasVertexArrayObjects()
+            && VertexArray.usesBufferObjects();
+    }
+
+    /**
+     * @param uniformArrays Whether to pseudo-instance, as the program does.
+     */
+    public InstancedMesh(Puck puck, boolean uniformArrays) {
+        this(puck.vertexData, puck.indexData, puck.levelDrawLists, uniformArrays);
+    }
+
+    private InstancedMesh(float[] vertexData, short[] indexData,
+        List<List<DrawCommand>> drawLists, boolean uniformArrays) {
+        levelCount = drawLists.size();
+        this.uniformArrays = uniformArrays;
+
+        if (!uniformArrays) {
+            if (!hasHardwareInstancing()) {
+                throw new IllegalStateException(
+                    "Instanced draws need GL ES 3.0 and buffer objects");
+            }
+            vertexArray = new VertexArray(vertexData,
+                ObjectBuilder.VERTEX_FORMAT.select(VertexFormat.POSITION));
+            indexBuffer = indexData != null ? new IndexBuffer(indexData) : null;
+            instanceBuffer = new InstanceBuffer(FLOATS_PER_INSTANCE);
+            levelDrawLists = drawLists;
+            replicatedDrawLists = null;
+            batchSize = 0;
+            return;
+        }
+
+        final int floatsPerVertex =
+            ObjectBuilder.VERTEX_FORMAT.getStride() / BYTES_PER_FLOAT;
+        final int vertexCount = vertexData.length / floatsPerVertex;
+        // As many copies as 16 bit indices can tell apart.
+        batchSize = Math.min(InstancedColorShaderProgram.MAX_UNIFORM_INSTANCES,
+            0x10000 / vertexCount);
+        final float[] replicatedVertices = new float[batchSize * vertexCount * 4];
+        int to = 0;
+        for (int copy = 0; copy < batchSize; copy++) {
+            for (int vertex = 0; vertex < vertexCount; vertex++) {
+                final int from = vertex * floatsPerVertex;
+                replicatedVertices[to++] = vertexData[from];
+                replicatedVertices[to++] = vertexData[from + 1];
+                replicatedVertices[to++] = vertexData[from + 2];
+                replicatedVertices[to++] = copy;
+            }
+        }
+
+        int indexCount = 0;
+        for (List<DrawCommand> drawList : drawLists) {
+            for (DrawCommand drawCommand : drawList) {
+                if (!(drawCommand instanceof DrawElements)
+                    || ((DrawElements) drawCommand).mode != GL_TRIANGLES) {
+                    throw new IllegalArgumentException(
+                        "Only meshes of indexed triangles can be pseudo-instanced");
+                }
+                indexCount += ((DrawElements) drawCommand).count * batchSize;
+            }
+        }
+        final short[] replicatedIndices = new short[indexCount];
+        replicatedDrawLists = new ArrayList<List<DrawElements>>(levelCount);
+        int index = 0;
+        for (List<DrawCommand> drawList : drawLists) {
+            final List<DrawElements> replicatedDrawList = new ArrayList<DrawElements>();
+            for (DrawCommand drawCommand : drawList) {
+                final DrawElements drawElements = (DrawElements) drawCommand;
+                replicatedDrawList.add(
+                    new DrawElements(GL_TRIANGLES, index, drawElements.count));
+                for (int copy = 0; copy < batchSize; copy++) {
+                    for (int i = 0; i < drawElements.count; i++) {
+                        final int vertex =
+                            indexData[drawElements.first + i] & 0xffff;
+                        replicatedIndices[index++] =
+                            (short) (vertex + copy * vertexCount);
+                    }
+                }
+            }
+            replicatedDrawLists.add(replicatedDrawList);
+        }
+
+        vertexArray = new VertexArray(replicatedVertices, REPLICATED_FORMAT);
+        indexBuffer = new IndexBuffer(replicatedIndices);
+        instanceBuffer = null;
+        levelDrawLists = null;
+    }
+
+    /**
+     * An empty set of instances of this mesh.
+     */
+    public Instances createInstances() {
+        return new Instances(levelCount);
+    }
+
+    public void bindData(InstancedColorShaderProgram program) {
+        if (!vertexArray.bind()) {
+            return;
+        }
+
+        vertexArray.setVertexAttribPointer(VertexFormat.POSITION,
+            program.getPositionAttributeLocation());
+        if (uniformArrays) {
+            vertexArray.setVertexAttribPointer(VertexFormat.INSTANCE_INDEX,
+                program.getInstanceIndexAttributeLocation());
+        }
+
+        if (indexBuffer != null) {
+            indexBuffer.bind();
+        }
+    }
+
+    /**
+     * Draws the instances, which must have been made by this mesh's
+     * createInstances(). The program's matrix must be the view-projection
+     * matrix.
+     */
+    public void draw(InstancedColorShaderProgram program, Instances instances) {
+        if (uniformArrays) {
+            drawPseudoInstanced(program, instances.levelInstances, 
+                instances.levelInstanceCounts);
+        } else {
+            drawInstanced(program, instances.levelInstances,
+                instances.levelInstanceCounts, instances.getInstanceCount());
+        }
+    }
+
+    private void drawInstanced(InstancedColorShaderProgram program,
+        float[][] levelInstances, int[] levelInstanceCounts, int instanceCount) {
+        if (instanceCount == 0) {
+            return;
+        }
+        if (instanceData.length < instanceCount * FLOATS_PER_INSTANCE) {
+            instanceData = new float[2 * instanceCount * FLOATS_PER_INSTANCE];
+        }
+        int offset = 0;
+        for (int level = 0; level < levelInstances.length; level++) {
+            final int floats = levelInstanceCounts[level] * FLOATS_PER_INSTANCE;
+            System.arraycopy(levelInstances[level], 0, instanceData, offset, floats);
+            offset += floats;
+        }
+        instanceBuffer.upload(instanceData, instanceCount);
+
+        int firstInstance = 0;
+        for (int level = 0; level < levelInstances.length; level++) {
+            final int count = levelInstanceCounts[level];
+            if (count == 0) {
+                continue;
+            }
+            for (int row = 0; row < 3; row++) {
+                instanceBuffer.setVertexAttribPointer(row * 4,
+                    program.getModelRowAttributeLocation(row), 4, firstInstance);
+            }
+            instanceBuffer.setVertexAttribPointer(COLOR_OFFSET,
+                program.getColorAttributeLocation(), 4, firstInstance);
+            for (DrawCommand drawCommand : levelDrawLists.get(level)) {
+                drawCommand.drawInstanced(indexBuffer, count);
+            }
+            firstInstance += count;
+        }
+    }
+
+    private void drawPseudoInstanced(InstancedColorShaderProgram program,
+        float[][] levelInstances, int[] levelInstanceCounts) {
+        for (int level = 0; level < levelInstances.length; level++) {
+            final int count = levelInstanceCounts[level];
+            for (int first = 0; first < count; first += batchSize) {
+                final int instances = Math.min(batchSize, count - first);
+                program.setInstances(levelInstances[level], first, instances);
+                for (DrawElements drawElements : replicatedDrawLists.get(level)) {
+                    indexBuffer.draw(drawElements.mode, drawElements.first,
+                        drawElements.count * instances);
+                }
+            }
+        }
+    }
+}
@@ -11,43 +11,157 @@ package com.airhockey.android.objects;
 import static android.opengl.GLES20.GL_TRIANGLE_FAN;
 import static android.opengl.GLES20.GL_TRIANGLE_STRIP;
 import static android.opengl.GLES20.GL_TRIANGLES;
-import static android.opengl.GLES20.glDrawArrays;
-import static android.opengl.GLES20.*;
-import static android.opengl.Matrix.rotateM;
-import static android.opengl.Matrix.setIdentityM;
+import static com.airhockey.android.render.GL.glDrawArrays;
+import static com.airhockey.android.render.GL.glDrawArraysInstanced;
+import static com.airhockey.android.Constants.BYTES_PER_FLOAT;
+import static com.airhockey.android.util.MatrixHelper.rotateM;
+import static com.airhockey.android.util.MatrixHelper.setIdentityM;
 
 import java.util.ArrayList;
 import java.util.List;
 
-import android.opengl.Matrix;
-import android.util.FloatMath;
-
+import com.airhockey.android.data.IndexBuffer;
+import com.airhockey.android.data.VertexFormat;
+import com.airhockey.android.scene.Bounds;
 import com.airhockey.android.util.Geometry.Circle;
 import com.airhockey.android.util.Geometry.Cube;
 import com.airhockey.android.util.Geometry.Cylinder;
 import com.airhockey.android.util.Geometry.Point;
 import com.airhockey.android.util.Geometry.Vector;
+import com.airhockey.android.util.MatrixHelper;
+import com.airhockey.android.util.TextureAtlas;
 
 class ObjectBuilder {
     private static final int FLOATS_PER_VERTEX = 3;
+    // A position, texture coordinates and a normal.
+    static final VertexFormat VERTEX_FORMAT = new VertexFormat.Builder()
+        .add(VertexFormat.POSITION, FLOATS_PER_VERTEX, VertexFormat.FLOAT)
+        .add(VertexFormat.TEXTURE_COORDINATES, 2, VertexFormat.FLOAT)
+        .add(VertexFormat.NORMAL, 3, VertexFormat.FLOAT)
+        .build();
+    private static final int TOTAL_FLOATS_PER_VERTEX =
+        VERTEX_FORMAT.getStride() / BYTES_PER_FLOAT;
+    // Round meshes are also built with half, a quarter, ... of the points
+    // asked for, down to this many, as coarser levels of detail.
+    static final int MIN_POINTS_PER_LEVEL = 8;
 
     static interface DrawCommand {
-        void draw();
+        /**
+         * @param indexBuffer The mesh's indices, or null if it has none.
+         */
+        void draw(IndexBuffer indexBuffer);
+
+        /**
+         * Draws instanceCount instances at once. ES 3.0 only.
+         */
+        void drawInstanced(IndexBuffer indexBuffer, int instanceCount);
+    }
+
+    /**
+     * A glDrawArrays() call. Kept as data rather than an anonymous class so
+     * that StaticBatch can read the primitives back.
+     */
+    static class DrawArrays implements DrawCommand {
+        final int mode;
+        final int first;
+        final int count;
+
+        DrawArrays(int mode, int first, int count) {
+            this.mode = mode;
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        public void draw(IndexBuffer indexBuffer) {
+            glDrawArrays(mode, first, count);
+        }
+
+        @Override
+        public void drawInstanced(IndexBuffer indexBuffer, int instanceCount) {
+            glDrawArraysInstanced(mode, first, count, instanceCount);
+        }
+    }
+
+    /**
+     * A glDrawElements() call over a range of the mesh's indices, which
+     * MeshOptimizer makes.
+     */
+    static class DrawElements implements DrawCommand {
+        final int mode;
+        final int first;
+        final int count;
+
+        DrawElements(int mode, int first, int count) {
+            this.mode = mode;
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        public void draw(IndexBuffer indexBuffer) {
+            indexBuffer.draw(mode, first, count);
+        }
+
+        @Override
+        public void drawInstanced(IndexBuffer indexBuffer, int instanceCount) {
+            indexBuffer.drawInstanced(mode, first, count, instanceCount);
+        }
     }
 
     static class GeneratedData {
         final float[] vertexData;
+        // Null unless the draw lists are DrawElements.
+        final short[] indexData;
         final List<DrawCommand> drawList;
+        // The draw lists of every level of detail, finest first. The first
+        // is drawList. All levels share vertexData.
+        final List<List<DrawCommand>> levelDrawLists;
+        // Of the vertices that were emitted, not of the whole array, which
+        // may have unused zeros at the end.
+        final Bounds bounds;
+        // Null if the mesh wasn't optimized.
+        final MeshOptimizer.Stats stats;
+
+        GeneratedData(float[] vertexData, 
+            List<List<DrawCommand>> levelDrawLists, Bounds bounds) {
+            this(vertexData, null, levelDrawLists, bounds, null);
+        }
 
-        GeneratedData(float[] vertexData, List<DrawCommand> drawList) {
+        GeneratedData(float[] vertexData, short[] indexData,
+            List<List<DrawCommand>> levelDrawLists, Bounds bounds,
+            MeshOptimizer.Stats stats) {
             this.vertexData = vertexData;
-            this.drawList = drawList;
+            this.indexData = indexData;
+            this.drawList = levelDrawLists.get(0);
+            this.levelDrawLists = levelDrawLists;
+            this.bounds = bounds;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * The number of points around of each level of detail, finest first.
+     */
+    static int[] pointsPerLevel(int numPoints) {
+        int levels = 1;
+        while ((numPoints >> levels) >= MIN_POINTS_PER_LEVEL) {
+            levels++;
+        }
+        final int[] points = new int[levels];
+        for (int level = 0; level < levels; level++) {
+            points[level] = numPoints >> level;
         }
+        return points;
     }
 
     static GeneratedData createPuck(Cylinder puck, int numPoints) {
-        int size = sizeOfCircleInVertices(numPoints)
-                 + sizeOfOpenCylinderInVertices(numPoints);
+        final int[] levelPoints = pointsPerLevel(numPoints);
+        int size = 0;
+        for (int points : levelPoints) {
+            size += sizeOfCircleInVertices(points)
+                  + sizeOfOpenCylinderInVertices(points);
+        }
         
         ObjectBuilder builder = new ObjectBuilder(size);
 
@@ -55,16 +169,23 @@ class ObjectBuilder {
             puck.center.translateY(puck.height / 2f),
             puck.radius);
         
-        builder.appendCircle(puckTop, numPoints);
-        //builder.appendCircle(puck, numPoints);
+        for (int points : levelPoints) {
+            builder.appendCircle(puckTop, points);
+            //builder.appendCircle(puck, points);
+            builder.endLevel();
+        }
 
         return builder.build();
     }
 
     static GeneratedData createMallet(
         Point center, float radius, float height, int numPoints) {
-        int size = sizeOfCircleInVertices(numPoints) * 2
-                 + sizeOfOpenCylinderInVertices(numPoints) * 2;
+        final int[] levelPoints = pointsPerLevel(numPoints);
+        int size = 0;
+        for (int points : levelPoints) {
+            size += sizeOfCircleInVertices(points) * 2
+                  + sizeOfOpenCylinderInVertices(points) * 2;
+        }
         
         ObjectBuilder builder = new ObjectBuilder(size);                                      
         
@@ -77,9 +198,6 @@ class ObjectBuilder {
         Cylinder baseCylinder = new Cylinder(
             baseCircle.center.translateY(-baseHeight / 2f), 
             radius, baseHeight);
-
-        builder.appendCircle(baseCircle, numPoints);
-        //builder.appendCircle(baseCylinder, numPoints);
                 
         // Now generate the mallet handle.
         float handleHeight = height * 0.75f;
@@ -92,8 +210,13 @@ class ObjectBuilder {
             handleCircle.center.translateY(-handleHeight / 2f),
             handleRadius, handleHeight);                
 
-        builder.appendCircle(handleCircle, numPoints);
-        //builder.appendOpenCylinder(handleCylinder, numPoints);
+        for (int points : levelPoints) {
+            builder.appendCircle(baseCircle, points);
+            //builder.appendCircle(baseCylinder, points);
+            builder.appendCircle(handleCircle, points);
+            //builder.appendOpenCylinder(handleCylinder, points);
+            builder.endLevel();
+        }
 
         return builder.build();
     }    
@@ -106,16 +229,22 @@ class ObjectBuilder {
         return (numPoints + 1) * 2;
     }
 
+    private static int sizeOfCubeInVertices() {
+        return 36;
+    }
+
     private final float[] vertexData;
-    private final List<DrawCommand> drawList = new ArrayList<DrawCommand>();
+    private final List<List<DrawCommand>> levelDrawLists = 
+        new ArrayList<List<DrawCommand>>();
+    private List<DrawCommand> drawList = new ArrayList<DrawCommand>();
     private int offset = 0;
 
     private ObjectBuilder(int sizeInVertices) {
-        vertexData = new float[sizeInVertices * FLOATS_PER_VERTEX];
+        vertexData = new float[sizeInVertices * TOTAL_FLOATS_PER_VERTEX];
     }
 
     private void appendCircle(Circle circle, int numPoints) {
-        final int startVertex = offset / (FLOATS_PER_VERTEX + 5);
+        final int startVertex = offset / TOTAL_FLOATS_PER_VERTEX;
         final int numVertices = sizeOfCircleInVertices(numPoints);
 
         // Center point of fan
@@ -137,13 +266,13 @@ class ObjectBuilder {
             
             vertexData[offset++] = 
                   circle.center.x 
-                + circle.radius * FloatMath.cos(angleInRadians);
+                + circle.radius * (float) Math.cos(angleInRadians);
             
             vertexData[offset++] = circle.center.y;
             
             vertexData[offset++] = 
                   circle.center.z 
-                + circle.radius * FloatMath.sin(angleInRadians);
+                + circle.radius * (float) Math.sin(angleInRadians);
             
             vertexData[offset++] = 0.0f; // uv
             vertexData[offset++] = 0.0f;
@@ -152,22 +281,44 @@ class ObjectBuilder {
             vertexData[offset++] = 0.0f;
         }
 
-        drawList.add(new DrawCommand() {
-            @Override
-            public void draw() {
-                glDrawArrays(GL_TRIANGLE_FAN, startVertex,
-                    numVertices);
-            }
-        });
+        drawList.add(new DrawArrays(GL_TRIANGLE_FAN, startVertex, numVertices));
+    }
+
+    /**
+     * Ends the draw list of a level of detail; what's appended next goes
+     * to the next, coarser level.
+     */
+    private void endLevel() {
+        levelDrawLists.add(drawList);
+        drawList = new ArrayList<DrawCommand>();
     }
 
     private GeneratedData build() {
-        return new GeneratedData(vertexData, drawList);
+        return build(null);
+    }
+
+    /**
+     * Finishes the mesh, mapping its texture coordinates into the given
+     * region of a texture atlas, unless that's null, and indexes it with
+     * MeshOptimizer.
+     */
+    private GeneratedData build(TextureAtlas.Region region) {
+        if (!drawList.isEmpty() || levelDrawLists.isEmpty()) {
+            endLevel();
+        }
+        if (region != null) {
+            region.remap(vertexData, FLOATS_PER_VERTEX, 
+                offset / TOTAL_FLOATS_PER_VERTEX, TOTAL_FLOATS_PER_VERTEX);
+        }
+        return MeshOptimizer.optimize(new GeneratedData(vertexData, levelDrawLists, 
+            Bounds.fromVertices(vertexData, offset / TOTAL_FLOATS_PER_VERTEX, 
+                FLOATS_PER_VERTEX, TOTAL_FLOATS_PER_VERTEX)),
+            TOTAL_FLOATS_PER_VERTEX);
     }
        
     private void appendCube(Cube cube) {
-        final int startVertex = offset / (FLOATS_PER_VERTEX + 2 + 3);
-        final int numVertices = 36;
+        final int startVertex = offset / TOTAL_FLOATS_PER_VERTEX;
+        final int numVertices = sizeOfCubeInVertices();
 
         //Triangle (Front)
         vertexData[offset++] = cube.center.x - cube.width * 0.5f;
@@ -463,17 +614,13 @@ class ObjectBuilder {
         vertexData[offset++] = -1f;
         vertexData[offset++] = 0f;
         
-        drawList.add(new DrawCommand() {
-            @Override
-            public void draw() {                                
-                glDrawArrays(GL_TRIANGLES, startVertex, numVertices);   
-            }
-        });
+        drawList.add(new DrawArrays(GL_TRIANGLES, startVertex, numVertices));
     }
       
-    static GeneratedData createDesk(Point center, float width, float height, float thickness)
+    static GeneratedData createDesk(Point center, float width, float height, float thickness,
+        TextureAtlas.Region region)
     {
-        int size = 4800; 
+        int size = sizeOfCubeInVertices() * 5;
         
         ObjectBuilder builder  = new ObjectBuilder(size);      
         
@@ -500,12 +647,13 @@ class ObjectBuilder {
         builder.appendCube(deskLeg_3);
         builder.appendCube(deskLeg_4);
        
-        return builder.build();
+        return builder.build(region);
     }
     
-    static GeneratedData createChair(Point center, float width, float height, float thickness)
+    static GeneratedData createChair(Point center, float width, float height, float thickness,
+        TextureAtlas.Region region)
     {
-        int size = 1200;
+        int size = sizeOfCubeInVertices() * 6;
         float scale = 0.8f;
         ObjectBuilder builder  = new ObjectBuilder(size);
         height *= 0.6 * scale;
@@ -535,12 +683,18 @@ class ObjectBuilder {
         builder.appendCube(deskLeg_4);        //Right Back leg
         builder.appendCube(deskBack);     
                
-        return builder.build();
+        return builder.build(region);
     }
     
-    static GeneratedData createStand(Point center, float radius, float height, int numPoints) 
+    static GeneratedData createStand(Point center, float radius, float height, int numPoints,
+        TextureAtlas.Region region) 
     {
-        int size = 1000;
+        final int[] levelPoints = pointsPerLevel(numPoints);
+        int size = 0;
+        for (int points : levelPoints) {
+            size += sizeOfCircleInVertices(points)
+                  + sizeOfOpenCylinderInVertices(points) * 4;
+        }
         
         ObjectBuilder builder = new ObjectBuilder(size);                                      
         
@@ -553,8 +707,6 @@ class ObjectBuilder {
         Circle baseCircle = new Circle(center.translateY(-baseHeight), radius * 0.7f);
         Cylinder baseCylinder = new Cylinder(baseCircle.center.translateY(-baseHeight / 2f), radius * 0.7f , baseHeight);
 
-        builder.appendCircle(baseCircle, numPoints);
-        builder.appendOpenCylinder(baseCylinder, numPoints, 0 ,0, 0);
                 
         // Now generate the mallet handle.
         float handleHeight = height;
@@ -566,16 +718,21 @@ class ObjectBuilder {
                                                                                     handleRadius, handleHeight);
         Cylinder standNeckCylinder_3 = new Cylinder(standNeckCircle.center.translate(new Vector(-0.35f, 0.05f, 0f)), handleRadius, handleHeight * 1.2f);
         
-        //builder.appendCircle(standNeckCircle, numPoints);
-        builder.appendOpenCylinder(standNeckCylinder_1, numPoints, 0, 0, 0);
-        builder.appendOpenCylinder(standNeckCylinder_2, numPoints, 0, 0, -20.0f);
-        builder.appendOpenCylinder(standNeckCylinder_3, numPoints, 0, 0, -90.0f);
+        for (int points : levelPoints) {
+            builder.appendCircle(baseCircle, points);
+            builder.appendOpenCylinder(baseCylinder, points, 0 ,0, 0);
+            //builder.appendCircle(standNeckCircle, points);
+            builder.appendOpenCylinder(standNeckCylinder_1, points, 0, 0, 0);
+            builder.appendOpenCylinder(standNeckCylinder_2, points, 0, 0, -20.0f);
+            builder.appendOpenCylinder(standNeckCylinder_3, points, 0, 0, -90.0f);
+            builder.endLevel();
+        }
 
-        return builder.build();
+        return builder.build(region);
     }    
     
     private void appendOpenCylinder(Cylinder cylinder, int numPoints, float x, float y, float z) {
-        final int startVertex = offset / (FLOATS_PER_VERTEX + 5);
+        final int startVertex = offset / TOTAL_FLOATS_PER_VERTEX;
         final int numVertices = sizeOfOpenCylinderInVertices(numPoints);
         final float yStart = cylinder.center.y - (cylinder.height / 2f);
         final float yEnd = cylinder.center.y + (cylinder.height / 2f);
@@ -593,11 +750,11 @@ class ObjectBuilder {
             
             float xPosition = 
                   cylinder.center.x 
-                + cylinder.radius * FloatMath.cos(angleInRadians);
+                + cylinder.radius * (float) Math.cos(angleInRadians);
             
             float zPosition = 
                   cylinder.center.z 
-                + cylinder.radius * FloatMath.sin(angleInRadians);
+                + cylinder.radius * (float) Math.sin(angleInRadians);
 
 //            vertexData[offset++] = xPosition;
 //            vertexData[offset++] = yStart;
@@ -622,8 +779,8 @@ class ObjectBuilder {
             rotateM(matModel, 0, x, 1f, 0f, 0f);
             rotateM(matModel, 0, y, 0f, 1f, 0f);
             rotateM(matModel, 0, z, 0f, 0f, 1f);
-           Matrix.multiplyMV(vector, 0, matModel, 0, vector, 0);
-           Matrix.multiplyMV(vector, 4, matModel, 0, vector, 4);
+           MatrixHelper.multiplyMV(vector, 0, matModel, 0, vector, 0);
+           MatrixHelper.multiplyMV(vector, 4, matModel, 0, vector, 4);
            
            // Normal Calc                     
            Vector vecNormal = new Vector(xPosition - cylinder.center.x, 0, zPosition - cylinder.center.z);
@@ -650,17 +807,13 @@ class ObjectBuilder {
            
             
         }
-        drawList.add(new DrawCommand() {
-            @Override
-            public void draw() {                
-                glDrawArrays(GL_TRIANGLE_STRIP, startVertex, numVertices);
-            }
-        });        
+        drawList.add(new DrawArrays(GL_TRIANGLE_STRIP, startVertex, numVertices));
     }
 
-    static GeneratedData createNotebookUpper(Point center, float width, float height, float thickness)
+    static GeneratedData createNotebookUpper(Point center, float width, float height, float thickness,
+        TextureAtlas.Region region)
     {
-        int size = 200; 
+        int size = sizeOfCubeInVertices();
         
         ObjectBuilder builder  = new ObjectBuilder(size);           
                   
@@ -671,12 +824,13 @@ class ObjectBuilder {
         
         builder.appendCube(deskUpper);
                
-        return builder.build();
+        return builder.build(region);
     }
     
-    static GeneratedData createNotebookKeyboard(Point center, float width, float height, float thickness)
+    static GeneratedData createNotebookKeyboard(Point center, float width, float height, float thickness,
+        TextureAtlas.Region region)
     {
-        int size = 200; 
+        int size = sizeOfCubeInVertices();
         
         ObjectBuilder builder  = new ObjectBuilder(size);           
                   
@@ -687,7 +841,7 @@ class ObjectBuilder {
         
         builder.appendCube(deskUpper);
                
-        return builder.build();
+        return builder.build(region);
     }
 
 }
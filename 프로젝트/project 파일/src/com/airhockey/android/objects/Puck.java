@@ -10,20 +10,31 @@ package com.airhockey.android.objects;
 
 import java.util.List;
 
+import com.airhockey.android.data.IndexBuffer;
 import com.airhockey.android.data.VertexArray;
+import com.airhockey.android.data.VertexFormat;
 import com.airhockey.android.objects.ObjectBuilder.DrawCommand;
 import com.airhockey.android.objects.ObjectBuilder.GeneratedData;
 import com.airhockey.android.programs.ColorShaderProgram;
+import com.airhockey.android.scene.Bounds;
+import com.airhockey.android.scene.LevelOfDetail;
 import com.airhockey.android.util.Geometry.Cylinder;
 import com.airhockey.android.util.Geometry.Point;
 
 public class Puck {
-    private static final int POSITION_COMPONENT_COUNT = 3;
-
     public final float radius, height;
 
+    public final Bounds bounds;
+    public final LevelOfDetail levelOfDetail;
+
+    public final MeshOptimizer.Stats meshStats;
+
     private final VertexArray vertexArray;
-    private final List<DrawCommand> drawList;
+    private final IndexBuffer indexBuffer;
+    // Kept for InstancedMesh.
+    final float[] vertexData;
+    final short[] indexData;
+    final List<List<DrawCommand>> levelDrawLists;
 
     public Puck(float radius, float height, int numPointsAroundPuck) {
         GeneratedData generatedData = ObjectBuilder.createPuck(new Cylinder(
@@ -32,19 +43,38 @@ public class Puck {
         this.radius = radius;
         this.height = height;
 
-        vertexArray = new VertexArray(generatedData.vertexData);
-        drawList = generatedData.drawList;
+        vertexArray = new VertexArray(generatedData.vertexData,
+            ObjectBuilder.VERTEX_FORMAT.select(VertexFormat.POSITION));
+        indexBuffer = generatedData.indexData != null
+            ? new IndexBuffer(generatedData.indexData) : null;
+        vertexData = generatedData.vertexData;
+        indexData = generatedData.indexData;
+        meshStats = generatedData.stats;
+        levelDrawLists = generatedData.levelDrawLists;
+        bounds = generatedData.bounds;
+        levelOfDetail = new LevelOfDetail(
+            ObjectBuilder.pointsPerLevel(numPointsAroundPuck));
     }
 
     public void bindData(ColorShaderProgram colorProgram) {
-        vertexArray.setVertexAttribPointer(0,
-            colorProgram.getPositionAttributeLocation(),
-            POSITION_COMPONENT_COUNT, 0);
+        if (!vertexArray.bind()) {
+            return;
+        }
+
+        vertexArray.setVertexAttribPointer(VertexFormat.POSITION,
+            colorProgram.getPositionAttributeLocation());
+
+        if (indexBuffer != null) {
+            indexBuffer.bind();
+        }
     }
 
-    public void draw() {
-        for (DrawCommand drawCommand : drawList) {
-            drawCommand.draw();
+    /**
+     * Draws the given level of levelOfDetail.
+     */
+    public void draw(int level) {
+        for (DrawCommand drawCommand : levelDrawLists.get(level)) {
+            drawCommand.draw(indexBuffer);
         }
     }
 }
\ No newline at end of file
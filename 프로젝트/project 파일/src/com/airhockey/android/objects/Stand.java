@@ -9,64 +9,88 @@
 
 package com.airhockey.android.objects;
 
-import static com.airhockey.android.Constants.BYTES_PER_FLOAT;
-
 import java.util.List;
 
+import com.airhockey.android.data.IndexBuffer;
 import com.airhockey.android.data.VertexArray;
+import com.airhockey.android.data.VertexFormat;
 import com.airhockey.android.objects.ObjectBuilder.DrawCommand;
 import com.airhockey.android.objects.ObjectBuilder.GeneratedData;
 import com.airhockey.android.programs.ColorShaderProgram;
 import com.airhockey.android.programs.TextureShaderProgram;
+import com.airhockey.android.scene.Bounds;
+import com.airhockey.android.scene.LevelOfDetail;
 import com.airhockey.android.util.Geometry.Point;
+import com.airhockey.android.util.TextureAtlas;
 
 public class Stand {
-    private static final int POSITION_COMPONENT_COUNT = 3;
-    private static final int TEXTURE_COORDINATES_COMPONENT_COUNT = 2;
-    private static final int NORMAL_COMPONENT_COUNT = 3;
-    private static final int STRIDE = 
-        (POSITION_COMPONENT_COUNT + TEXTURE_COORDINATES_COMPONENT_COUNT + NORMAL_COMPONENT_COUNT)
-        * BYTES_PER_FLOAT;
-
     public final float radius;
     public final float height;
 
+    public final Bounds bounds;
+    public final LevelOfDetail levelOfDetail;
+
+    public final MeshOptimizer.Stats meshStats;
+
     private final VertexArray vertexArray;
-    private final List<DrawCommand> drawList;
+    private final IndexBuffer indexBuffer;
+    // Kept for StaticBatch.
+    final float[] vertexData;
+    final short[] indexData;
+    final List<List<DrawCommand>> levelDrawLists;
 
     public Stand(float radius, float height, int numPointsAroundMallet) {
-        GeneratedData generatedData = ObjectBuilder.createStand(new Point(0f, 0f, 0f), radius, height, numPointsAroundMallet);
+        this(radius, height, numPointsAroundMallet, null);
+    }
+
+    /**
+     * A stand textured from a region of a texture atlas.
+     */
+    public Stand(float radius, float height, int numPointsAroundMallet,
+        TextureAtlas.Region region) {
+        GeneratedData generatedData = ObjectBuilder.createStand(new Point(0f, 0f, 0f), radius, height, numPointsAroundMallet, region);
 
         this.radius = radius;
         this.height = height;
 
-        vertexArray = new VertexArray(generatedData.vertexData);
-        drawList = generatedData.drawList;
+        vertexArray = new VertexArray(generatedData.vertexData,
+            ObjectBuilder.VERTEX_FORMAT);
+        indexBuffer = generatedData.indexData != null
+            ? new IndexBuffer(generatedData.indexData) : null;
+        vertexData = generatedData.vertexData;
+        indexData = generatedData.indexData;
+        meshStats = generatedData.stats;
+        levelDrawLists = generatedData.levelDrawLists;
+        bounds = generatedData.bounds;
+        levelOfDetail = new LevelOfDetail(
+            ObjectBuilder.pointsPerLevel(numPointsAroundMallet));
     }
 
     public void bindData(TextureShaderProgram textureProgram) {
-        vertexArray.setVertexAttribPointer(
-            0, 
-            textureProgram.getPositionAttributeLocation(), 
-            POSITION_COMPONENT_COUNT,
-            STRIDE);
+        if (!vertexArray.bind()) {
+            return;
+        }
+
+        vertexArray.setVertexAttribPointer(VertexFormat.POSITION,
+            textureProgram.getPositionAttributeLocation());
         
-        vertexArray.setVertexAttribPointer(
-            POSITION_COMPONENT_COUNT, 
-            textureProgram.getTextureCoordinatesAttributeLocation(),
-            TEXTURE_COORDINATES_COMPONENT_COUNT, 
-            STRIDE);
+        vertexArray.setVertexAttribPointer(VertexFormat.TEXTURE_COORDINATES,
+            textureProgram.getTextureCoordinatesAttributeLocation());
         
-        vertexArray.setVertexAttribPointer(
-            POSITION_COMPONENT_COUNT + TEXTURE_COORDINATES_COMPONENT_COUNT, 
-            textureProgram.getNormalAttributeLocation(), 
-            NORMAL_COMPONENT_COUNT, 
-            STRIDE);  
+        vertexArray.setVertexAttribPointer(VertexFormat.NORMAL,
+            textureProgram.getNormalAttributeLocation());
+
+        if (indexBuffer != null) {
+            indexBuffer.bind();
+        }
     }
 
-    public void draw() {
-        for (DrawCommand drawCommand : drawList) {
-            drawCommand.draw();
+    /**
+     * Draws the given level of levelOfDetail.
+     */
+    public void draw(int level) {
+        for (DrawCommand drawCommand : levelDrawLists.get(level)) {
+            drawCommand.draw(indexBuffer);
         }
     }
 }
@@ -0,0 +1,295 @@
+package com.airhockey.android.objects;
+
+import static android.opengl.GLES20.GL_TRIANGLES;
+import static android.opengl.GLES20.GL_TRIANGLE_FAN;
+import static android.opengl.GLES20.GL_TRIANGLE_STRIP;
+import static com.airhockey.android.Constants.BYTES_PER_FLOAT;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.airhockey.android.data.IndexBuffer;
+import com.airhockey.android.data.VertexArray;
+import com.airhockey.android.data.VertexFormat;
+import com.airhockey.android.objects.ObjectBuilder.DrawArrays;
+import com.airhockey.android.objects.ObjectBuilder.DrawCommand;
+import com.airhockey.android.objects.ObjectBuilder.DrawElements;
+import com.airhockey.android.programs.TextureShaderProgram;
+import com.airhockey.android.scene.Bounds;
+
+/**
+ * Meshes that never move, transformed into world space once and merged into
+ * a single vertex array, with one group of indexed triangles per texture.
+ * A group is drawn with one glDrawElements() call and the view-projection
+ * matrix, so the whole batch costs one draw per texture instead of one per
+ * fan, strip and cube of every mesh. Each vertex of a mesh is stored once,
+ * however many of its triangles share it.
+ *
+ * The meshes are copied when they are added: moving them afterwards needs
+ * a new batch.
+ */
+public class StaticBatch {
+    // The meshes and the batch are in ObjectBuilder's vertex format.
+    private static final int POSITION_COMPONENT_COUNT = 3;
+    private static final int FLOATS_PER_VERTEX = 
+        ObjectBuilder.VERTEX_FORMAT.getStride() / BYTES_PER_FLOAT;
+
+    /**
+     * Collects the meshes of a batch. Meshes added with the same texture end
+     * up in the same group, in the order they were added.
+     */
+    public static class Builder {
+        private final List<Group> groups = new ArrayList<Group>();
+
+        public Builder add(Desk desk, float[] modelMatrix, int texture) {
+            add(desk.vertexData, desk.indexData, desk.drawList, modelMatrix, 
+                texture);
+            return this;
+        }
+
+        public Builder add(Chair chair, float[] modelMatrix, int texture) {
+            add(chair.vertexData, chair.indexData, chair.drawList, modelMatrix, 
+                texture);
+            return this;
+        }
+
+        /**
+         * Adds the stand at one of its levels of detail: a batch has only
+         * one.
+         */
+        public Builder add(Stand stand, int level, float[] modelMatrix,
+            int texture) {
+            add(stand.vertexData, stand.indexData, 
+                stand.levelDrawLists.get(level), modelMatrix, texture);
+            return this;
+        }
+
+        public Builder add(NoteBook_Keyboard noteKeyboard, float[] modelMatrix,
+            int texture) {
+            add(noteKeyboard.vertexData, noteKeyboard.indexData, 
+                noteKeyboard.drawList, modelMatrix, texture);
+            return this;
+        }
+
+        public Builder add(NoteBook_Upper noteUpper, float[] modelMatrix,
+            int texture) {
+            add(noteUpper.vertexData, noteUpper.indexData, noteUpper.drawList,
+                modelMatrix, texture);
+            return this;
+        }
+
+        private void add(float[] vertexData, short[] indexData,
+            List<DrawCommand> drawList, float[] modelMatrix, int texture) {
+            final Group group = group(texture);
+            group.beginMesh(vertexData, modelMatrix);
+            for (DrawCommand drawCommand : drawList) {
+                if (drawCommand instanceof DrawElements) {
+                    // Already a triangle list, from MeshOptimizer.
+                    final DrawElements drawElements = (DrawElements) drawCommand;
+                    for (int i = 0; i < drawElements.count; i++) {
+                        group.add(indexData[drawElements.first + i] & 0xffff);
+                    }
+                    continue;
+                }
+                final DrawArrays drawArrays = (DrawArrays) drawCommand;
+                final int first = drawArrays.first;
+                final int count = drawArrays.count;
+                // Everything becomes a triangle list, so the group can be
+                // drawn at once.
+                switch (drawArrays.mode) {
+                    case GL_TRIANGLES:
+                        for (int i = 0; i < count; i++) {
+                            group.add(first + i);
+                        }
+                        break;
+                    case GL_TRIANGLE_FAN:
+                        for (int i = 1; i + 1 < count; i++) {
+                            group.add(first);
+                            group.add(first + i);
+                            group.add(first + i + 1);
+                        }
+                        break;
+                    case GL_TRIANGLE_STRIP:
+                        for (int i = 0; i + 2 < count; i++) {
+                            // Every other triangle of a strip is wound the
+                            // other way.
+                            final int odd = i & 1;
+                            group.add(first + i + odd);
+                            group.add(first + i + 1 - odd);
+                            group.add(first + i + 2);
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                            "Can't batch primitive mode " + drawArrays.mode);
+                }
+            }
+        }
+
+        private Group group(int texture) {
+            for (Group group : groups) {
+                if (group.texture == texture) {
+                    return group;
+                }
+            }
+            final Group group = new Group(texture);
+            groups.add(group);
+            return group;
+        }
+
+        public StaticBatch build() {
+            return new StaticBatch(groups);
+        }
+    }
+
+    private static class Group {
+        final int texture;
+        float[] vertexData = new float[64 * FLOATS_PER_VERTEX];
+        int vertexCount = 0;
+        int[] indices = new int[64];
+        int indexCount = 0;
+
+        // The mesh being added, and where its vertices went, or -1 for
+        // those not added yet.
+        private float[] source;
+        private float[] m;
+        private int[] batchVertices;
+
+        Group(int texture) {
+            this.texture = texture;
+        }
+
+        void beginMesh(float[] source, float[] m) {
+            this.source = source;
+            this.m = m;
+            batchVertices = new int[source.length / FLOATS_PER_VERTEX];
+            Arrays.fill(batchVertices, -1);
+        }
+
+        void add(int vertex) {
+            if (batchVertices[vertex] < 0) {
+                batchVertices[vertex] = vertexCount;
+                addVertex(vertex);
+            }
+            if (indexCount == indices.length) {
+                indices = Arrays.copyOf(indices, indices.length * 2);
+            }
+            indices[indexCount++] = batchVertices[vertex];
+        }
+
+        private void addVertex(int vertex) {
+            if ((vertexCount + 1) * FLOATS_PER_VERTEX > vertexData.length) {
+                vertexData = Arrays.copyOf(vertexData, vertexData.length * 2);
+            }
+            final int from = vertex * FLOATS_PER_VERTEX;
+            final int to = vertexCount * FLOATS_PER_VERTEX;
+            final float x = source[from];
+            final float y = source[from + 1];
+            final float z = source[from + 2];
+            vertexData[to] = m[0] * x + m[4] * y + m[8] * z + m[12];
+            vertexData[to + 1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+            vertexData[to + 2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+            vertexData[to + 3] = source[from + 3];
+            vertexData[to + 4] = source[from + 4];
+            // The scene only rotates and translates the furniture, so the
+            // normals can be rotated by the same matrix.
+            final float nx = source[from + 5];
+            final float ny = source[from + 6];
+            final float nz = source[from + 7];
+            vertexData[to + 5] = m[0] * nx + m[4] * ny + m[8] * nz;
+            vertexData[to + 6] = m[1] * nx + m[5] * ny + m[9] * nz;
+            vertexData[to + 7] = m[2] * nx + m[6] * ny + m[10] * nz;
+            vertexCount++;
+        }
+    }
+
+    private final VertexArray vertexArray;
+    private final IndexBuffer indexBuffer;
+    private final int[] textures;
+    private final int[] firstIndices;
+    private final int[] indexCounts;
+    private final Bounds[] bounds;
+
+    private StaticBatch(List<Group> groups) {
+        final int groupCount = groups.size();
+        textures = new int[groupCount];
+        firstIndices = new int[groupCount];
+        indexCounts = new int[groupCount];
+        bounds = new Bounds[groupCount];
+
+        int totalVertices = 0;
+        int totalIndices = 0;
+        for (Group group : groups) {
+            totalVertices += group.vertexCount;
+            totalIndices += group.indexCount;
+        }
+        if (totalVertices > 0xffff + 1) {
+            throw new IllegalStateException("Too many vertices for 16 bit indices: " 
+                + totalVertices);
+        }
+        final float[] vertexData = new float[totalVertices * FLOATS_PER_VERTEX];
+        final short[] indexData = new short[totalIndices];
+        int vertex = 0;
+        int index = 0;
+        for (int i = 0; i < groupCount; i++) {
+            final Group group = groups.get(i);
+            textures[i] = group.texture;
+            firstIndices[i] = index;
+            indexCounts[i] = group.indexCount;
+            bounds[i] = Bounds.fromVertices(group.vertexData, group.vertexCount,
+                POSITION_COMPONENT_COUNT, FLOATS_PER_VERTEX);
+            System.arraycopy(group.vertexData, 0, vertexData,
+                vertex * FLOATS_PER_VERTEX, group.vertexCount * FLOATS_PER_VERTEX);
+            for (int j = 0; j < group.indexCount; j++) {
+                indexData[index++] = (short) (vertex + group.indices[j]);
+            }
+            vertex += group.vertexCount;
+        }
+        vertexArray = new VertexArray(vertexData, ObjectBuilder.VERTEX_FORMAT);
+        indexBuffer = new IndexBuffer(indexData);
+    }
+
+    public int getGroupCount() {
+        return textures.length;
+    }
+
+    /**
+     * The texture a group was added with.
+     */
+    public int getTexture(int group) {
+        return textures[group];
+    }
+
+    /**
+     * The bounds of a group, in world space.
+     */
+    public Bounds getBounds(int group) {
+        return bounds[group];
+    }
+
+    public void bindData(TextureShaderProgram textureProgram) {
+        if (!vertexArray.bind()) {
+            return;
+        }
+
+        vertexArray.setVertexAttribPointer(VertexFormat.POSITION,
+            textureProgram.getPositionAttributeLocation());
+
+        vertexArray.setVertexAttribPointer(VertexFormat.TEXTURE_COORDINATES,
+            textureProgram.getTextureCoordinatesAttributeLocation());
+
+        vertexArray.setVertexAttribPointer(VertexFormat.NORMAL,
+            textureProgram.getNormalAttributeLocation());
+
+        indexBuffer.bind();
+    }
+
+    /**
+     * Draws a group. The batch is already in world space, so the program's
+     * matrix must be the view-projection matrix.
+     */
+    public void draw(int group) {
+        indexBuffer.draw(GL_TRIANGLES, firstIndices[group], indexCounts[group]);
+    }
+}
@@ -8,17 +8,17 @@
 ***/
 package com.airhockey.android.objects;
 import static android.opengl.GLES20.GL_TRIANGLE_FAN;
-import static android.opengl.GLES20.glDrawArrays;
-import static com.airhockey.android.Constants.BYTES_PER_FLOAT;
+import static com.airhockey.android.render.GL.glDrawArrays;
 
 import com.airhockey.android.data.VertexArray;
+import com.airhockey.android.data.VertexFormat;
 import com.airhockey.android.programs.TextureShaderProgram;
 
 public class Table {            
-    private static final int POSITION_COMPONENT_COUNT = 2;
-    private static final int TEXTURE_COORDINATES_COMPONENT_COUNT = 2;
-    private static final int STRIDE = (POSITION_COMPONENT_COUNT 
-        + TEXTURE_COORDINATES_COMPONENT_COUNT) * BYTES_PER_FLOAT;
+    private static final VertexFormat VERTEX_FORMAT = new VertexFormat.Builder()
+        .add(VertexFormat.POSITION, 2, VertexFormat.FLOAT)
+        .add(VertexFormat.TEXTURE_COORDINATES, 2, VertexFormat.FLOAT)
+        .build();
     
     private static final float[] VERTEX_DATA = {
         // Order of coordinates: X, Y, S, T
@@ -34,21 +34,19 @@ public class Table {
     private final VertexArray vertexArray;
     
     public Table() {
-        vertexArray = new VertexArray(VERTEX_DATA);
+        vertexArray = new VertexArray(VERTEX_DATA, VERTEX_FORMAT);
     }
     
     public void bindData(TextureShaderProgram textureProgram) {
-        vertexArray.setVertexAttribPointer(
-            0, 
-            textureProgram.getPositionAttributeLocation(), 
-            POSITION_COMPONENT_COUNT,
-            STRIDE);
+        if (!vertexArray.bind()) {
+            return;
+        }
+
+        vertexArray.setVertexAttribPointer(VertexFormat.POSITION,
+            textureProgram.getPositionAttributeLocation());
         
-        vertexArray.setVertexAttribPointer(
-            POSITION_COMPONENT_COUNT, 
-            textureProgram.getTextureCoordinatesAttributeLocation(),
-            TEXTURE_COORDINATES_COMPONENT_COUNT, 
-            STRIDE);
+        vertexArray.setVertexAttribPointer(VertexFormat.TEXTURE_COORDINATES,
+            textureProgram.getTextureCoordinatesAttributeLocation());
     }
         
     public void draw() {                                
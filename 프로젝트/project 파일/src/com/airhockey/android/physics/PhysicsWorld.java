@@ -0,0 +1,477 @@
+package com.airhockey.android.physics;
+
+/**
+ * Circular bodies sliding on the table, stored as parallel primitive arrays
+ * (one column per property) rather than as objects, so that stepping
+ * hundreds of pucks allocates nothing and walks memory linearly.
+ *
+ * Bodies with an inverse mass of 0 are kinematic (the mallets): they are moved
+ * by setKinematicTarget() and push dynamic bodies around without being pushed
+ * back. Bodies that stay slower than a threshold for a while are put to sleep
+ * and skipped entirely until something hits them.
+ *
+ * Velocities are distances per step, like the single puck simulation.
+ */
+public class PhysicsWorld {
+    // A body slower than this for SLEEP_STEPS steps in a row goes to sleep.
+    private static final float SLEEP_SPEED = 0.0002f;
+    private static final int SLEEP_STEPS = 30;
+    // Overlap that is tolerated between resting bodies, so that touching
+    // bodies don't keep pushing each other awake.
+    private static final float PENETRATION_SLOP = 0.0005f;
+
+    public final float leftBound;
+    public final float rightBound;
+    public final float farBound;
+    public final float nearBound;
+
+    private final int capacity;
+    private int count = 0;
+
+    // Body columns.
+    private final float[] x;
+    private final float[] z;
+    private final float[] vx;
+    private final float[] vz;
+    private final float[] radius;
+    private final float[] inverseMass;
+    private final float[] previousX;
+    private final float[] previousZ;
+    private final int[] restSteps;
+
+    // Indices of the awake bodies, and each body's slot in that list (-1 when
+    // asleep), so bodies can be removed by swapping with the last slot.
+    private final int[] awake;
+    private final int[] awakeSlot;
+    private int awakeCount = 0;
+
+    // Broadphase. The grid is sized from the bodies' radii, so it is (re)built
+    // on the first step after bodies were added.
+    private SpatialHash grid;
+    private boolean gridDirty = true;
+    private boolean broadphaseEnabled = true;
+    private float maxRadius = 0f;
+    private float radiusSum = 0f;
+    private final int[] candidates;
+    // Candidate pairs for the narrowphase, two body indices per pair.
+    private int[] pairs;
+    private int pairCount = 0;
+
+    private float friction = 0.99f;
+    private float wallRestitution = 0.9f;
+    private float bodyRestitution = 0.9f;
+
+    public PhysicsWorld(int capacity, float leftBound, float rightBound,
+        float farBound, float nearBound) {
+        this.capacity = capacity;
+        this.leftBound = leftBound;
+        this.rightBound = rightBound;
+        this.farBound = farBound;
+        this.nearBound = nearBound;
+
+        x = new float[capacity];
+        z = new float[capacity];
+        vx = new float[capacity];
+        vz = new float[capacity];
+        radius = new float[capacity];
+        inverseMass = new float[capacity];
+        previousX = new float[capacity];
+        previousZ = new float[capacity];
+        restSteps = new int[capacity];
+        awake = new int[capacity];
+        awakeSlot = new int[capacity];
+        candidates = new int[capacity];
+        pairs = new int[capacity * 8];
+    }
+
+    public void setFriction(float friction) {
+        this.friction = friction;
+    }
+
+    public void setWallRestitution(float wallRestitution) {
+        this.wallRestitution = wallRestitution;
+    }
+
+    public void setBodyRestitution(float bodyRestitution) {
+        this.bodyRestitution = bodyRestitution;
+    }
+
+    /**
+     * With the broadphase disabled every awake body is tested against every
+     * other body. Only useful to measure what the broadphase saves.
+     */
+    public void setBroadphaseEnabled(boolean broadphaseEnabled) {
+        this.broadphaseEnabled = broadphaseEnabled;
+    }
+
+    /**
+     * Adds a body and returns its index. Pass an inverse mass of 0 for a
+     * kinematic body. New bodies start awake.
+     */
+    public int addBody(float bodyX, float bodyZ, float bodyRadius,
+        float bodyInverseMass) {
+        if (count == capacity) {
+            throw new IllegalStateException(
+                "Physics world is full (" + capacity + " bodies)");
+        }
+
+        final int body = count++;
+        x[body] = bodyX;
+        z[body] = bodyZ;
+        previousX[body] = bodyX;
+        previousZ[body] = bodyZ;
+        vx[body] = 0f;
+        vz[body] = 0f;
+        radius[body] = bodyRadius;
+        inverseMass[body] = bodyInverseMass;
+        awakeSlot[body] = -1;
+        maxRadius = Math.max(maxRadius, bodyRadius);
+        radiusSum += bodyRadius;
+        gridDirty = true;
+        wake(body);
+        return body;
+    }
+
+    /**
+     * Removes all bodies.
+     */
+    public void clear() {
+        count = 0;
+        awakeCount = 0;
+        maxRadius = 0f;
+        radiusSum = 0f;
+        gridDirty = true;
+    }
+
+    /**
+     * Moves a kinematic body to the given position over the next step.
+     */
+    public void setKinematicTarget(int body, float targetX, float targetZ) {
+        vx[body] = targetX - x[body];
+        vz[body] = targetZ - z[body];
+        if (vx[body] != 0f || vz[body] != 0f) {
+            wake(body);
+        }
+    }
+
+    public void setVelocity(int body, float velocityX, float velocityZ) {
+        vx[body] = velocityX;
+        vz[body] = velocityZ;
+        wake(body);
+    }
+
+    public void wake(int body) {
+        restSteps[body] = 0;
+        if (awakeSlot[body] < 0) {
+            awakeSlot[body] = awakeCount;
+            awake[awakeCount++] = body;
+        }
+    }
+
+    private void sleep(int body) {
+        vx[body] = 0f;
+        vz[body] = 0f;
+        previousX[body] = x[body];
+        previousZ[body] = z[body];
+
+        // Swap the last awake body into this body's slot.
+        final int slot = awakeSlot[body];
+        final int last = awake[--awakeCount];
+        awake[slot] = last;
+        awakeSlot[last] = slot;
+        awakeSlot[body] = -1;
+    }
+
+    /**
+     * Advances the world by one step. Only awake bodies are integrated and
+     * only pairs with at least one awake body are tested.
+     */
+    public void step() {
+        integrate();
+        collideBodies();
+        updateSleep();
+    }
+
+    private void integrate() {
+        for (int a = 0; a < awakeCount; a++) {
+            final int body = awake[a];
+            previousX[body] = x[body];
+            previousZ[body] = z[body];
+
+            final float r = radius[body];
+            if (inverseMass[body] == 0f) {
+                // Kinematic bodies go exactly where they were told, once.
+                x[body] = clamp(x[body] + vx[body], leftBound + r, rightBound - r);
+                z[body] = clamp(z[body] + vz[body], farBound + r, nearBound - r);
+                vx[body] = 0f;
+                vz[body] = 0f;
+                continue;
+            }
+
+            // Reflecting the overshoot back off the wall is exact for axis
+            // aligned walls, so fast pucks can't tunnel out of the table.
+            float newX = x[body] + vx[body];
+            if (newX < leftBound + r) {
+                newX = 2f * (leftBound + r) - newX;
+                vx[body] = -vx[body] * wallRestitution;
+                vz[body] *= wallRestitution;
+            } else if (newX > rightBound - r) {
+                newX = 2f * (rightBound - r) - newX;
+                vx[body] = -vx[body] * wallRestitution;
+                vz[body] *= wallRestitution;
+            }
+
+            float newZ = z[body] + vz[body];
+            if (newZ < farBound + r) {
+                newZ = 2f * (farBound + r) - newZ;
+                vz[body] = -vz[body] * wallRestitution;
+                vx[body] *= wallRestitution;
+            } else if (newZ > nearBound - r) {
+                newZ = 2f * (nearBound - r) - newZ;
+                vz[body] = -vz[body] * wallRestitution;
+                vx[body] *= wallRestitution;
+            }
+
+            x[body] = clamp(newX, leftBound + r, rightBound - r);
+            z[body] = clamp(newZ, farBound + r, nearBound - r);
+
+            // Friction factor
+            vx[body] *= friction;
+            vz[body] *= friction;
+        }
+    }
+
+    private void collideBodies() {
+        if (broadphaseEnabled) {
+            findPairsInGrid();
+        } else {
+            findAllPairs();
+        }
+
+        for (int p = 0; p < pairCount; p++) {
+            collidePair(pairs[2 * p], pairs[2 * p + 1]);
+        }
+    }
+
+    /**
+     * Collects the pairs of bodies in neighbouring grid cells, where at least
+     * one body is awake. Sleeping bodies haven't moved, so only awake bodies
+     * are re-bucketed.
+     */
+    private void findPairsInGrid() {
+        if (gridDirty) {
+            // Cells about the size of an average body keep the number of
+            // bodies per cell low; bigger bodies just search more cells.
+            final float cellSize = 2f * radiusSum / Math.max(1, count);
+            grid = new SpatialHash(capacity, leftBound, rightBound, farBound,
+                nearBound, Math.max(cellSize, 1e-3f));
+            for (int body = 0; body < count; body++) {
+                grid.update(body, x[body], z[body]);
+            }
+            gridDirty = false;
+        } else {
+            for (int a = 0; a < awakeCount; a++) {
+                final int body = awake[a];
+                grid.update(body, x[body], z[body]);
+            }
+        }
+
+        pairCount = 0;
+        for (int a = 0; a < awakeCount; a++) {
+            final int i = awake[a];
+            // Any body whose center is further away than this can't touch.
+            final float reach = radius[i] + maxRadius;
+            final int found = grid.query(x[i] - reach, z[i] - reach,
+                x[i] + reach, z[i] + reach, candidates);
+            for (int c = 0; c < found; c++) {
+                final int j = candidates[c];
+                // Emit each awake pair once, from its earlier awake slot.
+                if (j == i || (awakeSlot[j] >= 0 && awakeSlot[j] <= a)) {
+                    continue;
+                }
+                addPair(i, j);
+            }
+        }
+    }
+
+    private void findAllPairs() {
+        pairCount = 0;
+        for (int a = 0; a < awakeCount; a++) {
+            final int i = awake[a];
+            for (int j = 0; j < count; j++) {
+                if (j == i || (awakeSlot[j] >= 0 && awakeSlot[j] <= a)) {
+                    continue;
+                }
+                addPair(i, j);
+            }
+        }
+    }
+
+    private void addPair(int i, int j) {
+        if (2 * pairCount + 2 > pairs.length) {
+            // Rare: only when the bodies pile up more than ever before.
+            final int[] grown = new int[pairs.length * 2];
+            System.arraycopy(pairs, 0, grown, 0, pairs.length);
+            pairs = grown;
+        }
+        pairs[2 * pairCount] = i;
+        pairs[2 * pairCount + 1] = j;
+        pairCount++;
+    }
+
+    /**
+     * Separates two overlapping bodies and exchanges momentum along the line
+     * between their centers. Returns true if they were touching.
+     */
+    boolean collidePair(int i, int j) {
+        final float dx = x[j] - x[i];
+        final float dz = z[j] - z[i];
+        final float minDistance = radius[i] + radius[j];
+        final float distanceSquared = dx * dx + dz * dz;
+        if (distanceSquared >= minDistance * minDistance) {
+            return false;
+        }
+
+        final float totalInverseMass = inverseMass[i] + inverseMass[j];
+        if (totalInverseMass == 0f) {
+            // Two mallets; neither can push the other.
+            return false;
+        }
+
+        final float distance = (float) Math.sqrt(distanceSquared);
+        float nx = 1f;
+        float nz = 0f;
+        if (distance > 0f) {
+            nx = dx / distance;
+            nz = dz / distance;
+        }
+
+        // Push apart in proportion to the inverse masses.
+        final float penetration = minDistance - distance - PENETRATION_SLOP;
+        boolean disturbed = false;
+        if (penetration > 0f) {
+            final float correction = penetration / totalInverseMass;
+            x[i] -= nx * correction * inverseMass[i];
+            z[i] -= nz * correction * inverseMass[i];
+            x[j] += nx * correction * inverseMass[j];
+            z[j] += nz * correction * inverseMass[j];
+            // A body pushed into a wall stays on the table, and the overlap
+            // left over is worked off in the next steps.
+            clampToTable(i);
+            clampToTable(j);
+            disturbed = true;
+        }
+
+        // A kinematic body's velocity was used up by integrate(), so use the
+        // distance it moved this step instead.
+        final float ivx = inverseMass[i] == 0f ? x[i] - previousX[i] : vx[i];
+        final float ivz = inverseMass[i] == 0f ? z[i] - previousZ[i] : vz[i];
+        final float jvx = inverseMass[j] == 0f ? x[j] - previousX[j] : vx[j];
+        final float jvz = inverseMass[j] == 0f ? z[j] - previousZ[j] : vz[j];
+
+        final float approachSpeed = (jvx - ivx) * nx + (jvz - ivz) * nz;
+        if (approachSpeed < 0f) {
+            final float impulse =
+                -(1f + bodyRestitution) * approachSpeed / totalInverseMass;
+            vx[i] -= nx * impulse * inverseMass[i];
+            vz[i] -= nz * impulse * inverseMass[i];
+            vx[j] += nx * impulse * inverseMass[j];
+            vz[j] += nz * impulse * inverseMass[j];
+            // Don't let resting contacts keep each other awake.
+            disturbed |= approachSpeed < -SLEEP_SPEED;
+        }
+
+        if (disturbed) {
+            if (inverseMass[i] != 0f) {
+                wake(i);
+            }
+            if (inverseMass[j] != 0f) {
+                wake(j);
+            }
+        }
+        return true;
+    }
+
+    private void updateSleep() {
+        // Walk backwards, since sleeping swaps the last awake body into the
+        // current slot.
+        final float sleepSpeedSquared = SLEEP_SPEED * SLEEP_SPEED;
+        for (int a = awakeCount - 1; a >= 0; a--) {
+            final int body = awake[a];
+            final float movedX = x[body] - previousX[body];
+            final float movedZ = z[body] - previousZ[body];
+            if (movedX * movedX + movedZ * movedZ < sleepSpeedSquared
+             && vx[body] * vx[body] + vz[body] * vz[body] < sleepSpeedSquared) {
+                if (++restSteps[body] >= SLEEP_STEPS) {
+                    sleep(body);
+                }
+            } else {
+                restSteps[body] = 0;
+            }
+        }
+    }
+
+    private void clampToTable(int body) {
+        final float r = radius[body];
+        x[body] = clamp(x[body], leftBound + r, rightBound - r);
+        z[body] = clamp(z[body], farBound + r, nearBound - r);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.min(max, Math.max(value, min));
+    }
+
+    public int getBodyCount() {
+        return count;
+    }
+
+    public int getAwakeCount() {
+        return awakeCount;
+    }
+
+    /**
+     * Number of pairs handed to the narrowphase in the last step.
+     */
+    public int getCandidatePairCount() {
+        return pairCount;
+    }
+
+    public boolean isSleeping(int body) {
+        return awakeSlot[body] < 0;
+    }
+
+    public float getX(int body) {
+        return x[body];
+    }
+
+    public float getZ(int body) {
+        return z[body];
+    }
+
+    public float getVelocityX(int body) {
+        return vx[body];
+    }
+
+    public float getVelocityZ(int body) {
+        return vz[body];
+    }
+
+    public float getRadius(int body) {
+        return radius[body];
+    }
+
+    public float getInverseMass(int body) {
+        return inverseMass[body];
+    }
+
+    /**
+     * Position blended between the start and the end of the last step.
+     */
+    public float getInterpolatedX(int body, float alpha) {
+        return previousX[body] + (x[body] - previousX[body]) * alpha;
+    }
+
+    public float getInterpolatedZ(int body, float alpha) {
+        return previousZ[body] + (z[body] - previousZ[body]) * alpha;
+    }
+}
@@ -0,0 +1,120 @@
+package com.airhockey.android.physics;
+
+/**
+ * A uniform grid over the table that buckets bodies by the cell their center
+ * is in, so that a body only needs to be tested against the bodies in the
+ * cells around it instead of against every other body.
+ *
+ * Each cell is an intrusive doubly linked list kept in int arrays, so moving
+ * a body from one cell to another is O(1) and nothing is allocated after
+ * construction. Bodies that stay within their cell cost a single compare.
+ */
+public class SpatialHash {
+    private static final int NONE = -1;
+
+    private final float left;
+    private final float far;
+    private final float inverseCellSize;
+    private final int columns;
+    private final int rows;
+
+    private final int[] cellHead;
+    private final int[] next;
+    private final int[] previous;
+    private final int[] bodyCell;
+
+    public SpatialHash(int capacity, float left, float right, float far,
+        float near, float cellSize) {
+        this.left = left;
+        this.far = far;
+        this.inverseCellSize = 1f / cellSize;
+        this.columns = Math.max(1, (int) Math.ceil((right - left) / cellSize));
+        this.rows = Math.max(1, (int) Math.ceil((near - far) / cellSize));
+
+        cellHead = new int[columns * rows];
+        next = new int[capacity];
+        previous = new int[capacity];
+        bodyCell = new int[capacity];
+        clear();
+    }
+
+    public void clear() {
+        for (int i = 0; i < cellHead.length; i++) {
+            cellHead[i] = NONE;
+        }
+        for (int i = 0; i < bodyCell.length; i++) {
+            bodyCell[i] = NONE;
+        }
+    }
+
+    private int column(float x) {
+        final int column = (int) ((x - left) * inverseCellSize);
+        return column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+    }
+
+    private int row(float z) {
+        final int row = (int) ((z - far) * inverseCellSize);
+        return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+    }
+
+    /**
+     * Puts the body in the cell for the given position, moving it out of its
+     * previous cell if needed. Returns true if the body changed cells.
+     */
+    public boolean update(int body, float x, float z) {
+        final int cell = row(z) * columns + column(x);
+        final int oldCell = bodyCell[body];
+        if (cell == oldCell) {
+            return false;
+        }
+
+        if (oldCell != NONE) {
+            // Unlink from the old cell.
+            if (previous[body] != NONE) {
+                next[previous[body]] = next[body];
+            } else {
+                cellHead[oldCell] = next[body];
+            }
+            if (next[body] != NONE) {
+                previous[next[body]] = previous[body];
+            }
+        }
+
+        // Link at the head of the new cell.
+        previous[body] = NONE;
+        next[body] = cellHead[cell];
+        if (cellHead[cell] != NONE) {
+            previous[cellHead[cell]] = body;
+        }
+        cellHead[cell] = body;
+        bodyCell[body] = cell;
+        return true;
+    }
+
+    /**
+     * Writes every body whose center is in a cell overlapping the given
+     * rectangle into out, and returns how many were written. out must be
+     * able to hold every body in the grid.
+     */
+    public int query(float minX, float minZ, float maxX, float maxZ, int[] out) {
+        final int firstColumn = column(minX);
+        final int lastColumn = column(maxX);
+        final int firstRow = row(minZ);
+        final int lastRow = row(maxZ);
+
+        int found = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                for (int body = cellHead[row * columns + column]; body != NONE;
+                     body = next[body]) {
+                    out[found++] = body;
+                }
+            }
+        }
+        return found;
+    }
+
+    public int getCellCount() {
+        return cellHead.length;
+    }
+}
@@ -8,10 +8,7 @@
 ***/
 package com.airhockey.android.programs;
 
-import static android.opengl.GLES20.glGetAttribLocation;
-import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniform4f;
-import static android.opengl.GLES20.glUniformMatrix4fv;
+import static com.airhockey.android.render.GL.glGetAttribLocation;
 
 import com.airhockey.android.R;
 
@@ -19,28 +16,36 @@ import android.content.Context;
 
 
 public class ColorShaderProgram extends ShaderProgram {
-    // Uniform locations
-    private final int uMatrixLocation;
-    private final int uColorLocation;
+    // Uniforms
+    private final Uniform uMatrix;
+    private final Uniform uColor;
     
     // Attribute locations
     private final int aPositionLocation;
 
     public ColorShaderProgram(Context context) {
-        super(context, R.raw.simple_vertex_shader,
-            R.raw.simple_fragment_shader);
+        this(buildProgram(context, R.raw.simple_vertex_shader,
+            R.raw.simple_fragment_shader));
+    }
+
+    /**
+     * Wraps a program already linked from the simple shaders, e.g. one made
+     * on the headless backend.
+     */
+    public ColorShaderProgram(int program) {
+        super(program);
 
         // Retrieve uniform locations for the shader program.
-        uMatrixLocation = glGetUniformLocation(program, U_MATRIX);
-        uColorLocation = glGetUniformLocation(program, U_COLOR);
+        uMatrix = uniform(U_MATRIX);
+        uColor = uniform(U_COLOR);
         
         // Retrieve attribute locations for the shader program.
         aPositionLocation = glGetAttribLocation(program, A_POSITION);
     }
 
     public void setUniforms(float[] matrix, float r, float g, float b) {
-        glUniformMatrix4fv(uMatrixLocation, 1, false, matrix, 0);
-        glUniform4f(uColorLocation, r, g, b, 1f);
+        setUniformMatrix4fv(uMatrix, matrix);
+        setUniform4f(uColor, r, g, b, 1f);
     }
 
     public int getPositionAttributeLocation() {
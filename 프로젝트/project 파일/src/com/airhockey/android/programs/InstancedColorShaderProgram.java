@@ -0,0 +1,110 @@
+package com.airhockey.android.programs;
+
+import static com.airhockey.android.render.GL.glGetAttribLocation;
+
+import android.content.Context;
+
+import com.airhockey.android.R;
+
+/**
+ * Draws many instances of a mesh in one colour each, from a model matrix
+ * and a colour per instance, for InstancedMesh. The instanced shader reads
+ * them from per-instance attributes, which need ES 3.0. The pseudo-instanced
+ * one reads them from a uniform array, indexed by an attribute that tells
+ * the copies of the mesh apart, and works on ES 2.0.
+ */
+public class InstancedColorShaderProgram extends ShaderProgram {
+    /**
+     * The instances one pseudo-instanced draw can take. Each is four of the
+     * 128 uniform vectors ES 2.0 promises a vertex shader, after the four of
+     * u_Matrix; the size of u_Instances must match.
+     */
+    public static final int MAX_UNIFORM_INSTANCES = 24;
+    
+    private final boolean uniformArrays;
+
+    // Uniforms
+    private final Uniform uMatrix;
+    private final Uniform uInstances;
+    
+    // Attribute locations
+    private final int aPositionLocation;
+    private final int aModelRow0Location;
+    private final int aModelRow1Location;
+    private final int aModelRow2Location;
+    private final int aColorLocation;
+    private final int aInstanceIndexLocation;
+
+    /**
+     * @param uniformArrays Whether to build the pseudo-instanced shader
+     *        rather than the instanced one.
+     */
+    public InstancedColorShaderProgram(Context context, boolean uniformArrays) {
+        this(buildProgram(context, uniformArrays 
+                ? R.raw.pseudo_instanced_color_vertex_shader 
+                : R.raw.instanced_color_vertex_shader,
+            R.raw.instanced_color_fragment_shader), uniformArrays);
+    }
+
+    /**
+     * Wraps a program already linked from the instanced or pseudo-instanced
+     * shaders, e.g. one made on the headless backend.
+     */
+    public InstancedColorShaderProgram(int program, boolean uniformArrays) {
+        super(program);
+        this.uniformArrays = uniformArrays;
+
+        // Retrieve uniform locations for the shader program.
+        uMatrix = uniform(U_MATRIX);
+        uInstances = uniform(U_INSTANCES);
+        
+        // Retrieve attribute locations for the shader program. The ones the
+        // shader doesn't have are -1.
+        aPositionLocation = glGetAttribLocation(program, A_POSITION);
+        aModelRow0Location = glGetAttribLocation(program, A_MODEL_ROW_0);
+        aModelRow1Location = glGetAttribLocation(program, A_MODEL_ROW_1);
+        aModelRow2Location = glGetAttribLocation(program, A_MODEL_ROW_2);
+        aColorLocation = glGetAttribLocation(program, A_COLOR);
+        aInstanceIndexLocation = glGetAttribLocation(program, A_INSTANCE_INDEX);
+    }
+
+    public boolean usesUniformArrays() {
+        return uniformArrays;
+    }
+
+    /**
+     * Sets the view-projection matrix.
+     */
+    public void setMatrix(float[] matrix) {
+        setUniformMatrix4fv(uMatrix, matrix);
+    }
+
+    /**
+     * Uploads count instances, of InstancedMesh.FLOATS_PER_INSTANCE floats
+     * each, from firstInstance on, for a pseudo-instanced draw.
+     */
+    public void setInstances(float[] instanceData, int firstInstance, int count) {
+        // Four vec4s per instance.
+        uploadUniform4fv(uInstances, count * 4, instanceData, firstInstance * 16);
+    }
+
+    public int getPositionAttributeLocation() {
+        return aPositionLocation;
+    }
+
+    /**
+     * The attribute with row 0, 1 or 2 of the model matrix.
+     */
+    public int getModelRowAttributeLocation(int row) {
+        return row == 0 ? aModelRow0Location 
+            : row == 1 ? aModelRow1Location : aModelRow2Location;
+    }
+
+    public int getColorAttributeLocation() {
+        return aColorLocation;
+    }
+
+    public int getInstanceIndexAttributeLocation() {
+        return aInstanceIndexLocation;
+    }
+}
@@ -8,12 +8,28 @@
 ***/
 package com.airhockey.android.programs;
 
-import static android.opengl.GLES20.glUseProgram;
+import static com.airhockey.android.render.GL.glGetUniformLocation;
+import static com.airhockey.android.render.GL.glUniform1i;
+import static com.airhockey.android.render.GL.glUniform3fv;
+import static com.airhockey.android.render.GL.glUniform4f;
+import static com.airhockey.android.render.GL.glUniform4fv;
+import static com.airhockey.android.render.GL.glUniformMatrix4fv;
+
+import java.util.HashMap;
+
 import android.content.Context;
 
+import com.airhockey.android.render.GLState;
 import com.airhockey.android.util.ShaderHelper;
 import com.airhockey.android.util.TextResourceReader;
 
+/**
+ * A linked program, and a shadow copy of the uniform values last uploaded
+ * to it. Uniform values belong to the program, so they stay valid while
+ * other programs are in use, and setting a uniform to the value it already
+ * has is skipped. Large values that are known not to have changed can be
+ * passed with a version stamp instead, which skips the compare.
+ */
 abstract class ShaderProgram {
     // Uniform constants
     protected static final String U_MATRIX = "u_Matrix";
@@ -22,28 +38,244 @@ abstract class ShaderProgram {
     protected static final String U_VECTOR_TO_LIGHT = "u_VectorToLight";
     protected static final String U_POINT_LIGHT_POSITIONS = "u_PointLightPositions";
     protected static final String U_POINT_LIGHT_COLORS = "u_PointLightColors";
+    protected static final String U_INSTANCES = "u_Instances";
 
     // Attribute constants
     protected static final String A_POSITION = "a_Position";    
     protected static final String A_COLOR = "a_Color";
     protected static final String A_NORMAL = "a_Normal";
     protected static final String A_TEXTURE_COORDINATES = "a_TextureCoordinates";    
+    protected static final String A_MODEL_ROW_0 = "a_ModelRow0";
+    protected static final String A_MODEL_ROW_1 = "a_ModelRow1";
+    protected static final String A_MODEL_ROW_2 = "a_ModelRow2";
+    protected static final String A_INSTANCE_INDEX = "a_InstanceIndex";
+
+    /**
+     * A uniform of this program, and the last value uploaded to it.
+     */
+    protected static final class Uniform {
+        final int location;
+        float[] values = new float[0];
+        int intValue;
+        int version;
+        boolean uploaded = false;
+        // Whether version, rather than values, describes the upload.
+        boolean versioned = false;
+
+        Uniform(int location) {
+            this.location = location;
+        }
+    }
 
     // Shader program
     protected final int program;
 
+    private final HashMap<String, Uniform> uniforms = 
+        new HashMap<String, Uniform>();
+    private int uniformUploads = 0;
+    private int uniformUploadsSkipped = 0;
+
     protected ShaderProgram(Context context, int vertexShaderResourceId,
         int fragmentShaderResourceId) {
+        this(buildProgram(context, vertexShaderResourceId,
+            fragmentShaderResourceId));
+    }        
+
+    /**
+     * Wraps a program that is already linked.
+     */
+    protected ShaderProgram(int program) {
+        this.program = program;
+    }
+
+    protected static int buildProgram(Context context, 
+        int vertexShaderResourceId, int fragmentShaderResourceId) {
         // Compile the shaders and link the program.
-        program = ShaderHelper.buildProgram(
+        return ShaderHelper.buildProgram(
             TextResourceReader
                 .readTextFileFromResource(context, vertexShaderResourceId),
             TextResourceReader
                 .readTextFileFromResource(context, fragmentShaderResourceId));
-    }        
+    }
 
     public void useProgram() {
         // Set the current OpenGL shader program to this program.
-        glUseProgram(program);
+        GLState.useProgram(program);
+    }
+
+    /**
+     * Looks the uniform up the first time it is asked for, and returns the
+     * same Uniform after that.
+     */
+    protected Uniform uniform(String name) {
+        Uniform uniform = uniforms.get(name);
+        if (uniform == null) {
+            uniform = new Uniform(glGetUniformLocation(program, name));
+            uniforms.put(name, uniform);
+        }
+        return uniform;
+    }
+
+    /**
+     * The location of the named uniform, -1 if the program doesn't use it.
+     */
+    public int getUniformLocation(String name) {
+        return uniform(name).location;
+    }
+
+    // The setters below must be called while this program is in use.
+
+    protected void setUniform1i(Uniform uniform, int value) {
+        if (uniform.uploaded && !uniform.versioned && uniform.intValue == value
+            || uniform.location == -1) {
+            uniformUploadsSkipped++;
+            return;
+        }
+        glUniform1i(uniform.location, value);
+        uniform.intValue = value;
+        uploaded(uniform);
+    }
+
+    protected void setUniform4f(Uniform uniform, float x, float y, float z, float w) {
+        final float[] values = sizedValues(uniform, 4);
+        if (uniform.uploaded && !uniform.versioned && values[0] == x
+            && values[1] == y && values[2] == z && values[3] == w
+            || uniform.location == -1) {
+            uniformUploadsSkipped++;
+            return;
+        }
+        glUniform4f(uniform.location, x, y, z, w);
+        values[0] = x;
+        values[1] = y;
+        values[2] = z;
+        values[3] = w;
+        uploaded(uniform);
+    }
+
+    protected void setUniform3fv(Uniform uniform, int count, float[] values) {
+        if (isUnchanged(uniform, values, count * 3)) {
+            uniformUploadsSkipped++;
+            return;
+        }
+        glUniform3fv(uniform.location, count, values, 0);
+        uploaded(uniform);
+    }
+
+    protected void setUniform4fv(Uniform uniform, int count, float[] values) {
+        if (isUnchanged(uniform, values, count * 4)) {
+            uniformUploadsSkipped++;
+            return;
+        }
+        glUniform4fv(uniform.location, count, values, 0);
+        uploaded(uniform);
+    }
+
+    protected void setUniformMatrix4fv(Uniform uniform, float[] matrix) {
+        if (isUnchanged(uniform, matrix, 16)) {
+            uniformUploadsSkipped++;
+            return;
+        }
+        glUniformMatrix4fv(uniform.location, 1, false, matrix, 0);
+        uploaded(uniform);
+    }
+
+    /**
+     * Uploads values unless they were last uploaded with the same version.
+     * The caller must change the version whenever the values change.
+     */
+    protected void setUniform3fv(Uniform uniform, int count, float[] values,
+        int version) {
+        if (isSameVersion(uniform, version)) {
+            uniformUploadsSkipped++;
+            return;
+        }
+        glUniform3fv(uniform.location, count, values, 0);
+        uploadedVersion(uniform, version);
+    }
+
+    protected void setUniform4fv(Uniform uniform, int count, float[] values,
+        int version) {
+        if (isSameVersion(uniform, version)) {
+            uniformUploadsSkipped++;
+            return;
+        }
+        glUniform4fv(uniform.location, count, values, 0);
+        uploadedVersion(uniform, version);
+    }
+
+    /**
+     * Uploads count vec4s from values[offset] on, without comparing: for
+     * values that change with every draw.
+     */
+    protected void uploadUniform4fv(Uniform uniform, int count, float[] values,
+        int offset) {
+        if (uniform.location == -1) {
+            uniformUploadsSkipped++;
+            return;
+        }
+        glUniform4fv(uniform.location, count, values, offset);
+        // The shadow copy no longer says what the uniform holds.
+        uniform.uploaded = false;
+        uniformUploads++;
+    }
+
+    private static float[] sizedValues(Uniform uniform, int length) {
+        if (uniform.values.length != length) {
+            uniform.values = new float[length];
+            uniform.uploaded = false;
+        }
+        return uniform.values;
+    }
+
+    /**
+     * Compares values with the shadow copy, and updates the copy if they
+     * differ.
+     */
+    private static boolean isUnchanged(Uniform uniform, float[] values, int length) {
+        if (uniform.location == -1) {
+            return true;
+        }
+        final float[] shadow = sizedValues(uniform, length);
+        boolean unchanged = uniform.uploaded && !uniform.versioned;
+        for (int i = 0; i < length; i++) {
+            if (shadow[i] != values[i]) {
+                shadow[i] = values[i];
+                unchanged = false;
+            }
+        }
+        return unchanged;
+    }
+
+    private static boolean isSameVersion(Uniform uniform, int version) {
+        return uniform.location == -1
+            || uniform.uploaded && uniform.versioned && uniform.version == version;
+    }
+
+    private void uploaded(Uniform uniform) {
+        uniform.uploaded = true;
+        uniform.versioned = false;
+        uniformUploads++;
+    }
+
+    private void uploadedVersion(Uniform uniform, int version) {
+        uniform.uploaded = true;
+        uniform.versioned = true;
+        uniform.version = version;
+        uniformUploads++;
+    }
+
+    /**
+     * Number of glUniform calls made so far.
+     */
+    public int getUniformUploads() {
+        return uniformUploads;
+    }
+
+    /**
+     * Number of uniform updates skipped so far because the program already
+     * had the value.
+     */
+    public int getUniformUploadsSkipped() {
+        return uniformUploadsSkipped;
     }
 }
@@ -8,26 +8,18 @@
 ***/
 package com.airhockey.android.programs;
 
-import static android.opengl.GLES20.GL_TEXTURE0;
-import static android.opengl.GLES20.GL_TEXTURE_2D;
-import static android.opengl.GLES20.glActiveTexture;
-import static android.opengl.GLES20.glBindTexture;
-import static android.opengl.GLES20.glGetAttribLocation;
-import static android.opengl.GLES20.glGetUniformLocation;
-import static android.opengl.GLES20.glUniform1i;
-import static android.opengl.GLES20.glUniform3fv;
-import static android.opengl.GLES20.glUniform4fv;
-import static android.opengl.GLES20.glUniformMatrix4fv;
+import static com.airhockey.android.render.GL.glGetAttribLocation;
 import android.content.Context;
 import com.airhockey.android.R;
+import com.airhockey.android.render.GLState;
 
 public class TextureShaderProgram extends ShaderProgram {
-    // Uniform locations
-    private final int uMatrixLocation;
-    private final int uTextureUnitLocation;
-    private final int uVectorToLightLocation;
-    private final int uPointLightPositionsLocation;
-    private final int uPointLightColorsLocation;
+    // Uniforms
+    private final Uniform uMatrix;
+    private final Uniform uTextureUnit;
+    private final Uniform uVectorToLight;
+    private final Uniform uPointLightPositions;
+    private final Uniform uPointLightColors;
     
     // Attribute locations
     private final int aPositionLocation;
@@ -35,14 +27,22 @@ public class TextureShaderProgram extends ShaderProgram {
     private final int aNormalLocation;
 
     public TextureShaderProgram(Context context) {
-        super(context, R.raw.texture_vertex_shader,             R.raw.texture_fragment_shader);
+        this(buildProgram(context, R.raw.texture_vertex_shader,             R.raw.texture_fragment_shader));
+    }
+
+    /**
+     * Wraps a program already linked from the texture shaders, e.g. one made
+     * on the headless backend.
+     */
+    public TextureShaderProgram(int program) {
+        super(program);
 
         // Retrieve uniform locations for the shader program.
-        uMatrixLocation = glGetUniformLocation(program, U_MATRIX);
-        uTextureUnitLocation = glGetUniformLocation(program, U_TEXTURE_UNIT);
-        uVectorToLightLocation = glGetUniformLocation(program, U_VECTOR_TO_LIGHT);
-        uPointLightPositionsLocation = glGetUniformLocation(program, U_POINT_LIGHT_POSITIONS);
-        uPointLightColorsLocation = glGetUniformLocation(program, U_POINT_LIGHT_COLORS);
+        uMatrix = uniform(U_MATRIX);
+        uTextureUnit = uniform(U_TEXTURE_UNIT);
+        uVectorToLight = uniform(U_VECTOR_TO_LIGHT);
+        uPointLightPositions = uniform(U_POINT_LIGHT_POSITIONS);
+        uPointLightColors = uniform(U_POINT_LIGHT_COLORS);
         
         // Retrieve attribute locations for the shader program.               
         aPositionLocation = glGetAttribLocation(program, A_POSITION);
@@ -55,22 +55,45 @@ public class TextureShaderProgram extends ShaderProgram {
         float[] pointLightPositions,
         float[] pointLightColors)
     {
+        setMatrix(matrix);
+        setLights(vectorToDirectionalLight, pointLightPositions, pointLightColors);
+        setTexture(textureId);
+    }
+
+    public void setMatrix(float[] matrix) {
         // Pass the matrix into the shader program.
-        glUniformMatrix4fv(uMatrixLocation, 1, false, matrix, 0);
-        glUniform3fv(uVectorToLightLocation, 1, vectorToDirectionalLight, 0);
+        setUniformMatrix4fv(uMatrix, matrix);
+    }
+
+    public void setLights(float[] vectorToDirectionalLight, 
+        float[] pointLightPositions,
+        float[] pointLightColors) {
+        setUniform3fv(uVectorToLight, 1, vectorToDirectionalLight);
         
-        glUniform4fv(uPointLightPositionsLocation, 3, pointLightPositions, 0);            
-        glUniform3fv(uPointLightColorsLocation, 3, pointLightColors, 0);
+        setUniform4fv(uPointLightPositions, 3, pointLightPositions);            
+        setUniform3fv(uPointLightColors, 3, pointLightColors);
+    }
 
-        // Set the active texture unit to texture unit 0.
-        glActiveTexture(GL_TEXTURE0);
+    /**
+     * Like setLights above, but only compares the version: pass a new one
+     * whenever any of the light values change.
+     */
+    public void setLights(float[] vectorToDirectionalLight, 
+        float[] pointLightPositions,
+        float[] pointLightColors,
+        int version) {
+        setUniform3fv(uVectorToLight, 1, vectorToDirectionalLight, version);
+        setUniform4fv(uPointLightPositions, 3, pointLightPositions, version);            
+        setUniform3fv(uPointLightColors, 3, pointLightColors, version);
+    }
 
-        // Bind the texture to this unit.
-        glBindTexture(GL_TEXTURE_2D, textureId);
+    public void setTexture(int textureId) {
+        // Bind the texture to texture unit 0.
+        GLState.bindTexture2D(0, textureId);
 
         // Tell the texture uniform sampler to use this texture in the shader by
         // telling it to read from texture unit 0.
-        glUniform1i(uTextureUnitLocation, 0);
+        setUniform1i(uTextureUnit, 0);
     }
     
     public int getPositionAttributeLocation() {
@@ -0,0 +1,264 @@
+package com.airhockey.android.render;
+
+import java.nio.Buffer;
+
+/**
+ * Static forwarders to the current GLBackend. Code that used to import the
+ * android.opengl.GLES20 functions statically imports these instead, and
+ * keeps using the GLES20 constants, which the compiler inlines.
+ *
+ * The backend is the real GLES20 one unless setBackend() was called, which
+ * must happen before any other GL call, e.g. at the start of a headless
+ * tool.
+ */
+public class GL {
+    private static GLBackend backend = new GLES20Backend();
+    // The backend's ES 3.0 calls, or null if it has none.
+    private static GLBackend.VertexArrays vertexArrays;
+    private static GLBackend.Instancing instancing;
+
+    public static void setBackend(GLBackend newBackend) {
+        backend = newBackend;
+        vertexArrays = newBackend instanceof GLBackend.VertexArrays
+            ? (GLBackend.VertexArrays) newBackend : null;
+        instancing = newBackend instanceof GLBackend.Instancing
+            ? (GLBackend.Instancing) newBackend : null;
+        GLState.invalidate();
+    }
+
+    public static GLBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Whether glBindVertexArray(), glDeleteVertexArrays() and
+     * glGenVertexArrays() may be called.
+     */
+    public static boolean hasVertexArrayObjects() {
+        return vertexArrays != null && vertexArrays.hasVertexArrayObjects();
+    }
+
+    /**
+     * Whether glDrawArraysInstanced(), glDrawElementsInstanced() and
+     * glVertexAttribDivisor() may be called.
+     */
+    public static boolean hasInstancedArrays() {
+        return instancing != null && instancing.hasInstancedArrays();
+    }
+
+    public static void glActiveTexture(int texture) {
+        backend.glActiveTexture(texture);
+    }
+
+    public static void glAttachShader(int program, int shader) {
+        backend.glAttachShader(program, shader);
+    }
+
+    public static void glBindBuffer(int target, int buffer) {
+        backend.glBindBuffer(target, buffer);
+    }
+
+    public static void glBindTexture(int target, int texture) {
+        backend.glBindTexture(target, texture);
+    }
+
+    public static void glBindVertexArray(int array) {
+        vertexArrays.glBindVertexArray(array);
+    }
+
+    public static void glBlendFunc(int sfactor, int dfactor) {
+        backend.glBlendFunc(sfactor, dfactor);
+    }
+
+    public static void glBufferData(int target, int size, Buffer data, int usage) {
+        backend.glBufferData(target, size, data, usage);
+    }
+
+    public static void glClear(int mask) {
+        backend.glClear(mask);
+    }
+
+    public static void glClearColor(float red, float green, float blue, float alpha) {
+        backend.glClearColor(red, green, blue, alpha);
+    }
+
+    public static void glCompileShader(int shader) {
+        backend.glCompileShader(shader);
+    }
+
+    public static int glCreateProgram() {
+        return backend.glCreateProgram();
+    }
+
+    public static int glCreateShader(int type) {
+        return backend.glCreateShader(type);
+    }
+
+    public static void glDeleteBuffers(int n, int[] buffers, int offset) {
+        backend.glDeleteBuffers(n, buffers, offset);
+    }
+
+    public static void glDeleteProgram(int program) {
+        backend.glDeleteProgram(program);
+    }
+
+    public static void glDeleteShader(int shader) {
+        backend.glDeleteShader(shader);
+    }
+
+    public static void glDeleteTextures(int n, int[] textures, int offset) {
+        backend.glDeleteTextures(n, textures, offset);
+    }
+
+    public static void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+        vertexArrays.glDeleteVertexArrays(n, arrays, offset);
+    }
+
+    public static void glDepthFunc(int func) {
+        backend.glDepthFunc(func);
+    }
+
+    public static void glDepthMask(boolean flag) {
+        backend.glDepthMask(flag);
+    }
+
+    public static void glDisable(int cap) {
+        backend.glDisable(cap);
+    }
+
+    public static void glDisableVertexAttribArray(int index) {
+        backend.glDisableVertexAttribArray(index);
+    }
+
+    public static void glDrawArrays(int mode, int first, int count) {
+        backend.glDrawArrays(mode, first, count);
+    }
+
+    public static void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+        instancing.glDrawArraysInstanced(mode, first, count, instanceCount);
+    }
+
+    public static void glDrawElements(int mode, int count, int type, int offset) {
+        backend.glDrawElements(mode, count, type, offset);
+    }
+
+    public static void glDrawElements(int mode, int count, int type, Buffer indices) {
+        backend.glDrawElements(mode, count, type, indices);
+    }
+
+    public static void glEnable(int cap) {
+        backend.glEnable(cap);
+    }
+
+    public static void glEnableVertexAttribArray(int index) {
+        backend.glEnableVertexAttribArray(index);
+    }
+
+    public static void glGenBuffers(int n, int[] buffers, int offset) {
+        backend.glGenBuffers(n, buffers, offset);
+    }
+
+    public static void glGenTextures(int n, int[] textures, int offset) {
+        backend.glGenTextures(n, textures, offset);
+    }
+
+    public static void glGenVertexArrays(int n, int[] arrays, int offset) {
+        vertexArrays.glGenVertexArrays(n, arrays, offset);
+    }
+
+    public static void glGenerateMipmap(int target) {
+        backend.glGenerateMipmap(target);
+    }
+
+    public static int glGetAttribLocation(int program, String name) {
+        return backend.glGetAttribLocation(program, name);
+    }
+
+    public static String glGetProgramInfoLog(int program) {
+        return backend.glGetProgramInfoLog(program);
+    }
+
+    public static void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        backend.glGetProgramiv(program, pname, params, offset);
+    }
+
+    public static String glGetShaderInfoLog(int shader) {
+        return backend.glGetShaderInfoLog(shader);
+    }
+
+    public static void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        backend.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    public static String glGetString(int name) {
+        return backend.glGetString(name);
+    }
+
+    public static int glGetUniformLocation(int program, String name) {
+        return backend.glGetUniformLocation(program, name);
+    }
+
+    public static void glLinkProgram(int program) {
+        backend.glLinkProgram(program);
+    }
+
+    public static void glShaderSource(int shader, String string) {
+        backend.glShaderSource(shader, string);
+    }
+
+    public static void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+        backend.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+    }
+
+    public static void glTexParameteri(int target, int pname, int param) {
+        backend.glTexParameteri(target, pname, param);
+    }
+
+    public static void glUniform1i(int location, int x) {
+        backend.glUniform1i(location, x);
+    }
+
+    public static void glUniform3fv(int location, int count, float[] v, int offset) {
+        backend.glUniform3fv(location, count, v, offset);
+    }
+
+    public static void glUniform4f(int location, float x, float y, float z, float w) {
+        backend.glUniform4f(location, x, y, z, w);
+    }
+
+    public static void glUniform4fv(int location, int count, float[] v, int offset) {
+        backend.glUniform4fv(location, count, v, offset);
+    }
+
+    public static void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        backend.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    public static void glUseProgram(int program) {
+        backend.glUseProgram(program);
+    }
+
+    public static void glValidateProgram(int program) {
+        backend.glValidateProgram(program);
+    }
+
+    public static void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount) {
+        instancing.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+    }
+
+    public static void glVertexAttribDivisor(int index, int divisor) {
+        instancing.glVertexAttribDivisor(index, divisor);
+    }
+
+    public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {
+        backend.glVertexAttribPointer(indx, size, type, normalized, stride, offset);
+    }
+
+    public static void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        backend.glVertexAttribPointer(indx, size, type, normalized, stride, ptr);
+    }
+
+    public static void glViewport(int x, int y, int width, int height) {
+        backend.glViewport(x, y, width, height);
+    }
+}
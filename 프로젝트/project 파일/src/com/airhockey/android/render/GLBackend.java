@@ -0,0 +1,86 @@
+package com.airhockey.android.render;
+
+import java.nio.Buffer;
+
+/**
+ * The GL ES 2.0 entry points the app uses, with the same names and
+ * arguments as the android.opengl.GLES20 statics, so that the calls can go
+ * to a real context or to a headless implementation. See GL.
+ *
+ * The ES 3.0 calls the app uses are in VertexArrays and Instancing, which
+ * only backends for an ES 3.0 context implement.
+ */
+public interface GLBackend {
+    /**
+     * Vertex array objects. Their calls may only be made if
+     * hasVertexArrayObjects() is true.
+     */
+    interface VertexArrays {
+        boolean hasVertexArrayObjects();
+
+        void glBindVertexArray(int array);
+        void glDeleteVertexArrays(int n, int[] arrays, int offset);
+        void glGenVertexArrays(int n, int[] arrays, int offset);
+    }
+
+    /**
+     * Instanced draws and the attribute divisor. Their calls may only be
+     * made if hasInstancedArrays() is true.
+     */
+    interface Instancing {
+        boolean hasInstancedArrays();
+
+        void glDrawArraysInstanced(int mode, int first, int count, int instanceCount);
+        void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount);
+        void glVertexAttribDivisor(int index, int divisor);
+    }
+
+    void glActiveTexture(int texture);
+    void glAttachShader(int program, int shader);
+    void glBindBuffer(int target, int buffer);
+    void glBindTexture(int target, int texture);
+    void glBlendFunc(int sfactor, int dfactor);
+    void glBufferData(int target, int size, Buffer data, int usage);
+    void glClear(int mask);
+    void glClearColor(float red, float green, float blue, float alpha);
+    void glCompileShader(int shader);
+    int glCreateProgram();
+    int glCreateShader(int type);
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+    void glDeleteProgram(int program);
+    void glDeleteShader(int shader);
+    void glDeleteTextures(int n, int[] textures, int offset);
+    void glDepthFunc(int func);
+    void glDepthMask(boolean flag);
+    void glDisable(int cap);
+    void glDisableVertexAttribArray(int index);
+    void glDrawArrays(int mode, int first, int count);
+    void glDrawElements(int mode, int count, int type, int offset);
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+    void glEnable(int cap);
+    void glEnableVertexAttribArray(int index);
+    void glGenBuffers(int n, int[] buffers, int offset);
+    void glGenTextures(int n, int[] textures, int offset);
+    void glGenerateMipmap(int target);
+    int glGetAttribLocation(int program, String name);
+    String glGetProgramInfoLog(int program);
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+    String glGetShaderInfoLog(int shader);
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+    String glGetString(int name);
+    int glGetUniformLocation(int program, String name);
+    void glLinkProgram(int program);
+    void glShaderSource(int shader, String string);
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels);
+    void glTexParameteri(int target, int pname, int param);
+    void glUniform1i(int location, int x);
+    void glUniform3fv(int location, int count, float[] v, int offset);
+    void glUniform4f(int location, float x, float y, float z, float w);
+    void glUniform4fv(int location, int count, float[] v, int offset);
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+    void glUseProgram(int program);
+    void glValidateProgram(int program);
+    void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset);
+    void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr);
+    void glViewport(int x, int y, int width, int height);
+}
@@ -0,0 +1,50 @@
+package com.airhockey.android.render;
+
+import android.opengl.GLES30;
+
+/**
+ * GLES20Backend for an ES 3.0 context, which adds vertex array objects and
+ * instanced drawing. Needs API level 18.
+ */
+public class GLES30Backend extends GLES20Backend
+    implements GLBackend.VertexArrays, GLBackend.Instancing {
+    @Override
+    public boolean hasVertexArrayObjects() {
+        return true;
+    }
+
+    @Override
+    public boolean hasInstancedArrays() {
+        return true;
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        GLES30.glBindVertexArray(array);
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+        GLES30.glDeleteVertexArrays(n, arrays, offset);
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+        GLES30.glDrawArraysInstanced(mode, first, count, instanceCount);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount) {
+        GLES30.glDrawElementsInstanced(mode, count, type, offset, instanceCount);
+    }
+
+    @Override
+    public void glGenVertexArrays(int n, int[] arrays, int offset) {
+        GLES30.glGenVertexArrays(n, arrays, offset);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        GLES30.glVertexAttribDivisor(index, divisor);
+    }
+}
@@ -0,0 +1,333 @@
+package com.airhockey.android.render;
+
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_BLEND;
+import static android.opengl.GLES20.GL_CULL_FACE;
+import static android.opengl.GLES20.GL_DEPTH_TEST;
+import static android.opengl.GLES20.GL_DITHER;
+import static android.opengl.GLES20.GL_ELEMENT_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_LESS;
+import static android.opengl.GLES20.GL_ONE;
+import static android.opengl.GLES20.GL_TEXTURE0;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_ZERO;
+import static com.airhockey.android.render.GL.glActiveTexture;
+import static com.airhockey.android.render.GL.glBindBuffer;
+import static com.airhockey.android.render.GL.glBindTexture;
+import static com.airhockey.android.render.GL.glBindVertexArray;
+import static com.airhockey.android.render.GL.glBlendFunc;
+import static com.airhockey.android.render.GL.glDepthFunc;
+import static com.airhockey.android.render.GL.glDepthMask;
+import static com.airhockey.android.render.GL.glDisable;
+import static com.airhockey.android.render.GL.glDisableVertexAttribArray;
+import static com.airhockey.android.render.GL.glEnable;
+import static com.airhockey.android.render.GL.glEnableVertexAttribArray;
+import static com.airhockey.android.render.GL.glUseProgram;
+
+/**
+ * Mirrors the GL state the app changes - the program in use, the texture
+ * bound to each unit, the buffers and vertex array object bound, the enabled
+ * vertex attribute arrays, capabilities, and the blend and depth state - and
+ * drops calls that wouldn't change it.
+ *
+ * Like the rest of the GL code this must only be used on the GL thread.
+ * Call invalidate() whenever a new context is created: the mirror then
+ * forgets everything, and the next call of each kind goes through.
+ */
+public class GLState {
+    public static final int MAX_TEXTURE_UNITS = 8;
+
+    private static final int UNKNOWN = -1;
+
+    // The capabilities that are tracked. Others are passed straight through.
+    private static final int[] CAPABILITIES = {
+        GL_DEPTH_TEST, GL_BLEND, GL_CULL_FACE, GL_DITHER};
+
+    private static int program;
+    private static int activeTextureUnit;
+    private static final int[] boundTextures = new int[MAX_TEXTURE_UNITS];
+    // Bit i is set if attribute array i is enabled; knownAttribs tells which
+    // bits are valid.
+    private static int enabledAttribs;
+    private static int knownAttribs;
+    private static int vertexArray;
+    private static int arrayBuffer;
+    // Part of the vertex array object's state, unlike the array buffer.
+    private static int elementArrayBuffer;
+    private static final int[] capabilityStates = new int[CAPABILITIES.length];
+    private static int blendSource;
+    private static int blendDestination;
+    private static int depthFunction;
+    private static int depthMask;
+
+    private static int callsIssued = 0;
+    private static int callsDropped = 0;
+
+    static {
+        invalidate();
+    }
+
+    /**
+     * Forgets the mirrored state, for when the context was recreated or
+     * something changed GL state behind our back.
+     */
+    public static void invalidate() {
+        program = UNKNOWN;
+        activeTextureUnit = UNKNOWN;
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            boundTextures[i] = UNKNOWN;
+        }
+        enabledAttribs = 0;
+        knownAttribs = 0;
+        vertexArray = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        elementArrayBuffer = UNKNOWN;
+        for (int i = 0; i < capabilityStates.length; i++) {
+            capabilityStates[i] = UNKNOWN;
+        }
+        blendSource = UNKNOWN;
+        blendDestination = UNKNOWN;
+        depthFunction = UNKNOWN;
+        depthMask = UNKNOWN;
+    }
+
+    public static void useProgram(int newProgram) {
+        if (newProgram == program) {
+            callsDropped++;
+            return;
+        }
+        glUseProgram(newProgram);
+        program = newProgram;
+        callsIssued++;
+    }
+
+    /**
+     * Binds a 2D texture to the given unit, making the unit active only if
+     * the binding changes.
+     */
+    public static void bindTexture2D(int unit, int texture) {
+        if (boundTextures[unit] == texture) {
+            callsDropped++;
+            return;
+        }
+        activeTexture(unit);
+        glBindTexture(GL_TEXTURE_2D, texture);
+        boundTextures[unit] = texture;
+        callsIssued++;
+    }
+
+    /**
+     * Binds a 2D texture to the active unit, e.g. to upload to it.
+     */
+    public static void bindTextureToActiveUnit(int texture) {
+        if (activeTextureUnit == UNKNOWN) {
+            activeTexture(0);
+        }
+        bindTexture2D(activeTextureUnit, texture);
+    }
+
+    private static void activeTexture(int unit) {
+        if (unit == activeTextureUnit) {
+            callsDropped++;
+            return;
+        }
+        glActiveTexture(GL_TEXTURE0 + unit);
+        activeTextureUnit = unit;
+        callsIssued++;
+    }
+
+    /**
+     * Tells the mirror that a texture was deleted, which unbinds it from
+     * every unit it was bound to.
+     */
+    public static void textureDeleted(int texture) {
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            if (boundTextures[i] == texture) {
+                boundTextures[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Binds a buffer to GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+     */
+    public static void bindBuffer(int target, int buffer) {
+        final int bound = target == GL_ARRAY_BUFFER ? arrayBuffer : elementArrayBuffer;
+        if (bound == buffer) {
+            callsDropped++;
+            return;
+        }
+        glBindBuffer(target, buffer);
+        if (target == GL_ARRAY_BUFFER) {
+            arrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            elementArrayBuffer = buffer;
+        }
+        callsIssued++;
+    }
+
+    /**
+     * Tells the mirror that a buffer was deleted, which unbinds it.
+     */
+    public static void bufferDeleted(int buffer) {
+        if (arrayBuffer == buffer) {
+            arrayBuffer = 0;
+        }
+        if (elementArrayBuffer == buffer) {
+            elementArrayBuffer = 0;
+        }
+    }
+
+    /**
+     * Binds a vertex array object. Only for backends that have them. The
+     * enabled attribute arrays and the element array buffer belong to the
+     * object, so they aren't known afterwards.
+     */
+    public static void bindVertexArray(int array) {
+        if (array == vertexArray) {
+            callsDropped++;
+            return;
+        }
+        glBindVertexArray(array);
+        vertexArray = array;
+        knownAttribs = 0;
+        elementArrayBuffer = UNKNOWN;
+        callsIssued++;
+    }
+
+    /**
+     * Tells the mirror that a vertex array object was deleted, which binds
+     * the default one if it was bound.
+     */
+    public static void vertexArrayDeleted(int array) {
+        if (vertexArray == array) {
+            vertexArray = 0;
+            knownAttribs = 0;
+            elementArrayBuffer = UNKNOWN;
+        }
+    }
+
+    public static void enableVertexAttribArray(int index) {
+        final int bit = 1 << index;
+        if ((knownAttribs & bit) != 0 && (enabledAttribs & bit) != 0) {
+            callsDropped++;
+            return;
+        }
+        glEnableVertexAttribArray(index);
+        enabledAttribs |= bit;
+        knownAttribs |= bit;
+        callsIssued++;
+    }
+
+    public static void disableVertexAttribArray(int index) {
+        final int bit = 1 << index;
+        if ((knownAttribs & bit) != 0 && (enabledAttribs & bit) == 0) {
+            callsDropped++;
+            return;
+        }
+        glDisableVertexAttribArray(index);
+        enabledAttribs &= ~bit;
+        knownAttribs |= bit;
+        callsIssued++;
+    }
+
+    public static void enable(int capability) {
+        setCapability(capability, true);
+    }
+
+    public static void disable(int capability) {
+        setCapability(capability, false);
+    }
+
+    private static void setCapability(int capability, boolean enabled) {
+        final int state = enabled ? 1 : 0;
+        int index = CAPABILITIES.length - 1;
+        while (index >= 0 && CAPABILITIES[index] != capability) {
+            index--;
+        }
+        if (index >= 0 && capabilityStates[index] == state) {
+            callsDropped++;
+            return;
+        }
+        if (enabled) {
+            glEnable(capability);
+        } else {
+            glDisable(capability);
+        }
+        if (index >= 0) {
+            capabilityStates[index] = state;
+        }
+        callsIssued++;
+    }
+
+    public static void blendFunc(int source, int destination) {
+        if (source == blendSource && destination == blendDestination) {
+            callsDropped++;
+            return;
+        }
+        glBlendFunc(source, destination);
+        blendSource = source;
+        blendDestination = destination;
+        callsIssued++;
+    }
+
+    public static void depthFunc(int function) {
+        if (function == depthFunction) {
+            callsDropped++;
+            return;
+        }
+        glDepthFunc(function);
+        depthFunction = function;
+        callsIssued++;
+    }
+
+    public static void depthMask(boolean enabled) {
+        final int mask = enabled ? 1 : 0;
+        if (mask == depthMask) {
+            callsDropped++;
+            return;
+        }
+        glDepthMask(enabled);
+        depthMask = mask;
+        callsIssued++;
+    }
+
+    /**
+     * Sets the state a new context starts with, so that the first calls
+     * that keep it can be dropped too.
+     */
+    public static void assumeDefaults() {
+        program = 0;
+        activeTextureUnit = 0;
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            boundTextures[i] = 0;
+        }
+        enabledAttribs = 0;
+        knownAttribs = -1;
+        vertexArray = 0;
+        arrayBuffer = 0;
+        elementArrayBuffer = 0;
+        for (int i = 0; i < CAPABILITIES.length; i++) {
+            // Dithering is the only one that starts enabled.
+            capabilityStates[i] = CAPABILITIES[i] == GL_DITHER ? 1 : 0;
+        }
+        blendSource = GL_ONE;
+        blendDestination = GL_ZERO;
+        depthFunction = GL_LESS;
+        depthMask = 1;
+    }
+
+    /**
+     * GL calls made through this class so far.
+     */
+    public static int getCallsIssued() {
+        return callsIssued;
+    }
+
+    /**
+     * Calls dropped so far because the state was already as asked.
+     */
+    public static int getCallsDropped() {
+        return callsDropped;
+    }
+}
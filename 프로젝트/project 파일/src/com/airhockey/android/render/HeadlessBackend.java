@@ -0,0 +1,593 @@
+package com.airhockey.android.render;
+
+import static android.opengl.GLES20.GL_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_BYTE;
+import static android.opengl.GLES20.GL_ELEMENT_ARRAY_BUFFER;
+import static android.opengl.GLES20.GL_LUMINANCE_ALPHA;
+import static android.opengl.GLES20.GL_RGB;
+import static android.opengl.GLES20.GL_RGBA;
+import static android.opengl.GLES20.GL_SHORT;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.airhockey.android.data.VertexFormat;
+
+/**
+ * A GLBackend without a GPU, for measuring what the app submits on a plain
+ * JVM. It counts GL calls, draw calls, vertices, state changes, uniform
+ * uploads and bytes uploaded, and can record the name of every call.
+ *
+ * Objects get increasing ids, shaders always compile and programs always
+ * link, and every attribute and uniform name of a program gets its own
+ * location. Vertex array objects are only there after
+ * setVertexArrayObjects(true).
+ */
+public class HeadlessBackend
+    implements GLBackend, GLBackend.VertexArrays, GLBackend.Instancing {
+    private static final int MAX_VERTEX_ATTRIBS = 16;
+
+    /**
+     * The attribute arrays of a vertex array object, or of the default one.
+     */
+    private static class AttributeState {
+        int enabled = 0;
+        // Bytes a vertex takes in each array that is in client memory, or 0
+        // if the array is in a buffer object.
+        final int[] clientBytesPerVertex = new int[MAX_VERTEX_ATTRIBS];
+        int elementArrayBuffer = 0;
+    }
+
+    private int lastObjectId = 0;
+    private boolean vertexArrayObjects = false;
+    private final HashMap<Integer, AttributeState> vertexArrays = 
+        new HashMap<Integer, AttributeState>();
+    private AttributeState attributes = new AttributeState();
+    private int arrayBuffer = 0;
+    // The size of the data in each buffer object.
+    private final HashMap<Integer, Integer> bufferSizes = 
+        new HashMap<Integer, Integer>();
+    private final HashMap<String, Integer> locations = 
+        new HashMap<String, Integer>();
+    // Locations handed out by each program so far.
+    private final HashMap<Integer, Integer> programLocations = 
+        new HashMap<Integer, Integer>();
+
+    private boolean recording = false;
+    private final List<String> recordedCalls = new ArrayList<String>();
+
+    private int calls = 0;
+    private int drawCalls = 0;
+    private int vertices = 0;
+    private int stateChanges = 0;
+    private int uniformUploads = 0;
+    private int bytesUploaded = 0;
+
+    public HeadlessBackend() {
+        vertexArrays.put(Integer.valueOf(0), attributes);
+    }
+
+    private void record(String name) {
+        calls++;
+        if (recording) {
+            recordedCalls.add(name);
+        }
+    }
+
+    private int location(int program, String name) {
+        final String key = program + ":" + name;
+        Integer location = locations.get(key);
+        if (location == null) {
+            // Numbered per program, like on a real driver, so attribute
+            // locations stay small.
+            final Integer programKey = Integer.valueOf(program);
+            final Integer count = programLocations.get(programKey);
+            location = count != null ? count : Integer.valueOf(0);
+            programLocations.put(programKey, Integer.valueOf(location.intValue() + 1));
+            locations.put(key, location);
+        }
+        return location.intValue();
+    }
+
+    /**
+     * Bytes copied from client memory by a draw: the enabled attribute
+     * arrays that aren't in buffer objects, for vertexCount vertices.
+     */
+    private void clientArrays(int vertexCount) {
+        for (int index = 0; index < MAX_VERTEX_ATTRIBS; index++) {
+            if ((attributes.enabled & (1 << index)) != 0) {
+                bytesUploaded += vertexCount * attributes.clientBytesPerVertex[index];
+            }
+        }
+    }
+
+    private static int bytesPerTexel(int format, int type) {
+        if (type != GL_UNSIGNED_BYTE) {
+            // The packed 16 bit types.
+            return 2;
+        }
+        return format == GL_RGBA ? 4 : format == GL_RGB ? 3
+            : format == GL_LUMINANCE_ALPHA ? 2 : 1;
+    }
+
+    private static int bytesPerComponent(int type) {
+        return type == GL_BYTE || type == GL_UNSIGNED_BYTE ? 1
+            : type == GL_SHORT || type == GL_UNSIGNED_SHORT
+            || type == VertexFormat.GL_HALF_FLOAT
+            || type == VertexFormat.GL_HALF_FLOAT_OES ? 2 : 4;
+    }
+
+    /**
+     * Makes this backend have vertex array objects and instanced drawing,
+     * like an ES 3.0 context.
+     */
+    public void setVertexArrayObjects(boolean vertexArrayObjects) {
+        this.vertexArrayObjects = vertexArrayObjects;
+    }
+
+    /**
+     * Starts or stops recording the names of the calls made.
+     */
+    public void setRecording(boolean recording) {
+        this.recording = recording;
+    }
+
+    public List<String> getRecordedCalls() {
+        return recordedCalls;
+    }
+
+    /**
+     * Zeroes the counters and forgets the recorded calls, e.g. at the start
+     * of a frame.
+     */
+    public void reset() {
+        recordedCalls.clear();
+        calls = 0;
+        drawCalls = 0;
+        vertices = 0;
+        stateChanges = 0;
+        uniformUploads = 0;
+        bytesUploaded = 0;
+    }
+
+    public int getCalls() {
+        return calls;
+    }
+
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * Vertices submitted by the draw calls; for indexed ones, the indices.
+     */
+    public int getVertices() {
+        return vertices;
+    }
+
+    /**
+     * Calls that change the pipeline state: binding programs, textures and
+     * vertex attributes, and enabling or setting fixed function state.
+     */
+    public int getStateChanges() {
+        return stateChanges;
+    }
+
+    public int getUniformUploads() {
+        return uniformUploads;
+    }
+
+    /**
+     * Bytes sent to the GPU: buffer object data, and the client memory
+     * arrays and indices that draw calls have the driver copy.
+     */
+    public int getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    /**
+     * The bytes of data in all the buffer objects there are, which reset()
+     * leaves alone.
+     */
+    public int getBufferBytes() {
+        int bytes = 0;
+        for (Integer size : bufferSizes.values()) {
+            bytes += size.intValue();
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean hasVertexArrayObjects() {
+        return vertexArrayObjects;
+    }
+
+    @Override
+    public boolean hasInstancedArrays() {
+        return vertexArrayObjects;
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        record("glActiveTexture");
+        stateChanges++;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        record("glAttachShader");
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        record("glBindBuffer");
+        stateChanges++;
+        if (target == GL_ARRAY_BUFFER) {
+            arrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            attributes.elementArrayBuffer = buffer;
+        }
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        record("glBindTexture");
+        stateChanges++;
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        if (!vertexArrayObjects) {
+            throw new UnsupportedOperationException("No vertex array objects");
+        }
+        record("glBindVertexArray");
+        stateChanges++;
+        final Integer key = Integer.valueOf(array);
+        attributes = vertexArrays.get(key);
+        if (attributes == null) {
+            attributes = new AttributeState();
+            vertexArrays.put(key, attributes);
+        }
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        record("glBlendFunc");
+        stateChanges++;
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        record("glBufferData");
+        bytesUploaded += size;
+        final int buffer = target == GL_ELEMENT_ARRAY_BUFFER 
+            ? attributes.elementArrayBuffer : arrayBuffer;
+        bufferSizes.put(Integer.valueOf(buffer), Integer.valueOf(size));
+    }
+
+    @Override
+    public void glClear(int mask) {
+        record("glClear");
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        record("glClearColor");
+        stateChanges++;
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        record("glCompileShader");
+    }
+
+    @Override
+    public int glCreateProgram() {
+        record("glCreateProgram");
+        return ++lastObjectId;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        record("glCreateShader");
+        return ++lastObjectId;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        record("glDeleteBuffers");
+        for (int i = 0; i < n; i++) {
+            bufferSizes.remove(Integer.valueOf(buffers[offset + i]));
+        }
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        record("glDeleteProgram");
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        record("glDeleteShader");
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        record("glDeleteTextures");
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int n, int[] arrays, int offset) {
+        record("glDeleteVertexArrays");
+        for (int i = 0; i < n; i++) {
+            vertexArrays.remove(Integer.valueOf(arrays[offset + i]));
+        }
+    }
+
+    @Override
+    public void glDepthFunc(int func) {
+        record("glDepthFunc");
+        stateChanges++;
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+        record("glDepthMask");
+        stateChanges++;
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        record("glDisable");
+        stateChanges++;
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        record("glDisableVertexAttribArray");
+        stateChanges++;
+        attributes.enabled &= ~(1 << index);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        record("glDrawArrays");
+        drawCalls++;
+        vertices += count;
+        clientArrays(count);
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+        record("glDrawArraysInstanced");
+        drawCalls++;
+        vertices += count * instanceCount;
+        clientArrays(count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        record("glDrawElements");
+        drawCalls++;
+        vertices += count;
+        // The indices in the buffer object aren't kept, so count the client
+        // arrays for as many vertices as there are indices.
+        clientArrays(count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        record("glDrawElements");
+        drawCalls++;
+        vertices += count;
+        bytesUploaded += count * bytesPerComponent(type);
+        // The driver copies the range of vertices the indices span.
+        int minIndex = Integer.MAX_VALUE;
+        int maxIndex = -1;
+        for (int i = 0; i < count; i++) {
+            final int position = indices.position() + i;
+            final int index = type == GL_UNSIGNED_SHORT
+                ? ((ShortBuffer) indices).get(position) & 0xffff
+                : ((ByteBuffer) indices).get(position) & 0xff;
+            minIndex = Math.min(minIndex, index);
+            maxIndex = Math.max(maxIndex, index);
+        }
+        if (maxIndex >= 0) {
+            clientArrays(maxIndex - minIndex + 1);
+        }
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount) {
+        record("glDrawElementsInstanced");
+        drawCalls++;
+        vertices += count * instanceCount;
+        clientArrays(count);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        record("glEnable");
+        stateChanges++;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        record("glEnableVertexAttribArray");
+        stateChanges++;
+        attributes.enabled |= 1 << index;
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        record("glGenBuffers");
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = ++lastObjectId;
+        }
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        record("glGenTextures");
+        for (int i = 0; i < n; i++) {
+            textures[offset + i] = ++lastObjectId;
+        }
+    }
+
+    @Override
+    public void glGenVertexArrays(int n, int[] arrays, int offset) {
+        if (!vertexArrayObjects) {
+            throw new UnsupportedOperationException("No vertex array objects");
+        }
+        record("glGenVertexArrays");
+        for (int i = 0; i < n; i++) {
+            arrays[offset + i] = ++lastObjectId;
+        }
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        record("glGenerateMipmap");
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        record("glGetAttribLocation");
+        return location(program, name);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        record("glGetProgramInfoLog");
+        return "";
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        record("glGetProgramiv");
+        // Everything compiles, links and validates.
+        params[offset] = 1;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        record("glGetShaderInfoLog");
+        return "";
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        record("glGetShaderiv");
+        params[offset] = 1;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        record("glGetString");
+        // No extensions, and no vendor, renderer or version to tell.
+        return "";
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        record("glGetUniformLocation");
+        return location(program, name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        record("glLinkProgram");
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        record("glShaderSource");
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+        record("glTexImage2D");
+        if (pixels != null) {
+            bytesUploaded += width * height * bytesPerTexel(format, type);
+        }
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        record("glTexParameteri");
+    }
+
+    @Override
+    public void glUniform1i(int location, int x) {
+        record("glUniform1i");
+        uniformUploads++;
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        record("glUniform3fv");
+        uniformUploads++;
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        record("glUniform4f");
+        uniformUploads++;
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        record("glUniform4fv");
+        uniformUploads++;
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        record("glUniformMatrix4fv");
+        uniformUploads++;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        record("glUseProgram");
+        stateChanges++;
+    }
+
+    @Override
+    public void glValidateProgram(int program) {
+        record("glValidateProgram");
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        record("glVertexAttribDivisor");
+        stateChanges++;
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {
+        record("glVertexAttribPointer");
+        stateChanges++;
+        attributes.clientBytesPerVertex[indx] = 
+            arrayBuffer != 0 ? 0 : size * bytesPerComponent(type);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        record("glVertexAttribPointer");
+        stateChanges++;
+        attributes.clientBytesPerVertex[indx] = size * bytesPerComponent(type);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        record("glViewport");
+        stateChanges++;
+    }
+}
@@ -0,0 +1,210 @@
+package com.airhockey.android.render;
+
+import java.util.Arrays;
+
+/**
+ * Collects the draws of a frame, sorts them by a 64-bit key, and runs them
+ * through an Executor with as few program, texture and mesh changes as
+ * possible.
+ *
+ * From the most to the least significant bits, a key holds the pass, the
+ * program, the texture, the mesh and the depth. Sorting groups draws by
+ * state, and orders the draws within a group front to back, so the depth
+ * test rejects hidden fragments early. Program, texture and mesh are small
+ * ids handed out by the caller, not GL names: the queue decides from them
+ * alone when the state has to change.
+ *
+ * Keys are sorted with a least significant digit radix sort, a byte at a
+ * time, which skips the bytes that are the same in every key. Draws with
+ * equal keys keep their submission order.
+ */
+public class RenderQueue {
+    public static final int PASS_BITS = 4;
+    public static final int PROGRAM_BITS = 6;
+    public static final int TEXTURE_BITS = 10;
+    public static final int MESH_BITS = 12;
+
+    private static final int MESH_SHIFT = 32;
+    private static final int TEXTURE_SHIFT = MESH_SHIFT + MESH_BITS;
+    private static final int PROGRAM_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+    private static final int PASS_SHIFT = PROGRAM_SHIFT + PROGRAM_BITS;
+
+    /**
+     * Runs the sorted draws. Calls come in the order they must be made in:
+     * a program change is always followed by a mesh change, as attribute
+     * locations belong to the program.
+     */
+    public interface Executor {
+        void useProgram(int program);
+        void bindTexture(int texture);
+        void bindMesh(int program, int mesh);
+        void draw(int item);
+    }
+
+    private long[] keys;
+    private int[] items;
+    private long[] sortedKeys;
+    private int[] sortedItems;
+    private final int[] digitCounts = new int[256];
+    private int count = 0;
+    private boolean sorted = false;
+
+    private int lastDraws = 0;
+    private int lastStateChanges = 0;
+    private int lastStateChangesSaved = 0;
+
+    public RenderQueue(int initialCapacity) {
+        keys = new long[initialCapacity];
+        items = new int[initialCapacity];
+        sortedKeys = new long[initialCapacity];
+        sortedItems = new int[initialCapacity];
+    }
+
+    /**
+     * Packs a key. Texture 0 means untextured. depth is the distance from
+     * the camera, and must not be negative.
+     */
+    public static long makeKey(int pass, int program, int texture, int mesh,
+        float depth) {
+        return ((long) pass << PASS_SHIFT)
+            | ((long) program << PROGRAM_SHIFT)
+            | ((long) texture << TEXTURE_SHIFT)
+            | ((long) mesh << MESH_SHIFT)
+            // The bits of non-negative floats sort like the floats.
+            | (Float.floatToIntBits(Math.max(depth, 0f)) & 0xFFFFFFFFL);
+    }
+
+    private static int program(long key) {
+        return (int) (key >>> PROGRAM_SHIFT) & ((1 << PROGRAM_BITS) - 1);
+    }
+
+    private static int texture(long key) {
+        return (int) (key >>> TEXTURE_SHIFT) & ((1 << TEXTURE_BITS) - 1);
+    }
+
+    private static int mesh(long key) {
+        return (int) (key >>> MESH_SHIFT) & ((1 << MESH_BITS) - 1);
+    }
+
+    /**
+     * Adds a draw. item is passed back to Executor.draw().
+     */
+    public void submit(long key, int item) {
+        if (count == keys.length) {
+            final int capacity = keys.length * 2 + 1;
+            keys = Arrays.copyOf(keys, capacity);
+            items = Arrays.copyOf(items, capacity);
+            sortedKeys = new long[capacity];
+            sortedItems = new int[capacity];
+        }
+        keys[count] = key;
+        items[count] = item;
+        count++;
+        sorted = false;
+    }
+
+    /**
+     * Sorts the submitted draws, runs them, and empties the queue.
+     */
+    public void flush(Executor executor) {
+        if (!sorted) {
+            sort();
+        }
+
+        int program = -1;
+        int texture = -1;
+        int mesh = -1;
+        int stateChanges = 0;
+        int naiveStateChanges = 0;
+        for (int i = 0; i < count; i++) {
+            final long key = keys[i];
+            final int itemProgram = program(key);
+            final int itemTexture = texture(key);
+            final int itemMesh = mesh(key);
+
+            if (itemProgram != program) {
+                executor.useProgram(itemProgram);
+                program = itemProgram;
+                mesh = -1;
+                stateChanges++;
+            }
+            if (itemTexture != 0 && itemTexture != texture) {
+                executor.bindTexture(itemTexture);
+                texture = itemTexture;
+                stateChanges++;
+            }
+            if (itemMesh != mesh) {
+                executor.bindMesh(program, itemMesh);
+                mesh = itemMesh;
+                stateChanges++;
+            }
+            executor.draw(items[i]);
+
+            // Setting everything up again for every draw.
+            naiveStateChanges += itemTexture != 0 ? 3 : 2;
+        }
+
+        lastDraws = count;
+        lastStateChanges = stateChanges;
+        lastStateChangesSaved = naiveStateChanges - stateChanges;
+        count = 0;
+        sorted = false;
+    }
+
+    /**
+     * Sorts the submitted draws ahead of flush(), which then only runs
+     * them. The queue can be filled and sorted on one thread and flushed on
+     * another, if it's handed over safely.
+     */
+    public void sort() {
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(digitCounts, 0);
+            for (int i = 0; i < count; i++) {
+                digitCounts[(int) (keys[i] >>> shift) & 0xFF]++;
+            }
+            if (count == 0 || digitCounts[(int) (keys[0] >>> shift) & 0xFF] == count) {
+                // Every key has the same byte here.
+                continue;
+            }
+
+            int offset = 0;
+            for (int digit = 0; digit < 256; digit++) {
+                final int digitCount = digitCounts[digit];
+                digitCounts[digit] = offset;
+                offset += digitCount;
+            }
+            for (int i = 0; i < count; i++) {
+                final int position = digitCounts[(int) (keys[i] >>> shift) & 0xFF]++;
+                sortedKeys[position] = keys[i];
+                sortedItems[position] = items[i];
+            }
+
+            final long[] swapKeys = keys;
+            keys = sortedKeys;
+            sortedKeys = swapKeys;
+            final int[] swapItems = items;
+            items = sortedItems;
+            sortedItems = swapItems;
+        }
+        sorted = true;
+    }
+
+    public int getLastDrawCount() {
+        return lastDraws;
+    }
+
+    /**
+     * Program, texture and mesh changes made by the last flush().
+     */
+    public int getLastStateChanges() {
+        return lastStateChanges;
+    }
+
+    /**
+     * How many fewer state changes the last flush() made than setting the
+     * program, texture and mesh up for every draw would have.
+     */
+    public int getLastStateChangesSaved() {
+        return lastStateChangesSaved;
+    }
+}
@@ -0,0 +1,806 @@
+package com.airhockey.android.render;
+
+import com.airhockey.android.objects.Background;
+import com.airhockey.android.objects.Chair;
+import com.airhockey.android.objects.Desk;
+import com.airhockey.android.objects.InstancedMesh;
+import com.airhockey.android.objects.Mallet;
+import com.airhockey.android.objects.NoteBook_Keyboard;
+import com.airhockey.android.objects.NoteBook_Upper;
+import com.airhockey.android.objects.Puck;
+import com.airhockey.android.objects.Stand;
+import com.airhockey.android.objects.StaticBatch;
+import com.airhockey.android.physics.PhysicsWorld;
+import com.airhockey.android.programs.ColorShaderProgram;
+import com.airhockey.android.programs.InstancedColorShaderProgram;
+import com.airhockey.android.programs.TextureShaderProgram;
+import com.airhockey.android.scene.Bounds;
+import com.airhockey.android.scene.Frustum;
+import com.airhockey.android.scene.LevelOfDetail;
+import com.airhockey.android.scene.SceneNode;
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.PartySimulation;
+import com.airhockey.android.util.Camera;
+import com.airhockey.android.util.Geometry.MutableVector;
+import com.airhockey.android.util.MatrixHelper;
+import com.airhockey.android.util.TextureAtlas;
+import com.airhockey.android.util.WorkerPool;
+
+/**
+ * Draws the room, the mallets and the puck or the party pucks: the meshes,
+ * where they are placed, and the render queue they are drawn through. It makes its GL
+ * calls through GL and GLState only, and holds no Android objects, so that a
+ * frame can be drawn on a plain JVM with a HeadlessBackend.
+ *
+ * A frame is drawn in two parts. Preparing it updates the scene graph,
+ * culls, picks the levels of detail, composes the matrices and sorts the
+ * draws into a RenderPacket, and makes no GL call, so it can run on the
+ * threads of a WorkerPool, each taking a share of the party pucks.
+ * Submitting it runs the packet's draws on the GL thread. There are two
+ * packets, so drawPipelined() can prepare one frame while the GL thread
+ * submits the one before.
+ */
+public class SceneRenderer {
+    // Texture ids, for setTexture().
+    public static final int TEXTURE_BACKGROUND = 1;
+    public static final int TEXTURE_WOOD = 2;
+    public static final int TEXTURE_CHAIR = 3;
+    public static final int TEXTURE_NOTE_KEYBOARD = 4;
+    public static final int TEXTURE_NOTE_UPPER = 5;
+    public static final int TEXTURE_STAND = 6;
+    // Everything above, packed by TextureAtlasPacker.
+    public static final int TEXTURE_ATLAS = 7;
+    private static final int TEXTURE_COUNT = 8;
+
+    // light        
+    private final float[] vectorToLight = {0.30f, 0.35f, -0.89f, 0f};
+    
+    private final float[] pointLightPositions = new float[]
+        {-3f, 4f, +5.0f, 1f,
+          0f, 1f, 0f, 1f,
+          1f, 1f, 0f, 1f};
+    
+    private final float[] pointLightColors = new float[]
+        {1.00f, 1.00f, 0.8784313725490196f,         
+         0.02f, 0.25f, 0.02f, 
+         0.02f, 0.20f, 1.00f};
+    // Bump whenever the lights above change, so they are uploaded again.
+    private int lightsVersion = 0;
+
+    private final Mallet mallet;
+    private final Puck puck;       
+    
+    private final Desk desk;
+    private final Chair chair;
+    private final Stand stand;
+    private final NoteBook_Keyboard noteKeyboard;
+    private final NoteBook_Upper noteUpper;
+    private final Background background;
+
+    private final boolean atlased;
+    private final ColorShaderProgram colorProgram;
+    private final TextureShaderProgram textureProgram;
+
+    // Where everything is drawn. The notebook and the stand sit on the desk.
+    private final SceneNode scene = new SceneNode();
+    private final SceneNode blueMalletNode = new SceneNode();
+    private final SceneNode redMalletNode = new SceneNode();
+    private final SceneNode puckNode = new SceneNode();
+    private final SceneNode backgroundNode = new SceneNode();
+    private final SceneNode deskNode = new SceneNode();
+    private final SceneNode chairNode = new SceneNode();
+    private final SceneNode standNode = new SceneNode();
+    private final SceneNode noteKeyboardNode = new SceneNode();
+    private final SceneNode noteUpperNode = new SceneNode();
+    
+    // Set on the GL thread before the workers start, and only read by them.
+    private final Frustum frustum = new Frustum();
+    private int frustumCameraVersion = -1;
+    
+    // The furniture, merged into one vertex array with a group per texture.
+    // Built on the first frame, once the scene graph has placed it.
+    private boolean staticBatching = true;
+    private StaticBatch furnitureBatch;
+    
+    // The party pucks, drawn all at once, if there's a program for it.
+    private InstancedColorShaderProgram instancedColorProgram;
+    private InstancedMesh puckInstances;
+    
+    // Render queue ids. Items below ITEM_FIRST_FURNITURE_GROUP index
+    // drawNodes.
+    private static final int PASS_OPAQUE = 0;
+    private static final int PASS_BACKGROUND = 1;
+    private static final int PROGRAM_COLOR = 1;
+    private static final int PROGRAM_TEXTURE = 2;
+    private static final int PROGRAM_INSTANCED_COLOR = 3;
+    private static final int MESH_MALLET = 1;
+    private static final int MESH_PUCK = 2;
+    private static final int MESH_BACKGROUND = 3;
+    private static final int MESH_DESK = 4;
+    private static final int MESH_CHAIR = 5;
+    private static final int MESH_STAND = 6;
+    private static final int MESH_NOTE_KEYBOARD = 7;
+    private static final int MESH_NOTE_UPPER = 8;
+    private static final int MESH_FURNITURE = 9;
+    private static final int MESH_PUCK_INSTANCES = 10;
+    private static final int ITEM_BLUE_MALLET = 0;
+    private static final int ITEM_RED_MALLET = 1;
+    private static final int ITEM_PUCK = 2;
+    private static final int ITEM_BACKGROUND = 3;
+    private static final int ITEM_DESK = 4;
+    private static final int ITEM_CHAIR = 5;
+    private static final int ITEM_STAND = 6;
+    private static final int ITEM_NOTE_KEYBOARD = 7;
+    private static final int ITEM_NOTE_UPPER = 8;
+    private static final int ITEM_FIRST_FURNITURE_GROUP = 9;
+    // There's at most one furniture group per texture.
+    private static final int ITEM_PUCK_INSTANCES = 
+        ITEM_FIRST_FURNITURE_GROUP + TEXTURE_COUNT;
+    private static final int ITEM_FIRST_PARTY_PUCK = ITEM_PUCK_INSTANCES + 1;
+    
+    private final SceneNode[] drawNodes = {blueMalletNode, redMalletNode, 
+        puckNode, backgroundNode, deskNode, chairNode, standNode, noteKeyboardNode, noteUpperNode};
+    // GL texture names, by render queue texture id.
+    private final int[] textureNames = new int[TEXTURE_COUNT];
+    private final SceneExecutor renderQueueExecutor = new SceneExecutor();
+    
+    // The packet submitted last is packets[front], and the next one is
+    // prepared in the other.
+    private final RenderPacket[] packets = {new RenderPacket(), new RenderPacket()};
+    private int front = 0;
+    private RenderPacket lastSubmitted = packets[0];
+    private final PrepareTask prepareTask = new PrepareTask();
+    // Null to prepare frames on the thread that draws them.
+    private WorkerPool workerPool;
+    // A scratch model matrix per worker.
+    private float[][] workerModelMatrices = new float[1][16];
+    
+    /**
+     * Everything the GL thread needs to draw a frame: the sorted draws, and
+     * the matrices, levels of detail and instances they are drawn with. The
+     * workers fill a packet in while the GL thread submits the other one,
+     * and it doesn't change while it is submitted. Its arrays are kept from
+     * frame to frame, and only grow with the number of pucks.
+     */
+    private static final class RenderPacket {
+        final RenderQueue renderQueue = new RenderQueue(64);
+        
+        // The frame's inputs, latched on the GL thread.
+        final float[] viewProjectionMatrix = new float[16];
+        int cameraVersion;
+        // Screen pixels per world unit, at a clip space w of 1.
+        float pixelsPerUnit;
+        boolean staticBatching;
+        PartySimulation partySimulation;
+        float alpha;
+        int puckCount;
+        InstancedColorShaderProgram instancedColorProgram;
+        InstancedMesh puckInstanceMesh;
+        // The packet submitted before this one, for the levels of detail it
+        // drew at, for the hysteresis.
+        RenderPacket previous;
+        
+        // By item below ITEM_FIRST_FURNITURE_GROUP: its model-view-projection
+        // matrix and its level of detail.
+        final float[][] itemMatrices = new float[ITEM_FIRST_FURNITURE_GROUP][16];
+        final int[] itemLevels = new int[ITEM_FIRST_FURNITURE_GROUP];
+        // By party puck: whether it's in view, its level of detail, and its
+        // model-view-projection matrix, or its model matrix if the pucks are
+        // instanced.
+        boolean[] puckVisible = new boolean[0];
+        int[] puckLevels = new int[0];
+        float[][] puckMatrices = new float[0][];
+        InstancedMesh.Instances puckInstances;
+        
+        int sceneNodeUpdates;
+        int culledDraws;
+        // The pucks each worker culled, added to culledDraws at the end.
+        int[] workerCulledDraws = new int[1];
+        boolean prepared = false;
+    }
+
+    /**
+     * Builds the meshes, which must happen on the GL thread. The programs
+     * must already be linked.
+     */
+    public SceneRenderer(AirHockeySimulation.Rules rules,
+        ColorShaderProgram colorProgram, TextureShaderProgram textureProgram) {
+        this(rules, colorProgram, textureProgram, null);
+    }
+
+    /**
+     * Like the constructor above, but with every texture taken from one
+     * atlas, set as TEXTURE_ATLAS. The furniture batch then has a single
+     * group, drawn at once.
+     */
+    public SceneRenderer(AirHockeySimulation.Rules rules,
+        ColorShaderProgram colorProgram, TextureShaderProgram textureProgram,
+        TextureAtlas atlas) {
+        this.colorProgram = colorProgram;
+        this.textureProgram = textureProgram;
+        this.atlased = atlas != null;
+
+        // Built at twice the points they used to have: the coarser levels
+        // are picked when they're small on screen.
+        mallet = new Mallet(rules.malletRadius, rules.malletHeight, 64);
+        puck = new Puck(rules.puckRadius, rules.puckHeight, 64);
+       
+        // By drawable name: the desk is textured with the chair texture, and
+        // the chair with the wood.
+        desk = new Desk(1.0f, 1.0f, 1.0f, region(atlas, "chair"));
+        chair = new Chair(1.0f, 1.0f, 1.0f, region(atlas, "wood_1"));
+        stand = new Stand(1.0f, 1.0f, 32, region(atlas, "stand"));
+        
+        noteKeyboard = new NoteBook_Keyboard(0.4f, 0.01f, 0.3f, 
+            region(atlas, "keyboard"));
+        noteUpper = new NoteBook_Upper(0.4f, 0.3f, 0.01f, region(atlas, "shot"));
+        background = new Background(region(atlas, "back5"));
+
+        buildScene();
+    }
+
+    private static TextureAtlas.Region region(TextureAtlas atlas, String name) {
+        return atlas != null ? atlas.getRegion(name) : null;
+    }
+    
+    /**
+     * The texture id to draw with, for one of the TEXTURE ids above.
+     */
+    private int texture(int texture) {
+        return atlased ? TEXTURE_ATLAS : texture;
+    }
+
+    /**
+     * Sets the GL texture drawn for one of the TEXTURE ids above.
+     */
+    public void setTexture(int texture, int textureName) {
+        textureNames[texture] = textureName;
+    }
+
+    /**
+     * Whether the furniture is drawn from one merged, pre-transformed batch
+     * (the default) or mesh by mesh.
+     */
+    public void setStaticBatching(boolean staticBatching) {
+        this.staticBatching = staticBatching;
+    }
+
+    /**
+     * Sets the threads frames are prepared on, or null to prepare them on
+     * the thread that draws them. Must not be called while drawing.
+     */
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+        final int workerCount = workerPool != null ? workerPool.getThreadCount() : 1;
+        workerModelMatrices = new float[workerCount][16];
+    }
+
+    /**
+     * Sets the program the party pucks are drawn with as instances of one
+     * mesh, in a few draws however many there are, or null to draw them one
+     * by one. Builds the mesh, so it must be called on the GL thread.
+     */
+    public void setInstancedColorProgram(InstancedColorShaderProgram program) {
+        instancedColorProgram = program;
+        puckInstances = program != null 
+            ? new InstancedMesh(puck, program.usesUniformArrays()) : null;
+    }
+
+    private void buildScene() {
+        backgroundNode.setTranslation(0f, 1f, -1f);
+        backgroundNode.setScale(7.3f, 5f, 1f);
+        deskNode.setTranslation(0f, -0.15f, 0f);
+        chairNode.setTranslation(0f, -0.15f, 0.6f);
+        
+        standNode.setTranslation(-0.7f, 0.6f, -0.3f);
+        noteKeyboardNode.setTranslation(0.5f, 0.6f, 0.4f);
+        noteKeyboardNode.setRotation(0f, -45f, 0f);
+        noteUpperNode.setTranslation(0.64f, 0.57f, 0.2f);
+        noteUpperNode.setRotation(0f, -45f, 0f);
+        deskNode.addChild(standNode);
+        deskNode.addChild(noteKeyboardNode);
+        deskNode.addChild(noteUpperNode);
+        
+        blueMalletNode.setBounds(mallet.bounds);
+        redMalletNode.setBounds(mallet.bounds);
+        puckNode.setBounds(puck.bounds);
+        backgroundNode.setBounds(background.bounds);
+        deskNode.setBounds(desk.bounds);
+        chairNode.setBounds(chair.bounds);
+        standNode.setBounds(stand.bounds);
+        noteKeyboardNode.setBounds(noteKeyboard.bounds);
+        noteUpperNode.setBounds(noteUpper.bounds);
+        
+        scene.addChild(blueMalletNode);
+        scene.addChild(redMalletNode);
+        scene.addChild(puckNode);
+        scene.addChild(backgroundNode);
+        scene.addChild(deskNode);
+        scene.addChild(chairNode);
+    }
+
+    /**
+     * Prepares a frame and draws it, with the mallets and the puck at the
+     * given positions. partySimulation may be null; otherwise its pucks are
+     * drawn instead of the puck, and alpha is how far they are between their
+     * last two simulation steps. With a worker pool, the preparing is split
+     * between its threads while this one waits.
+     */
+    public void draw(Camera camera, MutableVector blueMalletPosition,
+        MutableVector redMalletPosition, MutableVector puckPosition,
+        PartySimulation partySimulation, float alpha) {
+        startPreparing(camera, blueMalletPosition, redMalletPosition,
+            puckPosition, partySimulation, alpha);
+        finishPreparing();
+        submit(packets[front]);
+    }
+
+    /**
+     * Like draw(), but draws the frame prepared by the call before, while
+     * the workers prepare this one: what's on screen is a frame behind, and
+     * this thread only makes GL calls in the meantime. The first call draws
+     * its own frame. Returns once the workers are done, so the scene, the
+     * camera and the simulation can be changed between calls.
+     */
+    public void drawPipelined(Camera camera, MutableVector blueMalletPosition,
+        MutableVector redMalletPosition, MutableVector puckPosition,
+        PartySimulation partySimulation, float alpha) {
+        final RenderPacket last = packets[front];
+        startPreparing(camera, blueMalletPosition, redMalletPosition,
+            puckPosition, partySimulation, alpha);
+        if (last.prepared) {
+            submit(last);
+        }
+        finishPreparing();
+        if (!last.prepared) {
+            submit(packets[front]);
+        }
+    }
+
+    /**
+     * Latches the frame's inputs into the back packet, then starts the
+     * workers on it. The GL calls preparing needs, which are only the
+     * furniture batch's the first time, are made here.
+     */
+    private void startPreparing(Camera camera, MutableVector blueMalletPosition,
+        MutableVector redMalletPosition, MutableVector puckPosition,
+        PartySimulation partySimulation, float alpha) {
+        final RenderPacket packet = packets[1 - front];
+        packet.previous = packets[front];
+        packet.prepared = false;
+
+        blueMalletNode.setTranslation(blueMalletPosition.x,
+            blueMalletPosition.y, blueMalletPosition.z);
+        redMalletNode.setTranslation(redMalletPosition.x,
+            redMalletPosition.y, redMalletPosition.z);
+        puckNode.setTranslation(puckPosition.x, puckPosition.y, puckPosition.z);
+        System.arraycopy(camera.getViewProjectionMatrix(), 0,
+            packet.viewProjectionMatrix, 0, 16);
+        packet.cameraVersion = camera.getVersion();
+        packet.pixelsPerUnit = camera.getProjectionMatrix()[5]
+            * camera.getViewportHeight() * 0.5f;
+        if (frustumCameraVersion != packet.cameraVersion) {
+            frustum.set(packet.viewProjectionMatrix);
+            frustumCameraVersion = packet.cameraVersion;
+        }
+        packet.staticBatching = staticBatching;
+        if (staticBatching && furnitureBatch == null) {
+            scene.update(packet.viewProjectionMatrix, packet.cameraVersion);
+            buildFurnitureBatch();
+        }
+
+        packet.partySimulation = partySimulation;
+        packet.alpha = alpha;
+        packet.puckCount = partySimulation != null ? partySimulation.getPuckCount() : 0;
+        if (packet.puckMatrices.length < packet.puckCount) {
+            packet.puckVisible = new boolean[packet.puckCount];
+            packet.puckLevels = new int[packet.puckCount];
+            packet.puckMatrices = new float[packet.puckCount][16];
+        }
+        packet.instancedColorProgram = instancedColorProgram;
+        if (packet.puckInstanceMesh != puckInstances) {
+            packet.puckInstanceMesh = puckInstances;
+            packet.puckInstances = puckInstances != null
+                ? puckInstances.createInstances() : null;
+        }
+        if (packet.workerCulledDraws.length != workerModelMatrices.length) {
+            packet.workerCulledDraws = new int[workerModelMatrices.length];
+        }
+
+        prepareTask.packet = packet;
+        if (workerPool != null) {
+            workerPool.start(prepareTask);
+        } else {
+            prepareTask.run(0, 1);
+            prepareTask.finish();
+        }
+    }
+
+    private void finishPreparing() {
+        if (workerPool != null) {
+            workerPool.await();
+        }
+        front = 1 - front;
+    }
+
+    private void submit(RenderPacket packet) {
+        renderQueueExecutor.packet = packet;
+        packet.renderQueue.flush(renderQueueExecutor);
+        lastSubmitted = packet;
+    }
+
+    /**
+     * Prepares a packet. Each worker takes a share of the party pucks, and
+     * the first one also the room; the last one done queues the pucks and
+     * sorts the draws.
+     */
+    private class PrepareTask implements WorkerPool.Task {
+        private RenderPacket packet;
+
+        @Override
+        public void run(int worker, int workerCount) {
+            if (worker == 0) {
+                prepareRoom(packet);
+            }
+            final int puckCount = packet.puckCount;
+            preparePartyPucks(packet, worker, puckCount * worker / workerCount,
+                puckCount * (worker + 1) / workerCount);
+        }
+
+        @Override
+        public void finish() {
+            submitPartyPucks(packet);
+            packet.renderQueue.sort();
+            packet.prepared = true;
+        }
+    }
+
+    private void prepareRoom(RenderPacket packet) {
+        packet.sceneNodeUpdates = scene.update(
+            packet.viewProjectionMatrix, packet.cameraVersion);
+        // Nodes move even when the camera doesn't, so this runs every frame.
+        // It's a sphere test per subtree that isn't entirely in or out.
+        scene.cull(frustum);
+        packet.culledDraws = 0;
+
+        submit(packet, PASS_OPAQUE, PROGRAM_COLOR, 0, MESH_MALLET, ITEM_BLUE_MALLET);
+        submit(packet, PASS_OPAQUE, PROGRAM_COLOR, 0, MESH_MALLET, ITEM_RED_MALLET);
+        if (packet.partySimulation == null) {
+            submit(packet, PASS_OPAQUE, PROGRAM_COLOR, 0, MESH_PUCK, ITEM_PUCK);
+        } else {
+            packet.itemLevels[ITEM_PUCK] = packet.previous.itemLevels[ITEM_PUCK];
+        }
+
+        // The background is behind everything, so it goes last and the depth
+        // test can skip what the furniture covers.
+        submit(packet, PASS_BACKGROUND, PROGRAM_TEXTURE, texture(TEXTURE_BACKGROUND),
+            MESH_BACKGROUND, ITEM_BACKGROUND);
+        if (packet.staticBatching) {
+            submitFurnitureBatch(packet);
+        } else {
+            submit(packet, PASS_OPAQUE, PROGRAM_TEXTURE, texture(TEXTURE_CHAIR),
+                MESH_DESK, ITEM_DESK);
+            submit(packet, PASS_OPAQUE, PROGRAM_TEXTURE, texture(TEXTURE_WOOD),
+                MESH_CHAIR, ITEM_CHAIR);
+            submit(packet, PASS_OPAQUE, PROGRAM_TEXTURE, texture(TEXTURE_STAND),
+                MESH_STAND, ITEM_STAND);
+            submit(packet, PASS_OPAQUE, PROGRAM_TEXTURE, texture(TEXTURE_NOTE_KEYBOARD),
+                MESH_NOTE_KEYBOARD, ITEM_NOTE_KEYBOARD);
+            submit(packet, PASS_OPAQUE, PROGRAM_TEXTURE, texture(TEXTURE_NOTE_UPPER),
+                MESH_NOTE_UPPER, ITEM_NOTE_UPPER);
+        }
+    }
+
+    private void submit(RenderPacket packet, int pass, int program, int texture,
+        int mesh, int item) {
+        final int previousLevel = packet.previous.itemLevels[item];
+        if (!drawNodes[item].isVisible()) {
+            packet.itemLevels[item] = previousLevel;
+            packet.culledDraws++;
+            return;
+        }
+        final float[] matrix = packet.itemMatrices[item];
+        System.arraycopy(drawNodes[item].getModelViewProjectionMatrix(), 0,
+            matrix, 0, 16);
+        if (item == ITEM_BLUE_MALLET || item == ITEM_RED_MALLET) {
+            packet.itemLevels[item] = selectLevel(mallet.levelOfDetail, previousLevel,
+                clipW(matrix, mallet.bounds.centerX, mallet.bounds.centerY,
+                    mallet.bounds.centerZ),
+                mallet.bounds.radius, packet.pixelsPerUnit);
+        } else if (item == ITEM_PUCK) {
+            packet.itemLevels[item] = selectLevel(puck.levelOfDetail, previousLevel,
+                clipW(matrix, puck.bounds.centerX, puck.bounds.centerY,
+                    puck.bounds.centerZ),
+                puck.bounds.radius, packet.pixelsPerUnit);
+        } else if (item == ITEM_STAND) {
+            packet.itemLevels[item] = selectLevel(stand.levelOfDetail, previousLevel,
+                clipW(matrix, stand.bounds.centerX, stand.bounds.centerY,
+                    stand.bounds.centerZ),
+                stand.bounds.radius, packet.pixelsPerUnit);
+        }
+        // The clip space w of the model's origin is its distance in front of
+        // the camera.
+        packet.renderQueue.submit(
+            RenderQueue.makeKey(pass, program, texture, mesh, matrix[15]), item);
+    }
+
+    private void buildFurnitureBatch() {
+        // The stand keeps the 16 points it had before it got levels of
+        // detail.
+        final int standLevel = Math.min(1, stand.levelOfDetail.getLevelCount() - 1);
+        furnitureBatch = new StaticBatch.Builder()
+            .add(desk, deskNode.getWorldMatrix(), texture(TEXTURE_CHAIR))
+            .add(chair, chairNode.getWorldMatrix(), texture(TEXTURE_WOOD))
+            .add(stand, standLevel, standNode.getWorldMatrix(), texture(TEXTURE_STAND))
+            .add(noteKeyboard, noteKeyboardNode.getWorldMatrix(),
+                texture(TEXTURE_NOTE_KEYBOARD))
+            .add(noteUpper, noteUpperNode.getWorldMatrix(), texture(TEXTURE_NOTE_UPPER))
+            .build();
+    }
+
+    private void submitFurnitureBatch(RenderPacket packet) {
+        for (int group = 0; group < furnitureBatch.getGroupCount(); group++) {
+            final Bounds bounds = furnitureBatch.getBounds(group);
+            if (frustum.testSphere(bounds.centerX, bounds.centerY,
+                    bounds.centerZ, bounds.radius) == Frustum.OUTSIDE) {
+                packet.culledDraws++;
+                continue;
+            }
+            final float w = clipW(packet.viewProjectionMatrix,
+                bounds.centerX, bounds.centerY, bounds.centerZ);
+            packet.renderQueue.submit(RenderQueue.makeKey(PASS_OPAQUE, PROGRAM_TEXTURE,
+                furnitureBatch.getTexture(group), MESH_FURNITURE, w),
+                ITEM_FIRST_FURNITURE_GROUP + group);
+        }
+    }
+
+    /**
+     * Culls the pucks from first to last, exclusive, and picks their levels
+     * and matrices. Workers write to their own pucks only.
+     */
+    private void preparePartyPucks(RenderPacket packet, int worker,
+        int first, int last) {
+        int culled = 0;
+        if (first < last) {
+            final PhysicsWorld world = packet.partySimulation.getWorld();
+            final float scale = packet.partySimulation.getPuckRadius() / puck.radius;
+            final int firstPuck = packet.partySimulation.getFirstPuck();
+            final boolean instanced = packet.puckInstances != null;
+            final RenderPacket previous = packet.previous;
+            final float[] modelMatrix = workerModelMatrices[worker];
+
+            for (int i = first; i < last; i++) {
+                final int body = firstPuck + i;
+                final float x = world.getInterpolatedX(body, packet.alpha);
+                final float z = world.getInterpolatedZ(body, packet.alpha);
+                final int previousLevel = i < previous.puckCount ? previous.puckLevels[i] : 0;
+                // The pucks are only scaled in x and z.
+                if (frustum.testSphere(x + puck.bounds.centerX * scale,
+                        puck.height / 2f + puck.bounds.centerY,
+                        z + puck.bounds.centerZ * scale,
+                        puck.bounds.radius * Math.max(scale, 1f)) == Frustum.OUTSIDE) {
+                    packet.puckVisible[i] = false;
+                    packet.puckLevels[i] = previousLevel;
+                    culled++;
+                    continue;
+                }
+                final float w = clipW(packet.viewProjectionMatrix,
+                    x + puck.bounds.centerX * scale,
+                    puck.height / 2f + puck.bounds.centerY,
+                    z + puck.bounds.centerZ * scale);
+                packet.puckVisible[i] = true;
+                packet.puckLevels[i] = selectLevel(puck.levelOfDetail, previousLevel,
+                    w, puck.bounds.radius * Math.max(scale, 1f), packet.pixelsPerUnit);
+                final float[] matrix = packet.puckMatrices[i];
+                if (instanced) {
+                    MatrixHelper.setTranslateScaleM(matrix, 0,
+                        x, puck.height / 2f, z, scale, 1f, scale);
+                } else {
+                    MatrixHelper.setTranslateScaleM(modelMatrix, 0,
+                        x, puck.height / 2f, z, scale, 1f, scale);
+                    MatrixHelper.multiplyMMAffine(matrix, 0,
+                        packet.viewProjectionMatrix, 0, modelMatrix, 0);
+                }
+            }
+        }
+        packet.workerCulledDraws[worker] = culled;
+    }
+
+    /**
+     * Queues the pucks the workers found in view, in order, or adds them to
+     * the instances.
+     */
+    private void submitPartyPucks(RenderPacket packet) {
+        for (int worker = 0; worker < packet.workerCulledDraws.length; worker++) {
+            packet.culledDraws += packet.workerCulledDraws[worker];
+        }
+        final InstancedMesh.Instances instances = packet.puckInstances;
+        if (instances != null) {
+            instances.clear();
+        }
+
+        for (int i = 0; i < packet.puckCount; i++) {
+            if (!packet.puckVisible[i]) {
+                continue;
+            }
+            if (instances != null) {
+                instances.add(packet.puckLevels[i], packet.puckMatrices[i],
+                    0.8f, 0.8f, 1f);
+            } else {
+                packet.renderQueue.submit(RenderQueue.makeKey(PASS_OPAQUE,
+                    PROGRAM_COLOR, 0, MESH_PUCK, packet.puckMatrices[i][15]),
+                    ITEM_FIRST_PARTY_PUCK + i);
+            }
+        }
+
+        if (instances != null && instances.getInstanceCount() > 0) {
+            // One item for all of them. Nothing else has its program, so
+            // there's no depth to sort it by.
+            packet.renderQueue.submit(RenderQueue.makeKey(PASS_OPAQUE,
+                PROGRAM_INSTANCED_COLOR, 0, MESH_PUCK_INSTANCES, 0f),
+                ITEM_PUCK_INSTANCES);
+        }
+    }
+
+    /**
+     * The clip space w of a point, which is its distance in front of the
+     * camera.
+     */
+    private static float clipW(float[] m, float x, float y, float z) {
+        return m[3] * x + m[7] * y + m[11] * z + m[15];
+    }
+
+    /**
+     * Picks the level of detail to draw a mesh at, from the radius of its
+     * bounding sphere in pixels, and the clip space w of its centre.
+     */
+    private static int selectLevel(LevelOfDetail levelOfDetail, int currentLevel,
+        float w, float radius, float pixelsPerUnit) {
+        final float screenRadius = w > 0f
+            ? radius * pixelsPerUnit / w : Float.POSITIVE_INFINITY;
+        return levelOfDetail.select(currentLevel, screenRadius);
+    }
+
+    /**
+     * Makes the GL calls for the sorted draws of a packet.
+     */
+    private class SceneExecutor implements RenderQueue.Executor {
+        private RenderPacket packet;
+        private int boundMesh;
+
+        @Override
+        public void useProgram(int program) {
+            if (program == PROGRAM_COLOR) {
+                colorProgram.useProgram();
+            } else if (program == PROGRAM_INSTANCED_COLOR) {
+                packet.instancedColorProgram.useProgram();
+            } else {
+                textureProgram.useProgram();
+                textureProgram.setLights(vectorToLight,
+                    pointLightPositions, pointLightColors, lightsVersion);
+            }
+        }
+
+        @Override
+        public void bindTexture(int texture) {
+            textureProgram.setTexture(textureNames[texture]);
+        }
+
+        @Override
+        public void bindMesh(int program, int mesh) {
+            boundMesh = mesh;
+            switch (mesh) {
+                case MESH_MALLET: mallet.bindData(colorProgram); break;
+                case MESH_PUCK: puck.bindData(colorProgram); break;
+                case MESH_BACKGROUND: background.bindData(textureProgram); break;
+                case MESH_DESK: desk.bindData(textureProgram); break;
+                case MESH_CHAIR: chair.bindData(textureProgram); break;
+                case MESH_STAND: stand.bindData(textureProgram); break;
+                case MESH_NOTE_KEYBOARD: noteKeyboard.bindData(textureProgram); break;
+                case MESH_NOTE_UPPER: noteUpper.bindData(textureProgram); break;
+                case MESH_FURNITURE: furnitureBatch.bindData(textureProgram); break;
+                case MESH_PUCK_INSTANCES:
+                    packet.puckInstanceMesh.bindData(packet.instancedColorProgram);
+                    break;
+            }
+        }
+
+        @Override
+        public void draw(int item) {
+            if (item >= ITEM_FIRST_PARTY_PUCK) {
+                colorProgram.setUniforms(
+                    packet.puckMatrices[item - ITEM_FIRST_PARTY_PUCK], 0.8f, 0.8f, 1f);
+            } else if (item == ITEM_PUCK_INSTANCES) {
+                packet.instancedColorProgram.setMatrix(packet.viewProjectionMatrix);
+            } else if (item >= ITEM_FIRST_FURNITURE_GROUP) {
+                textureProgram.setMatrix(packet.viewProjectionMatrix);
+            } else if (item == ITEM_BLUE_MALLET) {
+                colorProgram.setUniforms(packet.itemMatrices[item], 0f, 0f, 1f);
+            } else if (item == ITEM_RED_MALLET) {
+                colorProgram.setUniforms(packet.itemMatrices[item], 1f, 0f, 0f);
+            } else if (item == ITEM_PUCK) {
+                colorProgram.setUniforms(packet.itemMatrices[item], 0.8f, 0.8f, 1f);
+            } else {
+                textureProgram.setMatrix(packet.itemMatrices[item]);
+            }
+
+            switch (boundMesh) {
+                case MESH_MALLET: mallet.draw(packet.itemLevels[item]); break;
+                case MESH_PUCK:
+                    puck.draw(item == ITEM_PUCK ? packet.itemLevels[item]
+                        : packet.puckLevels[item - ITEM_FIRST_PARTY_PUCK]);
+                    break;
+                case MESH_BACKGROUND: background.draw(); break;
+                case MESH_DESK: desk.draw(); break;
+                case MESH_CHAIR: chair.draw(); break;
+                case MESH_STAND: stand.draw(packet.itemLevels[item]); break;
+                case MESH_NOTE_KEYBOARD: noteKeyboard.draw(); break;
+                case MESH_NOTE_UPPER: noteUpper.draw(); break;
+                case MESH_FURNITURE:
+                    furnitureBatch.draw(item - ITEM_FIRST_FURNITURE_GROUP);
+                    break;
+                case MESH_PUCK_INSTANCES:
+                    packet.puckInstanceMesh.draw(packet.instancedColorProgram,
+                        packet.puckInstances);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Number of scene nodes whose matrices were recomputed in the last frame.
+     */
+    public int getLastSceneNodeUpdates() {
+        return lastSubmitted.sceneNodeUpdates;
+    }
+    
+    /**
+     * Objects drawn in the last frame.
+     */
+    public int getLastDrawCount() {
+        return lastSubmitted.renderQueue.getLastDrawCount();
+    }
+    
+    /**
+     * Draws the last frame left out because they were outside the view.
+     */
+    public int getLastCulledDraws() {
+        return lastSubmitted.culledDraws;
+    }
+    
+    /**
+     * Program, texture and mesh changes made to draw the last frame.
+     */
+    public int getLastStateChanges() {
+        return lastSubmitted.renderQueue.getLastStateChanges();
+    }
+    
+    /**
+     * How many fewer state changes the last frame needed than it would have
+     * setting everything up again for every draw.
+     */
+    public int getLastStateChangesSaved() {
+        return lastSubmitted.renderQueue.getLastStateChangesSaved();
+    }
+    
+    /**
+     * glUniform calls made so far, by all the programs.
+     */
+    public int getUniformUploads() {
+        return colorProgram.getUniformUploads() 
+            + textureProgram.getUniformUploads()
+            + (instancedColorProgram != null 
+                ? instancedColorProgram.getUniformUploads() : 0);
+    }
+    
+    /**
+     * Uniform updates skipped so far because the program already had the
+     * value, by all the programs.
+     */
+    public int getUniformUploadsSkipped() {
+        return colorProgram.getUniformUploadsSkipped() 
+            + textureProgram.getUniformUploadsSkipped()
+            + (instancedColorProgram != null 
+                ? instancedColorProgram.getUniformUploadsSkipped() : 0);
+    }
+}
@@ -0,0 +1,35 @@
+package com.airhockey.android.replay;
+
+/**
+ * The binary input log format shared by InputLogWriter and InputLogReader.
+ *
+ * The log starts with MAGIC, then the format version and the simulation steps
+ * per second, as varints. Every event after that is a type byte followed by
+ * the number of simulation ticks since the previous event, as a varint, and a
+ * payload:
+ *
+ * SURFACE: width and height, as varints.
+ * PRESS, DRAG: the normalized touch x and y. Each is stored as the zigzag
+ *   varint of the difference between its float bits and the previous touch
+ *   coordinate's, so a drag of a few pixels takes only a few bytes.
+ * CAMERA: camPosZ, delta encoded against the previous camPosZ in the same way.
+ * RED_TARGET: the red mallet target x and z the computer player set, delta
+ *   encoded against the previous target in the same way. Its planning is cut
+ *   short by a time budget, so a replay takes its moves from the log instead
+ *   of planning them again. Since version 2.
+ * END: no payload. Marks the tick the recording stopped at.
+ */
+public final class InputLog {
+    public static final int MAGIC = 0x4148494C; // "AHIL"
+    public static final int VERSION = 2;
+
+    public static final int SURFACE = 1;
+    public static final int PRESS = 2;
+    public static final int DRAG = 3;
+    public static final int CAMERA = 4;
+    public static final int END = 5;
+    public static final int RED_TARGET = 6;
+
+    private InputLog() {
+    }
+}
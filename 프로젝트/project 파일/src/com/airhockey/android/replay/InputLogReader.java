@@ -0,0 +1,127 @@
+package com.airhockey.android.replay;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.airhockey.android.util.Varint;
+
+/**
+ * Reads an InputLog one event at a time. next() decodes the following event
+ * into the public fields of this reader, so reading doesn't allocate.
+ */
+public class InputLogReader {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_EVENT_SIZE = 32;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private boolean endOfChannel = false;
+
+    private final int stepsPerSecond;
+
+    // The last event read by next().
+    public int type;
+    public long tick;
+    public int width;
+    public int height;
+    public float x;
+    public float y;
+    public float camPosZ;
+    public float targetX;
+    public float targetZ;
+
+    private int lastTouchXBits = 0;
+    private int lastTouchYBits = 0;
+    private int lastCameraBits = 0;
+    private int lastTargetXBits = 0;
+    private int lastTargetZBits = 0;
+
+    public InputLogReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        fill();
+        if (buffer.remaining() < 4 || buffer.getInt() != InputLog.MAGIC) {
+            throw new IOException("Not an input log.");
+        }
+        final int version = getVarint();
+        // Version 1 is version 2 without computer player moves.
+        if (version < 1 || version > InputLog.VERSION) {
+            throw new IOException("Unsupported input log version: " + version);
+        }
+        stepsPerSecond = getVarint();
+    }
+
+    public int getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+
+    /**
+     * Reads the next event. Returns false at the END event, or if the log
+     * was cut short, e.g. because the app was killed while recording.
+     */
+    public boolean next() throws IOException {
+        if (buffer.remaining() < MAX_EVENT_SIZE) {
+            fill();
+        }
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
+
+        type = buffer.get();
+        tick += getVarint();
+        switch (type) {
+            case InputLog.SURFACE:
+                width = getVarint();
+                height = getVarint();
+                break;
+            case InputLog.PRESS:
+            case InputLog.DRAG:
+                lastTouchXBits += Varint.unzigzag(getVarint());
+                lastTouchYBits += Varint.unzigzag(getVarint());
+                x = Float.intBitsToFloat(lastTouchXBits);
+                y = Float.intBitsToFloat(lastTouchYBits);
+                break;
+            case InputLog.CAMERA:
+                lastCameraBits += Varint.unzigzag(getVarint());
+                camPosZ = Float.intBitsToFloat(lastCameraBits);
+                break;
+            case InputLog.RED_TARGET:
+                lastTargetXBits += Varint.unzigzag(getVarint());
+                lastTargetZBits += Varint.unzigzag(getVarint());
+                targetX = Float.intBitsToFloat(lastTargetXBits);
+                targetZ = Float.intBitsToFloat(lastTargetZBits);
+                break;
+            case InputLog.END:
+                return false;
+            default:
+                throw new IOException("Unknown input log event: " + type);
+        }
+        return true;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void fill() throws IOException {
+        buffer.compact();
+        while (!endOfChannel && buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                endOfChannel = true;
+            }
+        }
+        buffer.flip();
+    }
+
+    private int getVarint() throws IOException {
+        try {
+            return Varint.get(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Input log is truncated.");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed varint in input log.");
+        }
+    }
+}
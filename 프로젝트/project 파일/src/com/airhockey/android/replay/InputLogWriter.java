@@ -0,0 +1,115 @@
+package com.airhockey.android.replay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import com.airhockey.android.util.Varint;
+
+/**
+ * Writes input events to a channel in the InputLog format. Events are
+ * gathered in a direct buffer and only written out when it fills up, so
+ * recording costs a few bytes of buffer space per touch and no allocation.
+ */
+public class InputLogWriter {
+    private static final int BUFFER_SIZE = 8192;
+    // Larger than the biggest event: a type byte and three 5 byte varints.
+    private static final int MAX_EVENT_SIZE = 32;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private long lastTick = 0;
+    private int lastTouchXBits = 0;
+    private int lastTouchYBits = 0;
+    private int lastCameraBits = 0;
+    private int lastTargetXBits = 0;
+    private int lastTargetZBits = 0;
+
+    public InputLogWriter(WritableByteChannel channel, int stepsPerSecond)
+        throws IOException {
+        this.channel = channel;
+        buffer.putInt(InputLog.MAGIC);
+        Varint.put(buffer, InputLog.VERSION);
+        Varint.put(buffer, stepsPerSecond);
+    }
+
+    public void writeSurface(long tick, int width, int height)
+        throws IOException {
+        beginEvent(InputLog.SURFACE, tick);
+        Varint.put(buffer, width);
+        Varint.put(buffer, height);
+    }
+
+    public void writePress(long tick, float normalizedX, float normalizedY)
+        throws IOException {
+        beginEvent(InputLog.PRESS, tick);
+        putTouch(normalizedX, normalizedY);
+    }
+
+    public void writeDrag(long tick, float normalizedX, float normalizedY)
+        throws IOException {
+        beginEvent(InputLog.DRAG, tick);
+        putTouch(normalizedX, normalizedY);
+    }
+
+    public void writeCamera(long tick, float camPosZ) throws IOException {
+        beginEvent(InputLog.CAMERA, tick);
+        final int bits = Float.floatToIntBits(camPosZ);
+        Varint.put(buffer, Varint.zigzag(bits - lastCameraBits));
+        lastCameraBits = bits;
+    }
+
+    public void writeRedTarget(long tick, float x, float z) throws IOException {
+        beginEvent(InputLog.RED_TARGET, tick);
+        final int xBits = Float.floatToIntBits(x);
+        final int zBits = Float.floatToIntBits(z);
+        Varint.put(buffer, Varint.zigzag(xBits - lastTargetXBits));
+        Varint.put(buffer, Varint.zigzag(zBits - lastTargetZBits));
+        lastTargetXBits = xBits;
+        lastTargetZBits = zBits;
+    }
+
+    /**
+     * Writes the END event and everything still buffered, and closes the
+     * channel.
+     */
+    public void close(long tick) throws IOException {
+        try {
+            beginEvent(InputLog.END, tick);
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void beginEvent(int type, long tick) throws IOException {
+        if (buffer.remaining() < MAX_EVENT_SIZE) {
+            flush();
+        }
+        if (tick < lastTick) {
+            throw new IllegalArgumentException(
+                "Events must be written in tick order.");
+        }
+        buffer.put((byte) type);
+        Varint.put(buffer, (int) (tick - lastTick));
+        lastTick = tick;
+    }
+
+    private void putTouch(float normalizedX, float normalizedY) {
+        final int xBits = Float.floatToIntBits(normalizedX);
+        final int yBits = Float.floatToIntBits(normalizedY);
+        Varint.put(buffer, Varint.zigzag(xBits - lastTouchXBits));
+        Varint.put(buffer, Varint.zigzag(yBits - lastTouchYBits));
+        lastTouchXBits = xBits;
+        lastTouchYBits = yBits;
+    }
+}
@@ -0,0 +1,76 @@
+package com.airhockey.android.replay;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.InputController;
+import com.airhockey.android.util.Camera;
+
+/**
+ * Plays an input log back into a simulation, without rendering and as fast as
+ * the simulation can step. Touches go through the same camera and picking
+ * code as on the device, at the same simulation tick, and the computer
+ * player's moves are set as recorded, so the replayed match is the recorded
+ * one.
+ */
+public class InputReplayer {
+    private final AirHockeySimulation simulation;
+    private final Camera camera = new Camera();
+    private final InputController inputController;
+
+    public InputReplayer(AirHockeySimulation simulation) {
+        this.simulation = simulation;
+        this.inputController = new InputController(camera, simulation);
+    }
+
+    /**
+     * Resets the simulation, replays the whole log and returns the number of
+     * simulation steps that were run.
+     */
+    public long replay(ReadableByteChannel channel) throws IOException {
+        final InputLogReader reader = new InputLogReader(channel);
+        simulation.reset();
+        camera.setZoom(0f);
+
+        long ticks = 0;
+        boolean more;
+        do {
+            more = reader.next();
+            // Events are applied before the step of their tick, as they are
+            // on the GL thread.
+            while (ticks < reader.tick) {
+                simulation.step();
+                ticks++;
+            }
+            if (more) {
+                apply(reader);
+            }
+        } while (more);
+        return ticks;
+    }
+
+    private void apply(InputLogReader event) {
+        switch (event.type) {
+            case InputLog.SURFACE:
+                camera.setViewport(event.width, event.height);
+                break;
+            case InputLog.PRESS:
+                inputController.handleTouchPress(event.x, event.y);
+                break;
+            case InputLog.DRAG:
+                inputController.handleTouchDrag(event.x, event.y);
+                break;
+            case InputLog.CAMERA:
+                camera.setZoom(event.camPosZ);
+                break;
+            case InputLog.RED_TARGET:
+                simulation.setRedMalletTarget(event.targetX, event.targetZ);
+                break;
+        }
+    }
+
+    public AirHockeySimulation getSimulation() {
+        return simulation;
+    }
+}
@@ -0,0 +1,68 @@
+package com.airhockey.android.scene;
+
+/**
+ * The axis aligned box and the bounding sphere of a mesh, in its own
+ * coordinates.
+ */
+public class Bounds {
+    public final float minX, minY, minZ;
+    public final float maxX, maxY, maxZ;
+    // The sphere is centered on the box, with the radius of the farthest
+    // vertex, which is never larger than half the box diagonal.
+    public final float centerX, centerY, centerZ;
+    public final float radius;
+
+    private Bounds(float minX, float minY, float minZ,
+        float maxX, float maxY, float maxZ, float radius) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.centerX = (minX + maxX) * 0.5f;
+        this.centerY = (minY + maxY) * 0.5f;
+        this.centerZ = (minZ + maxZ) * 0.5f;
+        this.radius = radius;
+    }
+
+    /**
+     * The bounds of vertexCount vertices, each starting with a position of
+     * positionComponents (2 or 3) floats, stride floats apart.
+     */
+    public static Bounds fromVertices(float[] vertexData, int vertexCount,
+        int positionComponents, int stride) {
+        if (vertexCount == 0) {
+            return new Bounds(0f, 0f, 0f, 0f, 0f, 0f, 0f);
+        }
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (int i = 0; i < vertexCount; i++) {
+            final int offset = i * stride;
+            final float x = vertexData[offset];
+            final float y = vertexData[offset + 1];
+            final float z = positionComponents > 2 ? vertexData[offset + 2] : 0f;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+
+        final float centerX = (minX + maxX) * 0.5f;
+        final float centerY = (minY + maxY) * 0.5f;
+        final float centerZ = (minZ + maxZ) * 0.5f;
+        float radiusSquared = 0f;
+        for (int i = 0; i < vertexCount; i++) {
+            final int offset = i * stride;
+            final float dx = vertexData[offset] - centerX;
+            final float dy = vertexData[offset + 1] - centerY;
+            final float dz =
+                (positionComponents > 2 ? vertexData[offset + 2] : 0f) - centerZ;
+            radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+        }
+        return new Bounds(minX, minY, minZ, maxX, maxY, maxZ,
+            (float) Math.sqrt(radiusSquared));
+    }
+}
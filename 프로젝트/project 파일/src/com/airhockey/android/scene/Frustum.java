@@ -0,0 +1,91 @@
+package com.airhockey.android.scene;
+
+/**
+ * The six planes of a view-projection matrix, for telling which bounds the
+ * camera can see. The planes point inwards and are normalized, so a plane
+ * equation gives the distance to the plane.
+ */
+public class Frustum {
+    public static final int OUTSIDE = 0;
+    public static final int INTERSECTS = 1;
+    public static final int INSIDE = 2;
+
+    private static final int PLANES = 6;
+
+    // a, b, c and d of the planes, left, right, bottom, top, near and far.
+    private final float[] planes = new float[PLANES * 4];
+
+    /**
+     * Extracts the planes from a column major view-projection matrix: a point
+     * is inside if -w <= x, y, z <= w in clip space.
+     */
+    public void set(float[] m) {
+        for (int i = 0; i < PLANES; i++) {
+            // Row 0, 1 or 2 of the matrix, added to or subtracted from row 3.
+            final int row = i / 2;
+            final float sign = (i & 1) == 0 ? 1f : -1f;
+            final float a = m[3] + sign * m[row];
+            final float b = m[7] + sign * m[4 + row];
+            final float c = m[11] + sign * m[8 + row];
+            final float d = m[15] + sign * m[12 + row];
+            final float length = (float) Math.sqrt(a * a + b * b + c * c);
+            planes[i * 4] = a / length;
+            planes[i * 4 + 1] = b / length;
+            planes[i * 4 + 2] = c / length;
+            planes[i * 4 + 3] = d / length;
+        }
+    }
+
+    public int testSphere(float x, float y, float z, float radius) {
+        int result = INSIDE;
+        for (int i = 0; i < PLANES * 4; i += 4) {
+            final float distance = planes[i] * x + planes[i + 1] * y
+                + planes[i + 2] * z + planes[i + 3];
+            if (distance < -radius) {
+                return OUTSIDE;
+            }
+            if (distance < radius) {
+                result = INTERSECTS;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tests the box of bounds, placed by an affine model matrix. The placed
+     * box is enclosed in a world axis aligned one, which is what's tested.
+     */
+    public int testBox(float[] modelMatrix, Bounds bounds) {
+        final float[] m = modelMatrix;
+        final float x = bounds.centerX, y = bounds.centerY, z = bounds.centerZ;
+        final float ex = (bounds.maxX - bounds.minX) * 0.5f;
+        final float ey = (bounds.maxY - bounds.minY) * 0.5f;
+        final float ez = (bounds.maxZ - bounds.minZ) * 0.5f;
+
+        final float centerX = m[0] * x + m[4] * y + m[8] * z + m[12];
+        final float centerY = m[1] * x + m[5] * y + m[9] * z + m[13];
+        final float centerZ = m[2] * x + m[6] * y + m[10] * z + m[14];
+        final float extentX = Math.abs(m[0]) * ex + Math.abs(m[4]) * ey
+            + Math.abs(m[8]) * ez;
+        final float extentY = Math.abs(m[1]) * ex + Math.abs(m[5]) * ey
+            + Math.abs(m[9]) * ez;
+        final float extentZ = Math.abs(m[2]) * ex + Math.abs(m[6]) * ey
+            + Math.abs(m[10]) * ez;
+
+        int result = INSIDE;
+        for (int i = 0; i < PLANES * 4; i += 4) {
+            final float a = planes[i], b = planes[i + 1], c = planes[i + 2];
+            final float distance = a * centerX + b * centerY + c * centerZ
+                + planes[i + 3];
+            final float radius = Math.abs(a) * extentX + Math.abs(b) * extentY
+                + Math.abs(c) * extentZ;
+            if (distance < -radius) {
+                return OUTSIDE;
+            }
+            if (distance < radius) {
+                result = INTERSECTS;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+package com.airhockey.android.scene;
+
+/**
+ * Picks one of the levels of detail of a round mesh, from how large it
+ * appears on screen. A level with n points around is used up to the screen
+ * radius where its edges are TOLERANCE_PIXELS away from the true circle.
+ * Going to a coarser level waits until the radius is HYSTERESIS below that
+ * level's limit, so an object on the edge doesn't switch every frame.
+ */
+public class LevelOfDetail {
+    public static final float TOLERANCE_PIXELS = 1f;
+    public static final float HYSTERESIS = 0.25f;
+
+    private final int[] pointsPerLevel;
+    // The largest screen radius, in pixels, each level is good for.
+    private final float[] maxScreenRadius;
+
+    /**
+     * @param pointsPerLevel The points around of each level, finest first.
+     */
+    public LevelOfDetail(int[] pointsPerLevel) {
+        this.pointsPerLevel = pointsPerLevel.clone();
+        maxScreenRadius = new float[pointsPerLevel.length];
+        maxScreenRadius[0] = Float.POSITIVE_INFINITY;
+        for (int level = 1; level < pointsPerLevel.length; level++) {
+            // A chord spanning 2pi/n is 1 - cos(pi/n) of the radius inside
+            // the circle at its middle.
+            maxScreenRadius[level] = TOLERANCE_PIXELS
+                / (1f - (float) Math.cos(Math.PI / pointsPerLevel[level]));
+        }
+    }
+
+    public int getLevelCount() {
+        return pointsPerLevel.length;
+    }
+
+    public int getPoints(int level) {
+        return pointsPerLevel[level];
+    }
+
+    /**
+     * The level to draw an object at that appears screenRadius pixels large,
+     * and was drawn at currentLevel last frame.
+     */
+    public int select(int currentLevel, float screenRadius) {
+        int level = Math.min(currentLevel, pointsPerLevel.length - 1);
+        while (level > 0 && screenRadius > maxScreenRadius[level]) {
+            level--;
+        }
+        while (level + 1 < pointsPerLevel.length
+            && screenRadius < maxScreenRadius[level + 1] * (1f - HYSTERESIS)) {
+            level++;
+        }
+        return level;
+    }
+}
@@ -0,0 +1,282 @@
+package com.airhockey.android.scene;
+
+import java.util.ArrayList;
+
+import com.airhockey.android.util.MatrixHelper;
+
+/**
+ * A node of the scene graph: a translation, a rotation around x, y and z in
+ * turn (in degrees) and a scale, relative to its parent.
+ *
+ * Changing a node marks it dirty, and marks its ancestors as having a dirty
+ * descendant. update() on the root then only walks down to those nodes, and
+ * only recomputes the world matrices of the dirty nodes and their subtrees.
+ * The model-view-projection matrices are also recomputed when the camera's
+ * version changes. A frame where nothing moved costs a single compare.
+ *
+ * A node can carry the bounds of what it draws. update() then also keeps a
+ * world space sphere around the bounds of the whole subtree, and cull()
+ * skips subtrees whose sphere is outside the frustum without looking at
+ * their nodes, and stops testing below a subtree that is entirely inside.
+ */
+public class SceneNode {
+    private final ArrayList<SceneNode> children = new ArrayList<SceneNode>();
+    private SceneNode parent;
+
+    private float translateX, translateY, translateZ;
+    private float rotateX, rotateY, rotateZ;
+    private float scaleX = 1f, scaleY = 1f, scaleZ = 1f;
+
+    private final float[] localMatrix = new float[16];
+    private final float[] worldMatrix = new float[16];
+    private final float[] modelViewProjectionMatrix = new float[16];
+
+    private Bounds bounds;
+    // The world space sphere around the bounds of this node and everything
+    // below it, if any of them has bounds.
+    private boolean hasSubtreeBounds = false;
+    private float subtreeX, subtreeY, subtreeZ, subtreeRadius;
+    private boolean visible = true;
+
+    private boolean localDirty = true;
+    private boolean descendantDirty = false;
+    // The camera version the model-view-projection matrix was computed for.
+    private int viewProjectionVersion = -1;
+
+    public void addChild(SceneNode child) {
+        if (child.parent != null) {
+            child.parent.removeChild(child);
+        }
+        children.add(child);
+        child.parent = this;
+        // Its world matrix now depends on ours.
+        child.markDirty();
+    }
+
+    public void removeChild(SceneNode child) {
+        if (children.remove(child)) {
+            // Marked while still attached, so that our subtree bounds are
+            // recomputed without it.
+            child.markDirty();
+            child.parent = null;
+        }
+    }
+
+    public SceneNode getParent() {
+        return parent;
+    }
+
+    public void setTranslation(float x, float y, float z) {
+        if (x != translateX || y != translateY || z != translateZ) {
+            translateX = x;
+            translateY = y;
+            translateZ = z;
+            markDirty();
+        }
+    }
+
+    public void setRotation(float x, float y, float z) {
+        if (x != rotateX || y != rotateY || z != rotateZ) {
+            rotateX = x;
+            rotateY = y;
+            rotateZ = z;
+            markDirty();
+        }
+    }
+
+    public void setScale(float x, float y, float z) {
+        if (x != scaleX || y != scaleY || z != scaleZ) {
+            scaleX = x;
+            scaleY = y;
+            scaleZ = z;
+            markDirty();
+        }
+    }
+
+    /**
+     * Sets the bounds of what this node draws, in its own coordinates, or
+     * null for a node that is never culled.
+     */
+    public void setBounds(Bounds bounds) {
+        this.bounds = bounds;
+        markDirty();
+    }
+
+    private void markDirty() {
+        localDirty = true;
+        for (SceneNode node = parent; node != null && !node.descendantDirty;
+             node = node.parent) {
+            node.descendantDirty = true;
+        }
+    }
+
+    /**
+     * Brings the world and model-view-projection matrices of this node and
+     * everything below it up to date, and returns the number of nodes whose
+     * matrices were recomputed. Call on the root, once per frame, with the
+     * camera's view-projection matrix and version.
+     */
+    public int update(float[] viewProjectionMatrix, int viewProjectionVersion) {
+        return update(null, false, viewProjectionMatrix, viewProjectionVersion);
+    }
+
+    private int update(float[] parentWorldMatrix, boolean parentChanged,
+        float[] viewProjectionMatrix, int version) {
+        final boolean worldChanged = parentChanged || localDirty;
+        if (!worldChanged && !descendantDirty
+            && version == viewProjectionVersion) {
+            return 0;
+        }
+        final boolean boundsChanged = worldChanged || descendantDirty;
+
+        int updated = 0;
+        if (worldChanged) {
+            if (localDirty) {
+                MatrixHelper.setTranslateRotateScaleM(localMatrix, 0,
+                    translateX, translateY, translateZ,
+                    rotateX, rotateY, rotateZ,
+                    scaleX, scaleY, scaleZ);
+                localDirty = false;
+            }
+            if (parentWorldMatrix != null) {
+                MatrixHelper.multiplyAffineMM(worldMatrix, 0,
+                    parentWorldMatrix, 0, localMatrix, 0);
+            } else {
+                System.arraycopy(localMatrix, 0, worldMatrix, 0, 16);
+            }
+        }
+        if (worldChanged || version != viewProjectionVersion) {
+            MatrixHelper.multiplyMMAffine(modelViewProjectionMatrix, 0,
+                viewProjectionMatrix, 0, worldMatrix, 0);
+            viewProjectionVersion = version;
+            updated++;
+        }
+
+        for (int i = 0; i < children.size(); i++) {
+            updated += children.get(i).update(worldMatrix, worldChanged,
+                viewProjectionMatrix, version);
+        }
+        descendantDirty = false;
+        if (boundsChanged) {
+            updateSubtreeBounds();
+        }
+        return updated;
+    }
+
+    private void updateSubtreeBounds() {
+        hasSubtreeBounds = false;
+        if (bounds != null) {
+            final float[] m = worldMatrix;
+            final float x = bounds.centerX, y = bounds.centerY, z = bounds.centerZ;
+            subtreeX = m[0] * x + m[4] * y + m[8] * z + m[12];
+            subtreeY = m[1] * x + m[5] * y + m[9] * z + m[13];
+            subtreeZ = m[2] * x + m[6] * y + m[10] * z + m[14];
+            // Scaled by the longest axis, in case the scale isn't uniform.
+            final float scale = (float) Math.sqrt(Math.max(
+                m[0] * m[0] + m[1] * m[1] + m[2] * m[2], Math.max(
+                m[4] * m[4] + m[5] * m[5] + m[6] * m[6],
+                m[8] * m[8] + m[9] * m[9] + m[10] * m[10])));
+            subtreeRadius = bounds.radius * scale;
+            hasSubtreeBounds = true;
+        }
+        for (int i = 0; i < children.size(); i++) {
+            final SceneNode child = children.get(i);
+            if (!child.hasSubtreeBounds) {
+                continue;
+            }
+            if (!hasSubtreeBounds) {
+                subtreeX = child.subtreeX;
+                subtreeY = child.subtreeY;
+                subtreeZ = child.subtreeZ;
+                subtreeRadius = child.subtreeRadius;
+                hasSubtreeBounds = true;
+                continue;
+            }
+            // Grow our sphere around the child's, keeping the center.
+            final float dx = child.subtreeX - subtreeX;
+            final float dy = child.subtreeY - subtreeY;
+            final float dz = child.subtreeZ - subtreeZ;
+            subtreeRadius = Math.max(subtreeRadius,
+                (float) Math.sqrt(dx * dx + dy * dy + dz * dz) + child.subtreeRadius);
+        }
+    }
+
+    /**
+     * Decides which nodes the frustum can see, after update(), and returns
+     * the number of nodes with bounds that it can't. Nodes without bounds are
+     * always visible.
+     */
+    public int cull(Frustum frustum) {
+        return cull(frustum, false);
+    }
+
+    private int cull(Frustum frustum, boolean inside) {
+        if (!inside && hasSubtreeBounds) {
+            final int result = frustum.testSphere(
+                subtreeX, subtreeY, subtreeZ, subtreeRadius);
+            if (result == Frustum.OUTSIDE) {
+                return cullSubtree();
+            }
+            inside = result == Frustum.INSIDE;
+        }
+
+        int culled = 0;
+        if (bounds != null) {
+            visible = inside 
+                || frustum.testBox(worldMatrix, bounds) != Frustum.OUTSIDE;
+            if (!visible) {
+                culled++;
+            }
+        } else {
+            visible = true;
+        }
+        for (int i = 0; i < children.size(); i++) {
+            culled += children.get(i).cull(frustum, inside);
+        }
+        return culled;
+    }
+
+    private int cullSubtree() {
+        int culled = 0;
+        // Nodes without bounds don't draw anything that could be culled.
+        visible = bounds == null;
+        if (bounds != null) {
+            culled++;
+        }
+        for (int i = 0; i < children.size(); i++) {
+            culled += children.get(i).cullSubtree();
+        }
+        return culled;
+    }
+
+    /**
+     * Copies the world space sphere around the bounds of this node and
+     * everything below it, as of the last update(), into sphere as x, y, z
+     * and radius. Returns false, and copies nothing, if none of them has
+     * bounds.
+     */
+    public boolean getSubtreeSphere(float[] sphere) {
+        if (hasSubtreeBounds) {
+            sphere[0] = subtreeX;
+            sphere[1] = subtreeY;
+            sphere[2] = subtreeZ;
+            sphere[3] = subtreeRadius;
+        }
+        return hasSubtreeBounds;
+    }
+
+    /**
+     * Whether the last cull() found this node in the frustum.
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public float[] getWorldMatrix() {
+        return worldMatrix;
+    }
+
+    public float[] getModelViewProjectionMatrix() {
+        return modelViewProjectionMatrix;
+    }
+}
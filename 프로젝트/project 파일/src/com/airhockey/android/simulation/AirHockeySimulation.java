@@ -0,0 +1,472 @@
+package com.airhockey.android.simulation;
+
+import com.airhockey.android.util.Geometry;
+import com.airhockey.android.util.Geometry.MutableVector;
+
+/**
+ * The puck and mallet rules of the game, without any rendering. This class
+ * only depends on plain Java, so matches can be simulated off the device, for
+ * example to tune the friction and restitution values in bulk.
+ *
+ * The puck vector is a distance per step; call step() at a fixed rate.
+ * Stepping doesn't allocate: all positions are kept in mutable vectors,
+ * which the getters return. Callers must not modify them.
+ */
+public class AirHockeySimulation implements MalletTargets {
+    // A puck can hit several things within one step, e.g. a mallet and then
+    // a wall. Anything beyond this is resolved by clamping.
+    private static final int MAX_IMPACTS_PER_STEP = 4;
+    // How close the puck must be to a side to count as touching it.
+    private static final float CONTACT_EPSILON = 1e-4f;
+    // The sides, as bits of the sides hit within a step.
+    private static final int LEFT_SIDE = 1;
+    private static final int RIGHT_SIDE = 2;
+    private static final int FAR_SIDE = 4;
+    private static final int NEAR_SIDE = 8;
+
+    /**
+     * Receives the collisions that happen during step().
+     */
+    public interface Listener {
+        void onWallHit(long tick);
+        void onMalletHit(long tick, boolean blueMallet);
+    }
+
+    /**
+     * The tunable parameters of a match.
+     */
+    public static class Rules {
+        public float puckRadius = 0.06f;
+        public float puckHeight = 0.02f;
+        public float malletRadius = 0.08f;
+        public float malletHeight = 0.15f;
+        public float friction = 0.99f;
+        public float wallRestitution = 0.9f;
+        public float malletRestitution = 0.9f;
+    }
+
+    /**
+     * Everything step() depends on, so the simulation can be rewound to an
+     * earlier tick and played forward again, e.g. when a network game learns
+     * that its guess of the other player's input was wrong.
+     */
+    public static class State {
+        public long tick;
+        public float blueMalletX, blueMalletZ;
+        public float redMalletX, redMalletZ;
+        public float blueMalletTargetX, blueMalletTargetZ;
+        public float redMalletTargetX, redMalletTargetZ;
+        public float puckX, puckZ;
+        public float puckVectorX, puckVectorZ;
+        public float lastStepBlueMalletX, lastStepBlueMalletZ;
+        public float lastStepRedMalletX, lastStepRedMalletZ;
+        public float lastStepPuckX, lastStepPuckZ;
+
+        public void set(State other) {
+            tick = other.tick;
+            blueMalletX = other.blueMalletX;
+            blueMalletZ = other.blueMalletZ;
+            redMalletX = other.redMalletX;
+            redMalletZ = other.redMalletZ;
+            blueMalletTargetX = other.blueMalletTargetX;
+            blueMalletTargetZ = other.blueMalletTargetZ;
+            redMalletTargetX = other.redMalletTargetX;
+            redMalletTargetZ = other.redMalletTargetZ;
+            puckX = other.puckX;
+            puckZ = other.puckZ;
+            puckVectorX = other.puckVectorX;
+            puckVectorZ = other.puckVectorZ;
+            lastStepBlueMalletX = other.lastStepBlueMalletX;
+            lastStepBlueMalletZ = other.lastStepBlueMalletZ;
+            lastStepRedMalletX = other.lastStepRedMalletX;
+            lastStepRedMalletZ = other.lastStepRedMalletZ;
+            lastStepPuckX = other.lastStepPuckX;
+            lastStepPuckZ = other.lastStepPuckZ;
+        }
+    }
+
+    public final float leftBound = -0.5f;
+    public final float rightBound = 0.5f;
+    public final float farBound = -0.8f;
+    public final float nearBound = 0.8f;
+
+    private final Rules rules;
+    private Listener listener;
+
+    private final MutableVector blueMalletPosition = new MutableVector();
+    private final MutableVector redMalletPosition = new MutableVector();
+
+    // Where the input wants the mallets to be. step() moves the mallets there,
+    // sweeping them against the puck.
+    private final MutableVector blueMalletTarget = new MutableVector();
+    private final MutableVector redMalletTarget = new MutableVector();
+
+    private final MutableVector puckPosition = new MutableVector();
+    private final MutableVector puckVector = new MutableVector();
+
+    // Positions at the start of the last step, for render interpolation.
+    private final MutableVector lastStepBlueMalletPosition = new MutableVector();
+    private final MutableVector lastStepRedMalletPosition = new MutableVector();
+    private final MutableVector lastStepPuckPosition = new MutableVector();
+
+    // Scratch space for step().
+    private final MutableVector blueMalletStart = new MutableVector();
+    private final MutableVector redMalletStart = new MutableVector();
+    private final MutableVector blueMalletMove = new MutableVector();
+    private final MutableVector redMalletMove = new MutableVector();
+
+    private long tick;
+
+    public AirHockeySimulation(Rules rules) {
+        this.rules = rules;
+        reset();
+    }
+
+    public Rules getRules() {
+        return rules;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Puts the mallets back at either end and the puck at rest in the middle.
+     */
+    public void reset() {
+        blueMalletPosition.set(0f, rules.malletHeight / 2f, 0.4f);
+        redMalletPosition.set(0f, rules.malletHeight / 2f, -0.4f);
+        puckPosition.set(0f, rules.puckHeight / 2f, 0f);
+        puckVector.set(0f, 0f, 0f);
+        blueMalletTarget.set(blueMalletPosition);
+        redMalletTarget.set(redMalletPosition);
+
+        lastStepBlueMalletPosition.set(blueMalletPosition);
+        lastStepRedMalletPosition.set(redMalletPosition);
+        lastStepPuckPosition.set(puckPosition);
+        tick = 0;
+    }
+
+    public void saveState(State state) {
+        state.tick = tick;
+        state.blueMalletX = blueMalletPosition.x;
+        state.blueMalletZ = blueMalletPosition.z;
+        state.redMalletX = redMalletPosition.x;
+        state.redMalletZ = redMalletPosition.z;
+        state.blueMalletTargetX = blueMalletTarget.x;
+        state.blueMalletTargetZ = blueMalletTarget.z;
+        state.redMalletTargetX = redMalletTarget.x;
+        state.redMalletTargetZ = redMalletTarget.z;
+        state.puckX = puckPosition.x;
+        state.puckZ = puckPosition.z;
+        state.puckVectorX = puckVector.x;
+        state.puckVectorZ = puckVector.z;
+        state.lastStepBlueMalletX = lastStepBlueMalletPosition.x;
+        state.lastStepBlueMalletZ = lastStepBlueMalletPosition.z;
+        state.lastStepRedMalletX = lastStepRedMalletPosition.x;
+        state.lastStepRedMalletZ = lastStepRedMalletPosition.z;
+        state.lastStepPuckX = lastStepPuckPosition.x;
+        state.lastStepPuckZ = lastStepPuckPosition.z;
+    }
+
+    public void restoreState(State state) {
+        final float malletY = rules.malletHeight / 2f;
+        final float puckY = rules.puckHeight / 2f;
+        tick = state.tick;
+        blueMalletPosition.set(state.blueMalletX, malletY, state.blueMalletZ);
+        redMalletPosition.set(state.redMalletX, malletY, state.redMalletZ);
+        blueMalletTarget.set(
+            state.blueMalletTargetX, malletY, state.blueMalletTargetZ);
+        redMalletTarget.set(
+            state.redMalletTargetX, malletY, state.redMalletTargetZ);
+        puckPosition.set(state.puckX, puckY, state.puckZ);
+        puckVector.set(state.puckVectorX, 0f, state.puckVectorZ);
+        lastStepBlueMalletPosition.set(
+            state.lastStepBlueMalletX, malletY, state.lastStepBlueMalletZ);
+        lastStepRedMalletPosition.set(
+            state.lastStepRedMalletX, malletY, state.lastStepRedMalletZ);
+        lastStepPuckPosition.set(
+            state.lastStepPuckX, puckY, state.lastStepPuckZ);
+    }
+
+    /**
+     * Moves the blue mallet towards the given point on the table, clamped to
+     * the near half.
+     */
+    public void setBlueMalletTarget(float x, float z) {
+        blueMalletTarget.set(
+            clamp(x,
+                  leftBound + rules.malletRadius,
+                  rightBound - rules.malletRadius),
+            rules.malletHeight / 2f,
+            clamp(z,
+                  0f + rules.malletRadius,
+                  nearBound - rules.malletRadius));
+    }
+
+    /**
+     * Moves the red mallet towards the given point on the table, clamped to
+     * the far half.
+     */
+    public void setRedMalletTarget(float x, float z) {
+        redMalletTarget.set(
+            clamp(x,
+                  leftBound + rules.malletRadius,
+                  rightBound - rules.malletRadius),
+            rules.malletHeight / 2f,
+            clamp(z,
+                  farBound + rules.malletRadius,
+                  0 - rules.malletRadius));
+    }
+
+    /**
+     * Advances the simulation by one fixed step: the mallets move to their
+     * targets, and the puck is swept along its vector, bouncing off the
+     * mallets and the table sides at the exact time of impact, so even very
+     * fast pucks and mallets can't pass through each other. A mallet that
+     * pins the puck against a side, or squeezes it against one, stops
+     * where it touches it.
+     */
+    public void step() {
+        lastStepBlueMalletPosition.set(blueMalletPosition);
+        lastStepRedMalletPosition.set(redMalletPosition);
+        lastStepPuckPosition.set(puckPosition);
+
+        blueMalletStart.set(blueMalletPosition);
+        redMalletStart.set(redMalletPosition);
+        Geometry.vectorBetween(blueMalletPosition, blueMalletTarget, blueMalletMove);
+        Geometry.vectorBetween(redMalletPosition, redMalletTarget, redMalletMove);
+
+        boolean blueBlocked = false;
+        boolean redBlocked = false;
+        int sidesHit = 0;
+        float remaining = 1f;
+        for (int i = 0; i < MAX_IMPACTS_PER_STEP && remaining > 0f; i++) {
+            final float puckMoveX = puckVector.x * remaining;
+            final float puckMoveZ = puckVector.z * remaining;
+            final float blueMoveX = blueMalletMove.x * remaining;
+            final float blueMoveZ = blueMalletMove.z * remaining;
+            final float redMoveX = redMalletMove.x * remaining;
+            final float redMoveZ = redMalletMove.z * remaining;
+
+            float blueImpact = Geometry.timeOfImpact(
+                puckPosition.x, puckPosition.z, puckMoveX, puckMoveZ, rules.puckRadius,
+                blueMalletStart.x, blueMalletStart.z, blueMoveX, blueMoveZ, 
+                rules.malletRadius);
+            float redImpact = Geometry.timeOfImpact(
+                puckPosition.x, puckPosition.z, puckMoveX, puckMoveZ, rules.puckRadius,
+                redMalletStart.x, redMalletStart.z, redMoveX, redMoveZ, 
+                rules.malletRadius);
+            float sideImpact = Geometry.timeOfImpact(
+                puckPosition.x, puckMoveX,
+                leftBound + rules.puckRadius, rightBound - rules.puckRadius);
+            float endImpact = Geometry.timeOfImpact(
+                puckPosition.z, puckMoveZ,
+                farBound + rules.puckRadius, nearBound - rules.puckRadius);
+
+            float t = Math.min(Math.min(blueImpact, redImpact),
+                               Math.min(sideImpact, endImpact));
+            if (t == Geometry.NO_IMPACT) {
+                puckPosition.x += puckMoveX;
+                puckPosition.z += puckMoveZ;
+                break;
+            }
+
+            // Move everything up to the moment of impact.
+            puckPosition.x += puckMoveX * t;
+            puckPosition.z += puckMoveZ * t;
+            blueMalletStart.x += blueMoveX * t;
+            blueMalletStart.z += blueMoveZ * t;
+            redMalletStart.x += redMoveX * t;
+            redMalletStart.z += redMoveZ * t;
+
+            // If the puck struck a side, reflect it off that side.
+            if (t == sideImpact) {
+                sidesHit |= puckVector.x < 0f ? LEFT_SIDE : RIGHT_SIDE;
+                puckVector.x = -puckVector.x;
+                puckVector.scale(rules.wallRestitution);
+                if (listener != null) {
+                    listener.onWallHit(tick);
+                }
+            } else if (t == endImpact) {
+                sidesHit |= puckVector.z < 0f ? FAR_SIDE : NEAR_SIDE;
+                puckVector.z = -puckVector.z;
+                puckVector.scale(rules.wallRestitution);
+                if (listener != null) {
+                    listener.onWallHit(tick);
+                }
+            } else if (t == blueImpact) {
+                bounceOffMallet(blueMalletStart, blueMalletMove);
+                if (pinAgainstSide(sidesHit, blueMalletStart)) {
+                    blueMalletMove.set(0f, 0f, 0f);
+                    blueBlocked = true;
+                }
+                if (listener != null) {
+                    listener.onMalletHit(tick, true);
+                }
+            } else {
+                bounceOffMallet(redMalletStart, redMalletMove);
+                if (pinAgainstSide(sidesHit, redMalletStart)) {
+                    redMalletMove.set(0f, 0f, 0f);
+                    redBlocked = true;
+                }
+                if (listener != null) {
+                    listener.onMalletHit(tick, false);
+                }
+            }
+
+            remaining *= 1f - t;
+        }
+
+        // A blocked mallet stays where it met the puck.
+        blueMalletPosition.set(blueBlocked ? blueMalletStart : blueMalletTarget);
+        redMalletPosition.set(redBlocked ? redMalletStart : redMalletTarget);
+
+        clampPuck();
+        separate(blueMalletPosition);
+        separate(redMalletPosition);
+
+        // Friction factor
+        puckVector.scale(rules.friction);
+
+        tick++;
+    }
+
+    /**
+     * Changes the puck vector after it hits a mallet that is moving by
+     * malletMove per step. The mallet is treated as infinitely heavy: the part
+     * of the puck's velocity relative to the mallet that points along the
+     * contact normal is reflected, so a moving mallet sends the puck flying.
+     */
+    private void bounceOffMallet(MutableVector malletCenter, MutableVector malletMove) {
+        float normalX = puckPosition.x - malletCenter.x;
+        float normalZ = puckPosition.z - malletCenter.z;
+        final float inverseLength = 
+            1f / (float) Math.sqrt(normalX * normalX + normalZ * normalZ);
+        normalX *= inverseLength;
+        normalZ *= inverseLength;
+
+        final float approachSpeed = (puckVector.x - malletMove.x) * normalX 
+                                  + (puckVector.z - malletMove.z) * normalZ;
+        if (approachSpeed >= 0f) {
+            return;
+        }
+
+        final float impulse = (1f + rules.malletRestitution) * approachSpeed;
+        puckVector.x -= impulse * normalX;
+        puckVector.z -= impulse * normalZ;
+    }
+
+    /**
+     * After a mallet hit, checks whether the mallet drives the puck into a
+     * side it is already touching, or one it bounced off earlier in the
+     * step. It can't go through, so it loses its speed into that side, and
+     * the caller stops the mallet. Bouncing it off the side instead sends it
+     * straight back into the mallet, closing in, and every such round trip
+     * gains the mallet's speed. If what's left of its speed still takes it
+     * into the mallet, it's wedged between them and stops.
+     */
+    private boolean pinAgainstSide(int sidesHit, MutableVector malletCenter) {
+        boolean pinned = false;
+        if (puckVector.x < 0f && ((sidesHit & LEFT_SIDE) != 0
+                || puckPosition.x <= leftBound + rules.puckRadius + CONTACT_EPSILON)
+            || puckVector.x > 0f && ((sidesHit & RIGHT_SIDE) != 0
+                || puckPosition.x >= rightBound - rules.puckRadius - CONTACT_EPSILON)) {
+            puckVector.x = 0f;
+            pinned = true;
+        }
+        if (puckVector.z < 0f && ((sidesHit & FAR_SIDE) != 0
+                || puckPosition.z <= farBound + rules.puckRadius + CONTACT_EPSILON)
+            || puckVector.z > 0f && ((sidesHit & NEAR_SIDE) != 0
+                || puckPosition.z >= nearBound - rules.puckRadius - CONTACT_EPSILON)) {
+            puckVector.z = 0f;
+            pinned = true;
+        }
+        if (pinned && (puckPosition.x - malletCenter.x) * puckVector.x
+                    + (puckPosition.z - malletCenter.z) * puckVector.z < 0f) {
+            puckVector.set(0f, 0f, 0f);
+        }
+        return pinned;
+    }
+
+    /**
+     * Pushes the puck out of a mallet it ended the step overlapping, which
+     * running out of impacts or rounding can leave it in. Where a side
+     * stops the puck, the mallet is pushed back instead.
+     */
+    private void separate(MutableVector malletPosition) {
+        final float contact = rules.puckRadius + rules.malletRadius;
+        float dx = puckPosition.x - malletPosition.x;
+        float dz = puckPosition.z - malletPosition.z;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        if (distance >= contact) {
+            return;
+        }
+        if (distance == 0f) {
+            // Dead center: push it towards the other half.
+            dx = 0f;
+            dz = malletPosition.z > 0f ? -1f : 1f;
+            distance = 1f;
+        }
+        puckPosition.x = malletPosition.x + dx / distance * contact;
+        puckPosition.z = malletPosition.z + dz / distance * contact;
+        clampPuck();
+
+        dx = puckPosition.x - malletPosition.x;
+        dz = puckPosition.z - malletPosition.z;
+        distance = (float) Math.sqrt(dx * dx + dz * dz);
+        if (distance < contact && distance > 0f) {
+            malletPosition.x = puckPosition.x - dx / distance * contact;
+            malletPosition.z = puckPosition.z - dz / distance * contact;
+        }
+    }
+
+    private void clampPuck() {
+        puckPosition.x = clamp(puckPosition.x,
+                               leftBound + rules.puckRadius,
+                               rightBound - rules.puckRadius);
+        puckPosition.z = clamp(puckPosition.z,
+                               farBound + rules.puckRadius,
+                               nearBound - rules.puckRadius);
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.min(max, Math.max(value, min));
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public MutableVector getBlueMalletPosition() {
+        return blueMalletPosition;
+    }
+
+    public MutableVector getRedMalletPosition() {
+        return redMalletPosition;
+    }
+
+    public MutableVector getRedMalletTarget() {
+        return redMalletTarget;
+    }
+
+    public MutableVector getPuckPosition() {
+        return puckPosition;
+    }
+
+    public MutableVector getPuckVector() {
+        return puckVector;
+    }
+
+    public MutableVector getLastStepBlueMalletPosition() {
+        return lastStepBlueMalletPosition;
+    }
+
+    public MutableVector getLastStepRedMalletPosition() {
+        return lastStepRedMalletPosition;
+    }
+
+    public MutableVector getLastStepPuckPosition() {
+        return lastStepPuckPosition;
+    }
+}
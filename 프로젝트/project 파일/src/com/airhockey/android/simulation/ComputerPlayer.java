@@ -0,0 +1,328 @@
+package com.airhockey.android.simulation;
+
+import com.airhockey.android.util.Geometry.MutableVector;
+
+/**
+ * A computer opponent for the red mallet.
+ *
+ * Once per frame, plan() predicts where the puck will be at any future time,
+ * without stepping the simulation: between two bounces the puck slows down
+ * by the friction factor every step, so after t steps it has moved
+ * v * (1 - f^t) / (1 - f), and the time it reaches a side follows from the
+ * logarithm of that. The path is kept as a few such segments, and searched
+ * for the earliest point the mallet can get to in time. If the time budget
+ * runs out first, the mallet goes for the best point found so far, or
+ * guards the goal until the next plan if there is none yet.
+ *
+ * Every simulation step, move() then steers the mallet towards that point,
+ * at a limited speed.
+ */
+public class ComputerPlayer {
+    public static final long DEFAULT_BUDGET_NANOS = 200000;
+
+    // Bounces we follow the puck through, and how far ahead we look.
+    private static final int MAX_SEGMENTS = 8;
+    private static final int HORIZON_STEPS = 180;
+    // Steps between the candidate intercepts of the first, coarse search.
+    private static final int COARSE_STEP = 6;
+
+    private static final float HOME_Z = -0.6f;
+
+    public static final int PLAN_TIME_BUCKETS = 20;
+    public static final long PLAN_TIME_BUCKET_NANOS = 10000;
+
+    private final float maxSpeed;
+    private final long budgetNanos;
+
+    // The predicted path: segment i starts segmentStart[i] steps from now at
+    // segmentX/Z[i], with vector segmentVectorX/Z[i].
+    private final float[] segmentStart = new float[MAX_SEGMENTS];
+    private final float[] segmentX = new float[MAX_SEGMENTS];
+    private final float[] segmentZ = new float[MAX_SEGMENTS];
+    private final float[] segmentVectorX = new float[MAX_SEGMENTS];
+    private final float[] segmentVectorZ = new float[MAX_SEGMENTS];
+    private int segmentCount;
+
+    private float friction;
+    private float logFriction;
+
+    // The plan: where the mallet should be, and in how many steps.
+    private boolean intercepting = false;
+    private float interceptX;
+    private float interceptZ;
+    private int stepsToIntercept;
+
+    private long lastPlanNanos = 0;
+    private long maxPlanNanos = 0;
+    private long totalPlanNanos = 0;
+    private int plans = 0;
+    private int plansOverBudget = 0;
+    private final int[] planTimeHistogram = new int[PLAN_TIME_BUCKETS];
+
+    /**
+     * @param maxSpeed How far the mallet may move per step.
+     * @param budgetNanos How long plan() may take.
+     */
+    public ComputerPlayer(float maxSpeed, long budgetNanos) {
+        this.maxSpeed = maxSpeed;
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * Predicts the puck path and picks where to meet it. Call once per frame.
+     */
+    public void plan(AirHockeySimulation simulation) {
+        final long start = System.nanoTime();
+        final long deadline = start + budgetNanos;
+        final AirHockeySimulation.Rules rules = simulation.getRules();
+
+        predictPath(simulation);
+
+        // The mallet needs to be behind the puck, on the far side, to hit it
+        // towards the blue end.
+        final float offset = rules.puckRadius + rules.malletRadius;
+        final MutableVector mallet = simulation.getRedMalletPosition();
+        final float minZ = simulation.farBound + rules.malletRadius;
+        final float maxZ = 0f - rules.malletRadius;
+
+        // Scan the path coarsely for the first point we can reach in time,
+        // then narrow it down to the step.
+        intercepting = false;
+        boolean overBudget = false;
+        int reachable = -1;
+        for (int t = 1; t <= HORIZON_STEPS; t += COARSE_STEP) {
+            if (System.nanoTime() > deadline) {
+                overBudget = true;
+                break;
+            }
+            if (canReach(mallet, t, offset, minZ, maxZ)) {
+                reachable = t;
+                break;
+            }
+        }
+        if (reachable > 0) {
+            // The coarse point is reachable too, so it's the one to take if
+            // there's no time left to refine it.
+            int earliest = reachable;
+            for (int t = Math.max(1, reachable - COARSE_STEP + 1); t < reachable; t++) {
+                if (System.nanoTime() > deadline) {
+                    overBudget = true;
+                    break;
+                }
+                if (canReach(mallet, t, offset, minZ, maxZ)) {
+                    earliest = t;
+                    break;
+                }
+            }
+            final int segment = segmentAt(earliest);
+            final float factor = distanceFactor(earliest - segmentStart[segment]);
+            intercepting = true;
+            interceptX = segmentX[segment] + segmentVectorX[segment] * factor;
+            interceptZ = segmentZ[segment] + segmentVectorZ[segment] * factor - offset;
+            stepsToIntercept = earliest;
+        }
+
+        if (!intercepting) {
+            // Nothing to reach: guard the goal, following the puck sideways.
+            interceptX = simulation.getPuckPosition().x * 0.5f;
+            interceptZ = HOME_Z;
+            stepsToIntercept = 0;
+        }
+
+        recordPlanTime(System.nanoTime() - start, overBudget);
+    }
+
+    /**
+     * Whether the mallet can be behind the puck t steps from now.
+     */
+    private boolean canReach(MutableVector mallet, int t, float offset, 
+        float minZ, float maxZ) {
+        final int segment = segmentAt(t);
+        final float factor = distanceFactor(t - segmentStart[segment]);
+        final float puckX = segmentX[segment] + segmentVectorX[segment] * factor;
+        final float aimZ = 
+            segmentZ[segment] + segmentVectorZ[segment] * factor - offset;
+        if (aimZ < minZ || aimZ > maxZ) {
+            return false;
+        }
+        final float dx = puckX - mallet.x;
+        final float dz = aimZ - mallet.z;
+        final float reach = maxSpeed * t;
+        return dx * dx + dz * dz <= reach * reach;
+    }
+
+    /**
+     * Moves the red mallet one step towards the plan. Call before every
+     * simulation step.
+     */
+    public void move(AirHockeySimulation simulation, MalletTargets targets) {
+        final MutableVector mallet = simulation.getRedMalletPosition();
+        float goalX = interceptX;
+        float goalZ = interceptZ;
+
+        if (intercepting) {
+            if (stepsToIntercept <= 1) {
+                // In position: strike through the puck.
+                final MutableVector puck = simulation.getPuckPosition();
+                goalX = puck.x;
+                goalZ = puck.z;
+            }
+            stepsToIntercept--;
+        }
+
+        float dx = goalX - mallet.x;
+        float dz = goalZ - mallet.z;
+        final float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        if (distance > maxSpeed) {
+            dx *= maxSpeed / distance;
+            dz *= maxSpeed / distance;
+        }
+        targets.setRedMalletTarget(mallet.x + dx, mallet.z + dz);
+    }
+
+    /**
+     * Follows the puck from its current position through up to MAX_SEGMENTS
+     * bounces, or until it stops or leaves the planning horizon.
+     */
+    private void predictPath(AirHockeySimulation simulation) {
+        final AirHockeySimulation.Rules rules = simulation.getRules();
+        final float left = simulation.leftBound + rules.puckRadius;
+        final float right = simulation.rightBound - rules.puckRadius;
+        final float far = simulation.farBound + rules.puckRadius;
+        final float near = simulation.nearBound - rules.puckRadius;
+
+        friction = rules.friction;
+        logFriction = (float) Math.log(friction);
+
+        final MutableVector puck = simulation.getPuckPosition();
+        final MutableVector vector = simulation.getPuckVector();
+        float start = 0f;
+        float x = puck.x;
+        float z = puck.z;
+        float vectorX = vector.x;
+        float vectorZ = vector.z;
+
+        segmentCount = 0;
+        while (segmentCount < MAX_SEGMENTS) {
+            segmentStart[segmentCount] = start;
+            segmentX[segmentCount] = x;
+            segmentZ[segmentCount] = z;
+            segmentVectorX[segmentCount] = vectorX;
+            segmentVectorZ[segmentCount] = vectorZ;
+            segmentCount++;
+
+            final float sideTime = vectorX > 0f
+                ? stepsToTravel(right - x, vectorX)
+                : stepsToTravel(x - left, -vectorX);
+            final float endTime = vectorZ > 0f
+                ? stepsToTravel(near - z, vectorZ)
+                : stepsToTravel(z - far, -vectorZ);
+            final float time = Math.min(sideTime, endTime);
+            if (start + time > HORIZON_STEPS) {
+                break;
+            }
+
+            // Move to the bounce, slow down, and reflect.
+            final float travelled = distanceFactor(time);
+            final float decay = (float) Math.pow(friction, time) * rules.wallRestitution;
+            x += vectorX * travelled;
+            z += vectorZ * travelled;
+            vectorX *= decay;
+            vectorZ *= decay;
+            if (time == sideTime) {
+                vectorX = -vectorX;
+            } else {
+                vectorZ = -vectorZ;
+            }
+            start += time;
+        }
+    }
+
+    /**
+     * Steps until a puck moving at speed, slowing down by the friction factor
+     * every step, has covered the distance; infinite if it stops first.
+     */
+    private float stepsToTravel(float distance, float speed) {
+        if (speed <= 0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        if (distance <= 0f) {
+            return 0f;
+        }
+        if (friction >= 1f) {
+            return distance / speed;
+        }
+        final float remaining = 1f - distance * (1f - friction) / speed;
+        if (remaining <= 0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return (float) Math.log(remaining) / logFriction;
+    }
+
+    /**
+     * The distance covered in the given number of steps, per unit of
+     * starting speed.
+     */
+    private float distanceFactor(float steps) {
+        if (friction >= 1f) {
+            return steps;
+        }
+        return (1f - (float) Math.pow(friction, steps)) / (1f - friction);
+    }
+
+    private int segmentAt(float time) {
+        int segment = 0;
+        while (segment + 1 < segmentCount && segmentStart[segment + 1] <= time) {
+            segment++;
+        }
+        return segment;
+    }
+
+    private void recordPlanTime(long nanos, boolean overBudget) {
+        lastPlanNanos = nanos;
+        maxPlanNanos = Math.max(maxPlanNanos, nanos);
+        totalPlanNanos += nanos;
+        plans++;
+        if (overBudget) {
+            plansOverBudget++;
+        }
+        planTimeHistogram[(int) Math.min(
+            nanos / PLAN_TIME_BUCKET_NANOS, PLAN_TIME_BUCKETS - 1)]++;
+    }
+
+    public boolean isIntercepting() {
+        return intercepting;
+    }
+
+    public long getLastPlanNanos() {
+        return lastPlanNanos;
+    }
+
+    public long getMaxPlanNanos() {
+        return maxPlanNanos;
+    }
+
+    public long getAveragePlanNanos() {
+        return plans > 0 ? totalPlanNanos / plans : 0;
+    }
+
+    public int getPlanCount() {
+        return plans;
+    }
+
+    /**
+     * Plans that ran out of time: they went for the best intercept found so
+     * far, or guarded the goal if they hadn't found one.
+     */
+    public int getPlansOverBudget() {
+        return plansOverBudget;
+    }
+
+    /**
+     * Number of plans per PLAN_TIME_BUCKET_NANOS wide bucket of planning
+     * time. The last bucket counts everything slower.
+     */
+    public int[] getPlanTimeHistogram() {
+        return planTimeHistogram;
+    }
+}
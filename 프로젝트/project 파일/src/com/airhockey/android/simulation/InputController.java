@@ -0,0 +1,162 @@
+package com.airhockey.android.simulation;
+
+import com.airhockey.android.physics.PhysicsWorld;
+import com.airhockey.android.util.Camera;
+import com.airhockey.android.util.Geometry;
+import com.airhockey.android.util.Geometry.MutablePlane;
+import com.airhockey.android.util.Geometry.MutableRay;
+import com.airhockey.android.util.Geometry.MutableVector;
+import com.airhockey.android.util.MatrixHelper;
+
+/**
+ * Turns touches, in normalized device coordinates, into mallet movement:
+ * a press picks a mallet, and drags move it across the table. Nothing is
+ * allocated per touch.
+ */
+public class InputController {
+    private final Camera camera;
+    private final AirHockeySimulation simulation;
+    private MalletTargets forwardTo;
+    // Where the mallets are picked from while in party mode.
+    private PartySimulation partySimulation;
+
+    private boolean blueMalletPressed = false;
+    private boolean redMalletPressed = false;
+
+    private final float[] nearPointNdc = new float[4];
+    private final float[] farPointNdc = new float[4];
+    private final float[] nearPointWorld = new float[4];
+    private final float[] farPointWorld = new float[4];
+    private final MutableRay ray = new MutableRay();
+    private final MutableVector touchedPoint = new MutableVector();
+    private final MutableVector partyBlueMallet = new MutableVector();
+    private final MutableVector partyRedMallet = new MutableVector();
+    // A plane representing our air hockey table.
+    private final MutablePlane tablePlane = new MutablePlane();
+
+    public InputController(Camera camera, AirHockeySimulation simulation) {
+        this.camera = camera;
+        this.simulation = simulation;
+        tablePlane.normal.set(0, 1, 0);
+    }
+
+    /**
+     * Also forwards mallet movement to the given targets, e.g. party mode or
+     * a network game, while they are running. Pass null to stop.
+     */
+    public void setForwardTo(MalletTargets forwardTo) {
+        this.forwardTo = forwardTo;
+    }
+
+    /**
+     * Picks the mallets where they are in party mode, and forwards mallet
+     * movement to it, while it is set. The main simulation isn't stepped
+     * then, so its mallets are where party mode started. Pass null to stop.
+     */
+    public void setPartySimulation(PartySimulation partySimulation) {
+        this.partySimulation = partySimulation;
+        this.forwardTo = partySimulation;
+    }
+
+    public void handleTouchPress(float normalizedX, float normalizedY) {
+        
+        convertNormalized2DPointToRay(normalizedX, normalizedY, ray);
+
+        // Now test if this ray intersects with the mallet by testing against
+        // a bounding sphere that wraps the mallet.
+        final float malletRadius = simulation.getRules().malletHeight / 2f;
+
+        // If the ray intersects (if the user touched a part of the screen that
+        // intersects the mallet's bounding sphere), then set malletPressed =
+        // true.
+        if (partySimulation != null) {
+            blueMalletPressed = Geometry.intersects(partyMalletPosition(
+                partySimulation.getBlueMallet(), partyBlueMallet), malletRadius, ray);
+            redMalletPressed = Geometry.intersects(partyMalletPosition(
+                partySimulation.getRedMallet(), partyRedMallet), malletRadius, ray);
+        } else {
+            blueMalletPressed = Geometry.intersects(
+                simulation.getBlueMalletPosition(), malletRadius, ray);
+            redMalletPressed = Geometry.intersects(
+                simulation.getRedMalletPosition(), malletRadius, ray);
+        }
+    }
+
+    private MutableVector partyMalletPosition(int body, MutableVector out) {
+        final PhysicsWorld world = partySimulation.getWorld();
+        out.set(world.getX(body), simulation.getRules().malletHeight / 2f,
+            world.getZ(body));
+        return out;
+    }
+    
+    private void convertNormalized2DPointToRay(
+        float normalizedX, float normalizedY, MutableRay out) {
+        // We'll convert these normalized device coordinates into world-space
+        // coordinates. We'll pick a point on the near and far planes, and draw a
+        // line between them. To do this transform, we need to first multiply by
+        // the inverse matrix, and then we need to undo the perspective divide.
+        setPoint(nearPointNdc, normalizedX, normalizedY, -1);
+        setPoint(farPointNdc, normalizedX, normalizedY, 1);
+
+        final float[] invertedViewProjectionMatrix = 
+            camera.getInvertedViewProjectionMatrix();
+        MatrixHelper.multiplyMV(
+            nearPointWorld, 0, invertedViewProjectionMatrix, 0, nearPointNdc, 0);
+        MatrixHelper.multiplyMV(
+            farPointWorld, 0, invertedViewProjectionMatrix, 0, farPointNdc, 0);
+
+        // Why are we dividing by W? We multiplied our vector by an inverse
+        // matrix, so the W value that we end up is actually the *inverse* of
+        // what the projection matrix would create. By dividing all 3 components
+        // by W, we effectively undo the hardware perspective divide.
+        divideByW(nearPointWorld);
+        divideByW(farPointWorld);
+
+        // We don't care about the W value anymore, because our points are now
+        // in world coordinates.
+        out.point.set(nearPointWorld[0], nearPointWorld[1], nearPointWorld[2]);
+        out.vector.set(
+            farPointWorld[0] - nearPointWorld[0],
+            farPointWorld[1] - nearPointWorld[1],
+            farPointWorld[2] - nearPointWorld[2]);
+    }        
+
+    private static void setPoint(float[] point, float x, float y, float z) {
+        point[0] = x;
+        point[1] = y;
+        point[2] = z;
+        point[3] = 1;
+    }
+
+    private void divideByW(float[] vector) {
+        vector[0] /= vector[3];
+        vector[1] /= vector[3];
+        vector[2] /= vector[3];
+    }
+
+    
+    public void handleTouchDrag(float normalizedX, float normalizedY) {
+        
+        if (blueMalletPressed || redMalletPressed) {
+            convertNormalized2DPointToRay(normalizedX, normalizedY, ray);
+            // Find out where the touched point intersects the plane
+            // representing our table. We'll move the mallet along this plane.
+            Geometry.intersectionPoint(ray, tablePlane, touchedPoint);
+        }
+        if (blueMalletPressed) {
+            // Hitting the puck is handled by the simulation step, which sweeps
+            // the mallet from its position to this target.
+            simulation.setBlueMalletTarget(touchedPoint.x, touchedPoint.z);
+            if (forwardTo != null) {
+                forwardTo.setBlueMalletTarget(touchedPoint.x, touchedPoint.z);
+            }
+        }
+        if (redMalletPressed) {
+            simulation.setRedMalletTarget(touchedPoint.x, touchedPoint.z);
+            if (forwardTo != null) {
+                forwardTo.setRedMalletTarget(touchedPoint.x, touchedPoint.z);
+            }
+        }
+        
+    }
+}
@@ -0,0 +1,10 @@
+package com.airhockey.android.simulation;
+
+/**
+ * Something the mallets can be steered through: a simulation, or a network
+ * session that forwards the local player's mallet to the other device.
+ */
+public interface MalletTargets {
+    void setBlueMalletTarget(float x, float z);
+    void setRedMalletTarget(float x, float z);
+}
@@ -0,0 +1,99 @@
+package com.airhockey.android.simulation;
+
+import com.airhockey.android.physics.PhysicsWorld;
+
+/**
+ * Party mode: the two mallets and any number of pucks on the same table,
+ * simulated by a PhysicsWorld. Like AirHockeySimulation this is plain Java,
+ * and step() is meant to be called at a fixed rate.
+ */
+public class PartySimulation implements MalletTargets {
+    private final AirHockeySimulation.Rules rules;
+    private final PhysicsWorld world;
+    private final int blueMallet;
+    private final int redMallet;
+    private final int firstPuck;
+    private final int puckCount;
+    private final float puckRadius;
+
+    public PartySimulation(AirHockeySimulation.Rules rules, int puckCount) {
+        this.rules = rules;
+        this.puckCount = puckCount;
+
+        world = new PhysicsWorld(puckCount + 2, -0.5f, 0.5f, -0.8f, 0.8f);
+        world.setFriction(rules.friction);
+        world.setWallRestitution(rules.wallRestitution);
+        world.setBodyRestitution(rules.malletRestitution);
+
+        blueMallet = world.addBody(0f, 0.4f, rules.malletRadius, 0f);
+        redMallet = world.addBody(0f, -0.4f, rules.malletRadius, 0f);
+
+        // Shrink the pucks if needed, so that they cover at most a third of
+        // the table.
+        final float width = world.rightBound - world.leftBound;
+        final float length = world.nearBound - world.farBound;
+        puckRadius = Math.min(rules.puckRadius, 
+            (float) Math.sqrt(0.33f * width * length / Math.max(1, puckCount)) / 2.05f);
+
+        // Rack the pucks up in a grid around the middle of the table.
+        final float spacing = puckRadius * 2.05f;
+        final int columns = Math.max(1, (int) ((width - 2f * puckRadius) / spacing));
+        final float startX = -(Math.min(columns, puckCount) - 1) * spacing / 2f;
+        final int rows = (puckCount + columns - 1) / columns;
+        final float startZ = -(rows - 1) * spacing / 2f;
+
+        int first = -1;
+        for (int i = 0; i < puckCount; i++) {
+            final int puck = world.addBody(
+                startX + (i % columns) * spacing,
+                startZ + (i / columns) * spacing,
+                puckRadius, 1f);
+            if (first < 0) {
+                first = puck;
+            }
+        }
+        firstPuck = first;
+    }
+
+    public void setBlueMalletTarget(float x, float z) {
+        world.setKinematicTarget(blueMallet,
+            x, Math.max(z, 0f + rules.malletRadius));
+    }
+
+    public void setRedMalletTarget(float x, float z) {
+        world.setKinematicTarget(redMallet,
+            x, Math.min(z, 0f - rules.malletRadius));
+    }
+
+    public void step() {
+        world.step();
+    }
+
+    public PhysicsWorld getWorld() {
+        return world;
+    }
+
+    public int getBlueMallet() {
+        return blueMallet;
+    }
+
+    public int getRedMallet() {
+        return redMallet;
+    }
+
+    /**
+     * The pucks are the bodies getFirstPuck() to
+     * getFirstPuck() + getPuckCount() - 1.
+     */
+    public int getFirstPuck() {
+        return firstPuck;
+    }
+
+    public int getPuckCount() {
+        return puckCount;
+    }
+
+    public float getPuckRadius() {
+        return puckRadius;
+    }
+}
@@ -0,0 +1,132 @@
+package com.airhockey.android.util;
+
+/**
+ * The view and projection the scene is drawn with, and the inverse used to
+ * turn touches back into rays. Only uses plain Java, so touch picking can be
+ * reproduced off the device.
+ *
+ * The setters only bump a version counter, and the matrices are recomputed
+ * the first time they are asked for after that, so a camera that doesn't
+ * move costs nothing per frame. Callers can compare getVersion() against the
+ * version they last saw to know whether their own matrices derived from the
+ * camera are still valid.
+ */
+public class Camera {
+    private final float[] projectionMatrix = new float[16];
+    private final float[] viewMatrix = new float[16];
+    private final float[] zoomedViewMatrix = new float[16];
+    private final float[] viewProjectionMatrix = new float[16];
+    private final float[] invertedViewProjectionMatrix = new float[16];
+
+    private int viewportWidth;
+    private int viewportHeight;
+    private float zoom = 0f;
+
+    // Bumped whenever an input of the view or the projection changes.
+    private int viewVersion = 0;
+    private int projectionVersion = 0;
+
+    // The versions the derived matrices were last computed for.
+    private int zoomedViewComputedFor = -1;
+    private int viewProjectionComputedFor = -1;
+    private int inverseComputedFor = -1;
+
+    private int recomputes = 0;
+
+    public Camera() {
+        setViewport(1, 1);
+        setLookAt(0f, 1.2f, 2.2f, 0f, 0f, 0f, 0f, 1f, 0f);
+    }
+
+    public void setViewport(int width, int height) {
+        if (width == viewportWidth && height == viewportHeight) {
+            return;
+        }
+        viewportWidth = width;
+        viewportHeight = height;
+        MatrixHelper.perspectiveM(projectionMatrix, 45, (float) width
+            / (float) height, 1f, 10f);
+        projectionVersion++;
+    }
+
+    public void setLookAt(float eyeX, float eyeY, float eyeZ,
+        float centerX, float centerY, float centerZ,
+        float upX, float upY, float upZ) {
+        MatrixHelper.setLookAtM(viewMatrix, 0, eyeX, eyeY, eyeZ,
+            centerX, centerY, centerZ, upX, upY, upZ);
+        viewVersion++;
+    }
+
+    /**
+     * Moves the camera along its view axis, as set by the pinch gesture.
+     */
+    public void setZoom(float zoom) {
+        if (zoom != this.zoom) {
+            this.zoom = zoom;
+            viewVersion++;
+        }
+    }
+
+    public int getViewportHeight() {
+        return viewportHeight;
+    }
+
+    public float getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Changes whenever any of the matrices below would change. Both counters
+     * only ever grow, so their sum never repeats.
+     */
+    public int getVersion() {
+        return viewVersion + projectionVersion;
+    }
+
+    /**
+     * Number of times a matrix had to be recomputed.
+     */
+    public int getRecomputeCount() {
+        return recomputes;
+    }
+
+    public float[] getProjectionMatrix() {
+        return projectionMatrix;
+    }
+
+    /**
+     * The view matrix, including the zoom.
+     */
+    public float[] getViewMatrix() {
+        if (zoomedViewComputedFor != viewVersion) {
+            MatrixHelper.translateM(zoomedViewMatrix, 0, viewMatrix, 0, 0, 0, zoom);
+            zoomedViewComputedFor = viewVersion;
+            recomputes++;
+        }
+        return zoomedViewMatrix;
+    }
+
+    public float[] getViewProjectionMatrix() {
+        final int version = getVersion();
+        if (viewProjectionComputedFor != version) {
+            MatrixHelper.multiplyMM(viewProjectionMatrix, 0,
+                projectionMatrix, 0, getViewMatrix(), 0);
+            viewProjectionComputedFor = version;
+            recomputes++;
+        }
+        return viewProjectionMatrix;
+    }
+
+    public float[] getInvertedViewProjectionMatrix() {
+        final int version = getVersion();
+        if (inverseComputedFor != version) {
+            // Inverted as view^-1 * projection^-1, which both have closed
+            // forms: cheaper and more precise than a general inverse.
+            MatrixHelper.invertViewProjectionM(invertedViewProjectionMatrix, 0,
+                projectionMatrix, 0, getViewMatrix(), 0);
+            inverseComputedFor = version;
+            recomputes++;
+        }
+        return invertedViewProjectionMatrix;
+    }
+}
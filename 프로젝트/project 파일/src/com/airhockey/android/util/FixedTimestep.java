@@ -0,0 +1,67 @@
+package com.airhockey.android.util;
+
+/**
+ * Hands out elapsed frame time in fixed-size simulation steps. Whatever is
+ * left over after the last whole step is kept for the next frame and exposed
+ * as an interpolation factor, so rendering can blend between the previous and
+ * the current simulation state.
+ */
+public class FixedTimestep {
+    private final long stepNanos;
+    private final int maxStepsPerFrame;
+
+    private long lastFrameNanos = -1;
+    private long accumulatorNanos = 0;
+
+    public FixedTimestep(int stepsPerSecond, int maxStepsPerFrame) {
+        this.stepNanos = 1000000000L / stepsPerSecond;
+        this.maxStepsPerFrame = maxStepsPerFrame;
+    }
+
+    /**
+     * Adds the time since the previous frame to the accumulator and returns
+     * the number of whole steps the caller should simulate now. After a long
+     * stall (a pause, or a very slow frame) at most maxStepsPerFrame steps
+     * are returned and the rest of the backlog is dropped, so we never fall
+     * into the "spiral of death" of simulating ever more steps per frame.
+     */
+    public int advance(long frameTimeNanos) {
+        if (lastFrameNanos < 0) {
+            lastFrameNanos = frameTimeNanos;
+            return 0;
+        }
+
+        accumulatorNanos += frameTimeNanos - lastFrameNanos;
+        lastFrameNanos = frameTimeNanos;
+
+        int steps = (int) (accumulatorNanos / stepNanos);
+        if (steps > maxStepsPerFrame) {
+            steps = maxStepsPerFrame;
+            accumulatorNanos %= stepNanos;
+        } else {
+            accumulatorNanos -= steps * stepNanos;
+        }
+        return steps;
+    }
+
+    /**
+     * How far we are between the last simulated step and the next one, in the
+     * range [0, 1).
+     */
+    public float getAlpha() {
+        return (float) accumulatorNanos / (float) stepNanos;
+    }
+
+    public float getStepSeconds() {
+        return stepNanos / 1000000000f;
+    }
+
+    /**
+     * Forgets the previous frame time, e.g. after the surface was paused, so
+     * the time spent in the background isn't simulated.
+     */
+    public void reset() {
+        lastFrameNanos = -1;
+        accumulatorNanos = 0;
+    }
+}
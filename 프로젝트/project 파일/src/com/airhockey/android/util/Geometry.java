@@ -8,9 +8,11 @@
 ***/
 package com.airhockey.android.util;
 
-import android.util.FloatMath;
-
 public class Geometry {                
+    // Returned by the time of impact functions when nothing is hit during the
+    // sweep. Compares greater than any real time of impact.
+    public static final float NO_IMPACT = Float.POSITIVE_INFINITY;
+    
     public static class Point {
         public final float x, y, z;
 
@@ -52,7 +54,7 @@ public class Geometry {
         }
         
         public float length() {
-            return FloatMath.sqrt(
+            return (float) Math.sqrt(
                 x * x 
               + y * y 
               + z * z);
@@ -153,6 +155,64 @@ public class Geometry {
         }
     }
     
+    // Mutable counterparts of Point, Vector, Ray and Plane, for code that runs
+    // every frame or every step and shouldn't allocate. A MutableVector is
+    // used for points as well as for vectors.
+    public static class MutableVector {
+        public float x, y, z;
+
+        public MutableVector() {
+        }
+
+        public MutableVector(float x, float y, float z) {
+            set(x, y, z);
+        }
+
+        public MutableVector set(float x, float y, float z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            return this;
+        }
+
+        public MutableVector set(MutableVector other) {
+            return set(other.x, other.y, other.z);
+        }
+
+        public float length() {
+            return (float) Math.sqrt(
+                x * x 
+              + y * y 
+              + z * z);
+        }
+
+        public float dotProduct(MutableVector other) {
+            return x * other.x 
+                 + y * other.y 
+                 + z * other.z;
+        }
+
+        // Scales this vector in place.
+        public MutableVector scale(float f) {
+            return set(x * f, y * f, z * f);
+        }
+
+        // Moves this point by the vector, in place.
+        public MutableVector translate(MutableVector vector) {
+            return set(x + vector.x, y + vector.y, z + vector.z);
+        }
+    }
+
+    public static class MutableRay {
+        public final MutableVector point = new MutableVector();
+        public final MutableVector vector = new MutableVector();
+    }
+
+    public static class MutablePlane {
+        public final MutableVector point = new MutableVector();
+        public final MutableVector normal = new MutableVector();
+    }
+    
     public static Vector vectorBetween(Point from, Point to) {
         return new Vector(
             to.x - from.x, 
@@ -198,4 +258,119 @@ public class Geometry {
         Point intersectionPoint = ray.point.translate(ray.vector.scale(scaleFactor));
         return intersectionPoint;
     }
+    
+    // The same as the functions above, for the mutable types. The result is
+    // written to out, which is also returned.
+    public static MutableVector vectorBetween(
+        MutableVector from, MutableVector to, MutableVector out) {
+        return out.set(
+            to.x - from.x, 
+            to.y - from.y, 
+            to.z - from.z);
+    }
+    
+    public static boolean intersects(
+        MutableVector sphereCenter, float sphereRadius, MutableRay ray) {
+        return distanceBetween(sphereCenter, ray) < sphereRadius;
+    }
+    
+    public static float distanceBetween(MutableVector point, MutableRay ray) {
+        final MutableVector p1 = ray.point;
+        final MutableVector v = ray.vector;
+        
+        // The vectors from both ends of the ray to the point.
+        final float ax = point.x - p1.x;
+        final float ay = point.y - p1.y;
+        final float az = point.z - p1.z;
+        final float bx = point.x - (p1.x + v.x);
+        final float by = point.y - (p1.y + v.y);
+        final float bz = point.z - (p1.z + v.z);
+        
+        // Twice the area of the triangle, divided by its base.
+        final float cx = (ay * bz) - (az * by);
+        final float cy = (az * bx) - (ax * bz);
+        final float cz = (ax * by) - (ay * bx);
+        final float areaOfTriangleTimesTwo = 
+            (float) Math.sqrt(cx * cx + cy * cy + cz * cz);
+        return areaOfTriangleTimesTwo / v.length();
+    }
+    
+    public static MutableVector intersectionPoint(
+        MutableRay ray, MutablePlane plane, MutableVector out) {
+        final MutableVector p = ray.point;
+        final MutableVector v = ray.vector;
+        final MutableVector n = plane.normal;
+        
+        final float scaleFactor = 
+            ((plane.point.x - p.x) * n.x 
+           + (plane.point.y - p.y) * n.y 
+           + (plane.point.z - p.z) * n.z)
+          / v.dotProduct(n);
+        
+        return out.set(
+            p.x + v.x * scaleFactor, 
+            p.y + v.y * scaleFactor, 
+            p.z + v.z * scaleFactor);
+    }
+    
+    // Swept circle against swept circle on the XZ plane (y is ignored, since
+    // everything slides on the table). Circle A moves from centerA by moveA
+    // and circle B from centerB by moveB over the same interval; returns the
+    // fraction of that interval in [0, 1] at which they first touch, or
+    // NO_IMPACT. Circles that already overlap and are still closing in
+    // return 0, circles that overlap but are separating return NO_IMPACT.
+    // http://www.gamasutra.com/view/feature/131790/simple_intersection_tests_for_games.php
+    public static float timeOfImpact(Point centerA, Vector moveA, float radiusA,
+        Point centerB, Vector moveB, float radiusB) {
+        return timeOfImpact(centerA.x, centerA.z, moveA.x, moveA.z, radiusA,
+                            centerB.x, centerB.z, moveB.x, moveB.z, radiusB);
+    }
+    
+    public static float timeOfImpact(
+        float centerAX, float centerAZ, float moveAX, float moveAZ, float radiusA,
+        float centerBX, float centerBZ, float moveBX, float moveBZ, float radiusB) {
+        // Work in B's frame of reference: a static circle of radius
+        // (radiusA + radiusB) and a point moving by the relative motion.
+        final float px = centerAX - centerBX;
+        final float pz = centerAZ - centerBZ;
+        final float vx = moveAX - moveBX;
+        final float vz = moveAZ - moveBZ;
+        final float r = radiusA + radiusB;
+
+        // Solve |p + v * t| = r, i.e. a * t^2 + 2b * t + c = 0.
+        final float a = vx * vx + vz * vz;
+        final float b = px * vx + pz * vz;
+        final float c = px * px + pz * pz - r * r;
+
+        if (c < 0f) {
+            return b < 0f ? 0f : NO_IMPACT;
+        }
+        if (b >= 0f || a == 0f) {
+            // Moving apart or not moving relative to each other.
+            return NO_IMPACT;
+        }
+
+        final float discriminant = b * b - a * c;
+        if (discriminant < 0f) {
+            return NO_IMPACT;
+        }
+
+        final float t = (-b - (float) Math.sqrt(discriminant)) / a;
+        return t <= 1f ? t : NO_IMPACT;
+    }
+    
+    // Swept point against a pair of walls on one axis. The point starts at
+    // position and moves by displacement; min and max are the wall positions
+    // already shrunk by the circle's radius. Returns the fraction of the move
+    // in [0, 1] at which the wall it is heading for is reached, or NO_IMPACT.
+    public static float timeOfImpact(float position, float displacement,
+        float min, float max) {
+        if (displacement > 0f && position + displacement >= max) {
+            return Math.max(0f, (max - position) / displacement);
+        }
+        if (displacement < 0f && position + displacement <= min) {
+            return Math.max(0f, (min - position) / displacement);
+        }
+        return NO_IMPACT;
+    }
 }
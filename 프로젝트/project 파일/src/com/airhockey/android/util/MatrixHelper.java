@@ -34,4 +34,490 @@ public class MatrixHelper {
         m[14] = -((2f * f * n) / (f - n));
         m[15] = 0f;        
     }
+
+    /**
+     * Inverts a matrix made by perspectiveM, in a fraction of the time
+     * invertM takes.
+     */
+    public static void invertPerspectiveM(float[] mInv, int mInvOffset,
+        float[] m, int mOffset) {
+        final float m14 = m[mOffset + 14];
+        for (int i = 0; i < 16; i++) {
+            mInv[mInvOffset + i] = 0f;
+        }
+        mInv[mInvOffset + 0] = 1f / m[mOffset + 0];
+        mInv[mInvOffset + 5] = 1f / m[mOffset + 5];
+        mInv[mInvOffset + 11] = 1f / m14;
+        mInv[mInvOffset + 14] = -1f;
+        mInv[mInvOffset + 15] = m[mOffset + 10] / m14;
+    }
+
+    // The functions below match android.opengl.Matrix (column-major, same
+    // argument order), but are plain Java. The simulation's touch picking
+    // uses them, so that a recorded session replayed on a desktop JVM does
+    // exactly the same float math as it did on the device.
+
+    public static void setIdentityM(float[] sm, int smOffset) {
+        for (int i = 0; i < 16; i++) {
+            sm[smOffset + i] = 0f;
+        }
+        sm[smOffset + 0] = 1f;
+        sm[smOffset + 5] = 1f;
+        sm[smOffset + 10] = 1f;
+        sm[smOffset + 15] = 1f;
+    }
+
+    /**
+     * Scales m in place by (x, y, z).
+     */
+    public static void scaleM(float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[mOffset + i] *= x;
+            m[mOffset + 4 + i] *= y;
+            m[mOffset + 8 + i] *= z;
+        }
+    }
+
+    /**
+     * Rotates m in place by angle degrees around the axis (x, y, z).
+     */
+    public static void rotateM(float[] m, int mOffset,
+        float a, float x, float y, float z) {
+        final float radians = (float) (a * Math.PI / 180.0);
+        final float s = (float) Math.sin(radians);
+        final float c = (float) Math.cos(radians);
+        final float length = length(x, y, z);
+        if (length != 1f) {
+            x /= length;
+            y /= length;
+            z /= length;
+        }
+        final float nc = 1f - c;
+
+        // The rotation, row by row.
+        final float r00 = x * x * nc + c;
+        final float r01 = x * y * nc - z * s;
+        final float r02 = x * z * nc + y * s;
+        final float r10 = y * x * nc + z * s;
+        final float r11 = y * y * nc + c;
+        final float r12 = y * z * nc - x * s;
+        final float r20 = z * x * nc - y * s;
+        final float r21 = z * y * nc + x * s;
+        final float r22 = z * z * nc + c;
+
+        multiplyRotationInPlace(m, mOffset, 
+            r00, r01, r02, r10, r11, r12, r20, r21, r22);
+    }
+
+    public static void setLookAtM(float[] rm, int rmOffset,
+        float eyeX, float eyeY, float eyeZ,
+        float centerX, float centerY, float centerZ,
+        float upX, float upY, float upZ) {
+        // Forward vector.
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        final float rlf = 1.0f / length(fx, fy, fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // Side vector: forward x up.
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        final float rls = 1.0f / length(sx, sy, sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // Recomputed up vector: side x forward.
+        final float ux = sy * fz - sz * fy;
+        final float uy = sz * fx - sx * fz;
+        final float uz = sx * fy - sy * fx;
+
+        rm[rmOffset + 0] = sx;
+        rm[rmOffset + 1] = ux;
+        rm[rmOffset + 2] = -fx;
+        rm[rmOffset + 3] = 0.0f;
+
+        rm[rmOffset + 4] = sy;
+        rm[rmOffset + 5] = uy;
+        rm[rmOffset + 6] = -fy;
+        rm[rmOffset + 7] = 0.0f;
+
+        rm[rmOffset + 8] = sz;
+        rm[rmOffset + 9] = uz;
+        rm[rmOffset + 10] = -fz;
+        rm[rmOffset + 11] = 0.0f;
+
+        rm[rmOffset + 12] = 0.0f;
+        rm[rmOffset + 13] = 0.0f;
+        rm[rmOffset + 14] = 0.0f;
+        rm[rmOffset + 15] = 1.0f;
+
+        translateM(rm, rmOffset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    /**
+     * Translates m in place by (x, y, z).
+     */
+    public static void translateM(float[] m, int mOffset,
+        float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            final int mi = mOffset + i;
+            m[12 + mi] += m[mi] * x + m[4 + mi] * y + m[8 + mi] * z;
+        }
+    }
+
+    /**
+     * Writes m translated by (x, y, z) into tm.
+     */
+    public static void translateM(float[] tm, int tmOffset,
+        float[] m, int mOffset, float x, float y, float z) {
+        for (int i = 0; i < 12; i++) {
+            tm[tmOffset + i] = m[mOffset + i];
+        }
+        for (int i = 0; i < 4; i++) {
+            final int tmi = tmOffset + i;
+            final int mi = mOffset + i;
+            tm[12 + tmi] = m[mi] * x + m[4 + mi] * y + m[8 + mi] * z
+                + m[12 + mi];
+        }
+    }
+
+    /**
+     * result = lhs * rhs. result must not overlap lhs or rhs.
+     */
+    public static void multiplyMM(float[] result, int resultOffset,
+        float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        for (int column = 0; column < 4; column++) {
+            final float r0 = rhs[rhsOffset + column * 4];
+            final float r1 = rhs[rhsOffset + column * 4 + 1];
+            final float r2 = rhs[rhsOffset + column * 4 + 2];
+            final float r3 = rhs[rhsOffset + column * 4 + 3];
+            for (int row = 0; row < 4; row++) {
+                result[resultOffset + column * 4 + row] =
+                      lhs[lhsOffset + row] * r0
+                    + lhs[lhsOffset + 4 + row] * r1
+                    + lhs[lhsOffset + 8 + row] * r2
+                    + lhs[lhsOffset + 12 + row] * r3;
+            }
+        }
+    }
+
+    /**
+     * resultVec = lhsMat * rhsVec. resultVec may be the same as rhsVec.
+     */
+    public static void multiplyMV(float[] resultVec, int resultVecOffset,
+        float[] lhsMat, int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+        final float x = rhsVec[rhsVecOffset];
+        final float y = rhsVec[rhsVecOffset + 1];
+        final float z = rhsVec[rhsVecOffset + 2];
+        final float w = rhsVec[rhsVecOffset + 3];
+        for (int row = 0; row < 4; row++) {
+            resultVec[resultVecOffset + row] =
+                  lhsMat[lhsMatOffset + row] * x
+                + lhsMat[lhsMatOffset + 4 + row] * y
+                + lhsMat[lhsMatOffset + 8 + row] * z
+                + lhsMat[lhsMatOffset + 12 + row] * w;
+        }
+    }
+
+    /**
+     * Inverts a general 4x4 matrix. Returns false, leaving mInv untouched, if
+     * m is singular.
+     */
+    public static boolean invertM(float[] mInv, int mInvOffset,
+        float[] m, int mOffset) {
+        final float a0 = m[mOffset + 0], a1 = m[mOffset + 1];
+        final float a2 = m[mOffset + 2], a3 = m[mOffset + 3];
+        final float a4 = m[mOffset + 4], a5 = m[mOffset + 5];
+        final float a6 = m[mOffset + 6], a7 = m[mOffset + 7];
+        final float a8 = m[mOffset + 8], a9 = m[mOffset + 9];
+        final float a10 = m[mOffset + 10], a11 = m[mOffset + 11];
+        final float a12 = m[mOffset + 12], a13 = m[mOffset + 13];
+        final float a14 = m[mOffset + 14], a15 = m[mOffset + 15];
+
+        // 2x2 sub-determinants of the upper and lower halves.
+        final float b0 = a0 * a5 - a1 * a4;
+        final float b1 = a0 * a6 - a2 * a4;
+        final float b2 = a0 * a7 - a3 * a4;
+        final float b3 = a1 * a6 - a2 * a5;
+        final float b4 = a1 * a7 - a3 * a5;
+        final float b5 = a2 * a7 - a3 * a6;
+        final float b6 = a8 * a13 - a9 * a12;
+        final float b7 = a8 * a14 - a10 * a12;
+        final float b8 = a8 * a15 - a11 * a12;
+        final float b9 = a9 * a14 - a10 * a13;
+        final float b10 = a9 * a15 - a11 * a13;
+        final float b11 = a10 * a15 - a11 * a14;
+
+        final float determinant = b0 * b11 - b1 * b10 + b2 * b9
+                                + b3 * b8 - b4 * b7 + b5 * b6;
+        if (determinant == 0.0f) {
+            return false;
+        }
+        final float invDet = 1.0f / determinant;
+
+        mInv[mInvOffset + 0] = (a5 * b11 - a6 * b10 + a7 * b9) * invDet;
+        mInv[mInvOffset + 1] = (-a1 * b11 + a2 * b10 - a3 * b9) * invDet;
+        mInv[mInvOffset + 2] = (a13 * b5 - a14 * b4 + a15 * b3) * invDet;
+        mInv[mInvOffset + 3] = (-a9 * b5 + a10 * b4 - a11 * b3) * invDet;
+        mInv[mInvOffset + 4] = (-a4 * b11 + a6 * b8 - a7 * b7) * invDet;
+        mInv[mInvOffset + 5] = (a0 * b11 - a2 * b8 + a3 * b7) * invDet;
+        mInv[mInvOffset + 6] = (-a12 * b5 + a14 * b2 - a15 * b1) * invDet;
+        mInv[mInvOffset + 7] = (a8 * b5 - a10 * b2 + a11 * b1) * invDet;
+        mInv[mInvOffset + 8] = (a4 * b10 - a5 * b8 + a7 * b6) * invDet;
+        mInv[mInvOffset + 9] = (-a0 * b10 + a1 * b8 - a3 * b6) * invDet;
+        mInv[mInvOffset + 10] = (a12 * b4 - a13 * b2 + a15 * b0) * invDet;
+        mInv[mInvOffset + 11] = (-a8 * b4 + a9 * b2 - a11 * b0) * invDet;
+        mInv[mInvOffset + 12] = (-a4 * b9 + a5 * b7 - a6 * b6) * invDet;
+        mInv[mInvOffset + 13] = (a0 * b9 - a1 * b7 + a2 * b6) * invDet;
+        mInv[mInvOffset + 14] = (-a12 * b3 + a13 * b1 - a14 * b0) * invDet;
+        mInv[mInvOffset + 15] = (a8 * b3 - a9 * b1 + a10 * b0) * invDet;
+        return true;
+    }
+
+    // The functions below have no android.opengl.Matrix counterpart. Model
+    // matrices are affine - their bottom row is (0, 0, 0, 1) - which saves
+    // a quarter to a half of the work of a general 4x4 multiply or invert.
+
+    /**
+     * Sets m to translate * rotateX * rotateY * rotateZ * scale, with the
+     * angles in degrees. This is the matrix that setIdentityM, translateM,
+     * rotateM around x, y and z in turn, and scaleM would build, computed
+     * in one go.
+     */
+    public static void setTranslateRotateScaleM(float[] m, int mOffset,
+        float tx, float ty, float tz,
+        float rx, float ry, float rz,
+        float sx, float sy, float sz) {
+        final double ax = rx * Math.PI / 180.0;
+        final double ay = ry * Math.PI / 180.0;
+        final double az = rz * Math.PI / 180.0;
+        final float sa = (float) Math.sin(ax), ca = (float) Math.cos(ax);
+        final float sb = (float) Math.sin(ay), cb = (float) Math.cos(ay);
+        final float sc = (float) Math.sin(az), cc = (float) Math.cos(az);
+
+        // Columns of rotateX * rotateY * rotateZ, scaled.
+        m[mOffset + 0] = cb * cc * sx;
+        m[mOffset + 1] = (sa * sb * cc + ca * sc) * sx;
+        m[mOffset + 2] = (-ca * sb * cc + sa * sc) * sx;
+        m[mOffset + 3] = 0f;
+
+        m[mOffset + 4] = -cb * sc * sy;
+        m[mOffset + 5] = (-sa * sb * sc + ca * cc) * sy;
+        m[mOffset + 6] = (ca * sb * sc + sa * cc) * sy;
+        m[mOffset + 7] = 0f;
+
+        m[mOffset + 8] = sb * sz;
+        m[mOffset + 9] = -sa * cb * sz;
+        m[mOffset + 10] = ca * cb * sz;
+        m[mOffset + 11] = 0f;
+
+        m[mOffset + 12] = tx;
+        m[mOffset + 13] = ty;
+        m[mOffset + 14] = tz;
+        m[mOffset + 15] = 1f;
+    }
+
+    /**
+     * Sets m to translate * scale, the common case of the above.
+     */
+    public static void setTranslateScaleM(float[] m, int mOffset,
+        float tx, float ty, float tz, float sx, float sy, float sz) {
+        for (int i = 0; i < 16; i++) {
+            m[mOffset + i] = 0f;
+        }
+        m[mOffset + 0] = sx;
+        m[mOffset + 5] = sy;
+        m[mOffset + 10] = sz;
+        m[mOffset + 12] = tx;
+        m[mOffset + 13] = ty;
+        m[mOffset + 14] = tz;
+        m[mOffset + 15] = 1f;
+    }
+
+    /**
+     * result = lhs * rhs, for an affine rhs and any lhs, e.g. a
+     * view-projection matrix times a model matrix. result must not overlap
+     * lhs or rhs.
+     */
+    public static void multiplyMMAffine(float[] result, int resultOffset,
+        float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        for (int row = 0; row < 4; row++) {
+            final float l0 = lhs[lhsOffset + row];
+            final float l1 = lhs[lhsOffset + 4 + row];
+            final float l2 = lhs[lhsOffset + 8 + row];
+            final float l3 = lhs[lhsOffset + 12 + row];
+            final int r = resultOffset + row;
+            result[r] = l0 * rhs[rhsOffset] + l1 * rhs[rhsOffset + 1] 
+                      + l2 * rhs[rhsOffset + 2];
+            result[r + 4] = l0 * rhs[rhsOffset + 4] + l1 * rhs[rhsOffset + 5] 
+                          + l2 * rhs[rhsOffset + 6];
+            result[r + 8] = l0 * rhs[rhsOffset + 8] + l1 * rhs[rhsOffset + 9] 
+                          + l2 * rhs[rhsOffset + 10];
+            result[r + 12] = l0 * rhs[rhsOffset + 12] + l1 * rhs[rhsOffset + 13] 
+                           + l2 * rhs[rhsOffset + 14] + l3;
+        }
+    }
+
+    /**
+     * result = lhs * rhs, for affine lhs and rhs. result must not overlap lhs
+     * or rhs.
+     */
+    public static void multiplyAffineMM(float[] result, int resultOffset,
+        float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        for (int row = 0; row < 3; row++) {
+            final float l0 = lhs[lhsOffset + row];
+            final float l1 = lhs[lhsOffset + 4 + row];
+            final float l2 = lhs[lhsOffset + 8 + row];
+            final float l3 = lhs[lhsOffset + 12 + row];
+            final int r = resultOffset + row;
+            result[r] = l0 * rhs[rhsOffset] + l1 * rhs[rhsOffset + 1] 
+                      + l2 * rhs[rhsOffset + 2];
+            result[r + 4] = l0 * rhs[rhsOffset + 4] + l1 * rhs[rhsOffset + 5] 
+                          + l2 * rhs[rhsOffset + 6];
+            result[r + 8] = l0 * rhs[rhsOffset + 8] + l1 * rhs[rhsOffset + 9] 
+                          + l2 * rhs[rhsOffset + 10];
+            result[r + 12] = l0 * rhs[rhsOffset + 12] + l1 * rhs[rhsOffset + 13] 
+                           + l2 * rhs[rhsOffset + 14] + l3;
+        }
+        result[resultOffset + 3] = 0f;
+        result[resultOffset + 7] = 0f;
+        result[resultOffset + 11] = 0f;
+        result[resultOffset + 15] = 1f;
+    }
+
+    /**
+     * Inverts an affine matrix: the inverse of its upper 3x3 part, and the
+     * translation moved back through it. Returns false, leaving mInv
+     * untouched, if m is singular.
+     */
+    public static boolean invertAffineM(float[] mInv, int mInvOffset,
+        float[] m, int mOffset) {
+        final float a = m[mOffset + 0], b = m[mOffset + 4], c = m[mOffset + 8];
+        final float d = m[mOffset + 1], e = m[mOffset + 5], f = m[mOffset + 9];
+        final float g = m[mOffset + 2], h = m[mOffset + 6], i = m[mOffset + 10];
+        final float tx = m[mOffset + 12];
+        final float ty = m[mOffset + 13];
+        final float tz = m[mOffset + 14];
+
+        final float c00 = e * i - f * h;
+        final float c01 = f * g - d * i;
+        final float c02 = d * h - e * g;
+        final float determinant = a * c00 + b * c01 + c * c02;
+        if (determinant == 0f) {
+            return false;
+        }
+        final float invDet = 1f / determinant;
+
+        // Rows of the inverse 3x3.
+        final float i00 = c00 * invDet;
+        final float i01 = (c * h - b * i) * invDet;
+        final float i02 = (b * f - c * e) * invDet;
+        final float i10 = c01 * invDet;
+        final float i11 = (a * i - c * g) * invDet;
+        final float i12 = (c * d - a * f) * invDet;
+        final float i20 = c02 * invDet;
+        final float i21 = (b * g - a * h) * invDet;
+        final float i22 = (a * e - b * d) * invDet;
+
+        mInv[mInvOffset + 0] = i00;
+        mInv[mInvOffset + 1] = i10;
+        mInv[mInvOffset + 2] = i20;
+        mInv[mInvOffset + 3] = 0f;
+        mInv[mInvOffset + 4] = i01;
+        mInv[mInvOffset + 5] = i11;
+        mInv[mInvOffset + 6] = i21;
+        mInv[mInvOffset + 7] = 0f;
+        mInv[mInvOffset + 8] = i02;
+        mInv[mInvOffset + 9] = i12;
+        mInv[mInvOffset + 10] = i22;
+        mInv[mInvOffset + 11] = 0f;
+        mInv[mInvOffset + 12] = -(i00 * tx + i01 * ty + i02 * tz);
+        mInv[mInvOffset + 13] = -(i10 * tx + i11 * ty + i12 * tz);
+        mInv[mInvOffset + 14] = -(i20 * tx + i21 * ty + i22 * tz);
+        mInv[mInvOffset + 15] = 1f;
+        return true;
+    }
+
+    /**
+     * Inverts projection * view, for a projection made by perspectiveM and
+     * an affine view: view^-1 * projection^-1, where the second factor only
+     * has five non-zero elements, so the product is a few scaled columns.
+     * Returns false, leaving mInv untouched, if the view is singular.
+     */
+    public static boolean invertViewProjectionM(float[] mInv, int mInvOffset,
+        float[] projection, int projectionOffset, float[] view, int viewOffset) {
+        if (!invertAffineM(mInv, mInvOffset, view, viewOffset)) {
+            return false;
+        }
+        final float p0 = 1f / projection[projectionOffset + 0];
+        final float p5 = 1f / projection[projectionOffset + 5];
+        final float p11 = 1f / projection[projectionOffset + 14];
+        final float p15 = projection[projectionOffset + 10] * p11;
+        for (int row = 0; row < 4; row++) {
+            final float column2 = mInv[mInvOffset + 8 + row];
+            final float column3 = mInv[mInvOffset + 12 + row];
+            mInv[mInvOffset + row] *= p0;
+            mInv[mInvOffset + 4 + row] *= p5;
+            mInv[mInvOffset + 8 + row] = column3 * p11;
+            mInv[mInvOffset + 12 + row] = column3 * p15 - column2;
+        }
+        return true;
+    }
+
+    /**
+     * Multiplies lhs by each of count affine matrices stored one after the
+     * other in rhs, writing the results one after the other into result.
+     */
+    public static void multiplyMMAffineBatch(float[] result, int resultOffset,
+        float[] lhs, int lhsOffset, float[] rhs, int rhsOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            multiplyMMAffine(result, resultOffset + i * 16, 
+                lhs, lhsOffset, rhs, rhsOffset + i * 16);
+        }
+    }
+
+    /**
+     * Transforms count points, stored as x, y, z triples, by an affine
+     * matrix. result may be the same array as points.
+     */
+    public static void transformPoints(float[] result, int resultOffset,
+        float[] m, int mOffset, float[] points, int pointsOffset, int count) {
+        final float m0 = m[mOffset + 0], m1 = m[mOffset + 1], m2 = m[mOffset + 2];
+        final float m4 = m[mOffset + 4], m5 = m[mOffset + 5], m6 = m[mOffset + 6];
+        final float m8 = m[mOffset + 8], m9 = m[mOffset + 9], m10 = m[mOffset + 10];
+        final float m12 = m[mOffset + 12], m13 = m[mOffset + 13];
+        final float m14 = m[mOffset + 14];
+        for (int i = 0; i < count * 3; i += 3) {
+            final float x = points[pointsOffset + i];
+            final float y = points[pointsOffset + i + 1];
+            final float z = points[pointsOffset + i + 2];
+            result[resultOffset + i] = m0 * x + m4 * y + m8 * z + m12;
+            result[resultOffset + i + 1] = m1 * x + m5 * y + m9 * z + m13;
+            result[resultOffset + i + 2] = m2 * x + m6 * y + m10 * z + m14;
+        }
+    }
+
+    // m = m * rotation, where the rotation is given row by row.
+    private static void multiplyRotationInPlace(float[] m, int mOffset,
+        float r00, float r01, float r02,
+        float r10, float r11, float r12,
+        float r20, float r21, float r22) {
+        for (int row = 0; row < 4; row++) {
+            final float m0 = m[mOffset + row];
+            final float m1 = m[mOffset + 4 + row];
+            final float m2 = m[mOffset + 8 + row];
+            m[mOffset + row] = m0 * r00 + m1 * r10 + m2 * r20;
+            m[mOffset + 4 + row] = m0 * r01 + m1 * r11 + m2 * r21;
+            m[mOffset + 8 + row] = m0 * r02 + m1 * r12 + m2 * r22;
+        }
+    }
+
+    private static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
 }
@@ -13,19 +13,19 @@ import static android.opengl.GLES20.GL_FRAGMENT_SHADER;
 import static android.opengl.GLES20.GL_LINK_STATUS;
 import static android.opengl.GLES20.GL_VALIDATE_STATUS;
 import static android.opengl.GLES20.GL_VERTEX_SHADER;
-import static android.opengl.GLES20.glAttachShader;
-import static android.opengl.GLES20.glCompileShader;
-import static android.opengl.GLES20.glCreateProgram;
-import static android.opengl.GLES20.glCreateShader;
-import static android.opengl.GLES20.glDeleteProgram;
-import static android.opengl.GLES20.glDeleteShader;
-import static android.opengl.GLES20.glGetProgramInfoLog;
-import static android.opengl.GLES20.glGetProgramiv;
-import static android.opengl.GLES20.glGetShaderInfoLog;
-import static android.opengl.GLES20.glGetShaderiv;
-import static android.opengl.GLES20.glLinkProgram;
-import static android.opengl.GLES20.glShaderSource;
-import static android.opengl.GLES20.glValidateProgram;
+import static com.airhockey.android.render.GL.glAttachShader;
+import static com.airhockey.android.render.GL.glCompileShader;
+import static com.airhockey.android.render.GL.glCreateProgram;
+import static com.airhockey.android.render.GL.glCreateShader;
+import static com.airhockey.android.render.GL.glDeleteProgram;
+import static com.airhockey.android.render.GL.glDeleteShader;
+import static com.airhockey.android.render.GL.glGetProgramInfoLog;
+import static com.airhockey.android.render.GL.glGetProgramiv;
+import static com.airhockey.android.render.GL.glGetShaderInfoLog;
+import static com.airhockey.android.render.GL.glGetShaderiv;
+import static com.airhockey.android.render.GL.glLinkProgram;
+import static com.airhockey.android.render.GL.glShaderSource;
+import static com.airhockey.android.render.GL.glValidateProgram;
 import android.util.Log;
 
 public class ShaderHelper {
@@ -0,0 +1,71 @@
+package com.airhockey.android.util;
+
+import java.util.HashMap;
+
+/**
+ * Where each texture ended up in an atlas made by the TextureAtlasPacker
+ * tool. The table it writes has a line per texture, with the texture's
+ * name and the u and v of its top left and bottom right corners:
+ *
+ *     chair 0.0 0.5 0.25 0.75
+ *
+ * Lines starting with # are comments. Meshes map their texture coordinates,
+ * which span 0 to 1 over one texture, into the texture's region with
+ * Region.remap().
+ */
+public class TextureAtlas {
+    public static class Region {
+        public final float u0, v0, u1, v1;
+
+        public Region(float u0, float v0, float u1, float v1) {
+            this.u0 = u0;
+            this.v0 = v0;
+            this.u1 = u1;
+            this.v1 = v1;
+        }
+
+        /**
+         * Maps the texture coordinates of vertexCount vertices in place.
+         * offset is the index of the first u, and stride the number of
+         * floats from one vertex to the next.
+         */
+        public void remap(float[] vertexData, int offset, int vertexCount,
+            int stride) {
+            for (int i = 0; i < vertexCount; i++) {
+                final int index = offset + i * stride;
+                vertexData[index] = u0 + vertexData[index] * (u1 - u0);
+                vertexData[index + 1] = v0 + vertexData[index + 1] * (v1 - v0);
+            }
+        }
+    }
+
+    private final HashMap<String, Region> regions = new HashMap<String, Region>();
+
+    public static TextureAtlas parse(String table) {
+        final TextureAtlas atlas = new TextureAtlas();
+        final String[] lines = table.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            final String line = lines[i].trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split("\\s+");
+            if (fields.length != 5) {
+                throw new IllegalArgumentException(
+                    "Line " + (i + 1) + " of the atlas table: " + line);
+            }
+            atlas.regions.put(fields[0], new Region(
+                Float.parseFloat(fields[1]), Float.parseFloat(fields[2]),
+                Float.parseFloat(fields[3]), Float.parseFloat(fields[4])));
+        }
+        return atlas;
+    }
+
+    public Region getRegion(String name) {
+        final Region region = regions.get(name);
+        if (region == null) {
+            throw new IllegalArgumentException("No texture " + name + " in the atlas");
+        }
+        return region;
+    }
+}
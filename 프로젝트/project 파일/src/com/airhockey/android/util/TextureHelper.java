@@ -10,20 +10,27 @@ package com.airhockey.android.util;
 
 import static android.opengl.GLES20.GL_LINEAR;
 import static android.opengl.GLES20.GL_LINEAR_MIPMAP_LINEAR;
+import static android.opengl.GLES20.GL_RGBA;
 import static android.opengl.GLES20.GL_TEXTURE_2D;
 import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
 import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
-import static android.opengl.GLES20.glBindTexture;
-import static android.opengl.GLES20.glDeleteTextures;
-import static android.opengl.GLES20.glGenTextures;
-import static android.opengl.GLES20.glGenerateMipmap;
-import static android.opengl.GLES20.glTexParameteri;
-import static android.opengl.GLUtils.texImage2D;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static com.airhockey.android.render.GL.glDeleteTextures;
+import static com.airhockey.android.render.GL.glGenTextures;
+import static com.airhockey.android.render.GL.glGenerateMipmap;
+import static com.airhockey.android.render.GL.glTexImage2D;
+import static com.airhockey.android.render.GL.glTexParameteri;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
 
+import com.airhockey.android.render.GLState;
+
 public class TextureHelper {
     private static final String TAG = "TextureHelper";
 
@@ -49,9 +56,11 @@ public class TextureHelper {
         
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inScaled = false;
+        // Uploaded as RGBA bytes, which is how these are laid out.
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
 
         // Read in the resource
-        final Bitmap bitmap = BitmapFactory.decodeResource(
+        Bitmap bitmap = BitmapFactory.decodeResource(
             context.getResources(), resourceId, options);
 
         if (bitmap == null) {
@@ -66,7 +75,7 @@ public class TextureHelper {
         } 
         
         // Bind to the texture in OpenGL
-        glBindTexture(GL_TEXTURE_2D, textureObjectIds[0]);
+        GLState.bindTextureToActiveUnit(textureObjectIds[0]);
 
         // Set filtering: a default must be set, or the texture will be
         // black.
@@ -75,8 +84,20 @@ public class TextureHelper {
             GL_LINEAR_MIPMAP_LINEAR);
         glTexParameteri(GL_TEXTURE_2D,
             GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-        // Load the bitmap into the bound texture.
-        texImage2D(GL_TEXTURE_2D, 0, bitmap, 0);
+        // Load the bitmap into the bound texture. This goes through GL, like
+        // every other call, rather than GLUtils, so the backend sees it.
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            final Bitmap converted = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+            bitmap.recycle();
+            bitmap = converted;
+        }
+        final ByteBuffer pixels = ByteBuffer
+            .allocateDirect(bitmap.getWidth() * bitmap.getHeight() * 4)
+            .order(ByteOrder.nativeOrder());
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.position(0);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, bitmap.getWidth(),
+            bitmap.getHeight(), 0, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
 
         // Note: Following code may cause an error to be reported in the
         // ADB log as follows: E/IMGSRV(20095): :0: HardwareMipGen:
@@ -93,7 +114,7 @@ public class TextureHelper {
         bitmap.recycle();
 
         // Unbind from the texture.
-        glBindTexture(GL_TEXTURE_2D, 0);
+        GLState.bindTextureToActiveUnit(0);
 
         return textureObjectIds[0];        
     }
@@ -0,0 +1,48 @@
+package com.airhockey.android.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length integers, 7 bits per byte with the high bit set on all but
+ * the last byte, for the compact binary formats used by the input log and
+ * the network game. Small values take a single byte; signed values should be
+ * zigzag encoded first so that small negative values stay small too.
+ */
+public final class Varint {
+    private Varint() {
+    }
+
+    /** Writes value as an unsigned varint, 1 to 5 bytes. */
+    public static void put(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned varint. Throws BufferUnderflowException if the buffer
+     * ends in the middle of it.
+     */
+    public static int get(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+    /** Maps signed to unsigned values: 0, -1, 1, -2, ... to 0, 1, 2, 3, ... */
+    public static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
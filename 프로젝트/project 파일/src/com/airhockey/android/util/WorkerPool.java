@@ -0,0 +1,147 @@
+package com.airhockey.android.util;
+
+/**
+ * A fixed set of daemon threads that run one task at a time, each thread
+ * taking its share of the work by its index. start() hands a task to every
+ * thread and returns at once, so the caller can do something else
+ * meanwhile, and await() waits until they're all done. Nothing is
+ * allocated per task: the threads wait on the pool between tasks.
+ */
+public class WorkerPool {
+    /**
+     * Work split between the threads. run() is called once on every thread,
+     * and finish() once after the last run() has returned, on whichever
+     * thread that was, before await() returns.
+     */
+    public interface Task {
+        void run(int worker, int workerCount);
+        void finish();
+    }
+
+    private final Thread[] threads;
+
+    private Task task;
+    // Bumped by start(), so a thread runs every task exactly once.
+    private int generation = 0;
+    private int unfinished = 0;
+    private boolean done = true;
+    private Throwable failure;
+
+    /**
+     * One thread per core but one, left for the GL thread, and at least
+     * one.
+     */
+    public static int defaultThreadCount() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    public WorkerPool(int threadCount) {
+        threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int worker = i;
+            threads[i] = new Thread("WorkerPool-" + i) {
+                @Override
+                public void run() {
+                    work(worker);
+                }
+            };
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    public int getThreadCount() {
+        return threads.length;
+    }
+
+    /**
+     * Runs the task on every thread. The previous task must have been
+     * awaited.
+     */
+    public synchronized void start(Task task) {
+        if (!done) {
+            throw new IllegalStateException("The previous task is still running");
+        }
+        this.task = task;
+        unfinished = threads.length;
+        done = false;
+        failure = null;
+        generation++;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the task and its finish() are done, and throws what they
+     * threw, if anything. Everything they wrote is visible to the caller
+     * afterwards.
+     */
+    public synchronized void await() {
+        boolean interrupted = false;
+        while (!done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        task = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw new RuntimeException("A worker thread failed", failure);
+        }
+    }
+
+    private void work(int worker) {
+        int lastGeneration = 0;
+        while (true) {
+            final Task current;
+            synchronized (this) {
+                while (generation == lastGeneration) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Daemon threads; they only stop with the process.
+                    }
+                }
+                lastGeneration = generation;
+                current = task;
+            }
+
+            Throwable thrown = null;
+            try {
+                current.run(worker, threads.length);
+            } catch (Throwable t) {
+                thrown = t;
+            }
+
+            final boolean last;
+            synchronized (this) {
+                if (thrown != null && failure == null) {
+                    failure = thrown;
+                }
+                last = --unfinished == 0;
+            }
+            if (!last) {
+                continue;
+            }
+
+            thrown = null;
+            try {
+                if (failure == null) {
+                    current.finish();
+                }
+            } catch (Throwable t) {
+                thrown = t;
+            }
+            synchronized (this) {
+                if (thrown != null) {
+                    failure = thrown;
+                }
+                done = true;
+                notifyAll();
+            }
+        }
+    }
+}
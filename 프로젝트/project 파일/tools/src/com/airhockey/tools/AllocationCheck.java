@@ -0,0 +1,98 @@
+package com.airhockey.tools;
+
+import java.lang.management.ManagementFactory;
+
+import com.airhockey.android.scene.SceneNode;
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.ComputerPlayer;
+import com.airhockey.android.simulation.InputController;
+import com.airhockey.android.simulation.PartySimulation;
+import com.airhockey.android.util.Camera;
+import com.airhockey.android.util.FixedTimestep;
+
+/**
+ * Checks that the per-frame work outside of OpenGL - touch handling, camera
+ * and scene graph updates, the computer opponent and simulation steps, in the normal game
+ * and in party mode - doesn't allocate once warmed up. Prints the bytes
+ * allocated per frame and exits with status 1 if there were any.
+ *
+ * Needs a HotSpot JVM, for per-thread allocation counters. Run it with -Xint
+ * as well: the interpreter doesn't optimize allocations away, which is
+ * closer to how much of the code runs on a device.
+ *
+ * Usage: AllocationCheck [frames]
+ */
+public class AllocationCheck {
+    private static final int WARM_UP_FRAMES = 2000;
+
+    public static void main(String[] args) {
+        final int frames = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final com.sun.management.ThreadMXBean threads = 
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        final Frame frame = new Frame();
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            frame.run(i);
+        }
+
+        final long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < frames; i++) {
+            frame.run(WARM_UP_FRAMES + i);
+        }
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        System.out.println(frames + " frames, " + allocated + " bytes allocated, "
+            + (float) allocated / frames + " bytes per frame");
+        if (allocated > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * What AirHockeyRenderer does per frame, minus the drawing.
+     */
+    private static class Frame {
+        final AirHockeySimulation simulation = 
+            new AirHockeySimulation(new AirHockeySimulation.Rules());
+        final PartySimulation partySimulation = 
+            new PartySimulation(simulation.getRules(), 100);
+        final Camera camera = new Camera();
+        final InputController inputController = 
+            new InputController(camera, simulation);
+        final ComputerPlayer computerPlayer = 
+            new ComputerPlayer(0.03f, ComputerPlayer.DEFAULT_BUDGET_NANOS);
+        final FixedTimestep timestep = new FixedTimestep(60, 5);
+        final SceneNode scene = new SceneNode();
+        final SceneNode desk = new SceneNode();
+        final SceneNode mallet = new SceneNode();
+
+        Frame() {
+            camera.setViewport(1080, 1920);
+            desk.addChild(new SceneNode());
+            scene.addChild(desk);
+            scene.addChild(mallet);
+            inputController.setPartySimulation(partySimulation);
+            // Grab the blue mallet, which starts at the bottom middle.
+            inputController.handleTouchPress(0f, -0.35f);
+        }
+
+        void run(int frame) {
+            final float angle = frame * 0.05f;
+            inputController.handleTouchDrag(
+                0.3f * (float) Math.sin(angle), -0.5f + 0.2f * (float) Math.cos(angle));
+            camera.setZoom(0.1f * (float) Math.sin(angle * 0.1f));
+
+            final int steps = timestep.advance(frame * 16666667L);
+            computerPlayer.plan(simulation);
+            for (int i = 0; i < steps; i++) {
+                computerPlayer.move(simulation, simulation);
+                simulation.step();
+                partySimulation.step();
+            }
+            mallet.setTranslation(simulation.getRedMalletPosition().x, 0f,
+                simulation.getRedMalletPosition().z);
+            scene.update(camera.getViewProjectionMatrix(), camera.getVersion());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.airhockey.tools;
+
+import java.util.Random;
+
+import com.airhockey.android.physics.PhysicsWorld;
+
+/**
+ * Measures the cost of a PhysicsWorld step as the number of bodies grows
+ * from 2 to 2,000, with the spatial hash broadphase and with brute force
+ * all-pairs testing. The bodies are kept moving so that none of them sleeps.
+ *
+ * Usage: BroadphaseBenchmark [steps]
+ */
+public class BroadphaseBenchmark {
+    private static final int[] BODY_COUNTS =
+        {2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000};
+    private static final int WARM_UP_STEPS = 200;
+    private static final int KICK_INTERVAL = 50;
+
+    public static void main(String[] args) {
+        final int steps = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        System.out.println("bodies,grid_us_per_step,grid_pairs_per_step,"
+            + "brute_us_per_step,brute_pairs_per_step,speedup");
+        for (int bodies : BODY_COUNTS) {
+            final long[] grid = run(bodies, steps, true);
+            final long[] brute = run(bodies, steps, false);
+            System.out.println(bodies + "," + grid[0] / 1000f + "," + grid[1]
+                + "," + brute[0] / 1000f + "," + brute[1] + ","
+                + (float) brute[0] / Math.max(1, grid[0]));
+        }
+    }
+
+    /**
+     * Returns the mean nanoseconds per step and the mean candidate pairs.
+     */
+    private static long[] run(int bodies, int steps, boolean broadphase) {
+        final Random random = new Random(bodies);
+        final PhysicsWorld world =
+            new PhysicsWorld(bodies, -0.5f, 0.5f, -0.8f, 0.8f);
+        world.setBroadphaseEnabled(broadphase);
+
+        // Same sizing as party mode: the bodies cover a third of the table.
+        final float radius = Math.min(0.06f,
+            (float) Math.sqrt(0.33f * 1.6f / bodies) / 2.05f);
+        for (int i = 0; i < bodies; i++) {
+            world.addBody(
+                -0.5f + radius + random.nextFloat() * (1f - 2f * radius),
+                -0.8f + radius + random.nextFloat() * (1.6f - 2f * radius),
+                radius, 1f);
+        }
+
+        long nanos = 0;
+        long pairs = 0;
+        for (int step = 0; step < WARM_UP_STEPS + steps; step++) {
+            if (step % KICK_INTERVAL == 0) {
+                for (int body = 0; body < bodies; body++) {
+                    world.setVelocity(body,
+                        (random.nextFloat() - 0.5f) * 0.02f,
+                        (random.nextFloat() - 0.5f) * 0.02f);
+                }
+            }
+
+            final long start = System.nanoTime();
+            world.step();
+            if (step >= WARM_UP_STEPS) {
+                nanos += System.nanoTime() - start;
+                pairs += world.getCandidatePairCount();
+            }
+        }
+        return new long[] {nanos / steps, pairs / steps};
+    }
+}
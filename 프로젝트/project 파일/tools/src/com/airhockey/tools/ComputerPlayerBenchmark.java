@@ -0,0 +1,60 @@
+package com.airhockey.tools;
+
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.ComputerPlayer;
+
+/**
+ * Plays scripted blue players against the computer opponent and prints its
+ * planning time statistics, and how often each side hits the puck. Planning
+ * happens before every step, as it would on a device rendering at the
+ * simulation rate.
+ *
+ * Usage: ComputerPlayerBenchmark [matches] [ticks per match] [budget in us]
+ */
+public class ComputerPlayerBenchmark {
+    public static void main(String[] args) {
+        final int matches = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 60 * 60;
+        final long budgetNanos = args.length > 2 
+            ? Long.parseLong(args[2]) * 1000 : ComputerPlayer.DEFAULT_BUDGET_NANOS;
+
+        final ComputerPlayer computer = new ComputerPlayer(0.03f, budgetNanos);
+        final int[] hits = new int[2];
+        for (int match = 0; match < matches; match++) {
+            final AirHockeySimulation simulation = 
+                new AirHockeySimulation(new AirHockeySimulation.Rules());
+            final ScriptedPlayer blue = new ScriptedPlayer(true, match);
+            simulation.setListener(new AirHockeySimulation.Listener() {
+                @Override
+                public void onWallHit(long tick) {
+                }
+
+                @Override
+                public void onMalletHit(long tick, boolean blueMallet) {
+                    hits[blueMallet ? 0 : 1]++;
+                }
+            });
+
+            for (int tick = 0; tick < ticks; tick++) {
+                blue.update(simulation);
+                computer.plan(simulation);
+                computer.move(simulation, simulation);
+                simulation.step();
+            }
+        }
+
+        System.out.println(matches + " matches, " + computer.getPlanCount() 
+            + " plans, budget " + budgetNanos / 1000 + " us");
+        System.out.println("plan time: average " 
+            + computer.getAveragePlanNanos() / 1000f + " us, max "
+            + computer.getMaxPlanNanos() / 1000f + " us, " 
+            + computer.getPlansOverBudget() + " over budget");
+        System.out.println("mallet hits: blue " + hits[0] + ", red " + hits[1]);
+        System.out.println("plan_time_us_upper,plans");
+        final int[] histogram = computer.getPlanTimeHistogram();
+        for (int i = 0; i < histogram.length; i++) {
+            System.out.println((i + 1) * ComputerPlayer.PLAN_TIME_BUCKET_NANOS / 1000 
+                + (i == histogram.length - 1 ? "+" : "") + "," + histogram[i]);
+        }
+    }
+}
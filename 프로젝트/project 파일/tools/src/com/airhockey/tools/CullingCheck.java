@@ -0,0 +1,80 @@
+package com.airhockey.tools;
+
+import com.airhockey.android.programs.ColorShaderProgram;
+import com.airhockey.android.programs.TextureShaderProgram;
+import com.airhockey.android.render.GL;
+import com.airhockey.android.render.GLState;
+import com.airhockey.android.render.HeadlessBackend;
+import com.airhockey.android.render.SceneRenderer;
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.PartySimulation;
+import com.airhockey.android.util.Camera;
+
+/**
+ * Draws the scene with party pucks on the headless GL backend while moving
+ * the camera the way the pinch gesture moves camPosZ, and prints how many
+ * draws were culled and how many reached GL at each position, and the
+ * vertices drawn, which also shrink as the round meshes drop to coarser
+ * levels of detail. Fails if
+ * culled and drawn don't add up to the draws of the unculled scene, or if
+ * anything is culled at the default camera position, where the whole
+ * scene is in view.
+ *
+ * Usage: CullingCheck [party pucks]
+ */
+public class CullingCheck {
+    public static void main(String[] args) {
+        final int pucks = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        final HeadlessBackend backend = new HeadlessBackend();
+        GL.setBackend(backend);
+        GLState.assumeDefaults();
+
+        final AirHockeySimulation.Rules rules = new AirHockeySimulation.Rules();
+        final SceneRenderer sceneRenderer = new SceneRenderer(rules,
+            new ColorShaderProgram(GL.glCreateProgram()),
+            new TextureShaderProgram(GL.glCreateProgram()));
+        final int[] textures = new int[6];
+        GL.glGenTextures(textures.length, textures, 0);
+        for (int i = 0; i < textures.length; i++) {
+            sceneRenderer.setTexture(SceneRenderer.TEXTURE_BACKGROUND + i, textures[i]);
+        }
+
+        final PartySimulation partySimulation = new PartySimulation(rules, pucks);
+        for (int i = 0; i < 600; i++) {
+            // Let the pucks spread over the table.
+            partySimulation.step();
+        }
+
+        final Camera camera = new Camera();
+        camera.setViewport(1080, 1920);
+        // The mallets and the puck where a match starts.
+        final AirHockeySimulation pieces = new AirHockeySimulation(rules);
+
+        // The room's 6 objects and the mallets. The party pucks are drawn
+        // instead of the puck.
+        final int submitted = 8 + pucks;
+        boolean failed = false;
+        System.out.println("cam_pos_z,culled_draws,drawn,gl_draw_calls,vertices");
+        for (int step = -10; step <= 24; step++) {
+            final float camPosZ = step * 0.1f;
+            camera.setZoom(camPosZ);
+            backend.reset();
+            sceneRenderer.draw(camera, pieces.getBlueMalletPosition(),
+                pieces.getRedMalletPosition(), pieces.getPuckPosition(),
+                partySimulation, 1f);
+
+            final int culled = sceneRenderer.getLastCulledDraws();
+            final int drawn = sceneRenderer.getLastDrawCount();
+            System.out.println(String.format("%.1f,%d,%d,%d,%d", camPosZ,
+                culled, drawn, backend.getDrawCalls(), backend.getVertices()));
+            if (culled + drawn != submitted || (step == 0 && culled != 0)) {
+                failed = true;
+            }
+        }
+        if (failed) {
+            System.out.println("FAILED");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.airhockey.tools;
+
+import com.airhockey.android.data.VertexArray;
+import com.airhockey.android.programs.ColorShaderProgram;
+import com.airhockey.android.programs.TextureShaderProgram;
+import com.airhockey.android.render.GL;
+import com.airhockey.android.render.GLState;
+import com.airhockey.android.render.HeadlessBackend;
+import com.airhockey.android.render.SceneRenderer;
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.PartySimulation;
+import com.airhockey.android.util.Camera;
+import com.airhockey.android.util.WorkerPool;
+
+/**
+ * Draws party mode frames on the headless GL backend with the frames
+ * prepared on the calling thread, then on worker pools of 1, 2, 4 threads
+ * and so on up to the number of cores, both waiting for the workers and
+ * pipelined, and prints the time a frame takes. The simulation isn't
+ * stepped, so only the rendering is timed. Fails if any of them draws
+ * something else than the calling thread does.
+ *
+ * Usage: FramePreparationBenchmark [frames] [party pucks]
+ */
+public class FramePreparationBenchmark {
+    public static void main(String[] args) {
+        final int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int pucks = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        final HeadlessBackend backend = new HeadlessBackend();
+        backend.setVertexArrayObjects(true);
+        GL.setBackend(backend);
+        GLState.assumeDefaults();
+        VertexArray.setUseBufferObjects(true);
+
+        final AirHockeySimulation.Rules rules = new AirHockeySimulation.Rules();
+        final PartySimulation partySimulation = new PartySimulation(rules, pucks);
+        // Spread the pucks out.
+        for (int i = 0; i < 60; i++) {
+            partySimulation.step();
+        }
+        final Camera camera = new Camera();
+        camera.setViewport(1080, 1920);
+        // The mallets and the puck where a match starts.
+        final AirHockeySimulation pieces = new AirHockeySimulation(rules);
+        final SceneRenderer sceneRenderer = new SceneRenderer(rules,
+            new ColorShaderProgram(GL.glCreateProgram()),
+            new TextureShaderProgram(GL.glCreateProgram()));
+
+        System.out.println("threads,mode,pucks,frames,draw_calls,vertices,"
+            + "culled,ns_per_frame");
+        final long[] expected = run("0", false, frames, backend, sceneRenderer,
+            camera, pieces, partySimulation);
+        boolean failed = false;
+        for (int threads = 1; ; threads *= 2) {
+            final int threadCount =
+                Math.min(threads, Runtime.getRuntime().availableProcessors());
+            sceneRenderer.setWorkerPool(new WorkerPool(threadCount));
+            for (int pipelined = 0; pipelined < 2; pipelined++) {
+                final long[] drawn = run(String.valueOf(threadCount),
+                    pipelined > 0, frames, backend, sceneRenderer, camera,
+                    pieces, partySimulation);
+                for (int i = 0; i < drawn.length; i++) {
+                    if (drawn[i] != expected[i]) {
+                        System.out.println("FAIL: " + threadCount
+                            + " threads drew something else");
+                        failed = true;
+                        break;
+                    }
+                }
+            }
+            if (threadCount >= Runtime.getRuntime().availableProcessors()) {
+                break;
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the draw calls, vertices and culled draws of the last frame.
+     */
+    private static long[] run(String threads, boolean pipelined, int frames,
+        HeadlessBackend backend, SceneRenderer sceneRenderer, Camera camera,
+        AirHockeySimulation pieces, PartySimulation partySimulation) {
+        // Warm up, then count the last frame and time all of them.
+        for (int frame = 0; frame < frames; frame++) {
+            drawFrame(pipelined, sceneRenderer, camera, pieces, partySimulation);
+        }
+        final long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            backend.reset();
+            drawFrame(pipelined, sceneRenderer, camera, pieces, partySimulation);
+        }
+        final long nanos = System.nanoTime() - start;
+
+        System.out.println(threads + "," + (pipelined ? "pipelined" : "draw")
+            + "," + partySimulation.getPuckCount() + "," + frames + ","
+            + backend.getDrawCalls() + "," + backend.getVertices() + ","
+            + sceneRenderer.getLastCulledDraws() + "," + nanos / frames);
+        return new long[] {backend.getDrawCalls(), backend.getVertices(),
+            sceneRenderer.getLastCulledDraws()};
+    }
+
+    private static void drawFrame(boolean pipelined, SceneRenderer sceneRenderer,
+        Camera camera, AirHockeySimulation pieces, PartySimulation partySimulation) {
+        if (pipelined) {
+            sceneRenderer.drawPipelined(camera, pieces.getBlueMalletPosition(),
+                pieces.getRedMalletPosition(), pieces.getPuckPosition(),
+                partySimulation, 0.5f);
+        } else {
+            sceneRenderer.draw(camera, pieces.getBlueMalletPosition(),
+                pieces.getRedMalletPosition(), pieces.getPuckPosition(),
+                partySimulation, 0.5f);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.airhockey.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Scanner;
+
+import com.airhockey.android.data.VertexArray;
+import com.airhockey.android.data.VertexFormat;
+import com.airhockey.android.objects.InstancedMesh;
+import com.airhockey.android.programs.ColorShaderProgram;
+import com.airhockey.android.programs.InstancedColorShaderProgram;
+import com.airhockey.android.programs.TextureShaderProgram;
+import com.airhockey.android.render.GL;
+import com.airhockey.android.render.GLState;
+import com.airhockey.android.render.HeadlessBackend;
+import com.airhockey.android.render.SceneRenderer;
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.PartySimulation;
+import com.airhockey.android.util.Camera;
+import com.airhockey.android.util.TextureAtlas;
+
+/**
+ * Draws frames of the scene on the headless GL backend, which only counts
+ * the calls, and prints the draw calls, vertices, state changes, uniform
+ * uploads, GL calls and bytes uploaded per frame, and the CPU time a frame
+ * takes without a driver, with the bytes held in buffer objects. The room
+ * is drawn with the furniture mesh by mesh, then from the static batch, to
+ * compare the two. Everything is drawn three times: from client memory
+ * arrays, from buffer objects, and from buffer objects with vertex array
+ * objects, as on ES 2.0 and ES 3.0. That is done once with float vertices,
+ * and once with the compact vertex formats, with half float positions only
+ * in the ES 3.0 run. The party pucks are drawn one by one, then as
+ * instances of one mesh: with instanced draws in the ES 3.0 run, and
+ * pseudo-instanced with uniform arrays in the others. Given the table TextureAtlasPacker wrote, the batched
+ * room is drawn once more with every texture taken from the atlas. The
+ * programs are made on the headless backend too, so no Android class is
+ * used at run time.
+ *
+ * Usage: HeadlessFrameBenchmark [frames] [party pucks] [atlas table]
+ */
+public class HeadlessFrameBenchmark {
+    private static final String[] STORAGE = {
+        "client_arrays", "buffer_objects", "vertex_array_objects"};
+    private static final String[] FORMATS = {"float", "compact"};
+
+    public static void main(String[] args) throws IOException {
+        final int frames = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int pucks = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final String atlasTable = args.length > 2 ? args[2] : null;
+
+        final AirHockeySimulation.Rules rules = new AirHockeySimulation.Rules();
+        final Camera camera = new Camera();
+        camera.setViewport(1080, 1920);
+        // The mallets and the puck where a match starts.
+        final AirHockeySimulation pieces = new AirHockeySimulation(rules);
+
+        System.out.println("format,storage,mode,frames,draw_calls,vertices,"
+            + "state_changes,uniform_uploads,gl_calls,bytes_uploaded,buffer_bytes,"
+            + "ns_per_frame");
+        HeadlessBackend backend = null;
+        String run = null;
+        for (int format = 0; format < FORMATS.length; format++) {
+            for (int storage = 0; storage < STORAGE.length; storage++) {
+                // A new context each time. The meshes pick their storage
+                // and format when they're made.
+                backend = new HeadlessBackend();
+                backend.setVertexArrayObjects(storage > 1);
+                GL.setBackend(backend);
+                GLState.assumeDefaults();
+                VertexArray.setUseBufferObjects(storage > 0);
+                VertexFormat.setQuantize(format > 0);
+                VertexFormat.setHalfFloatType(
+                    storage > 1 ? VertexFormat.GL_HALF_FLOAT : 0);
+                final SceneRenderer sceneRenderer = createSceneRenderer(rules, null);
+
+                run = FORMATS[format] + "," + STORAGE[storage];
+                sceneRenderer.setStaticBatching(false);
+                run(run, "room_unbatched", frames, backend, sceneRenderer, 
+                    camera, pieces, null);
+                sceneRenderer.setStaticBatching(true);
+                run(run, "room", frames, backend, sceneRenderer, camera, 
+                    pieces, null);
+                run(run, "party", frames, backend, sceneRenderer, camera, 
+                    pieces, new PartySimulation(rules, pucks));
+                sceneRenderer.setInstancedColorProgram(
+                    new InstancedColorShaderProgram(GL.glCreateProgram(), 
+                        !InstancedMesh.hasHardwareInstancing()));
+                run(run, "party_instanced", frames, backend, sceneRenderer, 
+                    camera, pieces, new PartySimulation(rules, pucks));
+                sceneRenderer.setInstancedColorProgram(null);
+            }
+        }
+
+        if (atlasTable != null) {
+            final Scanner scanner = new Scanner(new File(atlasTable), "UTF-8");
+            final String table;
+            try {
+                table = scanner.useDelimiter("\\A").next();
+            } finally {
+                scanner.close();
+            }
+            final SceneRenderer atlasRenderer = 
+                createSceneRenderer(rules, TextureAtlas.parse(table));
+            run(run, "room_atlas", frames, backend, atlasRenderer, camera, 
+                pieces, null);
+        }
+    }
+
+    private static SceneRenderer createSceneRenderer(
+        AirHockeySimulation.Rules rules, TextureAtlas atlas) {
+        final SceneRenderer sceneRenderer = new SceneRenderer(rules,
+            new ColorShaderProgram(GL.glCreateProgram()),
+            new TextureShaderProgram(GL.glCreateProgram()), atlas);
+        final int[] textures = new int[7];
+        GL.glGenTextures(textures.length, textures, 0);
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_BACKGROUND, textures[0]);
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_WOOD, textures[1]);
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_CHAIR, textures[2]);
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_NOTE_KEYBOARD, textures[3]);
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_NOTE_UPPER, textures[4]);
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_STAND, textures[5]);
+        sceneRenderer.setTexture(SceneRenderer.TEXTURE_ATLAS, textures[6]);
+        return sceneRenderer;
+    }
+
+    private static void run(String run, String mode, int frames, 
+        HeadlessBackend backend, SceneRenderer sceneRenderer, Camera camera, 
+        AirHockeySimulation pieces, PartySimulation partySimulation) {
+        // Warm up, then count the last frame and time all of them.
+        for (int frame = 0; frame < frames; frame++) {
+            drawFrame(sceneRenderer, camera, pieces, partySimulation);
+        }
+        final long start = System.nanoTime();
+        for (int frame = 0; frame < frames; frame++) {
+            backend.reset();
+            drawFrame(sceneRenderer, camera, pieces, partySimulation);
+        }
+        final long nanos = System.nanoTime() - start;
+
+        System.out.println(run + "," + mode + "," + frames + ","
+            + backend.getDrawCalls() + "," + backend.getVertices() + ","
+            + backend.getStateChanges() + "," + backend.getUniformUploads() + ","
+            + backend.getCalls() + "," + backend.getBytesUploaded() + "," 
+            + backend.getBufferBytes() + "," + nanos / frames);
+    }
+
+    private static void drawFrame(SceneRenderer sceneRenderer, Camera camera,
+        AirHockeySimulation pieces, PartySimulation partySimulation) {
+        if (partySimulation != null) {
+            partySimulation.step();
+        }
+        sceneRenderer.draw(camera, pieces.getBlueMalletPosition(),
+            pieces.getRedMalletPosition(), pieces.getPuckPosition(),
+            partySimulation, 0.5f);
+    }
+}
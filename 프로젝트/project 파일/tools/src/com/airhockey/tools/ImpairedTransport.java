@@ -0,0 +1,89 @@
+package com.airhockey.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.airhockey.android.net.PacketTransport;
+
+/**
+ * Makes a transport behave like a bad network: sent packets are held back
+ * for a latency plus some random jitter, which also reorders them, and a
+ * fraction of them is dropped. Time is counted in simulation ticks and
+ * advanced by the caller, so a test can run faster than real time.
+ */
+class ImpairedTransport implements PacketTransport {
+    private final PacketTransport transport;
+    private final int latencyTicks;
+    private final int jitterTicks;
+    private final float loss;
+    private final Random random;
+
+    private final PriorityQueue<DelayedPacket> pending =
+        new PriorityQueue<DelayedPacket>();
+    private long now = 0;
+    private long sequence = 0;
+    private int dropped = 0;
+
+    ImpairedTransport(PacketTransport transport, int latencyTicks,
+        int jitterTicks, float loss, long seed) {
+        this.transport = transport;
+        this.latencyTicks = latencyTicks;
+        this.jitterTicks = jitterTicks;
+        this.loss = loss;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Moves the clock forward, sending every held back packet that is due.
+     */
+    void setTime(long now) throws IOException {
+        this.now = now;
+        while (!pending.isEmpty() && pending.peek().releaseTick <= now) {
+            transport.send(ByteBuffer.wrap(pending.poll().data));
+        }
+    }
+
+    @Override
+    public void send(ByteBuffer packet) throws IOException {
+        if (random.nextFloat() < loss) {
+            dropped++;
+            return;
+        }
+        final byte[] data = new byte[packet.remaining()];
+        packet.get(data);
+        final int jitter = jitterTicks > 0 ? random.nextInt(jitterTicks + 1) : 0;
+        pending.add(new DelayedPacket(now + latencyTicks + jitter, sequence++, data));
+        setTime(now);
+    }
+
+    @Override
+    public boolean receive(ByteBuffer packet) throws IOException {
+        return transport.receive(packet);
+    }
+
+    int getDropped() {
+        return dropped;
+    }
+
+    private static class DelayedPacket implements Comparable<DelayedPacket> {
+        final long releaseTick;
+        final long sequence;
+        final byte[] data;
+
+        DelayedPacket(long releaseTick, long sequence, byte[] data) {
+            this.releaseTick = releaseTick;
+            this.sequence = sequence;
+            this.data = data;
+        }
+
+        @Override
+        public int compareTo(DelayedPacket other) {
+            if (releaseTick != other.releaseTick) {
+                return releaseTick < other.releaseTick ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+        }
+    }
+}
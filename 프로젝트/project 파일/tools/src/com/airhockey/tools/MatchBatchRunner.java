@@ -0,0 +1,188 @@
+package com.airhockey.tools;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.airhockey.android.simulation.AirHockeySimulation;
+
+/**
+ * Plays scripted matches headlessly on a fork-join pool and writes aggregate
+ * statistics to a CSV file: one line per finished chunk of matches as they
+ * complete, followed by a "total" line and the puck speed histogram.
+ *
+ * Each match only touches its own simulation and statistics, so the run
+ * scales with the number of cores. Matches are seeded from their index, so a
+ * run is reproducible whatever the thread count.
+ *
+ * Usage: MatchBatchRunner [--matches n] [--ticks n] [--threads n]
+ *        [--seed n] [--friction f] [--wall-restitution f]
+ *        [--mallet-restitution f] [--mallet-radius f] [--puck-radius f]
+ *        [--out file]
+ */
+public class MatchBatchRunner {
+    private static final int MATCHES_PER_CHUNK = 64;
+
+    private final AirHockeySimulation.Rules rules;
+    private final int ticksPerMatch;
+    private final long seed;
+    private final Writer out;
+
+    MatchBatchRunner(AirHockeySimulation.Rules rules, int ticksPerMatch,
+        long seed, Writer out) {
+        this.rules = rules;
+        this.ticksPerMatch = ticksPerMatch;
+        this.seed = seed;
+        this.out = out;
+    }
+
+    MatchStats run(ForkJoinPool pool, int matches) {
+        return pool.invoke(new MatchTask(0, matches));
+    }
+
+    private void playMatch(int matchIndex, MatchStats stats) {
+        final long matchSeed = seed * 31 + matchIndex;
+        final AirHockeySimulation simulation = new AirHockeySimulation(rules);
+        final ScriptedPlayer blue = new ScriptedPlayer(true, matchSeed);
+        final ScriptedPlayer red = new ScriptedPlayer(false, ~matchSeed);
+        simulation.setListener(stats);
+
+        for (int tick = 0; tick < ticksPerMatch; tick++) {
+            blue.update(simulation);
+            red.update(simulation);
+            simulation.step();
+            stats.endStep(simulation);
+        }
+        stats.endMatch();
+    }
+
+    private void writeLine(String line) {
+        synchronized (out) {
+            try {
+                out.write(line);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                throw new RuntimeException("Could not write statistics", e);
+            }
+        }
+    }
+
+    private class MatchTask extends RecursiveTask<MatchStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final int firstMatch;
+        private final int matchCount;
+
+        MatchTask(int firstMatch, int matchCount) {
+            this.firstMatch = firstMatch;
+            this.matchCount = matchCount;
+        }
+
+        @Override
+        protected MatchStats compute() {
+            if (matchCount <= MATCHES_PER_CHUNK) {
+                final MatchStats stats = new MatchStats();
+                for (int i = 0; i < matchCount; i++) {
+                    playMatch(firstMatch + i, stats);
+                }
+                writeLine(stats.toCsv("matches " + firstMatch + "-"
+                    + (firstMatch + matchCount - 1)));
+                return stats;
+            }
+
+            final int half = matchCount / 2;
+            final MatchTask left = new MatchTask(firstMatch, half);
+            final MatchTask right =
+                new MatchTask(firstMatch + half, matchCount - half);
+            left.fork();
+            final MatchStats stats = right.compute();
+            stats.merge(left.join());
+            return stats;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final AirHockeySimulation.Rules rules = new AirHockeySimulation.Rules();
+        int matches = 10000;
+        int ticks = 60 * 60;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        String outFile = "match-stats.csv";
+
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            final String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                usage("Missing value for " + arg);
+            }
+            i++;
+
+            if (arg.equals("--matches")) {
+                matches = Integer.parseInt(value);
+            } else if (arg.equals("--ticks")) {
+                ticks = Integer.parseInt(value);
+            } else if (arg.equals("--threads")) {
+                threads = Integer.parseInt(value);
+            } else if (arg.equals("--seed")) {
+                seed = Long.parseLong(value);
+            } else if (arg.equals("--friction")) {
+                rules.friction = Float.parseFloat(value);
+            } else if (arg.equals("--wall-restitution")) {
+                rules.wallRestitution = Float.parseFloat(value);
+            } else if (arg.equals("--mallet-restitution")) {
+                rules.malletRestitution = Float.parseFloat(value);
+            } else if (arg.equals("--mallet-radius")) {
+                rules.malletRadius = Float.parseFloat(value);
+            } else if (arg.equals("--puck-radius")) {
+                rules.puckRadius = Float.parseFloat(value);
+            } else if (arg.equals("--out")) {
+                outFile = value;
+            } else {
+                usage("Unknown option " + arg);
+            }
+        }
+
+        final Writer out = new BufferedWriter(new FileWriter(outFile));
+        try {
+            out.write("# friction=" + rules.friction
+                + " wall_restitution=" + rules.wallRestitution
+                + " mallet_restitution=" + rules.malletRestitution
+                + " mallet_radius=" + rules.malletRadius
+                + " puck_radius=" + rules.puckRadius
+                + " ticks_per_match=" + ticks + " threads=" + threads + "\n");
+            out.write(MatchStats.csvHeader() + "\n");
+
+            final long start = System.nanoTime();
+            final MatchStats total = new MatchBatchRunner(rules, ticks, seed, out)
+                .run(new ForkJoinPool(threads), matches);
+            final long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+            out.write(total.toCsv("total") + "\n");
+            out.write("# speed_bin_upper,ticks\n");
+            for (int i = 0; i < MatchStats.SPEED_BINS; i++) {
+                out.write("# " + MatchStats.speedBinUpperEdge(i) + ","
+                    + total.speedHistogram[i] + "\n");
+            }
+
+            System.out.println(matches + " matches, " + total.ticks + " ticks in "
+                + elapsedMillis + " ms on " + threads + " threads ("
+                + (total.ticks * 1000L / Math.max(1, elapsedMillis))
+                + " ticks/s), written to " + outFile);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: MatchBatchRunner [--matches n] [--ticks n]"
+            + " [--threads n] [--seed n] [--friction f] [--wall-restitution f]"
+            + " [--mallet-restitution f] [--mallet-radius f] [--puck-radius f]"
+            + " [--out file]");
+        System.exit(1);
+    }
+}
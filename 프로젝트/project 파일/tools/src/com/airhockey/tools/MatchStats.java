@@ -0,0 +1,208 @@
+package com.airhockey.tools;
+
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.util.Geometry.MutableVector;
+
+/**
+ * Aggregate statistics over any number of simulated matches. Instances are
+ * filled by a single thread and then merged, so no synchronization is needed.
+ *
+ * Hits are contacts that start: the puck can strike a mallet or a side many
+ * times while it stays against it, e.g. pushed along by a mallet, and those
+ * impacts are one hit.
+ */
+class MatchStats implements AirHockeySimulation.Listener {
+    // Below this speed the puck counts as dead and the rally is over.
+    static final float REST_SPEED = 0.0005f;
+    // Puck speeds are in table units per step. The first histogram bin holds
+    // the dead puck, which it is for most of a match. The others are on a log
+    // scale from REST_SPEED, each 2^(1/8), about 9%, wider than the one
+    // before, so that slow slides and the fastest shots are both resolved.
+    // The last holds everything from about 4, faster than a puck can go.
+    static final int SPEED_BINS_PER_DOUBLING = 8;
+    static final int SPEED_BINS = 13 * SPEED_BINS_PER_DOUBLING + 1;
+    // How far apart the puck and a mallet or side may be and still touch.
+    static final float CONTACT_DISTANCE = 1e-4f;
+
+    long matches;
+    long ticks;
+    long wallHits;
+    long malletHits;
+    long rallies;
+    long rallyHits;
+    long longestRally;
+    float fastestPuck;
+    double speedSum;
+    final long[] speedHistogram = new long[SPEED_BINS];
+
+    private long currentRally;
+
+    // What the puck hit during the current step.
+    private boolean wallHit;
+    private boolean blueMalletHit;
+    private boolean redMalletHit;
+    // What it touched at the end of the last one.
+    private boolean touchingWall;
+    private boolean touchingBlueMallet;
+    private boolean touchingRedMallet;
+
+    @Override
+    public void onWallHit(long tick) {
+        wallHit = true;
+    }
+
+    @Override
+    public void onMalletHit(long tick, boolean blueMallet) {
+        if (blueMallet) {
+            blueMalletHit = true;
+        } else {
+            redMalletHit = true;
+        }
+    }
+
+    /**
+     * Counts the hits of the step the simulation just took, and samples the
+     * puck speed. The sides count as one, so a puck sliding along a side into
+     * a corner hits once.
+     */
+    void endStep(AirHockeySimulation simulation) {
+        if (wallHit && !touchingWall) {
+            wallHits++;
+        }
+        if (blueMalletHit && !touchingBlueMallet) {
+            malletHits++;
+            currentRally++;
+        }
+        if (redMalletHit && !touchingRedMallet) {
+            malletHits++;
+            currentRally++;
+        }
+        wallHit = false;
+        blueMalletHit = false;
+        redMalletHit = false;
+
+        final AirHockeySimulation.Rules rules = simulation.getRules();
+        final MutableVector puck = simulation.getPuckPosition();
+        final float inset = rules.puckRadius + CONTACT_DISTANCE;
+        touchingWall = puck.x <= simulation.leftBound + inset
+            || puck.x >= simulation.rightBound - inset
+            || puck.z <= simulation.farBound + inset
+            || puck.z >= simulation.nearBound - inset;
+        touchingBlueMallet = touching(puck, simulation.getBlueMalletPosition(), rules);
+        touchingRedMallet = touching(puck, simulation.getRedMalletPosition(), rules);
+
+        sampleSpeed(simulation.getPuckVector().length());
+    }
+
+    private static boolean touching(MutableVector puck, MutableVector mallet,
+        AirHockeySimulation.Rules rules) {
+        final float dx = puck.x - mallet.x;
+        final float dz = puck.z - mallet.z;
+        final float reach = rules.puckRadius + rules.malletRadius + CONTACT_DISTANCE;
+        return dx * dx + dz * dz <= reach * reach;
+    }
+
+    private void sampleSpeed(float speed) {
+        ticks++;
+        speedSum += speed;
+        fastestPuck = Math.max(fastestPuck, speed);
+        speedHistogram[speedBin(speed)]++;
+
+        if (speed < REST_SPEED) {
+            endRally();
+        }
+    }
+
+    private static int speedBin(float speed) {
+        if (speed < REST_SPEED) {
+            return 0;
+        }
+        final double doublings = Math.log(speed / REST_SPEED) / Math.log(2.0);
+        return Math.min(SPEED_BINS - 1, 1 + (int) (doublings * SPEED_BINS_PER_DOUBLING));
+    }
+
+    /**
+     * The speed a histogram bin holds the speeds below.
+     */
+    static float speedBinUpperEdge(int bin) {
+        return REST_SPEED
+            * (float) Math.pow(2.0, (double) bin / SPEED_BINS_PER_DOUBLING);
+    }
+
+    void endMatch() {
+        endRally();
+        touchingWall = false;
+        touchingBlueMallet = false;
+        touchingRedMallet = false;
+        matches++;
+    }
+
+    private void endRally() {
+        if (currentRally > 0) {
+            rallies++;
+            rallyHits += currentRally;
+            longestRally = Math.max(longestRally, currentRally);
+            currentRally = 0;
+        }
+    }
+
+    void merge(MatchStats other) {
+        matches += other.matches;
+        ticks += other.ticks;
+        wallHits += other.wallHits;
+        malletHits += other.malletHits;
+        rallies += other.rallies;
+        rallyHits += other.rallyHits;
+        longestRally = Math.max(longestRally, other.longestRally);
+        fastestPuck = Math.max(fastestPuck, other.fastestPuck);
+        speedSum += other.speedSum;
+        for (int i = 0; i < SPEED_BINS; i++) {
+            speedHistogram[i] += other.speedHistogram[i];
+        }
+    }
+
+    float meanRally() {
+        return rallies == 0 ? 0f : (float) rallyHits / rallies;
+    }
+
+    float meanSpeed() {
+        return ticks == 0 ? 0f : (float) (speedSum / ticks);
+    }
+
+    /**
+     * Ticks the puck was in play, not dead.
+     */
+    long movingTicks() {
+        return ticks - speedHistogram[0];
+    }
+
+    /**
+     * Returns the given quantile of the speed of the puck in play, as the
+     * upper edge of the histogram bin holding it, or the fastest speed seen
+     * if that is lower.
+     */
+    float speedQuantile(double quantile) {
+        final long target = (long) Math.ceil(movingTicks() * quantile);
+        long seen = 0;
+        for (int i = 1; i < SPEED_BINS; i++) {
+            seen += speedHistogram[i];
+            if (seen >= target) {
+                return Math.min(speedBinUpperEdge(i), fastestPuck);
+            }
+        }
+        return fastestPuck;
+    }
+
+    static String csvHeader() {
+        return "label,matches,ticks,moving_ticks,wall_hits,mallet_hits,rallies,mean_rally,"
+             + "longest_rally,mean_speed,p50_speed,p90_speed,p99_speed,max_speed";
+    }
+
+    String toCsv(String label) {
+        return label + ',' + matches + ',' + ticks + ',' + movingTicks() + ','
+             + wallHits + ','
+             + malletHits + ',' + rallies + ',' + meanRally() + ','
+             + longestRally + ',' + meanSpeed() + ',' + speedQuantile(0.5) + ','
+             + speedQuantile(0.9) + ',' + speedQuantile(0.99) + ',' + fastestPuck;
+    }
+}
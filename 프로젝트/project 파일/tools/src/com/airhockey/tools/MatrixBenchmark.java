@@ -0,0 +1,136 @@
+package com.airhockey.tools;
+
+import com.airhockey.android.util.Camera;
+import com.airhockey.android.util.MatrixHelper;
+
+/**
+ * Times the model-view-projection work of a frame, the way the renderer used
+ * to do it (setIdentityM, translateM, rotateM around x, y and z, scaleM and a
+ * general multiplyMM per object, and a general invertM for touch picking)
+ * against the fused and affine functions in MatrixHelper. The old sequence
+ * uses the android.opengl.Matrix compatible functions in MatrixHelper, so
+ * this runs on a plain JVM.
+ *
+ * Usage: MatrixBenchmark [objects per frame] [frames]
+ */
+public class MatrixBenchmark {
+    private static final int ROUNDS = 5;
+
+    private static float sink;
+
+    public static void main(String[] args) {
+        final int objects = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        final int frames = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        final Camera camera = new Camera();
+        camera.setViewport(1080, 1920);
+        final float[] viewProjection = camera.getViewProjectionMatrix();
+
+        // Positions, angles and scales for every object.
+        final float[] transforms = new float[objects * 9];
+        for (int i = 0; i < objects; i++) {
+            transforms[i * 9 + 0] = (i % 8) * 0.1f - 0.4f;
+            transforms[i * 9 + 1] = 0.02f;
+            transforms[i * 9 + 2] = (i / 8) * 0.1f - 0.4f;
+            transforms[i * 9 + 3] = i % 3 == 0 ? 10f : 0f;
+            transforms[i * 9 + 4] = i * 7f;
+            transforms[i * 9 + 5] = 0f;
+            transforms[i * 9 + 6] = 1f + i * 0.01f;
+            transforms[i * 9 + 7] = 1f;
+            transforms[i * 9 + 8] = 1f + i * 0.01f;
+        }
+        final float[] model = new float[16];
+        final float[] models = new float[objects * 16];
+        final float[] mvps = new float[objects * 16];
+        final float[] mvp = new float[16];
+        final float[] inverse = new float[16];
+
+        // The two halves of the view-projection matrix, as Camera inverts it.
+        final float[] view = new float[16];
+        final float[] projection = new float[16];
+        MatrixHelper.setLookAtM(view, 0, 0f, 1.2f, 2.2f, 0f, 0f, 0f, 0f, 1f, 0f);
+        MatrixHelper.perspectiveM(projection, 45, 1080f / 1920f, 1f, 10f);
+
+        System.out.println(objects + " objects, " + frames + " frames");
+        System.out.println("round,old_ns_per_object,fused_ns_per_object,"
+            + "batch_ns_per_object,old_inverse_ns,fast_inverse_ns");
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < objects; i++) {
+                    final int t = i * 9;
+                    MatrixHelper.setIdentityM(model, 0);
+                    MatrixHelper.translateM(model, 0, 
+                        transforms[t], transforms[t + 1], transforms[t + 2]);
+                    MatrixHelper.rotateM(model, 0, transforms[t + 3], 1f, 0f, 0f);
+                    MatrixHelper.rotateM(model, 0, transforms[t + 4], 0f, 1f, 0f);
+                    MatrixHelper.rotateM(model, 0, transforms[t + 5], 0f, 0f, 1f);
+                    MatrixHelper.scaleM(model, 0, 
+                        transforms[t + 6], transforms[t + 7], transforms[t + 8]);
+                    MatrixHelper.multiplyMM(mvp, 0, viewProjection, 0, model, 0);
+                    sink += mvp[15];
+                }
+            }
+            final long oldNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < objects; i++) {
+                    final int t = i * 9;
+                    MatrixHelper.setTranslateRotateScaleM(model, 0,
+                        transforms[t], transforms[t + 1], transforms[t + 2],
+                        transforms[t + 3], transforms[t + 4], transforms[t + 5],
+                        transforms[t + 6], transforms[t + 7], transforms[t + 8]);
+                    MatrixHelper.multiplyMMAffine(mvp, 0, viewProjection, 0, model, 0);
+                    sink += mvp[15];
+                }
+            }
+            final long fusedNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                for (int i = 0; i < objects; i++) {
+                    final int t = i * 9;
+                    MatrixHelper.setTranslateRotateScaleM(models, i * 16,
+                        transforms[t], transforms[t + 1], transforms[t + 2],
+                        transforms[t + 3], transforms[t + 4], transforms[t + 5],
+                        transforms[t + 6], transforms[t + 7], transforms[t + 8]);
+                }
+                MatrixHelper.multiplyMMAffineBatch(mvps, 0, viewProjection, 0, 
+                    models, 0, objects);
+                sink += mvps[15];
+            }
+            final long batchNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                MatrixHelper.invertM(inverse, 0, viewProjection, 0);
+                sink += inverse[15];
+            }
+            final long oldInverseNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                MatrixHelper.invertViewProjectionM(inverse, 0, 
+                    projection, 0, view, 0);
+                sink += inverse[15];
+            }
+            final long fastInverseNanos = System.nanoTime() - start;
+
+            final double calls = (double) frames * objects;
+            System.out.println(round + "," 
+                + format(oldNanos / calls) + "," 
+                + format(fusedNanos / calls) + "," 
+                + format(batchNanos / calls) + ","
+                + format(oldInverseNanos / (double) frames) + ","
+                + format(fastInverseNanos / (double) frames));
+        }
+        if (sink == 42f) {
+            System.out.println();
+        }
+    }
+
+    private static String format(double value) {
+        return String.valueOf(Math.round(value * 10) / 10.0);
+    }
+}
@@ -0,0 +1,54 @@
+package com.airhockey.tools;
+
+import java.util.Locale;
+
+import com.airhockey.android.objects.Chair;
+import com.airhockey.android.objects.Desk;
+import com.airhockey.android.objects.Mallet;
+import com.airhockey.android.objects.MeshOptimizer;
+import com.airhockey.android.objects.NoteBook_Keyboard;
+import com.airhockey.android.objects.NoteBook_Upper;
+import com.airhockey.android.objects.Puck;
+import com.airhockey.android.objects.Stand;
+import com.airhockey.android.render.GL;
+import com.airhockey.android.render.GLState;
+import com.airhockey.android.render.HeadlessBackend;
+import com.airhockey.android.simulation.AirHockeySimulation;
+
+/**
+ * Builds the meshes of the scene, at the sizes SceneRenderer uses, on the
+ * headless GL backend, and prints what MeshOptimizer did to each: vertices
+ * before and after welding, and for the finest level of detail the
+ * triangles, draw calls, and the average cache miss ratio drawn as arrays,
+ * indexed, and at best, with every vertex transformed once.
+ *
+ * Usage: MeshOptimizerReport
+ */
+public class MeshOptimizerReport {
+    public static void main(String[] args) {
+        GL.setBackend(new HeadlessBackend());
+        GLState.assumeDefaults();
+
+        final AirHockeySimulation.Rules rules = new AirHockeySimulation.Rules();
+        System.out.println("object,vertices_before,vertices_after,triangles,"
+            + "draw_calls_before,draw_calls_after,acmr_arrays,acmr_indexed,"
+            + "acmr_lower_bound");
+        print("desk", new Desk(1.0f, 1.0f, 1.0f).meshStats);
+        print("chair", new Chair(1.0f, 1.0f, 1.0f).meshStats);
+        print("stand", new Stand(1.0f, 1.0f, 32).meshStats);
+        print("notebook_keyboard",
+            new NoteBook_Keyboard(0.4f, 0.01f, 0.3f).meshStats);
+        print("notebook_upper", new NoteBook_Upper(0.4f, 0.3f, 0.01f).meshStats);
+        print("puck",
+            new Puck(rules.puckRadius, rules.puckHeight, 64).meshStats);
+        print("mallet",
+            new Mallet(rules.malletRadius, rules.malletHeight, 64).meshStats);
+    }
+
+    private static void print(String name, MeshOptimizer.Stats stats) {
+        System.out.println(String.format(Locale.US, "%s,%d,%d,%d,%d,%d,%.3f,%.3f,%.3f",
+            name, stats.verticesBefore, stats.verticesAfter, stats.triangles,
+            stats.drawCallsBefore, stats.drawCallsAfter,
+            stats.acmrBefore, stats.acmrAfter, stats.acmrLowerBound));
+    }
+}
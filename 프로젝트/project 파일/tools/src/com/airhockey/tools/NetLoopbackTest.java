@@ -0,0 +1,151 @@
+package com.airhockey.tools;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import com.airhockey.android.net.DatagramTransport;
+import com.airhockey.android.net.NetSession;
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.AirHockeySimulation.State;
+
+/**
+ * Plays a network game between two scripted players over UDP on the loopback
+ * interface, with simulated latency, jitter and packet loss, and prints the
+ * bandwidth and rollback statistics of both sides. Exits with status 1 if the
+ * two simulations don't agree at the end.
+ *
+ * Usage: NetLoopbackTest [--ticks n] [--latency-ms n] [--jitter-ms n]
+ *        [--loss f] [--input-delay n] [--seed n]
+ */
+public class NetLoopbackTest {
+    private static final int STEPS_PER_SECOND = 60;
+    // IPv4 and UDP headers, which the sessions don't count.
+    private static final int HEADER_BYTES = 28;
+
+    public static void main(String[] args) throws IOException {
+        int ticks = 60 * 60;
+        int latencyMillis = 80;
+        int jitterMillis = 20;
+        float loss = 0.05f;
+        int inputDelay = 2;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String value = args[i + 1];
+            if (args[i].equals("--ticks")) {
+                ticks = Integer.parseInt(value);
+            } else if (args[i].equals("--latency-ms")) {
+                latencyMillis = Integer.parseInt(value);
+            } else if (args[i].equals("--jitter-ms")) {
+                jitterMillis = Integer.parseInt(value);
+            } else if (args[i].equals("--loss")) {
+                loss = Float.parseFloat(value);
+            } else if (args[i].equals("--input-delay")) {
+                inputDelay = Integer.parseInt(value);
+            } else if (args[i].equals("--seed")) {
+                seed = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        final int latencyTicks = latencyMillis * STEPS_PER_SECOND / 1000;
+        final int jitterTicks = jitterMillis * STEPS_PER_SECOND / 1000;
+
+        final InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        final DatagramTransport hostSocket = DatagramTransport.open(
+            new InetSocketAddress(loopback, 0), new InetSocketAddress(loopback, 1));
+        final DatagramTransport clientSocket = DatagramTransport.open(
+            new InetSocketAddress(loopback, 0), 
+            hostSocket.getChannel().socket().getLocalSocketAddress());
+        hostSocket.getChannel().disconnect();
+        hostSocket.getChannel().connect(
+            clientSocket.getChannel().socket().getLocalSocketAddress());
+
+        final ImpairedTransport hostLink = new ImpairedTransport(
+            hostSocket, latencyTicks, jitterTicks, loss, seed);
+        final ImpairedTransport clientLink = new ImpairedTransport(
+            clientSocket, latencyTicks, jitterTicks, loss, ~seed);
+
+        final AirHockeySimulation.Rules rules = new AirHockeySimulation.Rules();
+        final AirHockeySimulation hostSimulation = new AirHockeySimulation(rules);
+        final AirHockeySimulation clientSimulation = new AirHockeySimulation(rules);
+        final NetSession host = 
+            new NetSession(hostSimulation, hostLink, true, inputDelay);
+        final NetSession client = 
+            new NetSession(clientSimulation, clientLink, false, inputDelay);
+        final ScriptedPlayer bluePlayer = new ScriptedPlayer(true, seed);
+        final ScriptedPlayer redPlayer = new ScriptedPlayer(false, ~seed);
+
+        final long start = System.nanoTime();
+        for (long now = 0; now < ticks; now++) {
+            hostLink.setTime(now);
+            clientLink.setTime(now);
+            bluePlayer.update(hostSimulation, host);
+            redPlayer.update(clientSimulation, client);
+            host.tick();
+            client.tick();
+        }
+        final long nanos = System.nanoTime() - start;
+
+        System.out.println("ticks: " + ticks + " (" + ticks / STEPS_PER_SECOND 
+            + " s of play, run in " + nanos / 1000000 + " ms)");
+        System.out.println("latency: " + latencyTicks + " ticks + up to " 
+            + jitterTicks + " ticks jitter, loss: " + loss 
+            + ", input delay: " + inputDelay + " ticks");
+        printSession("host", host, hostLink, ticks);
+        printSession("client", client, clientLink, ticks);
+
+        // Compare the last tick both sides know all the inputs for.
+        final long finalTick = Math.min(
+            Math.min(host.getLastRemoteInputTick(), client.getLastRemoteInputTick()) + 1,
+            Math.min(host.getTick(), client.getTick()) - 1);
+        final State hostState = new State();
+        final State clientState = new State();
+        final boolean inSync = host.copyState(finalTick, hostState)
+            && client.copyState(finalTick, clientState)
+            && sameState(hostState, clientState);
+        System.out.println("in sync at tick " + finalTick + ": " + inSync);
+
+        hostSocket.close();
+        clientSocket.close();
+        if (!inSync) {
+            System.exit(1);
+        }
+    }
+
+    private static void printSession(String name, NetSession session,
+        ImpairedTransport link, int ticks) {
+        final float seconds = (float) ticks / STEPS_PER_SECOND;
+        final int rollbacks = session.getRollbackCount();
+        System.out.println(name + ": sent " + session.getPacketsSent() 
+            + " packets (" + link.getDropped() + " dropped), " 
+            + String.format("%.0f", session.getBytesSent() / seconds) + " B/s, "
+            + String.format("%.0f", (session.getBytesSent() 
+                + (long) session.getPacketsSent() * HEADER_BYTES) / seconds) 
+            + " B/s with headers");
+        System.out.println(name + ": " + rollbacks + " rollbacks, " 
+            + session.getResimulatedTicks() + " ticks resimulated, average depth " 
+            + String.format("%.1f", rollbacks > 0 
+                ? (float) session.getResimulatedTicks() / rollbacks : 0f)
+            + ", max depth " + session.getMaxRollbackDepth() 
+            + ", " + session.getCorrectionCount() + " snapshot corrections, " 
+            + session.getStalledTicks() + " stalled ticks");
+
+        final int[] depths = session.getRollbackDepthCounts();
+        final StringBuilder histogram = new StringBuilder(name + ": depth histogram");
+        for (int depth = 0; depth < depths.length; depth++) {
+            if (depths[depth] > 0) {
+                histogram.append(' ').append(depth).append(':').append(depths[depth]);
+            }
+        }
+        System.out.println(histogram);
+    }
+
+    private static boolean sameState(State a, State b) {
+        return a.tick == b.tick
+            && a.puckX == b.puckX && a.puckZ == b.puckZ
+            && a.puckVectorX == b.puckVectorX && a.puckVectorZ == b.puckVectorZ
+            && a.blueMalletX == b.blueMalletX && a.blueMalletZ == b.blueMalletZ
+            && a.redMalletX == b.redMalletX && a.redMalletZ == b.redMalletZ;
+    }
+}
@@ -0,0 +1,78 @@
+package com.airhockey.tools;
+
+import java.util.Random;
+
+import com.airhockey.android.physics.PhysicsWorld;
+
+/**
+ * Crowds the table with as many bodies as party mode, kicks them around,
+ * and sweeps a kinematic mallet through them and into every wall, then
+ * checks after every step that no body has left the table: pushing two
+ * bodies apart must not push one of them through a wall. Prints the
+ * furthest any body got past a wall, and fails if one did.
+ *
+ * Usage: PhysicsCheck [bodies] [steps]
+ */
+public class PhysicsCheck {
+    private static final float LEFT = -0.5f;
+    private static final float RIGHT = 0.5f;
+    private static final float FAR = -0.8f;
+    private static final float NEAR = 0.8f;
+    private static final int KICK_INTERVAL = 50;
+
+    public static void main(String[] args) {
+        final int bodies = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int steps = args.length > 1 ? Integer.parseInt(args[1]) : 6000;
+
+        final Random random = new Random(bodies);
+        final PhysicsWorld world = new PhysicsWorld(bodies + 1, LEFT, RIGHT, FAR, NEAR);
+        final float radius = Math.min(0.06f,
+            (float) Math.sqrt(0.33f * 1.6f / bodies) / 2.05f);
+        for (int i = 0; i < bodies; i++) {
+            world.addBody(
+                LEFT + radius + random.nextFloat() * (RIGHT - LEFT - 2f * radius),
+                FAR + radius + random.nextFloat() * (NEAR - FAR - 2f * radius),
+                radius, 1f);
+        }
+        final float malletRadius = 0.08f;
+        final int mallet = world.addBody(0f, 0f, malletRadius, 0f);
+
+        float worst = 0f;
+        int worstStep = -1;
+        for (int step = 0; step < steps; step++) {
+            if (step % KICK_INTERVAL == 0) {
+                for (int body = 0; body < bodies; body++) {
+                    world.setVelocity(body,
+                        (random.nextFloat() - 0.5f) * 0.04f,
+                        (random.nextFloat() - 0.5f) * 0.04f);
+                }
+            }
+            // Round and round, a little past the walls, so that it pins the
+            // bodies it pushes against them.
+            final double angle = step * 0.02;
+            world.setKinematicTarget(mallet,
+                (float) Math.cos(angle) * (RIGHT + 0.1f),
+                (float) Math.sin(angle * 0.7) * (NEAR + 0.1f));
+            world.step();
+
+            for (int body = 0; body < bodies; body++) {
+                final float r = world.getRadius(body);
+                final float outside = Math.max(
+                    Math.max(LEFT + r - world.getX(body), world.getX(body) - (RIGHT - r)),
+                    Math.max(FAR + r - world.getZ(body), world.getZ(body) - (NEAR - r)));
+                if (outside > worst) {
+                    worst = outside;
+                    worstStep = step;
+                }
+            }
+        }
+
+        final boolean ok = worst <= 0f;
+        System.out.println("bodies,steps,furthest_outside,at_step,result");
+        System.out.println(bodies + "," + steps + "," + worst + "," + worstStep
+            + (ok ? ",ok" : ",FAIL"));
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+}
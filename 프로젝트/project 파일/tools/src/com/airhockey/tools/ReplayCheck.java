@@ -0,0 +1,163 @@
+package com.airhockey.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import com.airhockey.android.replay.InputLogWriter;
+import com.airhockey.android.replay.InputReplayer;
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.ComputerPlayer;
+import com.airhockey.android.simulation.InputController;
+import com.airhockey.android.simulation.MalletTargets;
+import com.airhockey.android.util.Camera;
+import com.airhockey.android.util.MatrixHelper;
+
+/**
+ * Records matches against the computer player the way AirHockeyRenderer
+ * does, with a scripted player's moves turned into touches on the blue
+ * mallet, replays each log with InputReplayer and fails if the replay ends
+ * anywhere else than the recorded match. The computer plans within its
+ * usual time budget, so it plans differently on every run, and the replay
+ * can only match if its moves were recorded.
+ *
+ * Usage: ReplayCheck [matches] [ticks per match]
+ */
+public class ReplayCheck {
+    private static final int STEPS_PER_SECOND = 60;
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    public static void main(String[] args) throws IOException {
+        final int matches = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 3600;
+        final AirHockeySimulation.Rules rules = new AirHockeySimulation.Rules();
+
+        boolean failed = false;
+        System.out.println("match,ticks,log_bytes,puck_x,puck_z,replayed_puck_x,"
+            + "replayed_puck_z,result");
+        for (int match = 0; match < matches; match++) {
+            final AirHockeySimulation simulation = new AirHockeySimulation(rules);
+            final ByteArrayOutputStream log = new ByteArrayOutputStream();
+            record(simulation, match, ticks, log);
+
+            final InputReplayer replayer =
+                new InputReplayer(new AirHockeySimulation(rules));
+            final long replayedTicks = replayer.replay(Channels.newChannel(
+                new ByteArrayInputStream(log.toByteArray())));
+
+            final AirHockeySimulation.State recorded = new AirHockeySimulation.State();
+            final AirHockeySimulation.State replayed = new AirHockeySimulation.State();
+            simulation.saveState(recorded);
+            replayer.getSimulation().saveState(replayed);
+            final boolean ok = replayedTicks == ticks && same(recorded, replayed);
+            failed |= !ok;
+            System.out.println(match + "," + ticks + "," + log.size() + ","
+                + recorded.puckX + "," + recorded.puckZ + ","
+                + replayed.puckX + "," + replayed.puckZ + (ok ? ",ok" : ",FAIL"));
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Plays a match against the computer and writes its input log. Like the
+     * renderer, it logs every event at the tick it happens and before that
+     * tick's step.
+     */
+    private static void record(AirHockeySimulation simulation, long seed,
+        int ticks, ByteArrayOutputStream log) throws IOException {
+        final Camera camera = new Camera();
+        camera.setViewport(WIDTH, HEIGHT);
+        camera.setZoom(0f);
+        final InputController inputController =
+            new InputController(camera, simulation);
+        final ComputerPlayer computer =
+            new ComputerPlayer(0.03f, ComputerPlayer.DEFAULT_BUDGET_NANOS);
+        final ScriptedPlayer blue = new ScriptedPlayer(true, seed);
+        final InputLogWriter writer =
+            new InputLogWriter(Channels.newChannel(log), STEPS_PER_SECOND);
+        final Touches touches = new Touches(camera, inputController, writer);
+
+        simulation.reset();
+        writer.writeSurface(0, WIDTH, HEIGHT);
+        writer.writeCamera(0, camera.getZoom());
+        touches.press(simulation.getBlueMalletPosition().x,
+            simulation.getBlueMalletPosition().y,
+            simulation.getBlueMalletPosition().z);
+
+        for (int tick = 0; tick < ticks; tick++) {
+            touches.tick = tick;
+            blue.update(simulation, touches);
+            computer.plan(simulation);
+            computer.move(simulation, simulation);
+            writer.writeRedTarget(tick, simulation.getRedMalletTarget().x,
+                simulation.getRedMalletTarget().z);
+            simulation.step();
+        }
+        writer.close(ticks);
+    }
+
+    private static boolean same(AirHockeySimulation.State a,
+        AirHockeySimulation.State b) {
+        return a.tick == b.tick
+            && a.puckX == b.puckX && a.puckZ == b.puckZ
+            && a.puckVectorX == b.puckVectorX && a.puckVectorZ == b.puckVectorZ
+            && a.blueMalletX == b.blueMalletX && a.blueMalletZ == b.blueMalletZ
+            && a.redMalletX == b.redMalletX && a.redMalletZ == b.redMalletZ;
+    }
+
+    /**
+     * Turns the blue mallet targets into touches at the point of the screen
+     * they are seen at, logs them, and hands them to the input controller.
+     */
+    private static class Touches implements MalletTargets {
+        private final Camera camera;
+        private final InputController inputController;
+        private final InputLogWriter writer;
+        private final float[] world = new float[4];
+        private final float[] clip = new float[4];
+        long tick;
+
+        Touches(Camera camera, InputController inputController,
+            InputLogWriter writer) {
+            this.camera = camera;
+            this.inputController = inputController;
+            this.writer = writer;
+        }
+
+        void press(float x, float y, float z) throws IOException {
+            project(x, y, z);
+            writer.writePress(tick, clip[0], clip[1]);
+            inputController.handleTouchPress(clip[0], clip[1]);
+        }
+
+        @Override
+        public void setBlueMalletTarget(float x, float z) {
+            project(x, 0f, z);
+            try {
+                writer.writeDrag(tick, clip[0], clip[1]);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            inputController.handleTouchDrag(clip[0], clip[1]);
+        }
+
+        @Override
+        public void setRedMalletTarget(float x, float z) {
+        }
+
+        private void project(float x, float y, float z) {
+            world[0] = x;
+            world[1] = y;
+            world[2] = z;
+            world[3] = 1f;
+            MatrixHelper.multiplyMV(clip, 0, camera.getViewProjectionMatrix(), 0,
+                world, 0);
+            clip[0] /= clip[3];
+            clip[1] /= clip[3];
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.airhockey.tools;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import com.airhockey.android.replay.InputReplayer;
+import com.airhockey.android.simulation.AirHockeySimulation;
+
+/**
+ * Replays an input log recorded on the device a number of times, as fast as
+ * possible, and prints how long each run took. Attach a profiler to this to
+ * look at the simulation cost of a reported session.
+ *
+ * Usage: ReplayProfiler <log file> [repeat count]
+ */
+public class ReplayProfiler {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayProfiler <log file> [repeat count]");
+            System.exit(1);
+        }
+        final String file = args[0];
+        final int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        final InputReplayer replayer = 
+            new InputReplayer(new AirHockeySimulation(new AirHockeySimulation.Rules()));
+
+        System.out.println("run,ticks,ms,ticks_per_second,times_real_time");
+        for (int run = 0; run < repeat; run++) {
+            final FileInputStream stream = new FileInputStream(file);
+            final long start = System.nanoTime();
+            final long ticks;
+            try {
+                ticks = replayer.replay(stream.getChannel());
+            } finally {
+                stream.close();
+            }
+            final long nanos = System.nanoTime() - start;
+
+            final double seconds = nanos / 1e9;
+            final double ticksPerSecond = ticks / seconds;
+            System.out.println(run + "," + ticks + "," 
+                + String.format("%.3f", nanos / 1e6) + "," 
+                + String.format("%.0f", ticksPerSecond) + ","
+                + String.format("%.1f", ticksPerSecond / 60.0));
+        }
+
+        final AirHockeySimulation simulation = replayer.getSimulation();
+        System.out.println("final puck position: " 
+            + simulation.getPuckPosition().x + ", " 
+            + simulation.getPuckPosition().z);
+    }
+}
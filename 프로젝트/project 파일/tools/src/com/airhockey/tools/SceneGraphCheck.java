@@ -0,0 +1,85 @@
+package com.airhockey.tools;
+
+import com.airhockey.android.scene.Bounds;
+import com.airhockey.android.scene.SceneNode;
+import com.airhockey.android.util.MatrixHelper;
+
+/**
+ * Moves nodes around a small scene graph and checks the world space
+ * spheres update() keeps around each subtree: a parent's must shrink when a
+ * child is removed, grow when one is added, and follow a child that moves.
+ * A removed child must be placed as a root. Prints each step and fails if
+ * a sphere is wrong.
+ *
+ * Usage: SceneGraphCheck
+ */
+public class SceneGraphCheck {
+    private static final float TOLERANCE = 1e-5f;
+
+    private static final float[] viewProjectionMatrix = new float[16];
+    private static final float[] sphere = new float[4];
+    private static int version = 0;
+    private static boolean failed = false;
+
+    public static void main(String[] args) {
+        MatrixHelper.setIdentityM(viewProjectionMatrix, 0);
+        // A unit sphere around the origin.
+        final Bounds unit = Bounds.fromVertices(new float[] {
+            -1f, 0f, 0f,  1f, 0f, 0f,  0f, -1f, 0f,
+             0f, 1f, 0f,  0f, 0f, -1f, 0f, 0f, 1f}, 6, 3, 3);
+
+        final SceneNode root = new SceneNode();
+        final SceneNode parent = new SceneNode();
+        final SceneNode near = new SceneNode();
+        final SceneNode far = new SceneNode();
+        near.setBounds(unit);
+        far.setBounds(unit);
+        far.setTranslation(10f, 0f, 0f);
+        root.addChild(parent);
+        parent.addChild(near);
+        parent.addChild(far);
+
+        System.out.println("step,node,x,y,z,radius,result");
+        update(root);
+        check("both children", "parent", parent, 0f, 0f, 0f, 11f);
+
+        parent.removeChild(far);
+        update(root);
+        check("far removed", "parent", parent, 0f, 0f, 0f, 1f);
+        check("far removed", "root", root, 0f, 0f, 0f, 1f);
+        update(far);
+        check("far removed", "far", far, 10f, 0f, 0f, 1f);
+
+        parent.setTranslation(0f, 5f, 0f);
+        parent.addChild(far);
+        update(root);
+        check("far added back", "parent", parent, 0f, 5f, 0f, 11f);
+        check("far added back", "far", far, 10f, 5f, 0f, 1f);
+
+        near.setTranslation(0f, 0f, -3f);
+        parent.removeChild(far);
+        update(root);
+        check("near moved and far removed", "parent", parent, 0f, 5f, -3f, 1f);
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static void update(SceneNode root) {
+        root.update(viewProjectionMatrix, ++version);
+    }
+
+    private static void check(String step, String name, SceneNode node,
+        float x, float y, float z, float radius) {
+        final boolean hasBounds = node.getSubtreeSphere(sphere);
+        final boolean ok = hasBounds
+            && Math.abs(sphere[0] - x) <= TOLERANCE
+            && Math.abs(sphere[1] - y) <= TOLERANCE
+            && Math.abs(sphere[2] - z) <= TOLERANCE
+            && Math.abs(sphere[3] - radius) <= TOLERANCE;
+        failed |= !ok;
+        System.out.println(step + "," + name + "," + sphere[0] + "," + sphere[1]
+            + "," + sphere[2] + "," + sphere[3] + (ok ? ",ok" : ",FAIL"));
+    }
+}
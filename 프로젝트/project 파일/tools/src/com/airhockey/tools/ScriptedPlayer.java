@@ -0,0 +1,72 @@
+package com.airhockey.tools;
+
+import java.util.Random;
+
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.simulation.MalletTargets;
+import com.airhockey.android.util.Geometry.MutableVector;
+
+/**
+ * A simple deterministic stand-in for a human player: it chases the puck
+ * while it is in its own half and drifts back to its end of the table
+ * otherwise. The mallet speed and aim are jittered from the seed, so every
+ * match plays out differently but can be reproduced exactly.
+ */
+class ScriptedPlayer {
+    private final boolean blue;
+    private final Random random;
+    private final float maxSpeed;
+    private float aimOffset;
+
+    ScriptedPlayer(boolean blue, long seed) {
+        this.blue = blue;
+        this.random = new Random(seed);
+        this.maxSpeed = 0.01f + random.nextFloat() * 0.04f;
+        this.aimOffset = 0f;
+    }
+
+    void update(AirHockeySimulation simulation) {
+        update(simulation, simulation);
+    }
+
+    /**
+     * Looks at the simulation, and moves the mallet through the given
+     * targets, e.g. a network session.
+     */
+    void update(AirHockeySimulation simulation, MalletTargets targets) {
+        final MutableVector puck = simulation.getPuckPosition();
+        final MutableVector mallet = blue
+            ? simulation.getBlueMalletPosition()
+            : simulation.getRedMalletPosition();
+        final float homeZ = blue ? 0.6f : -0.6f;
+        final boolean puckInOwnHalf = blue ? puck.z >= 0f : puck.z <= 0f;
+
+        float goalX;
+        float goalZ;
+        if (puckInOwnHalf) {
+            // Strike through the puck, slightly off centre so shots vary.
+            if (random.nextInt(30) == 0) {
+                aimOffset = (random.nextFloat() - 0.5f) * 0.06f;
+            }
+            goalX = puck.x + aimOffset;
+            goalZ = puck.z + (blue ? -0.05f : 0.05f);
+        } else {
+            goalX = puck.x * 0.5f;
+            goalZ = homeZ;
+        }
+
+        float dx = goalX - mallet.x;
+        float dz = goalZ - mallet.z;
+        final float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        if (distance > maxSpeed) {
+            dx *= maxSpeed / distance;
+            dz *= maxSpeed / distance;
+        }
+
+        if (blue) {
+            targets.setBlueMalletTarget(mallet.x + dx, mallet.z + dz);
+        } else {
+            targets.setRedMalletTarget(mallet.x + dx, mallet.z + dz);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.airhockey.tools;
+
+import com.airhockey.android.simulation.AirHockeySimulation;
+import com.airhockey.android.util.Geometry.MutableVector;
+
+/**
+ * Checks that the mallets can't pass through the puck. First a mallet
+ * pushes a puck at rest into the left side for two seconds: the puck must
+ * stay on the table, the mallet must not get closer than the contact
+ * distance, and the puck must not speed up. Then scripted matches are
+ * played: every step must end with the puck outside both mallets, and
+ * hardly any may run into the simulation's limit of impacts per step, which
+ * a puck caught bouncing between a mallet and a side would. Fails if a
+ * check doesn't hold.
+ *
+ * Usage: SimulationCheck [matches] [ticks per match]
+ */
+public class SimulationCheck {
+    // Rounding allowed on the contact distance.
+    private static final float TOLERANCE = 1e-4f;
+    // The share of steps that may use up all their impacts, in corners.
+    private static final double MAX_IMPACT_LIMITED = 0.01;
+
+    public static void main(String[] args) {
+        final int matches = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 3600;
+        final AirHockeySimulation.Rules rules = new AirHockeySimulation.Rules();
+        final boolean pinnedOk = checkPinnedPuck(rules);
+        final boolean matchesOk = checkMatches(rules, matches, ticks);
+        if (!pinnedOk || !matchesOk) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkPinnedPuck(AirHockeySimulation.Rules rules) {
+        final AirHockeySimulation simulation = new AirHockeySimulation(rules);
+        final float contact = rules.puckRadius + rules.malletRadius;
+        final float z = 0.3f;
+        final float puckX = simulation.leftBound + rules.puckRadius;
+        final AirHockeySimulation.State state = new AirHockeySimulation.State();
+        simulation.saveState(state);
+        state.puckX = puckX;
+        state.puckZ = z;
+        state.blueMalletX = puckX + contact + 0.05f;
+        state.blueMalletZ = z;
+        state.blueMalletTargetX = state.blueMalletX;
+        state.blueMalletTargetZ = z;
+        simulation.restoreState(state);
+
+        float closest = Float.MAX_VALUE;
+        float fastest = 0f;
+        boolean onTable = true;
+        for (int tick = 0; tick < 120; tick++) {
+            // Further into the side than the mallet can go.
+            simulation.setBlueMalletTarget(simulation.leftBound - 1f, z);
+            simulation.step();
+
+            final MutableVector puck = simulation.getPuckPosition();
+            final MutableVector mallet = simulation.getBlueMalletPosition();
+            final float dx = puck.x - mallet.x;
+            final float dz = puck.z - mallet.z;
+            closest = Math.min(closest, (float) Math.sqrt(dx * dx + dz * dz));
+            fastest = Math.max(fastest, simulation.getPuckVector().length());
+            onTable &= puck.x >= simulation.leftBound + rules.puckRadius - TOLERANCE;
+        }
+
+        // Pinned, the puck can only slide along the side, with nothing
+        // pushing it that way.
+        final boolean ok = onTable && closest >= contact - TOLERANCE
+            && fastest <= TOLERANCE;
+        System.out.println("pinned_puck,closest=" + closest + ",contact=" + contact
+            + ",fastest=" + fastest + ",on_table=" + onTable
+            + (ok ? ",ok" : ",FAIL"));
+        return ok;
+    }
+
+    private static boolean checkMatches(AirHockeySimulation.Rules rules,
+        int matches, int ticks) {
+        final float contact = rules.puckRadius + rules.malletRadius;
+        final ImpactCounter impacts = new ImpactCounter();
+        long steps = 0;
+        long overlapping = 0;
+        long impactLimited = 0;
+        for (int match = 0; match < matches; match++) {
+            final AirHockeySimulation simulation = new AirHockeySimulation(rules);
+            simulation.setListener(impacts);
+            final ScriptedPlayer blue = new ScriptedPlayer(true, match);
+            final ScriptedPlayer red = new ScriptedPlayer(false, ~match);
+            for (int tick = 0; tick < ticks; tick++) {
+                blue.update(simulation);
+                red.update(simulation);
+                impacts.count = 0;
+                simulation.step();
+                steps++;
+                if (impacts.count >= 4) {
+                    impactLimited++;
+                }
+                final MutableVector puck = simulation.getPuckPosition();
+                if (inside(puck, simulation.getBlueMalletPosition(), contact)
+                    || inside(puck, simulation.getRedMalletPosition(), contact)) {
+                    overlapping++;
+                }
+            }
+        }
+
+        final boolean ok = overlapping == 0
+            && impactLimited <= steps * MAX_IMPACT_LIMITED;
+        System.out.println("matches,steps=" + steps + ",overlapping=" + overlapping
+            + ",impact_limited=" + impactLimited + (ok ? ",ok" : ",FAIL"));
+        return ok;
+    }
+
+    private static boolean inside(MutableVector puck, MutableVector mallet,
+        float contact) {
+        final float dx = puck.x - mallet.x;
+        final float dz = puck.z - mallet.z;
+        return dx * dx + dz * dz < (contact - TOLERANCE) * (contact - TOLERANCE);
+    }
+
+    private static class ImpactCounter implements AirHockeySimulation.Listener {
+        int count;
+
+        @Override
+        public void onWallHit(long tick) {
+            count++;
+        }
+
+        @Override
+        public void onMalletHit(long tick, boolean blueMallet) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.airhockey.tools;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Packs textures into one power of two atlas image with the MaxRects
+ * algorithm (best short side fit), and writes the table of regions that
+ * TextureAtlas reads, so meshes can remap their texture coordinates into it.
+ *
+ * Mipmapping averages 2^n x 2^n blocks of texels into one at level n, and
+ * filtering reads one texel beyond the edge of a region at any level. To
+ * keep the levels up to --mip-levels free of bleeding from the neighbours,
+ * every texture is placed at a multiple of 2^mip-levels texels, inside a
+ * gutter of padding * 2^mip-levels texels that repeats its edge texels.
+ * Levels beyond that may still mix neighbouring textures at the edges.
+ *
+ * Textures larger than --max-image-size on their longest side are scaled
+ * down first; the furniture is never large on screen.
+ *
+ * Usage: TextureAtlasPacker [--padding n] [--mip-levels n] [--max-size n]
+ *        [--max-image-size n] [--out atlas.png] [--table atlas_regions.txt]
+ *        image...
+ */
+public class TextureAtlasPacker {
+    private static class Entry {
+        final String name;
+        final BufferedImage image;
+        // Where the gutter around the image starts, and its size.
+        int x, y;
+        int width, height;
+
+        Entry(String name, BufferedImage image) {
+            this.name = name;
+            this.image = image;
+        }
+    }
+
+    private static class Rect {
+        final int x, y, width, height;
+
+        Rect(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        boolean contains(Rect other) {
+            return other.x >= x && other.y >= y
+                && other.x + other.width <= x + width
+                && other.y + other.height <= y + height;
+        }
+
+        boolean intersects(Rect other) {
+            return other.x < x + width && other.x + other.width > x
+                && other.y < y + height && other.y + other.height > y;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int padding = 1;
+        int mipLevels = 4;
+        int maxSize = 2048;
+        int maxImageSize = 1024;
+        String outFile = "atlas.png";
+        String tableFile = "atlas_regions.txt";
+        final List<String> inputs = new ArrayList<String>();
+
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (!arg.startsWith("--")) {
+                inputs.add(arg);
+                continue;
+            }
+            final String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                usage("Missing value for " + arg);
+            }
+            i++;
+
+            if (arg.equals("--padding")) {
+                padding = Integer.parseInt(value);
+            } else if (arg.equals("--mip-levels")) {
+                mipLevels = Integer.parseInt(value);
+            } else if (arg.equals("--max-size")) {
+                maxSize = Integer.parseInt(value);
+            } else if (arg.equals("--max-image-size")) {
+                maxImageSize = Integer.parseInt(value);
+            } else if (arg.equals("--out")) {
+                outFile = value;
+            } else if (arg.equals("--table")) {
+                tableFile = value;
+            } else {
+                usage("Unknown option " + arg);
+            }
+        }
+        if (inputs.isEmpty()) {
+            usage("No images given");
+        }
+
+        final int alignment = 1 << mipLevels;
+        final int gutter = padding * alignment;
+        final List<Entry> entries = new ArrayList<Entry>();
+        long area = 0;
+        for (String input : inputs) {
+            final File file = new File(input);
+            final BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                usage("Can't read " + input);
+            }
+            final Entry entry = new Entry(resourceName(file),
+                scaleDown(image, maxImageSize));
+            entry.width = alignUp(entry.image.getWidth() + 2 * gutter, alignment);
+            entry.height = alignUp(entry.image.getHeight() + 2 * gutter, alignment);
+            area += (long) entry.width * entry.height;
+            entries.add(entry);
+        }
+
+        // Largest first: the small ones fill the gaps.
+        final Entry[] sorted = entries.toArray(new Entry[entries.size()]);
+        Arrays.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Math.max(b.width, b.height) - Math.max(a.width, a.height);
+            }
+        });
+
+        // Try the power of two sizes in order of area, wide before tall.
+        int atlasWidth = 0;
+        int atlasHeight = 0;
+        search:
+        for (int size = 1; size <= maxSize * maxSize; size *= 2) {
+            for (int height = 1; height <= size; height *= 2) {
+                final int width = size / height;
+                if (width < height || width > maxSize || height > maxSize
+                    || (long) width * height < area) {
+                    continue;
+                }
+                if (pack(sorted, width, height)) {
+                    atlasWidth = width;
+                    atlasHeight = height;
+                    break search;
+                }
+            }
+        }
+        if (atlasWidth == 0) {
+            System.err.println("The images don't fit in " + maxSize + "x"
+                + maxSize + ": lower --max-image-size or --padding.");
+            System.exit(1);
+        }
+
+        final BufferedImage atlas =
+            new BufferedImage(atlasWidth, atlasHeight, BufferedImage.TYPE_INT_ARGB);
+        for (Entry entry : entries) {
+            draw(atlas, entry, gutter);
+        }
+        ImageIO.write(atlas, "png", new File(outFile));
+
+        final Writer table = new BufferedWriter(new FileWriter(tableFile));
+        try {
+            table.write("# " + atlasWidth + "x" + atlasHeight + " padding=" + padding
+                + " mip_levels=" + mipLevels + "\n");
+            for (Entry entry : entries) {
+                final int left = entry.x + gutter;
+                final int top = entry.y + gutter;
+                table.write(String.format(Locale.US, "%s %.6f %.6f %.6f %.6f\n",
+                    entry.name,
+                    (float) left / atlasWidth, (float) top / atlasHeight,
+                    (float) (left + entry.image.getWidth()) / atlasWidth,
+                    (float) (top + entry.image.getHeight()) / atlasHeight));
+            }
+        } finally {
+            table.close();
+        }
+
+        long used = 0;
+        for (Entry entry : entries) {
+            used += (long) entry.image.getWidth() * entry.image.getHeight();
+        }
+        System.out.println(entries.size() + " images in " + atlasWidth + "x"
+            + atlasHeight + ", " + (100 * used / ((long) atlasWidth * atlasHeight))
+            + "% of it texels of images, gutter " + gutter + " texels");
+    }
+
+    /**
+     * Places every entry, or returns false if they don't all fit.
+     */
+    private static boolean pack(Entry[] entries, int width, int height) {
+        final List<Rect> free = new ArrayList<Rect>();
+        free.add(new Rect(0, 0, width, height));
+        for (Entry entry : entries) {
+            Rect best = null;
+            int bestShortSide = Integer.MAX_VALUE;
+            int bestLongSide = Integer.MAX_VALUE;
+            for (Rect rect : free) {
+                if (rect.width < entry.width || rect.height < entry.height) {
+                    continue;
+                }
+                final int leftoverX = rect.width - entry.width;
+                final int leftoverY = rect.height - entry.height;
+                final int shortSide = Math.min(leftoverX, leftoverY);
+                final int longSide = Math.max(leftoverX, leftoverY);
+                if (shortSide < bestShortSide
+                    || (shortSide == bestShortSide && longSide < bestLongSide)) {
+                    best = rect;
+                    bestShortSide = shortSide;
+                    bestLongSide = longSide;
+                }
+            }
+            if (best == null) {
+                return false;
+            }
+            entry.x = best.x;
+            entry.y = best.y;
+            splitFreeRects(free, new Rect(entry.x, entry.y, entry.width, entry.height));
+        }
+        return true;
+    }
+
+    /**
+     * Cuts the placed rectangle out of every free rectangle it overlaps,
+     * keeping the maximal free rectangles that are left.
+     */
+    private static void splitFreeRects(List<Rect> free, Rect used) {
+        final List<Rect> split = new ArrayList<Rect>();
+        for (Rect rect : free) {
+            if (!rect.intersects(used)) {
+                split.add(rect);
+                continue;
+            }
+            if (used.x > rect.x) {
+                split.add(new Rect(rect.x, rect.y, used.x - rect.x, rect.height));
+            }
+            if (used.x + used.width < rect.x + rect.width) {
+                split.add(new Rect(used.x + used.width, rect.y,
+                    rect.x + rect.width - used.x - used.width, rect.height));
+            }
+            if (used.y > rect.y) {
+                split.add(new Rect(rect.x, rect.y, rect.width, used.y - rect.y));
+            }
+            if (used.y + used.height < rect.y + rect.height) {
+                split.add(new Rect(rect.x, used.y + used.height, rect.width,
+                    rect.y + rect.height - used.y - used.height));
+            }
+        }
+
+        free.clear();
+        for (int i = 0; i < split.size(); i++) {
+            boolean contained = false;
+            for (int j = 0; j < split.size() && !contained; j++) {
+                // Of two equal rectangles, keep the first.
+                contained = i != j && split.get(j).contains(split.get(i))
+                    && (j < i || !split.get(i).contains(split.get(j)));
+            }
+            if (!contained) {
+                free.add(split.get(i));
+            }
+        }
+    }
+
+    /**
+     * Copies the image into its place, and fills the gutter around it with
+     * its nearest edge texels.
+     */
+    private static void draw(BufferedImage atlas, Entry entry, int gutter) {
+        final BufferedImage image = entry.image;
+        final int imageWidth = image.getWidth();
+        final int imageHeight = image.getHeight();
+        for (int y = 0; y < entry.height; y++) {
+            final int sourceY = clamp(y - gutter, imageHeight);
+            for (int x = 0; x < entry.width; x++) {
+                final int sourceX = clamp(x - gutter, imageWidth);
+                atlas.setRGB(entry.x + x, entry.y + y, image.getRGB(sourceX, sourceY));
+            }
+        }
+    }
+
+    private static BufferedImage scaleDown(BufferedImage image, int maxImageSize) {
+        final int longSide = Math.max(image.getWidth(), image.getHeight());
+        if (longSide <= maxImageSize) {
+            return image;
+        }
+        final int width = Math.max(1, image.getWidth() * maxImageSize / longSide);
+        final int height = Math.max(1, image.getHeight() * maxImageSize / longSide);
+        final BufferedImage scaled =
+            new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = scaled.createGraphics();
+        graphics.drawImage(
+            image.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING),
+            0, 0, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    /**
+     * The name Android gives the drawable: the file name, lower case,
+     * without its extension.
+     */
+    private static String resourceName(File file) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name).toLowerCase(Locale.US);
+    }
+
+    private static int alignUp(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: TextureAtlasPacker [--padding n] [--mip-levels n]"
+            + " [--max-size n] [--max-image-size n] [--out atlas.png]"
+            + " [--table atlas_regions.txt] image...");
+        System.exit(1);
+    }
+}